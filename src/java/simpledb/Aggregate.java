@@ -1,30 +1,40 @@
 package simpledb;
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
- * min). Note that we only support aggregates over a single column, grouped by a
- * single column.
+ * The Aggregation operator that computes aggregates (e.g., sum, avg, max,
+ * min) over one or more columns, grouped by zero or more columns, in one
+ * pass over its child. Groups are kept in a {@link HashAggregator}, which
+ * spills those that do not fit in memory to disk.
+ * <p>
+ * When the child is a {@link SeqScan} of a {@link HeapFile} and the
+ * aggregate is given more than one thread, the scan is done by worker
+ * threads instead: each repeatedly claims the next {@link #RANGE_PAGES}
+ * pages of the file and aggregates them into a partial aggregator of its
+ * own, with its share of the memory budget, and the partials are merged
+ * once the file is read.
  */
 public class Aggregate extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** The number of pages a worker claims at a time in a parallel scan. */
+    public static final int RANGE_PAGES = 16;
+
     private DbIterator child;
-    private int afield;
-    private int gfield;
-    private Aggregator.Op aop;
-    private Aggregator agg;
+    private int[] afields;
+    private int[] gfields;
+    private Aggregator.Op[] aops;
+    private HashAggregator agg;
     private DbIterator it;
-    private Type gFieldType;
+    private int threads = 1;
     /**
      * Constructor.
-     * 
-     * Implementation hint: depending on the type of afield, you will want to
-     * construct an {@link IntAggregator} or {@link StringAggregator} to help
-     * you with your implementation of readNext().
-     * 
-     * 
+     *
      * @param child
      *            The DbIterator that is feeding us tuples.
      * @param afield
@@ -36,68 +46,140 @@ public class Aggregate extends Operator {
      *            The aggregation operator to use
      */
     public Aggregate(DbIterator child, int afield, int gfield, Aggregator.Op aop) {
-	// some code goes here
+    	this(child, afield, gfield, aop, 0);
+    }
+
+    /**
+     * Constructor with a fixed memory budget.
+     *
+     * @param memoryGroups
+     *            The number of groups held in memory before new groups are
+     *            spilled to disk, or 0 to use half the buffer pool
+     */
+    public Aggregate(DbIterator child, int afield, int gfield, Aggregator.Op aop,
+            int memoryGroups) {
+    	this(child, new int[] { afield },
+    			gfield == Aggregator.NO_GROUPING ? new int[0] : new int[] { gfield },
+    			new Aggregator.Op[] { aop }, memoryGroups);
+    }
+
+    /**
+     * Constructor for several aggregates over composite groups.
+     *
+     * @param child
+     *            The DbIterator that is feeding us tuples.
+     * @param afields
+     *            The columns over which we are computing aggregates.
+     * @param gfields
+     *            The columns over which we are grouping the result, empty if
+     *            there is no grouping
+     * @param aops
+     *            The aggregation operator of each aggregate column
+     * @param memoryGroups
+     *            The number of groups held in memory before new groups are
+     *            spilled to disk, or 0 to use half the buffer pool
+     * @throws IllegalArgumentException
+     *             if there are no aggregates, or an operator other than
+     *             COUNT is over a string column
+     */
+    public Aggregate(DbIterator child, int[] afields, int[] gfields, Aggregator.Op[] aops,
+            int memoryGroups) {
     	this.child = child;
-    	this.afield = afield;
-    	this.gfield = gfield;
-    	this.aop = aop;
-    	if (gfield != Aggregator.NO_GROUPING) {
-    		TupleDesc childsTupD = this.child.getTupleDesc();
-    		this.gFieldType = childsTupD.getFieldType(gfield);
-    	}
-    	if(this.child.getTupleDesc().getFieldType(afield) == Type.STRING_TYPE) {
-    		this.agg = new StringAggregator(this.gfield, this.gFieldType, this.afield, this.aop);
-    	}
-    	else {
-    		this.agg = new IntegerAggregator(this.gfield, this.gFieldType, this.afield, this.aop);
-    	}
+    	this.afields = afields.clone();
+    	this.gfields = gfields.clone();
+    	this.aops = aops.clone();
+    	this.agg = new HashAggregator(gfields, afields, aops, child.getTupleDesc(),
+    			memoryGroups);
     }
 
     /**
-     * @return If this aggregate is accompanied by a groupby, return the groupby
-     *         field index in the <b>INPUT</b> tuples. If not, return
+     * @return If this aggregate is accompanied by a groupby, return the first
+     *         groupby field index in the <b>INPUT</b> tuples. If not, return
      *         {@link simpledb.Aggregator#NO_GROUPING}
      * */
     public int groupField() {
-    	if (this.gfield != Aggregator.NO_GROUPING) {
-    		return this.gfield;
+    	if (this.gfields.length > 0) {
+    		return this.gfields[0];
     	}
     	return Aggregator.NO_GROUPING;
     }
 
+    /** @return the number of groupby fields */
+    public int numGroupFields() {
+    	return this.gfields.length;
+    }
+
+    /** @return the i-th groupby field index in the <b>INPUT</b> tuples */
+    public int groupField(int i) {
+    	return this.gfields[i];
+    }
+
     /**
      * @return If this aggregate is accompanied by a group by, return the name
-     *         of the groupby field in the <b>OUTPUT</b> tuples If not, return
-     *         null;
+     *         of the first groupby field in the <b>OUTPUT</b> tuples If not,
+     *         return null;
      * */
     public String groupFieldName() {
-	// some code goes here
-    	return this.agg.getTupleDesc().getFieldName(gfield);
+    	if (this.gfields.length == 0) {
+    		return null;
+    	}
+    	return this.agg.getTupleDesc().getFieldName(0);
     }
 
     /**
-     * @return the aggregate field
+     * @return the first aggregate field
      * */
     public int aggregateField() {
-	// some code goes here
-    	return this.afield;
+    	return this.afields[0];
+    }
+
+    /** @return the number of aggregates */
+    public int numAggregates() {
+    	return this.afields.length;
+    }
+
+    /** @return the i-th aggregate field index in the <b>INPUT</b> tuples */
+    public int aggregateField(int i) {
+    	return this.afields[i];
     }
 
     /**
-     * @return return the name of the aggregate field in the <b>OUTPUT</b>
-     *         tuples
+     * @return return the name of the first aggregate field in the
+     *         <b>OUTPUT</b> tuples
      * */
     public String aggregateFieldName() {
-	// some code goes here
-    	return this.agg.getTupleDesc().getFieldName(afield);
+    	return this.agg.getTupleDesc().getFieldName(this.gfields.length);
     }
 
     /**
-     * @return return the aggregate operator
+     * @return return the first aggregate operator
      * */
     public Aggregator.Op aggregateOp() {
-	// some code goes here
-    	return this.aop;
+    	return this.aops[0];
+    }
+
+    /** @return the operator of the i-th aggregate */
+    public Aggregator.Op aggregateOp(int i) {
+    	return this.aops[i];
+    }
+
+    /**
+     * Sets the number of threads that scan the child, if it is a SeqScan
+     * of a HeapFile. Other children are always read by the caller's
+     * thread.
+     *
+     * @param threads
+     *            the number of worker threads, or 1 to aggregate serially
+     */
+    public void setParallelism(int threads) {
+    	if (threads < 1)
+    		throw new IllegalArgumentException("need at least one thread");
+    	this.threads = threads;
+    }
+
+    /** @return the number of threads that scan the child */
+    public int getParallelism() {
+    	return this.threads;
     }
 
     public static String nameOfAggregatorOp(Aggregator.Op aop) {
@@ -106,26 +188,87 @@ public class Aggregate extends Operator {
 
     public void open() throws NoSuchElementException, DbException,
 	    TransactionAbortedException {
-	// some code goes here
     	super.open();
-    	this.child.open();
-    	while(this.child.hasNext()) {
-    		this.agg.mergeTupleIntoGroup(this.child.next());
+    	this.agg.clear();
+    	if (this.threads > 1 && this.child instanceof SeqScan && Database.getCatalog()
+    			.getDbFile(((SeqScan) this.child).getTableId()) instanceof HeapFile) {
+    		mergeParallel((SeqScan) this.child);
+    	} else {
+    		this.child.open();
+    		while(this.child.hasNext()) {
+    			this.agg.mergeTupleIntoGroup(this.child.next());
+    		}
+    		this.child.close();
     	}
-    	this.child.close();
     	this.it = this.agg.iterator();
     	this.it.open();
     }
 
+    /** Aggregates the table of a scan on worker threads. */
+    private void mergeParallel(SeqScan scan) throws DbException,
+    		TransactionAbortedException {
+    	final HeapFile file = (HeapFile) Database.getCatalog().getDbFile(scan.getTableId());
+    	final TransactionId tid = scan.getTransactionId();
+    	final TupleDesc childtd = this.child.getTupleDesc();
+    	final int numPages = file.numPages();
+    	final AtomicInteger nextPage = new AtomicInteger();
+    	int workers = Math.min(this.threads, (numPages + RANGE_PAGES - 1) / RANGE_PAGES);
+    	final int budget = Math.max(1, this.agg.budget() / Math.max(1, workers));
+    	// set when a worker fails, so that the others stop after their range
+    	final AtomicBoolean stop = new AtomicBoolean();
+    	final List<HashAggregator> partials =
+    			Collections.synchronizedList(new ArrayList<HashAggregator>());
+
+    	ArrayList<Callable<HashAggregator>> tasks = new ArrayList<Callable<HashAggregator>>();
+    	for (int i = 0; i < workers; i++) {
+    		tasks.add(new Callable<HashAggregator>() {
+    			public HashAggregator call() throws Exception {
+    				HashAggregator partial = new HashAggregator(gfields, afields, aops,
+    						childtd, budget);
+    				partials.add(partial);
+    				boolean done = false;
+    				try {
+    					int first;
+    					while (!stop.get()
+    							&& (first = nextPage.getAndAdd(RANGE_PAGES)) < numPages) {
+    						DbFileIterator range = file.iterator(tid, first, first + RANGE_PAGES);
+    						range.open();
+    						try {
+    							while (range.hasNext())
+    								partial.mergeTupleIntoGroup(range.next());
+    						} finally {
+    							range.close();
+    						}
+    					}
+    					done = true;
+    				} finally {
+    					if (!done)
+    						stop.set(true);
+    				}
+    				return partial;
+    			}
+    		});
+    	}
+    	boolean merged = false;
+    	try {
+    		for (HashAggregator partial : WorkerPool.runAll(tasks))
+    			this.agg.merge(partial);
+    		merged = true;
+    	} finally {
+    		// drop the groups and spill files of the partials not merged
+    		if (!merged)
+    			for (HashAggregator partial : partials)
+    				partial.clear();
+    	}
+    }
+
     /**
-     * Returns the next tuple. If there is a group by field, then the first
-     * field is the field by which we are grouping, and the second field is the
-     * result of computing the aggregate, If there is no group by field, then
-     * the result tuple should contain one field representing the result of the
-     * aggregate. Should return null if there are no more tuples.
+     * Returns the next tuple. The group by fields come first, in the order
+     * given to the constructor, followed by the result of each aggregate.
+     * If there is no group by field, the result tuple contains only the
+     * aggregates. Should return null if there are no more tuples.
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-	// some code goes here
 		if(this.it.hasNext()) {
 			return this.it.next();
 		}
@@ -133,45 +276,39 @@ public class Aggregate extends Operator {
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-	// some code goes here
     	super.close();
     	super.open();
     	this.it.rewind();
     }
 
     /**
-     * Returns the TupleDesc of this Aggregate. If there is no group by field,
-     * this will have one field - the aggregate column. If there is a group by
-     * field, the first field will be the group by field, and the second will be
-     * the aggregate value column.
-     * 
-     * The name of an aggregate column should be informative. For example:
-     * "aggName(aop) (child_td.getFieldName(afield))" where aop and afield are
-     * given in the constructor, and child_td is the TupleDesc of the child
-     * iterator.
+     * Returns the TupleDesc of this Aggregate: the group by fields, if any,
+     * then one INT_TYPE field per aggregate.
+     *
+     * The group by fields keep their names in the child, and an aggregate
+     * column is named "aop(child field name)", e.g. "sum(t.a)".
      */
     public TupleDesc getTupleDesc() {
-	// some code goes here
     	return this.agg.getTupleDesc();
     }
 
     public void close() {
-	// some code goes here
-    	this.it.close();
+    	if (this.it != null)
+    		this.it.close();
+    	this.it = null;
+    	this.agg.clear();
     	super.close();
     }
 
     @Override
     public DbIterator[] getChildren() {
-	// some code goes here
     	DbIterator[] db = {child};
     	return db;
     }
 
     @Override
     public void setChildren(DbIterator[] children) {
-	// some code goes here
     	this.child = children[0];
     }
-    
+
 }
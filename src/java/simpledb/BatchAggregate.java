@@ -0,0 +1,192 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BatchAggregate is the batch-at-a-time version of {@link Aggregate}: one
+ * aggregate over one column, optionally grouped by one column. INT_TYPE
+ * columns are aggregated in loops over the int arrays of each batch;
+ * STRING_TYPE columns only support COUNT, as with {@link StringAggregator}.
+ * <p>
+ * Results match Aggregate's, except that sums and averages are computed
+ * in long arithmetic and so do not wrap around. An empty input produces
+ * no rows.
+ */
+public class BatchAggregate implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+    private BatchIterator child;
+    private final int afield;
+    private final int gfield;
+    private final Aggregator.Op aop;
+    private final TupleDesc td;
+
+    /** The group values, in the order their groups were created. */
+    private transient ArrayList<Object> keys;
+    /** The count and running value of each group, by group value. */
+    private transient HashMap<Object, long[]> groups;
+    private transient TupleBatch out;
+    private transient int pos;
+
+    /**
+     * @param child the operator to read batches from
+     * @param afield the column over which the aggregate is computed
+     * @param gfield the column to group by, or
+     *            {@link Aggregator#NO_GROUPING}
+     * @param aop the aggregation operator
+     * @throws IllegalArgumentException if afield is a string column and aop
+     *             is not COUNT
+     */
+    public BatchAggregate(BatchIterator child, int afield, int gfield, Aggregator.Op aop) {
+        TupleDesc childtd = child.getTupleDesc();
+        if (childtd.getFieldType(afield) == Type.STRING_TYPE && aop != Aggregator.Op.COUNT)
+            throw new IllegalArgumentException("only COUNT is supported over strings");
+        this.child = child;
+        this.afield = afield;
+        this.gfield = gfield;
+        this.aop = aop;
+        String aname = aop + "(" + childtd.getFieldName(afield) + ")";
+        if (gfield == Aggregator.NO_GROUPING)
+            this.td = new TupleDesc(new Type[] { Type.INT_TYPE }, new String[] { aname });
+        else
+            this.td = new TupleDesc(
+                    new Type[] { childtd.getFieldType(gfield), Type.INT_TYPE },
+                    new String[] { childtd.getFieldName(gfield), aname });
+    }
+
+    /**
+     * Returns the TupleDesc of the result: the group column, if any, then
+     * the aggregate column, named "aop(child field name)".
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        keys = new ArrayList<Object>();
+        groups = new HashMap<Object, long[]>();
+        child.open();
+        TupleBatch batch;
+        while ((batch = child.nextBatch()) != null)
+            merge(batch);
+        child.close();
+        out = new TupleBatch(td);
+        pos = 0;
+    }
+
+    private long[] newGroup(Object key) {
+        long init = aop == Aggregator.Op.MIN ? Long.MAX_VALUE
+                : aop == Aggregator.Op.MAX ? Long.MIN_VALUE : 0;
+        long[] acc = new long[] { 0, init };
+        groups.put(key, acc);
+        keys.add(key);
+        return acc;
+    }
+
+    private void merge(TupleBatch batch) {
+        int[] sel = batch.getSelection();
+        int n = batch.size();
+        if (n == 0)
+            return;
+        int[] values = batch.getTupleDesc().getFieldType(afield) == Type.INT_TYPE
+                ? batch.getInts(afield) : null;
+
+        if (gfield == Aggregator.NO_GROUPING) {
+            long[] acc = groups.get(null);
+            if (acc == null)
+                acc = newGroup(null);
+            acc[0] += n;
+            if (values == null)
+                return;
+            long v = acc[1];
+            switch (aop) {
+            case MIN:
+                for (int i = 0; i < n; i++)
+                    v = Math.min(v, values[sel[i]]);
+                break;
+            case MAX:
+                for (int i = 0; i < n; i++)
+                    v = Math.max(v, values[sel[i]]);
+                break;
+            case SUM:
+            case AVG:
+                for (int i = 0; i < n; i++)
+                    v += values[sel[i]];
+                break;
+            default:
+                break;
+            }
+            acc[1] = v;
+            return;
+        }
+
+        boolean intKeys = batch.getTupleDesc().getFieldType(gfield) == Type.INT_TYPE;
+        int[] intKeyCol = intKeys ? batch.getInts(gfield) : null;
+        String[] strKeyCol = intKeys ? null : batch.getStrings(gfield);
+        for (int i = 0; i < n; i++) {
+            int row = sel[i];
+            Object key = intKeys ? (Object) Integer.valueOf(intKeyCol[row]) : strKeyCol[row];
+            long[] acc = groups.get(key);
+            if (acc == null)
+                acc = newGroup(key);
+            acc[0]++;
+            if (values == null)
+                continue;
+            int v = values[row];
+            switch (aop) {
+            case MIN:
+                acc[1] = Math.min(acc[1], v);
+                break;
+            case MAX:
+                acc[1] = Math.max(acc[1], v);
+                break;
+            case SUM:
+            case AVG:
+                acc[1] += v;
+                break;
+            default:
+                break;
+            }
+        }
+    }
+
+    private int result(long[] acc) {
+        switch (aop) {
+        case COUNT:
+            return (int) acc[0];
+        case AVG:
+            return (int) (acc[1] / acc[0]);
+        default:
+            return (int) acc[1];
+        }
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (keys == null)
+            throw new IllegalStateException("aggregate not yet open");
+        if (pos >= keys.size())
+            return null;
+        out.clear();
+        int[] results = out.getInts(td.numFields() - 1);
+        while (pos < keys.size() && !out.isFull()) {
+            Object key = keys.get(pos++);
+            int row = out.addRow();
+            if (key instanceof Integer)
+                out.getInts(0)[row] = (Integer) key;
+            else if (key != null)
+                out.getStrings(0)[row] = (String) key;
+            results[row] = result(groups.get(key));
+        }
+        return out;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        pos = 0;
+    }
+
+    public void close() {
+        keys = null;
+        groups = null;
+        out = null;
+    }
+}
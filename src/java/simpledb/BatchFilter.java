@@ -0,0 +1,67 @@
+package simpledb;
+
+/**
+ * BatchFilter is the batch-at-a-time version of {@link Filter}. It narrows
+ * the selection of each batch of its child to the rows that satisfy a
+ * condition, which is compiled once into a {@link CompiledPredicate} and
+ * tested a column at a time: INT_TYPE comparisons run in a loop over the
+ * int array.
+ */
+public class BatchFilter implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+    private final CompoundPredicate cond;
+    private final CompiledPredicate compiled;
+    private BatchIterator child;
+
+    /**
+     * @param p the predicate to filter rows with
+     * @param child the operator to read batches from
+     */
+    public BatchFilter(Predicate p, BatchIterator child) {
+        this(new CompoundPredicate(p), child);
+    }
+
+    /**
+     * @param cond the condition to filter rows with
+     * @param child the operator to read batches from
+     */
+    public BatchFilter(CompoundPredicate cond, BatchIterator child) {
+        this.cond = cond;
+        this.compiled = cond.compile();
+        this.child = child;
+    }
+
+    /** @return the first predicate of the condition */
+    public Predicate getPredicate() {
+        return cond.getPredicates().get(0);
+    }
+
+    /** @return the condition rows must satisfy */
+    public CompoundPredicate getCondition() {
+        return cond;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        TupleBatch batch = child.nextBatch();
+        if (batch != null)
+            batch.setSize(compiled.select(batch, batch.getSelection(), batch.size()));
+        return batch;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public void close() {
+        child.close();
+    }
+}
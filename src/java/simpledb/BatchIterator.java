@@ -0,0 +1,50 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * BatchIterator is the batch-at-a-time counterpart of {@link DbIterator}.
+ * Instead of one Tuple per call, nextBatch returns a {@link TupleBatch} of
+ * up to a thousand or so rows stored column by column, so that operators
+ * run tight loops over primitive arrays and pay for a virtual call once per
+ * batch rather than once per row.
+ * <p>
+ * Batch operators compose with tuple-at-a-time ones through
+ * {@link TupleToBatchIterator} and {@link BatchToTupleIterator}. As with
+ * DbIterator, open must be called before the other methods, and close
+ * closes the children.
+ */
+public interface BatchIterator extends Serializable {
+    /**
+     * Opens the iterator. This must be called before any of the other methods.
+     * @throws DbException when there are problems opening/accessing the database.
+     */
+    public void open() throws DbException, TransactionAbortedException;
+
+    /**
+     * Returns the next batch of rows. A batch may have no selected rows
+     * without the iteration being over.
+     *
+     * @return the next batch, which is only valid until the next call, or
+     *         null if there are no more rows
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+
+    /**
+     * Resets the iterator to the start.
+     * @throws DbException when rewind is unsupported.
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    public void rewind() throws DbException, TransactionAbortedException;
+
+    /**
+     * @return the TupleDesc of the rows this iterator returns
+     */
+    public TupleDesc getTupleDesc();
+
+    /**
+     * Closes the iterator.
+     */
+    public void close();
+}
@@ -0,0 +1,62 @@
+package simpledb;
+
+import java.util.ArrayList;
+
+/**
+ * BatchProject is the batch-at-a-time version of {@link Project}. The
+ * batches it returns are views of some columns of its child's batches, so
+ * projecting copies no data.
+ */
+public class BatchProject implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+    private BatchIterator child;
+    private final int[] fields;
+    private final TupleDesc td;
+    private transient TupleBatch view;
+
+    /**
+     * @param fieldList the ids of the fields of the child's TupleDesc to
+     *            project out
+     * @param child the operator to read batches from
+     */
+    public BatchProject(ArrayList<Integer> fieldList, BatchIterator child) {
+        this.child = child;
+        this.fields = new int[fieldList.size()];
+        TupleDesc childtd = child.getTupleDesc();
+        Type[] types = new Type[fields.length];
+        String[] names = new String[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = fieldList.get(i);
+            types[i] = childtd.getFieldType(fields[i]);
+            names[i] = childtd.getFieldName(fields[i]);
+        }
+        this.td = new TupleDesc(types, names);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        TupleBatch batch = child.nextBatch();
+        if (batch == null)
+            return null;
+        if (view == null || view.capacity() != batch.capacity())
+            view = new TupleBatch(td, batch.capacity());
+        view.project(batch, fields);
+        return view;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public void close() {
+        child.close();
+    }
+}
@@ -0,0 +1,85 @@
+package simpledb;
+
+/**
+ * BatchSeqScan is the batch-at-a-time version of {@link SeqScan}. It reads
+ * a table into {@link TupleBatch}es; for heap files the columns are filled
+ * straight from the page bytes, without a Tuple per row.
+ */
+public class BatchSeqScan implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+    private final TransactionId tid;
+    private final int tableid;
+    private final String tableAlias;
+    private final int capacity;
+    private TupleDesc td;
+    private transient DbFileIterator fileIt;
+    private transient TupleBatch batch;
+
+    /**
+     * Creates a scan over a table that returns batches of
+     * {@link TupleBatch#DEFAULT_CAPACITY} rows.
+     *
+     * @param tid the transaction this scan is running as a part of
+     * @param tableid the table to scan
+     * @param tableAlias the alias of the table; see {@link SeqScan#SeqScan}
+     */
+    public BatchSeqScan(TransactionId tid, int tableid, String tableAlias) {
+        this(tid, tableid, tableAlias, TupleBatch.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a scan over a table.
+     *
+     * @param tid the transaction this scan is running as a part of
+     * @param tableid the table to scan
+     * @param tableAlias the alias of the table; see {@link SeqScan#SeqScan}
+     * @param capacity the number of rows in each batch
+     */
+    public BatchSeqScan(TransactionId tid, int tableid, String tableAlias, int capacity) {
+        this.tid = tid;
+        this.tableid = tableid;
+        this.tableAlias = tableAlias;
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return the TupleDesc of the table, with field names prefixed with
+     *         the alias, as for SeqScan
+     */
+    public TupleDesc getTupleDesc() {
+        if (td == null)
+            td = new SeqScan(tid, tableid, tableAlias).getTupleDesc();
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        fileIt = Database.getCatalog().getDbFile(tableid).iterator(tid);
+        fileIt.open();
+        if (batch == null)
+            batch = new TupleBatch(getTupleDesc(), capacity);
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (fileIt == null)
+            throw new IllegalStateException("scan not yet open");
+        batch.clear();
+        if (fileIt instanceof HeapFile.HeapFileIterator)
+            return ((HeapFile.HeapFileIterator) fileIt).fill(batch) ? batch : null;
+        while (!batch.isFull() && fileIt.hasNext())
+            batch.addTuple(fileIt.next());
+        return batch.numRows() > 0 ? batch : null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (fileIt == null)
+            throw new IllegalStateException("scan not yet open");
+        fileIt.rewind();
+    }
+
+    public void close() {
+        if (fileIt != null)
+            fileIt.close();
+        fileIt = null;
+    }
+}
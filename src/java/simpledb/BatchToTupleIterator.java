@@ -0,0 +1,68 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * BatchToTupleIterator lets a batch-at-a-time plan feed tuple-at-a-time
+ * operators: it returns the selected rows of its child's batches one Tuple
+ * at a time. Rows read from a table keep their RecordIds (see
+ * {@link TupleBatch#getRecordId}), so the adapter can feed {@link Delete}.
+ */
+public class BatchToTupleIterator extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private BatchIterator child;
+    private transient TupleBatch batch;
+    private transient int pos;
+
+    /**
+     * @param child the batch operator to read rows from
+     */
+    public BatchToTupleIterator(BatchIterator child) {
+        this.child = child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        batch = null;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        batch = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        batch = null;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (batch == null || pos >= batch.size()) {
+            batch = child.nextBatch();
+            pos = 0;
+            if (batch == null)
+                return null;
+        }
+        return batch.getTuple(batch.getSelection()[pos++]);
+    }
+
+    /**
+     * @return no children, since the child is not a DbIterator
+     */
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[0];
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+    }
+}
@@ -2,6 +2,11 @@ package simpledb;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -11,11 +16,122 @@ import java.util.*;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * The page table is split into lock stripes chosen by page id, so threads
+ * working on different pages rarely contend. Each stripe owns an equal share
+ * of the frames and its own {@link EvictionPolicy}. Every page handed out by
+ * {@link #getPage} is pinned until the caller passes it to
+ * {@link #unpinPage}; pinned pages are never evicted. Hit, miss and eviction
+ * counters are kept so that policies can be compared on a workload.
+ * <p>
+ * Disk reads happen outside the stripe monitor. A miss registers a
+ * {@link PageLoad} for its page first, and any other thread that misses on
+ * the same page while the read is in flight waits for that load instead of
+ * issuing a second read.
+ * <p>
+ * {@link #prefetchPage} starts the same kind of load on a small pool of
+ * background threads without pinning the page, so scans can have their
+ * next pages read while they work on the current one.
+ * <p>
+ * Large scans pass a {@link BufferRing} as an access hint. Once the pool
+ * is full, the pages they read are kept in a few frames owned by the ring,
+ * at most one in {@link #RING_FRACTION} of the pool. A ring takes its
+ * frames from the pool, evicting shared pages as it grows, and then
+ * recycles them; ring frames are never offered to the eviction policy. So a
+ * scan of a table larger than the pool displaces only its ring's share of
+ * the pages other queries are working on, and the pool never holds more
+ * than its capacity.
  */
 public class BufferPool {
 
-    private static HashMap<PageId, Page> pages;
-    private static int maxPages;
+    /** Upper bound on the number of lock stripes. */
+    static final int MAX_STRIPES = 16;
+    /** Pools are only striped when every stripe gets at least this many frames. */
+    static final int MIN_PAGES_PER_STRIPE = 64;
+    /** Number of background threads serving {@link #prefetchPage}. */
+    static final int PREFETCH_THREADS = 4;
+    /** A ring holds at most this fraction of the pool's frames. */
+    static final int RING_FRACTION = 8;
+
+    /** A resident page and the number of callers currently using it. */
+    private static class Frame {
+        final Page page;
+        int pinCount;
+        /** Read ahead of time and not yet requested through getPage. */
+        boolean prefetched;
+        /** The ring owning this frame, or null for shared frames. */
+        BufferRing ring;
+
+        Frame(Page page, BufferRing ring) {
+            this.page = page;
+            this.pinCount = 0;
+            this.prefetched = false;
+            this.ring = ring;
+        }
+    }
+
+    /** A page read that is in progress; other threads wait on it. */
+    private static class PageLoad {
+        final CountDownLatch done = new CountDownLatch(1);
+        /** The ring the page is read into, or null. */
+        final BufferRing ring;
+
+        PageLoad(BufferRing ring) {
+            this.ring = ring;
+        }
+
+        void await() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    done.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * One lock stripe of the page table. All fields are guarded by the
+     * stripe's monitor.
+     */
+    private static class Stripe {
+        final HashMap<PageId, Frame> frames = new HashMap<PageId, Frame>();
+        /** Reads in flight; each one has a frame reserved for it. */
+        final HashMap<PageId, PageLoad> loading = new HashMap<PageId, PageLoad>();
+        final EvictionPolicy policy;
+        final int capacity;
+        long hits;
+        long misses;
+        long evictions;
+        long prefetches;
+
+        /** Only unpinned frames may be evicted. */
+        final EvictionPolicy.Candidates unpinned = new EvictionPolicy.Candidates() {
+            public boolean isEvictable(PageId pid) {
+                Frame f = frames.get(pid);
+                return f != null && f.pinCount == 0;
+            }
+        };
+
+        Stripe(int capacity, EvictionPolicy.Factory factory) {
+            this.capacity = capacity;
+            this.policy = factory.newPolicy(capacity);
+        }
+
+        /** @return true if no frame is free, counting those of rings and loads */
+        boolean isFull() {
+            return frames.size() + loading.size() >= capacity;
+        }
+    }
+
+    private final Stripe[] stripes;
+    private final int numPages;
+    private ThreadPoolExecutor prefetcher;
 
     /** Bytes per page, including header. */
     public static final int PAGE_SIZE = 4096;
@@ -26,14 +142,99 @@ public class BufferPool {
     public static final int DEFAULT_PAGES = 50;
 
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages, evicting with
+     * the CLOCK policy.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, ClockPolicy.FACTORY);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policies creates the eviction policy of each stripe
+     */
+    public BufferPool(int numPages, EvictionPolicy.Factory policies) {
         // some code goes here
-        BufferPool.pages = new HashMap<PageId, Page>();
-        BufferPool.maxPages = numPages;
+        this.numPages = numPages;
+        int numStripes = Math.max(1, Math.min(MAX_STRIPES, numPages / MIN_PAGES_PER_STRIPE));
+        this.stripes = new Stripe[numStripes];
+        for (int i = 0; i < numStripes; i++) {
+            int capacity = numPages / numStripes + (i < numPages % numStripes ? 1 : 0);
+            stripes[i] = new Stripe(capacity, policies);
+        }
+    }
+
+    private Stripe stripeFor(PageId pid) {
+        // take the stripe from the high bits of a multiplicative hash; the
+        // low bits pick buckets in the stripe's HashMap, and would all be
+        // alike within a stripe if they also picked the stripe
+        int h = pid.hashCode() * 0x9e3779b9;
+        return stripes[(h >>> 16) % stripes.length];
+    }
+
+    /** @return the maximum number of pages held by this buffer pool */
+    public int getNumPages() {
+        return numPages;
+    }
+
+    /** @return the number of getPage calls served from the pool */
+    public long getHitCount() {
+        long n = 0;
+        for (Stripe s : stripes) {
+            synchronized (s) {
+                n += s.hits;
+            }
+        }
+        return n;
+    }
+
+    /** @return the number of getPage calls that had to read from disk */
+    public long getMissCount() {
+        long n = 0;
+        for (Stripe s : stripes) {
+            synchronized (s) {
+                n += s.misses;
+            }
+        }
+        return n;
+    }
+
+    /** @return the number of pages evicted to make room for others */
+    public long getEvictionCount() {
+        long n = 0;
+        for (Stripe s : stripes) {
+            synchronized (s) {
+                n += s.evictions;
+            }
+        }
+        return n;
+    }
+
+    /** @return the number of pages read by {@link #prefetchPage} */
+    public long getPrefetchCount() {
+        long n = 0;
+        for (Stripe s : stripes) {
+            synchronized (s) {
+                n += s.prefetches;
+            }
+        }
+        return n;
+    }
+
+    /** Resets the hit, miss, eviction and prefetch counters to zero. */
+    public void resetStats() {
+        for (Stripe s : stripes) {
+            synchronized (s) {
+                s.hits = 0;
+                s.misses = 0;
+                s.evictions = 0;
+                s.prefetches = 0;
+            }
+        }
     }
 
     /**
@@ -46,39 +247,332 @@ public class BufferPool {
      * be added to the buffer pool and returned.  If there is insufficient
      * space in the buffer pool, an page should be evicted and the new page
      * should be added in its place.
+     * <p>
+     * The returned page is pinned and will not be evicted until the caller
+     * releases it with {@link #unpinPage}.
      *
      * @param tid the ID of the transaction requesting the page
      * @param pid the ID of the requested page
      * @param perm the requested permissions on the page
+     * @throws DbException if the page is not resident and every frame that
+     *   could hold it is pinned
      */
     public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
         // some code goes here
-        int tableId = pid.getTableId();
-        DbFile file = Database.getCatalog().getDbFile(tableId);
-    	//Page temp = file.readPage(pid);
-        Page temp = null;
-
-        if(BufferPool.pages.containsKey(pid)){
-        	//set time for LRU of currently being accessed heapPage to system.currentTimeMillis()
-        	((HeapPage)BufferPool.pages.get(pid)).lastUsed = System.currentTimeMillis();
-        	return BufferPool.pages.get(pid);
-        }
-    	else if(BufferPool.pages.get(pid) == null && (BufferPool.pages.size() < BufferPool.maxPages)) {
-    		temp = file.readPage(pid);
-            ((HeapPage)temp).lastUsed = System.currentTimeMillis();
-    		BufferPool.pages.put(pid, temp);
-    		return temp;
-    	}
-    	else {
-    		this.evictPage();
-            temp = file.readPage(pid);
-    		((HeapPage)temp).lastUsed = System.currentTimeMillis();
-    		BufferPool.pages.put(pid, temp);
-    		return temp;
-    	}
+        return getPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieves a page like {@link #getPage(TransactionId, PageId, Permissions)},
+     * with a hint about how the caller accesses pages.
+     *
+     * @param ring null for random access; otherwise the ring of the
+     *   sequential scan the page is read for. If the page has to be read
+     *   from disk it goes into one of the ring's frames.
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm,
+            BufferRing ring) throws TransactionAbortedException, DbException {
+        Stripe s = stripeFor(pid);
+        PageLoad load;
+        while (true) {
+            synchronized (s) {
+                Frame f = s.frames.get(pid);
+                if (f != null) {
+                    s.hits++;
+                    accessed(s, pid, f, ring);
+                    f.pinCount++;
+                    return f.page;
+                }
+                load = s.loading.get(pid);
+                if (load == null) {
+                    // while the stripe has free frames, scans use them
+                    // like everyone else; that displaces nothing
+                    BufferRing into = useRing(s, ring) ? ring : null;
+                    if (into == null || !isFull(into)) {
+                        s.misses++;
+                        load = reserve(s, pid, into);
+                        break;
+                    }
+                }
+            }
+            if (load != null) {
+                // another thread is reading this page; once it is done the
+                // page is resident (and pinned by the reader), so retry
+                load.await();
+            } else if (!recycle(ring, s)) {
+                // every frame of the ring is in use; read into the pool
+                ring = null;
+            }
+        }
+        return loadPage(s, pid, load, false);
     }
 
+    /**
+     * @return true if a page read for a scan should go into its ring: the
+     *   stripe is full, or the scan already reads into the ring, whose
+     *   recycled frames would otherwise go to the shared pool
+     */
+    private static boolean useRing(Stripe s, BufferRing ring) {
+        return ring != null && (s.isFull() || ring.numPages() > 0);
+    }
+
+    /**
+     * @return the number of frames a ring may hold: its own size, or its
+     *   share of the pool if that is smaller
+     */
+    public int getRingFrames(BufferRing ring) {
+        return Math.min(ring.getSize(), Math.max(1, numPages / RING_FRACTION));
+    }
+
+    /** @return true if a ring holds as many frames as it may */
+    private boolean isFull(BufferRing ring) {
+        return ring.numPages() >= getRingFrames(ring);
+    }
+
+    /**
+     * Tells the eviction policy about a hit. Callers must hold the stripe's
+     * monitor.
+     */
+    private void accessed(Stripe s, PageId pid, Frame f, BufferRing ring) {
+        if (f.ring != null) {
+            if (ring == null) {
+                // used outside a scan, so the page joins the shared pool
+                f.ring.remove(pid);
+                f.ring = null;
+                f.prefetched = false;
+                s.policy.pageLoaded(pid);
+            }
+        } else if (f.prefetched) {
+            // the first request of a prefetched page is the access the
+            // policy already saw when the page was loaded
+            f.prefetched = false;
+        } else {
+            s.policy.pageAccessed(pid);
+        }
+    }
+
+    /**
+     * Reserves a frame for a page that is about to be read and registers
+     * the load, evicting a page if the stripe is full. A ring that is
+     * already full should first free a frame with {@link #recycle}, so that
+     * it takes no more than its share. Callers must hold the stripe's
+     * monitor.
+     */
+    private PageLoad reserve(Stripe s, PageId pid, BufferRing ring) throws DbException {
+        while (s.isFull())
+            evictPage(s);
+        if (ring != null)
+            ring.add(pid);
+        PageLoad load = new PageLoad(ring);
+        s.loading.put(pid, load);
+        return load;
+    }
+
+    /**
+     * Frees the oldest unpinned frame of a ring, preferring one in the
+     * stripe the next page goes to, so that the page takes the freed frame
+     * instead of evicting a shared one. Pages of the ring that were never
+     * loaded are simply forgotten.
+     *
+     * @param into the stripe of the page the frame is freed for
+     * @return false if every frame of the ring is pinned or still loading
+     */
+    private boolean recycle(BufferRing ring, Stripe into) throws DbException {
+        List<PageId> pages = ring.getPages();
+        for (int pass = 0; pass < 2; pass++) {
+            for (PageId pid : pages) {
+                Stripe s = stripeFor(pid);
+                if (pass == 0 && s != into)
+                    continue;
+                synchronized (s) {
+                    if (s.loading.containsKey(pid))
+                        continue;
+                    Frame f = s.frames.get(pid);
+                    if (f != null && f.ring == ring) {
+                        if (f.pinCount > 0)
+                            continue;
+                        try {
+                            if (f.page.isDirty() != null)
+                                flushPage(f.page);
+                        } catch (IOException e) {
+                            throw new DbException("could not flush recycled page: " + e.getMessage());
+                        }
+                        s.frames.remove(pid);
+                        s.evictions++;
+                    }
+                    ring.remove(pid);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Hands the frames of a ring back when its scan is done. Unpinned clean
+     * pages are dropped, freeing their frames for the pages the ring
+     * displaced. Pinned or dirty pages move into the shared pool; their
+     * frames already count against its capacity.
+     *
+     * @param ring the ring to release
+     */
+    public void releaseRing(BufferRing ring) {
+        ring.markReleased();
+        for (PageId pid : ring.getPages()) {
+            Stripe s = stripeFor(pid);
+            synchronized (s) {
+                Frame f = s.frames.get(pid);
+                if (f == null || f.ring != ring)
+                    continue;
+                if (f.pinCount == 0 && f.page.isDirty() == null) {
+                    s.frames.remove(pid);
+                } else {
+                    f.ring = null;
+                    f.prefetched = false;
+                    s.policy.pageLoaded(pid);
+                }
+            }
+        }
+        ring.clear();
+    }
+
+    /**
+     * Reads a page whose load has been registered in its stripe and
+     * installs it. The page is pinned once unless it is being prefetched.
+     * Waiters on the load are released whether or not the read succeeds.
+     */
+    private Page loadPage(Stripe s, PageId pid, PageLoad load, boolean prefetch) {
+        Page page = null;
+        try {
+            DbFile file = Database.getCatalog().getDbFile(pid.getTableId());
+            page = file.readPage(pid);
+        } finally {
+            synchronized (s) {
+                s.loading.remove(pid);
+                BufferRing ring = load.ring;
+                if (ring != null && (page == null || ring.isReleased())) {
+                    // a released ring's page is shared; its frame was
+                    // reserved in the stripe, so this takes no extra room
+                    ring.remove(pid);
+                    ring = null;
+                }
+                if (page != null) {
+                    Frame f = new Frame(page, ring);
+                    if (prefetch) {
+                        f.prefetched = true;
+                        s.prefetches++;
+                    } else {
+                        f.pinCount = 1;
+                    }
+                    s.frames.put(pid, f);
+                    if (ring == null)
+                        s.policy.pageLoaded(pid);
+                }
+            }
+            load.done.countDown();
+        }
+        return page;
+    }
+
+    /**
+     * Starts reading a page into the pool in the background, so that a
+     * later {@link #getPage} finds it resident or waits only for the rest
+     * of the read. The page is not pinned. Nothing happens if the page is
+     * already resident or being read, or if no frame can be freed for it.
+     * Prefetches are hints: read errors are dropped, and the next getPage
+     * of the page reads it again and reports them.
+     *
+     * @param pid the ID of the page to read
+     */
+    public void prefetchPage(PageId pid) {
+        prefetchPage(pid, null);
+    }
+
+    /**
+     * Starts reading a page into the pool in the background, for a
+     * sequential scan.
+     *
+     * @param pid the ID of the page to read
+     * @param ring the ring of the scan, or null to read into the pool
+     * @see #prefetchPage(PageId)
+     */
+    public void prefetchPage(final PageId pid, BufferRing ring) {
+        final Stripe s = stripeFor(pid);
+        final PageLoad load;
+        synchronized (s) {
+            if (s.frames.containsKey(pid) || s.loading.containsKey(pid))
+                return;
+            if (!useRing(s, ring))
+                ring = null;
+        }
+        try {
+            if (ring != null && isFull(ring) && !recycle(ring, s))
+                return;
+            synchronized (s) {
+                if (s.frames.containsKey(pid) || s.loading.containsKey(pid))
+                    return;
+                load = reserve(s, pid, ring);
+            }
+        } catch (DbException e) {
+            return;
+        }
+        Runnable task = new Runnable() {
+            public void run() {
+                try {
+                    loadPage(s, pid, load, true);
+                } catch (RuntimeException e) {
+                    // the page stays absent; getPage will retry the read
+                }
+            }
+        };
+        try {
+            prefetcher().execute(task);
+        } catch (RuntimeException e) {
+            // could not hand off the read, so release the reserved frame
+            synchronized (s) {
+                s.loading.remove(pid);
+                if (load.ring != null)
+                    load.ring.remove(pid);
+            }
+            load.done.countDown();
+        }
+    }
+
+    /** @return the executor for prefetches, creating it on first use */
+    private synchronized ThreadPoolExecutor prefetcher() {
+        if (prefetcher == null) {
+            prefetcher = new ThreadPoolExecutor(PREFETCH_THREADS, PREFETCH_THREADS,
+                    1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "BufferPool-prefetch");
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+            // idle pools, e.g. ones replaced by Database.resetBufferPool,
+            // give their threads back
+            prefetcher.allowCoreThreadTimeOut(true);
+        }
+        return prefetcher;
+    }
+
+    /**
+     * Releases one pin on a page obtained from {@link #getPage}, allowing it
+     * to be evicted once no caller holds it any more. Callers must not use
+     * the page after unpinning it unless they fetch it again.
+     *
+     * @param pid the ID of the page to unpin
+     */
+    public void unpinPage(PageId pid) {
+        Stripe s = stripeFor(pid);
+        synchronized (s) {
+            Frame f = s.frames.get(pid);
+            if (f != null && f.pinCount > 0)
+                f.pinCount--;
+        }
+    }
 
     /**
      * Releases the lock on a page.
@@ -144,9 +638,17 @@ public class BufferPool {
     	HeapFile file = (HeapFile)Database.getCatalog().getDbFile(tableId);
     	//Inserts the specified tuple to the file on behalf of transaction. 
     	ArrayList<Page> list = file.insertTuple(tid, t);
-    	// get first page
-    	Page p = list.get(0);
-    	BufferPool.pages.put(p.getId(), p);    
+    	for (Page p : list) {
+    		Stripe s = stripeFor(p.getId());
+    		synchronized (s) {
+    			if (!s.frames.containsKey(p.getId())) {
+    				while (s.isFull())
+    					evictPage(s);
+    				s.frames.put(p.getId(), new Frame(p, null));
+    				s.policy.pageLoaded(p.getId());
+    			}
+    		}
+    	}
     }
 
     /**
@@ -168,23 +670,34 @@ public class BufferPool {
     	//rid = <pageno, slotno> / <pageId, slotno>
     	PageId pid = t.getRecordId().getPageId();
     	HeapFile file = (HeapFile)Database.getCatalog().getDbFile(pid.getTableId());
-    	Page p = file.deleteTuple(tid, t);
-    	p.markDirty(true, tid);
+    	file.deleteTuple(tid, t);
     }
 
     /**
-     * Flush all dirty pages to disk.
+     * Flush all dirty pages to disk, then save the free space maps of the
+     * heap files in the catalog.
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      *     break simpledb if running in NO STEAL mode.
      */
     public synchronized void flushAllPages() throws IOException {
         // some code goes here
-    	for(Page p : BufferPool.pages.values()) {
-    		//check TransactionId
-    		if (p.isDirty() != null) {
-    			flushPage(p.getId());
+    	for (Stripe s : stripes) {
+    		synchronized (s) {
+    			for (Frame f : s.frames.values()) {
+    				//check TransactionId
+    				if (f.page.isDirty() != null)
+    					flushPage(f.page);
+    			}
     		}
     	}
+    	// the free space maps now match the files on disk
+    	Catalog c = Database.getCatalog();
+    	Iterator<Integer> tables = c.tableIdIterator();
+    	while (tables.hasNext()) {
+    		DbFile file = c.getDbFile(tables.next());
+    		if (file instanceof HeapFile)
+    			((HeapFile) file).saveFreeSpaceMap();
+    	}
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -194,16 +707,25 @@ public class BufferPool {
     */
     public synchronized void discardPage(PageId pid) {
         // some code goes here
-	// not necessary for proj1
+    	Stripe s = stripeFor(pid);
+    	synchronized (s) {
+    		Frame f = s.frames.remove(pid);
+    		if (f != null) {
+    			if (f.ring != null)
+    				f.ring.remove(pid);
+    			else
+    				s.policy.pageRemoved(pid);
+    		}
+    	}
     }
 
     /**
-     * Flushes a certain page to disk
-     * @param pid an ID indicating the page to flush
+     * Flushes a certain page to disk. Callers must hold the monitor of the
+     * stripe the page belongs to.
+     * @param p the page to flush
      */
-    private synchronized  void flushPage(PageId pid) throws IOException {
+    private void flushPage(Page p) throws IOException {
         // some code goes here
-    	Page p = BufferPool.pages.get(pid);
     	Catalog c = Database.getCatalog();
     	DbFile file = c.getDbFile(p.getId().getTableId());
     	p.markDirty(false, null);
@@ -219,27 +741,35 @@ public class BufferPool {
     }
 
     /**
-     * Discards a page from the buffer pool.
+     * Discards an unpinned page from a stripe of the buffer pool.
      * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * The page to discard is chosen by the stripe's eviction policy, or
+     * if it has none, is an unpinned page of a ring.
+     * Callers must hold the stripe's monitor.
      */
-    private synchronized  void evictPage() throws DbException {
+    private void evictPage(Stripe s) throws DbException {
         // some code goes here
-        // not necessary for proj1
-    	long minT = System.currentTimeMillis();
-    	HeapPage LRUpage = null;
-    	for(Page p : BufferPool.pages.values()) {
-    		if (((HeapPage)p).lastUsed <= minT) {
-    			minT = ((HeapPage)p).lastUsed;
-    			LRUpage = (HeapPage)p;
+    	PageId victim = s.policy.chooseVictim(s.unpinned);
+    	if (victim == null) {
+    		for (Map.Entry<PageId, Frame> e : s.frames.entrySet()) {
+    			if (e.getValue().ring != null && e.getValue().pinCount == 0) {
+    				victim = e.getKey();
+    				e.getValue().ring.remove(victim);
+    				break;
+    			}
     		}
     	}
-		try {
-			flushPage(LRUpage.getId());
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
-    	BufferPool.pages.remove(LRUpage.getId());
+    	if (victim == null)
+    		throw new DbException("all pages in the buffer pool are pinned");
+    	Frame f = s.frames.get(victim);
+    	try {
+    		if (f.page.isDirty() != null)
+    			flushPage(f.page);
+    	} catch (IOException e) {
+    		throw new DbException("could not flush evicted page: " + e.getMessage());
+    	}
+    	s.frames.remove(victim);
+    	s.evictions++;
     }
 
 }
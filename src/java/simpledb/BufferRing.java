@@ -0,0 +1,86 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Access hint for large sequential reads. Passing a BufferRing to
+ * {@link BufferPool#getPage(TransactionId, PageId, Permissions, BufferRing)}
+ * says the page is read as part of a bulk scan and is unlikely to be needed
+ * again soon. While the pool has free frames the hint changes nothing, but
+ * once it is full, pages the scan has to read from disk are kept in a small
+ * set of frames owned by the ring and invisible to its eviction policy. The
+ * ring takes these frames from the pool, evicting shared pages as it grows
+ * to its size or to its share of the pool, whichever is smaller. Once the
+ * ring is full, every new page recycles the ring's oldest frame, so a scan
+ * of any size displaces only that many pages of the pool's working set.
+ * <p>
+ * Pages that were already resident are used in place, and a ring page that
+ * is requested without a ring, e.g. by another query, moves into the shared
+ * pool. A ring belongs to one scan; it must be handed back with
+ * {@link BufferPool#releaseRing} when the scan ends.
+ */
+public class BufferRing {
+
+    /** Default number of frames in a ring. */
+    public static final int DEFAULT_SIZE = 32;
+
+    private final int size;
+    /** Pages loaded through this ring, oldest first. */
+    private final LinkedList<PageId> pages;
+    private volatile boolean released;
+
+    /**
+     * Creates a ring of {@link #DEFAULT_SIZE} frames.
+     */
+    public BufferRing() {
+        this(DEFAULT_SIZE);
+    }
+
+    /**
+     * Creates a ring.
+     *
+     * @param size the number of frames the ring may hold
+     */
+    public BufferRing(int size) {
+        if (size < 1)
+            throw new IllegalArgumentException("ring size must be at least 1");
+        this.size = size;
+        this.pages = new LinkedList<PageId>();
+        this.released = false;
+    }
+
+    /** @return the number of frames the ring may hold */
+    public int getSize() {
+        return size;
+    }
+
+    /** @return the number of pages loaded through the ring and still in it */
+    synchronized int numPages() {
+        return pages.size();
+    }
+
+    synchronized void add(PageId pid) {
+        pages.addLast(pid);
+    }
+
+    synchronized void remove(PageId pid) {
+        pages.remove(pid);
+    }
+
+    /** @return the pages of the ring, oldest first */
+    synchronized List<PageId> getPages() {
+        return new ArrayList<PageId>(pages);
+    }
+
+    synchronized void clear() {
+        pages.clear();
+    }
+
+    boolean isReleased() {
+        return released;
+    }
+
+    void markReleased() {
+        released = true;
+    }
+}
@@ -176,6 +176,8 @@ public class Catalog {
     
     /**
 * Reads the schema from a file and creates the appropriate tables in the database.
+* Each line has the form <code>name (field type [pk], ...) [mmap]</code>; the
+* optional <code>mmap</code> option stores the table in a {@link MappedHeapFile}.
 * @param catalogFile
 */
     public void loadSchema(String catalogFile) {
@@ -216,7 +218,18 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                String option = line.substring(line.indexOf(")") + 1).trim();
+                File tabFile = new File(baseFolder+"/"+name + ".dat");
+                HeapFile tabHf;
+                if (option.equals(""))
+                    tabHf = new HeapFile(tabFile, t);
+                else if (option.toLowerCase().equals("mmap"))
+                    tabHf = new MappedHeapFile(tabFile, t);
+                else {
+                    System.out.println("Unknown table option " + option);
+                    System.exit(0);
+                    return;
+                }
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
@@ -0,0 +1,116 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * CLOCK (second chance) replacement. Resident pages sit in a circular array
+ * of frames, each with a reference bit that is set on every access. The
+ * clock hand sweeps the frames, clearing set bits and evicting the first
+ * page whose bit is already clear, so a victim is found in amortized
+ * constant time.
+ */
+public class ClockPolicy implements EvictionPolicy {
+
+    /** Creates a CLOCK policy for each buffer pool stripe. */
+    public static final EvictionPolicy.Factory FACTORY = new EvictionPolicy.Factory() {
+        public EvictionPolicy newPolicy(int numPages) {
+            return new ClockPolicy(numPages);
+        }
+    };
+
+    private PageId[] frames;
+    private boolean[] referenced;
+    private HashMap<PageId, Integer> slots;
+    private int[] freeSlots;
+    private int numFree;
+    private int hand;
+
+    /**
+     * Creates a CLOCK policy sized for a buffer pool.
+     *
+     * @param numPages the number of pages in the buffer pool
+     */
+    public ClockPolicy(int numPages) {
+        int capacity = Math.max(numPages, 1);
+        this.frames = new PageId[capacity];
+        this.referenced = new boolean[capacity];
+        this.slots = new HashMap<PageId, Integer>();
+        this.freeSlots = new int[capacity];
+        for (int i = 0; i < capacity; i++)
+            freeSlots[i] = capacity - 1 - i;
+        this.numFree = capacity;
+        this.hand = 0;
+    }
+
+    public void pageLoaded(PageId pid) {
+        Integer slot = slots.get(pid);
+        if (slot != null) {
+            referenced[slot] = true;
+            return;
+        }
+        if (numFree == 0)
+            grow();
+        int free = freeSlots[--numFree];
+        frames[free] = pid;
+        referenced[free] = true;
+        slots.put(pid, free);
+    }
+
+    public void pageAccessed(PageId pid) {
+        Integer slot = slots.get(pid);
+        if (slot != null)
+            referenced[slot] = true;
+    }
+
+    public void pageRemoved(PageId pid) {
+        Integer slot = slots.remove(pid);
+        if (slot != null)
+            release(slot);
+    }
+
+    public PageId chooseVictim(Candidates candidates) {
+        // two full sweeps: the first may only clear reference bits
+        for (int step = 0; step < 2 * frames.length; step++) {
+            int slot = hand;
+            hand = (hand + 1) % frames.length;
+            PageId pid = frames[slot];
+            if (pid == null)
+                continue;
+            if (referenced[slot]) {
+                referenced[slot] = false;
+                continue;
+            }
+            if (candidates.isEvictable(pid)) {
+                slots.remove(pid);
+                release(slot);
+                return pid;
+            }
+        }
+        return null;
+    }
+
+    private void release(int slot) {
+        frames[slot] = null;
+        referenced[slot] = false;
+        freeSlots[numFree++] = slot;
+    }
+
+    /**
+     * Adds frames when more pages are resident than the pool size, which
+     * can briefly happen while inserts add new pages.
+     */
+    private void grow() {
+        int oldLen = frames.length;
+        int newLen = oldLen * 2;
+        frames = Arrays.copyOf(frames, newLen);
+        referenced = Arrays.copyOf(referenced, newLen);
+        freeSlots = new int[newLen];
+        numFree = 0;
+        for (int i = newLen - 1; i >= oldLen; i--)
+            freeSlots[numFree++] = i;
+    }
+
+    public String toString() {
+        return "CLOCK";
+    }
+}
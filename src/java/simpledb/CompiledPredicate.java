@@ -0,0 +1,595 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * A CompiledPredicate evaluates one or more {@link Predicate}s, ANDed
+ * together, with the type of the field and the operator resolved once when
+ * it is compiled rather than for every row: an integer comparison is a
+ * class of its own that reads the int and compares it with a primitive
+ * operand.
+ * <p>
+ * Rows can be given as Tuples, or as the row a {@link HeapPage.Cursor} is
+ * on, in which case integer fields are read straight from the page bytes
+ * and a row that fails costs no Tuple at all. The rows of a
+ * {@link TupleBatch} are tested a column at a time by {@link #select}, in a
+ * loop over the column's primitive array.
+ * <p>
+ * The terms of an AND or an OR are reordered as rows are evaluated, so
+ * that the terms that most often decide the result for the least work are
+ * tested first. A compiled predicate therefore keeps state, and must not be
+ * shared between threads; each operator compiles its own.
+ */
+public abstract class CompiledPredicate implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** @return true if the tuple satisfies the predicate */
+    public abstract boolean matches(Tuple t);
+
+    /** @return true if the row the cursor is on satisfies the predicate */
+    public abstract boolean matches(HeapPage.Cursor c);
+
+    /**
+     * Narrows the selected rows of a batch to those that satisfy the
+     * predicate. This implementation tests each row as a Tuple; the
+     * comparisons override it with a loop over the column.
+     *
+     * @param b
+     *            the batch whose columns are read
+     * @param sel
+     *            the selected rows, in increasing order; those that pass
+     *            are moved to the front, in the same order
+     * @param n
+     *            the number of selected rows
+     * @return the number of rows that pass
+     */
+    public int select(TupleBatch b, int[] sel, int n) {
+        int out = 0;
+        for (int i = 0; i < n; i++)
+            if (matches(b.getTuple(sel[i])))
+                sel[out++] = sel[i];
+        return out;
+    }
+
+    /**
+     * @return an estimate of the work of one evaluation, in comparisons of
+     *         an int field with a constant
+     */
+    protected double cost() {
+        return 1;
+    }
+
+    /** @return an evaluator for a predicate */
+    public static CompiledPredicate compile(Predicate p) {
+        int f = p.getField();
+        if (p.getOperand().getType() == Type.INT_TYPE) {
+            int v = ((IntField) p.getOperand()).getValue();
+            switch (p.getOp()) {
+            case EQUALS:
+            case LIKE:
+                return new IntEquals(f, v);
+            case NOT_EQUALS:
+                return new IntNotEquals(f, v);
+            case LESS_THAN:
+                return new IntLessThan(f, v);
+            case LESS_THAN_OR_EQ:
+                return new IntLessThanOrEq(f, v);
+            case GREATER_THAN:
+                return new IntGreaterThan(f, v);
+            case GREATER_THAN_OR_EQ:
+                return new IntGreaterThanOrEq(f, v);
+            }
+        } else {
+            String v = ((StringField) p.getOperand()).getValue();
+            switch (p.getOp()) {
+            case LIKE:
+                return new StringLike(f, v);
+            case EQUALS:
+                return new StringCompare(f, v, false, true, false);
+            case NOT_EQUALS:
+                return new StringCompare(f, v, true, false, true);
+            case LESS_THAN:
+                return new StringCompare(f, v, true, false, false);
+            case LESS_THAN_OR_EQ:
+                return new StringCompare(f, v, true, true, false);
+            case GREATER_THAN:
+                return new StringCompare(f, v, false, false, true);
+            case GREATER_THAN_OR_EQ:
+                return new StringCompare(f, v, false, true, true);
+            }
+        }
+        throw new IllegalArgumentException("cannot compile " + p);
+    }
+
+    /**
+     * @return an evaluator for the conjunction of predicates, which starts
+     *         by testing them in the order given and stops at the first
+     *         that fails
+     * @throws IllegalArgumentException
+     *             if there are no predicates
+     */
+    public static CompiledPredicate compile(List<Predicate> ps) {
+        CompiledPredicate[] terms = new CompiledPredicate[ps.size()];
+        for (int i = 0; i < terms.length; i++)
+            terms[i] = compile(ps.get(i));
+        return and(terms);
+    }
+
+    /**
+     * @return an evaluator that a row satisfies if it satisfies all of the
+     *         terms, the first given being tested first until the terms
+     *         are reordered
+     * @throws IllegalArgumentException
+     *             if there are no terms
+     */
+    static CompiledPredicate and(CompiledPredicate[] terms) {
+        return terms.length == 1 ? terms[0] : new Junction(terms, false);
+    }
+
+    /**
+     * @return an evaluator that a row satisfies if it satisfies any of the
+     *         terms
+     * @throws IllegalArgumentException
+     *             if there are no terms
+     */
+    static CompiledPredicate or(CompiledPredicate[] terms) {
+        return terms.length == 1 ? terms[0] : new Junction(terms, true);
+    }
+
+    /** @return an evaluator that a row satisfies if it does not satisfy term */
+    static CompiledPredicate not(CompiledPredicate term) {
+        return new Not(term);
+    }
+
+    private static int intOf(Tuple t, int field) {
+        return ((IntField) t.getField(field)).getValue();
+    }
+
+    private static String stringOf(Tuple t, int field) {
+        return ((StringField) t.getField(field)).getValue();
+    }
+
+    private static String stringOf(HeapPage.Cursor c, int field) {
+        return ((StringField) c.getField(field)).getValue();
+    }
+
+    private static final class IntEquals extends CompiledPredicate {
+        private static final long serialVersionUID = 1L;
+        private final int field, value;
+
+        IntEquals(int field, int value) {
+            this.field = field;
+            this.value = value;
+        }
+
+        public boolean matches(Tuple t) {
+            return intOf(t, field) == value;
+        }
+
+        public boolean matches(HeapPage.Cursor c) {
+            return c.getInt(field) == value;
+        }
+
+        public int select(TupleBatch b, int[] sel, int n) {
+            int[] col = b.getInts(field);
+            int out = 0;
+            for (int i = 0; i < n; i++)
+                if (col[sel[i]] == value)
+                    sel[out++] = sel[i];
+            return out;
+        }
+    }
+
+    private static final class IntNotEquals extends CompiledPredicate {
+        private static final long serialVersionUID = 1L;
+        private final int field, value;
+
+        IntNotEquals(int field, int value) {
+            this.field = field;
+            this.value = value;
+        }
+
+        public boolean matches(Tuple t) {
+            return intOf(t, field) != value;
+        }
+
+        public boolean matches(HeapPage.Cursor c) {
+            return c.getInt(field) != value;
+        }
+
+        public int select(TupleBatch b, int[] sel, int n) {
+            int[] col = b.getInts(field);
+            int out = 0;
+            for (int i = 0; i < n; i++)
+                if (col[sel[i]] != value)
+                    sel[out++] = sel[i];
+            return out;
+        }
+    }
+
+    private static final class IntLessThan extends CompiledPredicate {
+        private static final long serialVersionUID = 1L;
+        private final int field, value;
+
+        IntLessThan(int field, int value) {
+            this.field = field;
+            this.value = value;
+        }
+
+        public boolean matches(Tuple t) {
+            return intOf(t, field) < value;
+        }
+
+        public boolean matches(HeapPage.Cursor c) {
+            return c.getInt(field) < value;
+        }
+
+        public int select(TupleBatch b, int[] sel, int n) {
+            int[] col = b.getInts(field);
+            int out = 0;
+            for (int i = 0; i < n; i++)
+                if (col[sel[i]] < value)
+                    sel[out++] = sel[i];
+            return out;
+        }
+    }
+
+    private static final class IntLessThanOrEq extends CompiledPredicate {
+        private static final long serialVersionUID = 1L;
+        private final int field, value;
+
+        IntLessThanOrEq(int field, int value) {
+            this.field = field;
+            this.value = value;
+        }
+
+        public boolean matches(Tuple t) {
+            return intOf(t, field) <= value;
+        }
+
+        public boolean matches(HeapPage.Cursor c) {
+            return c.getInt(field) <= value;
+        }
+
+        public int select(TupleBatch b, int[] sel, int n) {
+            int[] col = b.getInts(field);
+            int out = 0;
+            for (int i = 0; i < n; i++)
+                if (col[sel[i]] <= value)
+                    sel[out++] = sel[i];
+            return out;
+        }
+    }
+
+    private static final class IntGreaterThan extends CompiledPredicate {
+        private static final long serialVersionUID = 1L;
+        private final int field, value;
+
+        IntGreaterThan(int field, int value) {
+            this.field = field;
+            this.value = value;
+        }
+
+        public boolean matches(Tuple t) {
+            return intOf(t, field) > value;
+        }
+
+        public boolean matches(HeapPage.Cursor c) {
+            return c.getInt(field) > value;
+        }
+
+        public int select(TupleBatch b, int[] sel, int n) {
+            int[] col = b.getInts(field);
+            int out = 0;
+            for (int i = 0; i < n; i++)
+                if (col[sel[i]] > value)
+                    sel[out++] = sel[i];
+            return out;
+        }
+    }
+
+    private static final class IntGreaterThanOrEq extends CompiledPredicate {
+        private static final long serialVersionUID = 1L;
+        private final int field, value;
+
+        IntGreaterThanOrEq(int field, int value) {
+            this.field = field;
+            this.value = value;
+        }
+
+        public boolean matches(Tuple t) {
+            return intOf(t, field) >= value;
+        }
+
+        public boolean matches(HeapPage.Cursor c) {
+            return c.getInt(field) >= value;
+        }
+
+        public int select(TupleBatch b, int[] sel, int n) {
+            int[] col = b.getInts(field);
+            int out = 0;
+            for (int i = 0; i < n; i++)
+                if (col[sel[i]] >= value)
+                    sel[out++] = sel[i];
+            return out;
+        }
+    }
+
+    /** A comparison with a string, accepting a chosen sign of compareTo. */
+    private static final class StringCompare extends CompiledPredicate {
+        private static final long serialVersionUID = 1L;
+        private final int field;
+        private final String value;
+        private final boolean less, equal, greater;
+
+        StringCompare(int field, String value, boolean less, boolean equal,
+                boolean greater) {
+            this.field = field;
+            this.value = value;
+            this.less = less;
+            this.equal = equal;
+            this.greater = greater;
+        }
+
+        private boolean accepts(String s) {
+            int c = s.compareTo(value);
+            return c < 0 ? less : (c == 0 ? equal : greater);
+        }
+
+        public boolean matches(Tuple t) {
+            return accepts(stringOf(t, field));
+        }
+
+        public boolean matches(HeapPage.Cursor c) {
+            return accepts(stringOf(c, field));
+        }
+
+        public int select(TupleBatch b, int[] sel, int n) {
+            String[] col = b.getStrings(field);
+            int out = 0;
+            for (int i = 0; i < n; i++)
+                if (accepts(col[sel[i]]))
+                    sel[out++] = sel[i];
+            return out;
+        }
+
+        /** Strings are read into a Field and compared a char at a time. */
+        protected double cost() {
+            return 4;
+        }
+    }
+
+    /** LIKE on strings, which as in {@link StringField} is a substring test. */
+    private static final class StringLike extends CompiledPredicate {
+        private static final long serialVersionUID = 1L;
+        private final int field;
+        private final String value;
+
+        StringLike(int field, String value) {
+            this.field = field;
+            this.value = value;
+        }
+
+        public boolean matches(Tuple t) {
+            return stringOf(t, field).indexOf(value) >= 0;
+        }
+
+        public boolean matches(HeapPage.Cursor c) {
+            return stringOf(c, field).indexOf(value) >= 0;
+        }
+
+        public int select(TupleBatch b, int[] sel, int n) {
+            String[] col = b.getStrings(field);
+            int out = 0;
+            for (int i = 0; i < n; i++)
+                if (col[sel[i]].indexOf(value) >= 0)
+                    sel[out++] = sel[i];
+            return out;
+        }
+
+        protected double cost() {
+            return 8;
+        }
+    }
+
+    private static final class Not extends CompiledPredicate {
+        private static final long serialVersionUID = 1L;
+        private final CompiledPredicate term;
+        /** Scratch space for the rows the term passes. */
+        private transient int[] passed;
+
+        Not(CompiledPredicate term) {
+            this.term = term;
+        }
+
+        public boolean matches(Tuple t) {
+            return !term.matches(t);
+        }
+
+        public boolean matches(HeapPage.Cursor c) {
+            return !term.matches(c);
+        }
+
+        public int select(TupleBatch b, int[] sel, int n) {
+            if (passed == null || passed.length < n)
+                passed = new int[sel.length];
+            System.arraycopy(sel, 0, passed, 0, n);
+            int m = term.select(b, passed, n);
+            // keep the rows the term did not pass; both lists are in order
+            int out = 0, j = 0;
+            for (int i = 0; i < n; i++) {
+                if (j < m && passed[j] == sel[i])
+                    j++;
+                else
+                    sel[out++] = sel[i];
+            }
+            return out;
+        }
+
+        protected double cost() {
+            return term.cost();
+        }
+    }
+
+    /**
+     * An AND or an OR of terms, which stops at the first term that decides
+     * the result: one that fails an AND, or passes an OR. It counts how
+     * often each term is tested and how often it decides, and every
+     * {@link #REORDER_INTERVAL} rows sorts the terms by their cost over the
+     * chance that they decide. For independent terms that order does the
+     * least work per row. The counts are then halved, so that the order
+     * follows the data as it changes.
+     */
+    static final class Junction extends CompiledPredicate {
+        private static final long serialVersionUID = 1L;
+
+        /** The number of rows evaluated between reorderings of the terms. */
+        static final int REORDER_INTERVAL = 1024;
+
+        /** The value of a term that decides the result, and is then returned. */
+        private final boolean decider;
+        private final CompiledPredicate[] terms;
+        /** How often the term at each position was tested, and decided. */
+        private final long[] tests, decided;
+        private int untilReorder = REORDER_INTERVAL;
+        /** Scratch space for an OR over a batch: rows not yet accepted, and those a term passes. */
+        private transient int[] rest, passed;
+
+        Junction(CompiledPredicate[] terms, boolean or) {
+            if (terms.length == 0)
+                throw new IllegalArgumentException("no terms to combine");
+            this.decider = or;
+            this.terms = terms.clone();
+            this.tests = new long[terms.length];
+            this.decided = new long[terms.length];
+        }
+
+        public boolean matches(Tuple t) {
+            for (int i = 0; i < terms.length; i++) {
+                tests[i]++;
+                if (terms[i].matches(t) == decider) {
+                    decided[i]++;
+                    return counted(decider);
+                }
+            }
+            return counted(!decider);
+        }
+
+        public boolean matches(HeapPage.Cursor c) {
+            for (int i = 0; i < terms.length; i++) {
+                tests[i]++;
+                if (terms[i].matches(c) == decider) {
+                    decided[i]++;
+                    return counted(decider);
+                }
+            }
+            return counted(!decider);
+        }
+
+        private boolean counted(boolean result) {
+            if (--untilReorder == 0) {
+                reorder();
+                untilReorder = REORDER_INTERVAL;
+            }
+            return result;
+        }
+
+        /**
+         * Tests the terms in turn, each on the rows the terms before it left
+         * undecided, counting as for single rows.
+         */
+        public int select(TupleBatch b, int[] sel, int n) {
+            int rows = n;
+            if (!decider) {
+                // AND: each term narrows the selection in place
+                for (int i = 0; i < terms.length && n > 0; i++) {
+                    int m = terms[i].select(b, sel, n);
+                    tests[i] += n;
+                    decided[i] += n - m;
+                    n = m;
+                }
+            } else {
+                // OR: accepted rows are taken out of those still tested,
+                // then merged back in order
+                if (rest == null || rest.length < sel.length) {
+                    rest = new int[sel.length];
+                    passed = new int[sel.length];
+                }
+                System.arraycopy(sel, 0, rest, 0, n);
+                int r = n;
+                for (int i = 0; i < terms.length && r > 0; i++) {
+                    System.arraycopy(rest, 0, passed, 0, r);
+                    int m = terms[i].select(b, passed, r);
+                    tests[i] += r;
+                    decided[i] += m;
+                    int left = 0, j = 0;
+                    for (int k = 0; k < r; k++) {
+                        if (j < m && passed[j] == rest[k])
+                            j++;
+                        else
+                            rest[left++] = rest[k];
+                    }
+                    r = left;
+                }
+                // the rows that pass are those of sel not left in rest
+                int out = 0, j = 0;
+                for (int k = 0; k < n; k++) {
+                    if (j < r && rest[j] == sel[k])
+                        j++;
+                    else
+                        sel[out++] = sel[k];
+                }
+                n = out;
+            }
+            untilReorder -= rows;
+            if (untilReorder <= 0) {
+                reorder();
+                untilReorder = REORDER_INTERVAL;
+            }
+            return n;
+        }
+
+        /**
+         * @return the chance the term at position i decides the result
+         *         when it is tested, starting from an even chance for a
+         *         term that has not been tested
+         */
+        private double decides(int i) {
+            return (decided[i] + 1.0) / (tests[i] + 2.0);
+        }
+
+        /** The work of the terms, each weighted by the chance it is reached. */
+        protected double cost() {
+            double cost = 0, reached = 1;
+            for (int i = 0; i < terms.length; i++) {
+                cost += reached * terms[i].cost();
+                reached *= 1 - decides(i);
+            }
+            return cost;
+        }
+
+        private void reorder() {
+            Integer[] order = new Integer[terms.length];
+            final double[] rank = new double[terms.length];
+            for (int i = 0; i < terms.length; i++) {
+                order[i] = i;
+                rank[i] = terms[i].cost() / decides(i);
+            }
+            // stable, so that terms that rank the same keep their order
+            Arrays.sort(order, new Comparator<Integer>() {
+                public int compare(Integer a, Integer b) {
+                    return Double.compare(rank[a], rank[b]);
+                }
+            });
+            CompiledPredicate[] oldTerms = terms.clone();
+            long[] oldTests = tests.clone(), oldDecided = decided.clone();
+            for (int i = 0; i < terms.length; i++) {
+                terms[i] = oldTerms[order[i]];
+                tests[i] = oldTests[order[i]] / 2;
+                decided[i] = oldDecided[order[i]] / 2;
+            }
+        }
+    }
+}
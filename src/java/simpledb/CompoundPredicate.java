@@ -0,0 +1,204 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * A CompoundPredicate combines comparisons of fields with constants, each a
+ * {@link Predicate}, using AND, OR and NOT, as in the WHERE clause
+ * <pre>
+ *   t.a = 1 OR (t.b &lt; 10 AND NOT t.c LIKE 'x')
+ * </pre>
+ * A {@link Filter} evaluates it through {@link #compile}, which reorders the
+ * terms of each AND and OR as rows go by so that the cheapest term most
+ * likely to decide the result is tested first.
+ */
+public class CompoundPredicate implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** What a CompoundPredicate is: a comparison, or how its terms combine. */
+    public enum Kind {
+        COMPARE, AND, OR, NOT
+    }
+
+    private final Kind kind;
+    private final Predicate predicate;
+    private final CompoundPredicate[] terms;
+
+    /**
+     * Creates a CompoundPredicate that is a single comparison.
+     *
+     * @param p
+     *            the comparison
+     */
+    public CompoundPredicate(Predicate p) {
+        this.kind = Kind.COMPARE;
+        this.predicate = p;
+        this.terms = new CompoundPredicate[0];
+    }
+
+    private CompoundPredicate(Kind kind, CompoundPredicate[] terms) {
+        if (terms.length == 0)
+            throw new IllegalArgumentException("no terms to combine");
+        this.kind = kind;
+        this.predicate = null;
+        this.terms = terms.clone();
+    }
+
+    /**
+     * @return the predicate that tuples satisfy if they satisfy all of the
+     *         terms; a single term is returned as it is
+     * @throws IllegalArgumentException
+     *             if there are no terms
+     */
+    public static CompoundPredicate and(CompoundPredicate... terms) {
+        return terms.length == 1 ? terms[0] : new CompoundPredicate(Kind.AND, terms);
+    }
+
+    /**
+     * @return the predicate that tuples satisfy if they satisfy any of the
+     *         terms; a single term is returned as it is
+     * @throws IllegalArgumentException
+     *             if there are no terms
+     */
+    public static CompoundPredicate or(CompoundPredicate... terms) {
+        return terms.length == 1 ? terms[0] : new CompoundPredicate(Kind.OR, terms);
+    }
+
+    /** @return the predicate that tuples satisfy if they do not satisfy term */
+    public static CompoundPredicate not(CompoundPredicate term) {
+        return new CompoundPredicate(Kind.NOT, new CompoundPredicate[] { term });
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /** @return the comparison, if this is one, or null */
+    public Predicate getPredicate() {
+        return predicate;
+    }
+
+    /** @return the terms combined, none for a comparison */
+    public CompoundPredicate[] getTerms() {
+        return terms.clone();
+    }
+
+    /** @return the comparisons this predicate makes, from left to right */
+    public List<Predicate> getPredicates() {
+        ArrayList<Predicate> ps = new ArrayList<Predicate>();
+        addPredicates(ps);
+        return ps;
+    }
+
+    private void addPredicates(List<Predicate> ps) {
+        if (kind == Kind.COMPARE)
+            ps.add(predicate);
+        for (CompoundPredicate term : terms)
+            term.addPredicates(ps);
+    }
+
+    /**
+     * @param fields
+     *            the new index of each field, by its index in the tuples
+     *            this predicate is applied to
+     * @return the same condition on the same fields, at their indexes in
+     *         other tuples
+     */
+    public CompoundPredicate mapFields(int[] fields) {
+        if (kind == Kind.COMPARE)
+            return new CompoundPredicate(new Predicate(fields[predicate.getField()],
+                    predicate.getOp(), predicate.getOperand()));
+        CompoundPredicate[] mapped = new CompoundPredicate[terms.length];
+        for (int i = 0; i < terms.length; i++)
+            mapped[i] = terms[i].mapFields(fields);
+        return new CompoundPredicate(kind, mapped);
+    }
+
+    /**
+     * Tests a tuple against the predicate, evaluating the terms in the
+     * order given.
+     *
+     * @param t
+     *            The tuple to compare against
+     * @return true if the tuple satisfies the predicate
+     */
+    public boolean filter(Tuple t) {
+        switch (kind) {
+        case COMPARE:
+            return predicate.filter(t);
+        case NOT:
+            return !terms[0].filter(t);
+        default:
+            boolean decider = kind == Kind.OR;
+            for (CompoundPredicate term : terms)
+                if (term.filter(t) == decider)
+                    return decider;
+            return !decider;
+        }
+    }
+
+    /**
+     * @return a new evaluator for this predicate, which reorders the terms
+     *         of its ANDs and ORs as it learns which decide the result for
+     *         the least work
+     */
+    public CompiledPredicate compile() {
+        switch (kind) {
+        case COMPARE:
+            return CompiledPredicate.compile(predicate);
+        case NOT:
+            return CompiledPredicate.not(terms[0].compile());
+        default:
+            CompiledPredicate[] compiled = new CompiledPredicate[terms.length];
+            for (int i = 0; i < terms.length; i++)
+                compiled[i] = terms[i].compile();
+            return kind == Kind.AND ? CompiledPredicate.and(compiled)
+                    : CompiledPredicate.or(compiled);
+        }
+    }
+
+    /**
+     * @param td
+     *            the description of the tuples the predicate is applied to
+     * @return the predicate with fields named as in td, like
+     *         <tt>t.a=1 OR NOT t.b&lt;2</tt>
+     */
+    public String toString(TupleDesc td) {
+        switch (kind) {
+        case COMPARE:
+            return td.getFieldName(predicate.getField()) + predicate.getOp()
+                    + predicate.getOperand();
+        case NOT:
+            return "NOT " + parenthesized(terms[0], td);
+        default:
+            StringBuilder sb = new StringBuilder();
+            for (CompoundPredicate term : terms) {
+                if (sb.length() > 0)
+                    sb.append(' ').append(kind).append(' ');
+                sb.append(parenthesized(term, td));
+            }
+            return sb.toString();
+        }
+    }
+
+    private static String parenthesized(CompoundPredicate p, TupleDesc td) {
+        return p.kind == Kind.AND || p.kind == Kind.OR ? "(" + p.toString(td) + ")"
+                : p.toString(td);
+    }
+
+    public String toString() {
+        switch (kind) {
+        case COMPARE:
+            return "(" + predicate + ")";
+        case NOT:
+            return "NOT " + terms[0];
+        default:
+            StringBuilder sb = new StringBuilder("(");
+            for (int i = 0; i < terms.length; i++)
+                sb.append(i > 0 ? " " + kind + " " : "").append(terms[i]);
+            return sb.append(")").toString();
+        }
+    }
+}
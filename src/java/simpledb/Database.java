@@ -54,6 +54,14 @@ public class Database {
         return _instance._bufferpool;
     }
 
+    /** Method used for testing -- create a new instance of the
+        buffer pool that evicts with the specified policies and return it
+    */
+    public static BufferPool resetBufferPool(int pages, EvictionPolicy.Factory policies) {
+        _instance._bufferpool = new BufferPool(pages, policies);
+        return _instance._bufferpool;
+    }
+
     //reset the database, used for unit tests only.
     public static void reset() {
     	_instance = new Database();
@@ -0,0 +1,69 @@
+package simpledb;
+
+/**
+ * EvictionPolicy is the interface BufferPool uses to decide which resident
+ * page to discard when it needs room for a new one. A policy only tracks
+ * PageIds, so it works for any kind of Page; the BufferPool reports every
+ * load, hit and removal, and asks for a victim when the pool is full.
+ * <p>
+ * Implementations are not thread safe. BufferPool splits its page table
+ * into lock stripes and gives every stripe its own policy, created through
+ * a {@link Factory}, so calls into one policy are always serialized.
+ *
+ * @see BufferPool
+ * @see ClockPolicy
+ * @see LruKPolicy
+ * @see TwoQueuePolicy
+ */
+public interface EvictionPolicy {
+
+    /**
+     * Creates policies for the stripes of a buffer pool.
+     */
+    public interface Factory {
+        /**
+         * @param numPages the number of pages the new policy will manage
+         * @return a new, empty policy
+         */
+        public EvictionPolicy newPolicy(int numPages);
+    }
+
+    /**
+     * Lets BufferPool veto a victim, e.g. because the page is in use.
+     */
+    public interface Candidates {
+        /** @return true if the page with the specified id may be evicted */
+        public boolean isEvictable(PageId pid);
+    }
+
+    /**
+     * Called when a page is read into the buffer pool.
+     *
+     * @param pid the id of the page that became resident
+     */
+    public void pageLoaded(PageId pid);
+
+    /**
+     * Called when a resident page is requested again.
+     *
+     * @param pid the id of the page that was accessed
+     */
+    public void pageAccessed(PageId pid);
+
+    /**
+     * Called when a page leaves the buffer pool for any reason other than
+     * being returned by {@link #chooseVictim}.
+     *
+     * @param pid the id of the page that is no longer resident
+     */
+    public void pageRemoved(PageId pid);
+
+    /**
+     * Picks the next page to evict and stops tracking it.
+     *
+     * @param candidates decides which of the tracked pages may be evicted
+     * @return the id of the page to evict, or null if no tracked page is
+     *   evictable
+     */
+    public PageId chooseVictim(Candidates candidates);
+}
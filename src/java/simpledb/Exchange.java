@@ -0,0 +1,454 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * An Exchange moves tuples between threads. It reads several producers at
+ * once, each on a worker thread, and hands their tuples to one or more
+ * {@link Consumer}s, each of which is an operator read by a thread of its
+ * own. How tuples are routed depends on the mode:
+ * <ul>
+ * <li>GATHER: every tuple goes to the only consumer.</li>
+ * <li>REPARTITION: a tuple goes to the consumer picked by the hash of one
+ * of its fields, so equal values always meet at the same consumer.</li>
+ * <li>BROADCAST: every tuple goes to every consumer.</li>
+ * </ul>
+ * Tuples are handed over in batches through one bounded queue per
+ * consumer, so producers that get ahead wait for the consumers instead of
+ * filling memory. That also means the consumers of an exchange with more
+ * than one must be read at the same time, by different threads: a consumer
+ * left unread eventually stops the others. A consumer that is closed early
+ * stops receiving tuples, and once all of them are closed the producers
+ * are stopped. If a producer fails, or the exchange is {@link #abort
+ * aborted}, the run stops: the other producers stop reading, and every
+ * consumer reports the failure the next time it is read.
+ * <p>
+ * Producers must be safe to run at the same time: they may share the
+ * buffer pool, but not operators.
+ */
+public class Exchange implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** How tuples are routed from producers to consumers. */
+    public enum Mode {
+        GATHER, REPARTITION, BROADCAST
+    }
+
+    /** The number of tuples a producer hands a consumer at a time. */
+    public static final int BATCH_TUPLES = 256;
+
+    private DbIterator[] producers;
+    private final Mode mode;
+    /** The field hashed to pick a consumer when repartitioning. */
+    private final int field;
+    /** The number of batches each consumer's queue holds. */
+    private final int capacity;
+    private final Consumer[] consumers;
+    /** The run in progress, or null between runs. */
+    private transient Run run;
+
+    /**
+     * Constructor.
+     *
+     * @param producers
+     *            the iterators to read in parallel
+     * @param mode
+     *            how tuples are routed to consumers
+     * @param field
+     *            the field hashed when repartitioning; ignored otherwise
+     * @param consumers
+     *            the number of consumers, which must be one to gather
+     * @param capacity
+     *            the number of batches each consumer's queue holds
+     * @throws IllegalArgumentException
+     *             if there are no producers or consumers, the capacity is
+     *             not positive, a gather has several consumers, or the
+     *             field to repartition on does not exist
+     */
+    public Exchange(DbIterator[] producers, Mode mode, int field, int consumers,
+            int capacity) {
+        if (producers.length == 0)
+            throw new IllegalArgumentException("need at least one producer");
+        if (consumers < 1 || (mode == Mode.GATHER && consumers != 1))
+            throw new IllegalArgumentException("bad number of consumers: " + consumers);
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be positive");
+        if (mode == Mode.REPARTITION
+                && (field < 0 || field >= producers[0].getTupleDesc().numFields()))
+            throw new IllegalArgumentException("no field " + field + " to repartition on");
+        this.producers = producers.clone();
+        this.mode = mode;
+        this.field = field;
+        this.capacity = capacity;
+        this.consumers = new Consumer[consumers];
+        for (int i = 0; i < consumers; i++)
+            this.consumers[i] = new Consumer(i);
+    }
+
+    /** @return an exchange that gathers the producers into one consumer */
+    public static Exchange gather(DbIterator[] producers) {
+        return new Exchange(producers, Mode.GATHER, -1, 1, 2 * producers.length);
+    }
+
+    /**
+     * @return an exchange that splits the tuples of the producers between
+     *         consumers by the hash of a field
+     */
+    public static Exchange repartition(DbIterator[] producers, int field, int consumers) {
+        return new Exchange(producers, Mode.REPARTITION, field, consumers, 4);
+    }
+
+    /** @return an exchange that sends every tuple to every consumer */
+    public static Exchange broadcast(DbIterator[] producers, int consumers) {
+        return new Exchange(producers, Mode.BROADCAST, -1, consumers, 4);
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /** @return the field hashed when repartitioning */
+    public int getField() {
+        return field;
+    }
+
+    public DbIterator[] getProducers() {
+        return producers.clone();
+    }
+
+    public int numConsumers() {
+        return consumers.length;
+    }
+
+    /** @return the operator that returns the tuples routed to consumer i */
+    public Consumer getConsumer(int i) {
+        return consumers[i];
+    }
+
+    public TupleDesc getTupleDesc() {
+        return producers[0].getTupleDesc();
+    }
+
+    /** Mixes a hash code, so that consecutive values spread over consumers. */
+    private static int mix(int h) {
+        h ^= 0x7f4a7c15;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * Stops the run in progress, if any, for the error path of the plan
+     * that reads the exchange: producers stop reading and stop waiting for
+     * room, and consumers fail when next read. The consumers must still be
+     * closed.
+     */
+    public void abort() {
+        Run r;
+        synchronized (this) {
+            r = run;
+        }
+        if (r != null)
+            r.abort();
+    }
+
+    /** @return the consumer a tuple is routed to when repartitioning */
+    int partition(Tuple t) {
+        return (mix(t.getField(field).hashCode()) >>> 1) % consumers.length;
+    }
+
+    /**
+     * Starts a run, in which each consumer is opened at most once.
+     * Consumers that have not been opened yet are reset, so that one closed
+     * before it opens is not sent tuples.
+     */
+    private Run newRun() {
+        run = new Run();
+        for (Consumer c : consumers)
+            c.done = false;
+        return run;
+    }
+
+    /** The queues and producer tasks of one run of the exchange. */
+    private class Run {
+        final ArrayList<BlockingQueue<List<Tuple>>> queues =
+                new ArrayList<BlockingQueue<List<Tuple>>>();
+        /** The empty batch each producer queues when it is done. */
+        final ArrayList<List<Tuple>> ends = new ArrayList<List<Tuple>>();
+        /** What each producer failed with, if anything. */
+        final Throwable[] failures = new Throwable[producers.length];
+        final ArrayList<Future<Void>> tasks = new ArrayList<Future<Void>>();
+        final AtomicIntegerArray closed = new AtomicIntegerArray(consumers.length);
+        final AtomicInteger open = new AtomicInteger(consumers.length);
+        /** Set when the run stops early because something failed. */
+        volatile boolean aborted;
+
+        Run() {
+            for (int i = 0; i < consumers.length; i++)
+                queues.add(new ArrayBlockingQueue<List<Tuple>>(capacity));
+            for (int i = 0; i < producers.length; i++)
+                ends.add(new ArrayList<Tuple>(0));
+        }
+
+        /** Starts the producers, unless another consumer already has. */
+        synchronized void start() {
+            if (!tasks.isEmpty())
+                return;
+            for (int i = 0; i < producers.length; i++)
+                tasks.add(WorkerPool.submit(producer(i)));
+        }
+
+        boolean isClosed(int c) {
+            return closed.get(c) != 0;
+        }
+
+        void abort() {
+            aborted = true;
+        }
+
+        /**
+         * Throws what the run was aborted for: the first producer failure,
+         * or a DbException if it was aborted from outside.
+         */
+        void rethrowAbort() throws DbException, TransactionAbortedException {
+            for (Throwable failure : failures)
+                if (failure != null)
+                    WorkerPool.rethrow(failure);
+            throw new DbException("exchange aborted");
+        }
+
+        /**
+         * Stops sending tuples to a consumer. The last consumer to close
+         * stops the producers and waits for them to close.
+         */
+        void close(int c) {
+            if (closed.getAndSet(c, 1) != 0 || open.decrementAndGet() > 0)
+                return;
+            ArrayList<Future<Void>> started;
+            synchronized (this) {
+                started = new ArrayList<Future<Void>>(tasks);
+            }
+            for (Future<Void> f : started) {
+                try {
+                    f.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    // failures are recorded in the run and reported by consumers
+                }
+            }
+            synchronized (Exchange.this) {
+                if (run == this)
+                    run = null;
+            }
+        }
+
+        /**
+         * Queues a batch for a consumer, waiting for room, unless it is
+         * closed or the run is aborted first. Producers are never
+         * interrupted, since an interrupt would close the file channel a
+         * page is being read from.
+         */
+        void put(int c, List<Tuple> b) {
+            try {
+                while (!isClosed(c) && !aborted)
+                    if (queues.get(c).offer(b, 10, TimeUnit.MILLISECONDS))
+                        return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /** @return a task that reads producer i into the queues */
+        Callable<Void> producer(final int i) {
+            return new Callable<Void>() {
+                public Void call() {
+                    DbIterator p = producers[i];
+                    ArrayList<ArrayList<Tuple>> out = new ArrayList<ArrayList<Tuple>>();
+                    for (int c = 0; c < consumers.length; c++)
+                        out.add(new ArrayList<Tuple>(BATCH_TUPLES));
+                    try {
+                        p.open();
+                        while (open.get() > 0 && !aborted && p.hasNext()) {
+                            Tuple t = p.next();
+                            if (mode == Mode.BROADCAST) {
+                                for (int c = 0; c < consumers.length; c++)
+                                    add(out, c, t);
+                            } else {
+                                add(out, mode == Mode.REPARTITION ? partition(t) : 0, t);
+                            }
+                        }
+                        for (int c = 0; c < consumers.length; c++)
+                            if (!out.get(c).isEmpty())
+                                put(c, out.get(c));
+                    } catch (Throwable e) {
+                        failures[i] = e;
+                        abort();
+                    } finally {
+                        p.close();
+                        for (int c = 0; c < consumers.length; c++)
+                            put(c, ends.get(i));
+                    }
+                    return null;
+                }
+            };
+        }
+
+        private void add(ArrayList<ArrayList<Tuple>> out, int c, Tuple t) {
+            ArrayList<Tuple> b = out.get(c);
+            b.add(t);
+            if (b.size() == BATCH_TUPLES) {
+                put(c, b);
+                out.set(c, new ArrayList<Tuple>(BATCH_TUPLES));
+            }
+        }
+    }
+
+    /**
+     * A Consumer returns the tuples an exchange routes to it, in whatever
+     * order they arrive. Opening the first consumer starts the producers.
+     */
+    public class Consumer extends Operator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int index;
+        /** Whether this consumer has closed since the run started. */
+        private transient boolean done;
+        private transient Run current;
+        /** The number of producers that are done. */
+        private transient int ended;
+        private transient Iterator<Tuple> batch;
+
+        Consumer(int index) {
+            this.index = index;
+        }
+
+        /** @return the exchange this consumer reads from */
+        public Exchange getExchange() {
+            return Exchange.this;
+        }
+
+        /** @return a short description of the exchange, for query plans */
+        public String getName() {
+            switch (mode) {
+            case REPARTITION:
+                return "exchange(hash " + getTupleDesc().getFieldName(field) + ","
+                        + producers.length + "->" + consumers.length + ")";
+            case BROADCAST:
+                return "exchange(broadcast," + producers.length + "->"
+                        + consumers.length + ")";
+            default:
+                return "gather(" + producers.length + ")";
+            }
+        }
+
+        public TupleDesc getTupleDesc() {
+            return Exchange.this.getTupleDesc();
+        }
+
+        /**
+         * @throws DbException
+         *             if this consumer was already read in the run of the
+         *             exchange that is still in progress
+         */
+        public void open() throws DbException, TransactionAbortedException {
+            synchronized (Exchange.this) {
+                if (run == null)
+                    newRun();
+                else if (run.isClosed(index))
+                    throw new DbException("consumer " + index
+                            + " reopened before the rest of its exchange closed");
+                current = run;
+                done = false;
+            }
+            current.start();
+            ended = 0;
+            batch = null;
+            super.open();
+        }
+
+        protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+            while (batch == null || !batch.hasNext()) {
+                if (ended == producers.length)
+                    return null;
+                List<Tuple> b;
+                try {
+                    // poll, so that an aborted run, whose producers may
+                    // not queue their ends, does not leave this waiting
+                    do {
+                        if (current.aborted)
+                            current.rethrowAbort();
+                        b = current.queues.get(index).poll(10, TimeUnit.MILLISECONDS);
+                    } while (b == null);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    current.abort();
+                    throw new DbException("interrupted waiting for a producer");
+                }
+                if (b.isEmpty()) {
+                    // a producer is done; rethrow whatever it failed with
+                    ended++;
+                    int i = 0;
+                    while (current.ends.get(i) != b)
+                        i++;
+                    if (current.failures[i] != null)
+                        WorkerPool.rethrow(current.failures[i]);
+                    continue;
+                }
+                batch = b.iterator();
+            }
+            return batch.next();
+        }
+
+        /**
+         * Reads the producers again.
+         *
+         * @throws DbException
+         *             if the exchange has other consumers, which would not
+         *             be sent the tuples again
+         */
+        public void rewind() throws DbException, TransactionAbortedException {
+            if (consumers.length > 1)
+                throw new DbException("cannot rewind one consumer of an exchange");
+            close();
+            open();
+        }
+
+        /**
+         * Stops this consumer. A consumer closed before it opens is not sent
+         * tuples in the run in progress, or in the next one if none is.
+         */
+        public void close() {
+            super.close();
+            Run r;
+            synchronized (Exchange.this) {
+                if (done)
+                    return;
+                r = current != null ? current : (run != null ? run : newRun());
+                done = true;
+                current = null;
+            }
+            batch = null;
+            r.close(index);
+        }
+
+        /** @return the producers, the first of which describes the others */
+        @Override
+        public DbIterator[] getChildren() {
+            return producers.clone();
+        }
+
+        @Override
+        public void setChildren(DbIterator[] children) {
+            producers = children.clone();
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * ExternalSort sorts tuples that may not fit in memory. Tuples are added
+ * to an in-memory buffer; whenever the buffer reaches the memory budget it
+ * is sorted and written out as a run to a {@link SpillFile}. The sorted
+ * result merges the runs with a priority queue, first merging them in
+ * passes of {@link #MAX_FANIN} runs if there are more than that. If every
+ * tuple fit in the buffer nothing is written and the buffer is sorted in
+ * memory.
+ * <p>
+ * Sorting with a {@link TupleComparator} that has normalized keys compares
+ * the keys rather than fields, both in runs and in the merge.
+ */
+public class ExternalSort {
+
+    /** The largest number of runs merged at once. */
+    public static final int MAX_FANIN = 64;
+
+    private final TupleDesc td;
+    private final Comparator<Tuple> cmp;
+    private final int memoryTuples;
+    private ArrayList<Tuple> buffer = new ArrayList<Tuple>();
+    private final LinkedList<SpillFile> runs = new LinkedList<SpillFile>();
+
+    /**
+     * Creates an empty sort.
+     *
+     * @param td the schema of the tuples to sort
+     * @param cmp the order to sort them in
+     * @param memoryTuples the number of tuples buffered before a run is
+     *            written
+     */
+    public ExternalSort(TupleDesc td, Comparator<Tuple> cmp, int memoryTuples) {
+        if (memoryTuples <= 0)
+            throw new IllegalArgumentException("memory budget must be positive");
+        this.td = td;
+        this.cmp = cmp;
+        this.memoryTuples = memoryTuples;
+    }
+
+    /** Adds a tuple, writing a run if the buffer is full. */
+    public void add(Tuple t) throws DbException {
+        buffer.add(t);
+        if (buffer.size() >= memoryTuples)
+            writeRun();
+    }
+
+    /** Adds every tuple of an open iterator. */
+    public void addAll(DbIterator it) throws DbException, TransactionAbortedException {
+        while (it.hasNext())
+            add(it.next());
+    }
+
+    /** @return the number of runs written so far */
+    public int numRuns() {
+        return runs.size();
+    }
+
+    private void sortBuffer() {
+        if (cmp instanceof TupleComparator)
+            ((TupleComparator) cmp).sort(buffer);
+        else
+            Collections.sort(buffer, cmp);
+    }
+
+    private void writeRun() throws DbException {
+        sortBuffer();
+        try {
+            SpillFile run = new SpillFile(td);
+            for (Tuple t : buffer)
+                run.add(t);
+            runs.add(run);
+        } catch (IOException e) {
+            throw new DbException("could not write sort run: " + e.getMessage());
+        }
+        buffer = new ArrayList<Tuple>();
+    }
+
+    /**
+     * Returns an iterator over the added tuples in sorted order. No tuples
+     * may be added afterwards.
+     */
+    public DbIterator sorted() throws DbException, TransactionAbortedException {
+        if (runs.isEmpty()) {
+            sortBuffer();
+            return new TupleIterator(td, buffer);
+        }
+        if (!buffer.isEmpty())
+            writeRun();
+        while (runs.size() > MAX_FANIN) {
+            ArrayList<SpillFile> pass = new ArrayList<SpillFile>();
+            for (int i = 0; i < MAX_FANIN; i++)
+                pass.add(runs.removeFirst());
+            DbIterator merged = new MergeIterator(pass);
+            try {
+                SpillFile run = new SpillFile(td);
+                merged.open();
+                while (merged.hasNext())
+                    run.add(merged.next());
+                merged.close();
+                runs.add(run);
+            } catch (IOException e) {
+                throw new DbException("could not write sort run: " + e.getMessage());
+            }
+            for (SpillFile f : pass)
+                f.delete();
+        }
+        return new MergeIterator(new ArrayList<SpillFile>(runs));
+    }
+
+    /** Deletes the runs and drops the buffer. */
+    public void delete() {
+        for (SpillFile f : runs)
+            f.delete();
+        runs.clear();
+        buffer = new ArrayList<Tuple>();
+    }
+
+    /** Merges sorted runs; ties go to the earlier run, so the sort is stable. */
+    private class MergeIterator implements DbIterator {
+
+        private static final long serialVersionUID = 1L;
+        private final DbIterator[] inputs;
+        /** The comparator, if heads are ordered on normalized keys. */
+        private final TupleComparator keys;
+        private transient PriorityQueue<Head> heads;
+
+        private class Head implements Comparable<Head> {
+            final int run;
+            Tuple t;
+            long key;
+
+            Head(int run, Tuple t) {
+                this.run = run;
+                set(t);
+            }
+
+            void set(Tuple t) {
+                this.t = t;
+                if (keys != null)
+                    key = keys.normalizedKey(t);
+            }
+
+            public int compareTo(Head o) {
+                int c;
+                if (keys != null)
+                    c = key < o.key ? -1 : (key == o.key ? 0 : 1);
+                else
+                    c = cmp.compare(t, o.t);
+                return c != 0 ? c : run - o.run;
+            }
+        }
+
+        MergeIterator(List<SpillFile> files) {
+            keys = cmp instanceof TupleComparator
+                    && ((TupleComparator) cmp).hasNormalizedKey(td) ? (TupleComparator) cmp
+                    : null;
+            inputs = new DbIterator[files.size()];
+            for (int i = 0; i < inputs.length; i++)
+                inputs[i] = files.get(i).iterator();
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            heads = new PriorityQueue<Head>(Math.max(1, inputs.length));
+            for (int i = 0; i < inputs.length; i++) {
+                inputs[i].open();
+                if (inputs[i].hasNext())
+                    heads.add(new Head(i, inputs[i].next()));
+            }
+        }
+
+        public boolean hasNext() {
+            if (heads == null)
+                throw new IllegalStateException("iterator not yet open");
+            return !heads.isEmpty();
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Head h = heads.poll();
+            Tuple t = h.t;
+            if (inputs[h.run].hasNext()) {
+                h.set(inputs[h.run].next());
+                heads.add(h);
+            }
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void close() {
+            for (DbIterator in : inputs)
+                in.close();
+            heads = null;
+        }
+    }
+}
@@ -3,15 +3,25 @@ package simpledb;
 import java.util.*;
 
 /**
- * Filter is an operator that implements a relational select.
+ * Filter is an operator that implements a relational select. Its condition
+ * may be a single predicate, several that must all hold, or any
+ * {@link CompoundPredicate} of them. The condition is compiled once into a
+ * {@link CompiledPredicate}, which starts by testing terms in the order
+ * given, so the most selective should come first, and reorders them as it
+ * learns which reject or accept rows for the least work. Over a
+ * {@link SeqScan} the condition is pushed into the scan, which tests it on
+ * the page bytes.
  */
 public class Filter extends Operator {
 
     private static final long serialVersionUID = 1L;
 
-    private Predicate p;
+    private CompoundPredicate cond;
+    private CompiledPredicate compiled;
     private DbIterator child;
     private boolean filterStatus;
+    /** Whether the child applies the condition itself. */
+    private boolean pushed;
     
     /**
      * Constructor accepts a predicate to apply and a child operator to read
@@ -23,15 +33,65 @@ public class Filter extends Operator {
      *            The child operator
      */
     public Filter(Predicate p, DbIterator child) {
-        // some code goes here
-    	this.p = p;
+        this(new Predicate[] { p }, child);
+    }
+
+    /**
+     * Constructor accepts predicates to apply, all of which a tuple must
+     * satisfy, and a child operator to read tuples to filter from.
+     * 
+     * @param ps
+     *            The predicates to filter tuples with, in the order to test
+     *            them first
+     * @param child
+     *            The child operator
+     * @throws IllegalArgumentException
+     *             if there are no predicates
+     */
+    public Filter(Predicate[] ps, DbIterator child) {
+        this(conjunction(ps), child);
+    }
+
+    /**
+     * Constructor accepts a condition to apply and a child operator to read
+     * tuples to filter from.
+     * 
+     * @param cond
+     *            The condition to filter tuples with
+     * @param child
+     *            The child operator
+     */
+    public Filter(CompoundPredicate cond, DbIterator child) {
+    	this.cond = cond;
+    	this.compiled = cond.compile();
     	this.child = child;
     	this.filterStatus = false;
     }
 
+    private static CompoundPredicate conjunction(Predicate[] ps) {
+        CompoundPredicate[] terms = new CompoundPredicate[ps.length];
+        for (int i = 0; i < ps.length; i++)
+            terms[i] = new CompoundPredicate(ps[i]);
+        return CompoundPredicate.and(terms);
+    }
+
+    /** @return the condition tuples must satisfy */
+    public CompoundPredicate getCondition() {
+        return cond;
+    }
+
+    /** @return the first predicate of the condition */
     public Predicate getPredicate() {
         // some code goes here
-        return p;
+        return cond.getPredicates().get(0);
+    }
+
+    /**
+     * @return the predicates of the condition, in the order given; unless
+     *         the condition says otherwise, all of them must hold
+     */
+    public Predicate[] getPredicates() {
+        return cond.getPredicates().toArray(new Predicate[0]);
     }
 
     public TupleDesc getTupleDesc() {
@@ -47,6 +107,7 @@ public class Filter extends Operator {
     	}
     	else{
     		super.open();
+    		pushed = child instanceof SeqScan && ((SeqScan) child).pushFilter(compiled);
     		child.open();
     		filterStatus = true;
     	}
@@ -57,6 +118,9 @@ public class Filter extends Operator {
     	if (filterStatus){
     		super.close();
     		child.close();
+    		if (pushed)
+    			((SeqScan) child).pushFilter(null);
+    		pushed = false;
     		filterStatus = false;
     	}
     	else{
@@ -76,12 +140,12 @@ public class Filter extends Operator {
 
     /**
      * AbstractDbIterator.readNext implementation. Iterates over tuples from the
-     * child operator, applying the predicate to them and returning those that
-     * pass the predicate (i.e. for which the Predicate.filter() returns true.)
+     * child operator, applying the condition to them and returning those that
+     * pass it (i.e. for which CompoundPredicate.filter() returns true.)
      * 
      * @return The next tuple that passes the filter, or null if there are no
      *         more tuples
-     * @see Predicate#filter
+     * @see CompoundPredicate#filter
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
@@ -90,7 +154,7 @@ public class Filter extends Operator {
     	if (filterStatus){
     		while(child.hasNext()){
     			temp = child.next();
-    			if (p.filter(temp)){
+    			if (pushed || compiled.matches(temp)){
     				return temp;
     			}
     		}
@@ -0,0 +1,160 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * FreeSpaceMap records how many pages a HeapFile has and how many free
+ * tuple slots each of them has, so that inserts can go straight to a page
+ * with room and callers of {@link HeapFile#numPages} do not have to ask
+ * the file system.
+ * <p>
+ * The free counts are hints. Pages change in the buffer pool without the
+ * map seeing every change, so a page the map offers may turn out to be
+ * full; callers then report the real count with {@link #update} and ask
+ * again.
+ * <p>
+ * The map is saved next to the table, in a file named after the data file
+ * with a <code>.fsm</code> suffix, together with the length and
+ * modification time of the data file. A saved map that does not match the
+ * data file is ignored and the map is rebuilt from the page headers.
+ */
+public class FreeSpaceMap {
+
+    private static final int MAGIC = 0x46534d31; // "FSM1"
+
+    private int numPages;
+    private short[] free;
+    /** Pages with at least one free slot, as far as the map knows. */
+    private BitSet withFree;
+    private boolean dirty;
+
+    /**
+     * Creates a map of a file whose pages have the given free slot counts.
+     *
+     * @param free the number of free slots of each page
+     */
+    public FreeSpaceMap(int[] free) {
+        this.numPages = 0;
+        this.free = new short[Math.max(16, free.length)];
+        this.withFree = new BitSet();
+        for (int i = 0; i < free.length; i++)
+            addPage(free[i]);
+        this.dirty = true;
+    }
+
+    /** @return the file a map of dataFile is saved to */
+    static File mapFile(File dataFile) {
+        return new File(dataFile.getPath() + ".fsm");
+    }
+
+    /**
+     * Reads the saved map of a data file.
+     *
+     * @return the map, or null if there is none or it is out of date
+     */
+    static FreeSpaceMap load(File dataFile) {
+        File f = mapFile(dataFile);
+        if (!f.exists())
+            return null;
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(f)));
+            try {
+                if (in.readInt() != MAGIC || in.readLong() != dataFile.length()
+                        || in.readLong() != dataFile.lastModified())
+                    return null;
+                int[] free = new int[in.readInt()];
+                for (int i = 0; i < free.length; i++)
+                    free[i] = in.readShort();
+                FreeSpaceMap map = new FreeSpaceMap(free);
+                map.dirty = false;
+                return map;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // a damaged map is rebuilt like a missing one
+            return null;
+        }
+    }
+
+    /**
+     * Saves the map next to a data file, if it changed since it was last
+     * loaded or saved.
+     */
+    synchronized void save(File dataFile) throws IOException {
+        if (!dirty)
+            return;
+        File f = mapFile(dataFile);
+        File tmp = new File(f.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeLong(dataFile.length());
+            out.writeLong(dataFile.lastModified());
+            out.writeInt(numPages);
+            for (int i = 0; i < numPages; i++)
+                out.writeShort(free[i]);
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(f)) {
+            f.delete();
+            if (!tmp.renameTo(f))
+                throw new IOException("could not save " + f);
+        }
+        dirty = false;
+    }
+
+    /** @return the number of pages in the file */
+    public synchronized int numPages() {
+        return numPages;
+    }
+
+    /** @return the number of free slots the map records for a page */
+    public synchronized int getFreeSlots(int pageNo) {
+        return free[pageNo];
+    }
+
+    /**
+     * Records a new page at the end of the file.
+     *
+     * @param freeSlots the number of free slots of the new page
+     * @return the number of the new page
+     */
+    public synchronized int addPage(int freeSlots) {
+        if (numPages == free.length)
+            free = Arrays.copyOf(free, free.length * 2);
+        int pageNo = numPages++;
+        set(pageNo, freeSlots);
+        return pageNo;
+    }
+
+    /**
+     * Records the number of free slots of a page. Pages past the end of the
+     * file extend it, with the pages in between counted as empty.
+     */
+    public synchronized void update(int pageNo, int freeSlots, int slotsPerPage) {
+        while (numPages <= pageNo)
+            addPage(slotsPerPage);
+        set(pageNo, freeSlots);
+    }
+
+    private void set(int pageNo, int freeSlots) {
+        dirty = true;
+        free[pageNo] = (short) freeSlots;
+        withFree.set(pageNo, freeSlots > 0);
+    }
+
+    /**
+     * Finds a page that has free slots, as far as the map knows.
+     *
+     * @return the lowest such page, or -1 if there is none
+     */
+    public synchronized int findPage() {
+        int pageNo = withFree.nextSetBit(0);
+        return pageNo < numPages ? pageNo : -1;
+    }
+}
@@ -0,0 +1,90 @@
+package simpledb;
+
+/**
+ * Gather reads several producers at once, each on a worker thread, and
+ * returns their tuples in whatever order they arrive. It is the consumer
+ * of an {@link Exchange} in GATHER mode: tuples are handed over in batches
+ * through a bounded queue, so a producer that gets ahead of the consumer
+ * waits for it instead of filling memory.
+ * <p>
+ * The producers must all have the same TupleDesc, and must be safe to run
+ * at the same time: they may share the buffer pool, but not operators.
+ */
+public class Gather extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The number of batches queued before producers wait. */
+    private final int capacity;
+    private Exchange exchange;
+
+    /**
+     * Creates a Gather whose queue holds two batches per producer.
+     *
+     * @param producers
+     *            the iterators to read in parallel
+     */
+    public Gather(DbIterator[] producers) {
+        this(producers, 2 * producers.length);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param producers
+     *            the iterators to read in parallel
+     * @param capacity
+     *            the number of batches queued before producers wait for the
+     *            consumer
+     * @throws IllegalArgumentException
+     *             if there are no producers, or the capacity is not positive
+     */
+    public Gather(DbIterator[] producers, int capacity) {
+        this.capacity = capacity;
+        this.exchange = new Exchange(producers, Exchange.Mode.GATHER, -1, 1, capacity);
+    }
+
+    /** @return the number of producers */
+    public int numProducers() {
+        return exchange.getProducers().length;
+    }
+
+    /** @return a short description, for query plans */
+    public String getName() {
+        return exchange.getConsumer(0).getName();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return exchange.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        exchange.getConsumer(0).open();
+        super.open();
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        Operator in = exchange.getConsumer(0);
+        return in.hasNext() ? in.next() : null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        exchange.getConsumer(0).rewind();
+    }
+
+    /** Stops the producers and waits for them to close. */
+    public void close() {
+        super.close();
+        exchange.getConsumer(0).close();
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return exchange.getProducers();
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.exchange = new Exchange(children, Exchange.Mode.GATHER, -1, 1, capacity);
+    }
+}
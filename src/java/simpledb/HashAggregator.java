@@ -0,0 +1,678 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * HashAggregator computes one or more aggregates over groups kept in a
+ * hash table, and is the engine behind {@link Aggregate},
+ * {@link IntegerAggregator} and {@link StringAggregator}. Groups may be
+ * keyed on several fields; the result has the group fields first, then one
+ * INT_TYPE field per aggregate.
+ * <p>
+ * Each group holds a running value per aggregate and a count, as longs, so
+ * sums and averages do not wrap around until the result is cast to an int.
+ * Groups on a single INT_TYPE field are kept in an open-addressing table of
+ * primitive arrays; other groups, and the single group when there is no
+ * grouping, in a HashMap keyed on the list of group values.
+ * <p>
+ * Once the table holds as many groups as the memory budget, tuples of the
+ * groups already in it are still aggregated in memory, but tuples of new
+ * groups are hash partitioned into {@link #FANOUT} spill files. The results
+ * are streamed: first the groups in memory, then each partition in turn,
+ * aggregated by a HashAggregator of its own that partitions again, with a
+ * different hash, if it is still too large. Below {@link #MAX_LEVEL} the
+ * table grows past the budget instead.
+ * <p>
+ * Aggregators filled from different parts of the same input, e.g. by
+ * separate threads, can be combined with {@link #merge}. Partial values
+ * combine per operator; an average is kept as its sum and count, so it
+ * combines exactly.
+ */
+public class HashAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The number of partitions groups are spilled to. */
+    public static final int FANOUT = 16;
+    /** The number of times groups are partitioned before the table grows. */
+    public static final int MAX_LEVEL = 3;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final int[] gbfields;
+    private final int[] afields;
+    private final Op[] ops;
+    private final TupleDesc td;
+    /** The budget given to the constructor, or 0 to derive it from the buffer pool. */
+    private final int memoryGroups;
+    private final int level;
+    /** True if groups are kept in the open-addressing table. */
+    private final boolean intKeys;
+
+    /** Group values of the open-addressing table. */
+    private int[] keys;
+    /** Running values of each slot, one per aggregate. */
+    private long[] values;
+    /** Number of tuples in each slot; 0 marks an empty slot. */
+    private long[] counts;
+    private int size;
+    /** Running values then count of each group, when not kept in the table. */
+    private HashMap<List<Field>, long[]> groups;
+    /**
+     * Tuples of groups that did not fit, projected to the group then
+     * aggregate fields. A partition may hold several files once partial
+     * aggregators are merged.
+     */
+    private ArrayList<ArrayList<SpillFile>> partitions;
+    /** The file of each partition this aggregator appends to. */
+    private SpillFile[] spills;
+    /**
+     * Groups moved out of memory by {@link #merge} because their partition
+     * has spilled tuples, which may be of the same groups; each partition
+     * starts from its seed when it is aggregated.
+     */
+    private HashAggregator[] seeds;
+
+    /**
+     * Creates an aggregator with a memory budget of half the buffer pool.
+     *
+     * @param gbfield
+     *            the 0-based index of the group-by field in the tuple, or
+     *            NO_GROUPING if there is no grouping
+     * @param gbfieldtype
+     *            the type of the group by field (e.g., Type.INT_TYPE), or null
+     *            if there is no grouping
+     * @param afield
+     *            the 0-based index of the aggregate field in the tuple
+     * @param what
+     *            the aggregation operator
+     */
+    public HashAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
+        this(gbfield, gbfieldtype, afield, what, 0);
+    }
+
+    /**
+     * Creates an aggregator with a fixed memory budget.
+     *
+     * @param memoryGroups
+     *            the number of groups held in memory before new groups are
+     *            spilled to disk, or 0 to use half the buffer pool
+     */
+    public HashAggregator(int gbfield, Type gbfieldtype, int afield, Op what,
+            int memoryGroups) {
+        this(gbfield == NO_GROUPING ? new int[0] : new int[] { gbfield },
+                new int[] { afield }, new Op[] { what }, memoryGroups, 0,
+                gbfield == NO_GROUPING
+                ? new TupleDesc(new Type[] { Type.INT_TYPE }, new String[] { null })
+                : new TupleDesc(new Type[] { gbfieldtype, Type.INT_TYPE },
+                        new String[] { null, null }));
+    }
+
+    /**
+     * Creates an aggregator computing several aggregates over groups keyed
+     * on several fields. The result fields are named after the group fields
+     * of the input, and "op(field)" for the aggregates.
+     *
+     * @param gbfields
+     *            the group-by fields of the input, empty if there is no
+     *            grouping
+     * @param afields
+     *            the aggregate fields of the input
+     * @param ops
+     *            the aggregation operator of each aggregate field
+     * @param childtd
+     *            the schema of the input
+     * @param memoryGroups
+     *            the number of groups held in memory before new groups are
+     *            spilled to disk, or 0 to use half the buffer pool
+     * @throws IllegalArgumentException if there are no aggregates, or
+     *             an operator other than COUNT is over a string field
+     */
+    public HashAggregator(int[] gbfields, int[] afields, Op[] ops, TupleDesc childtd,
+            int memoryGroups) {
+        this(gbfields, afields, ops, memoryGroups, 0, resultDesc(gbfields, afields, ops, childtd));
+    }
+
+    private HashAggregator(int[] gbfields, int[] afields, Op[] ops, int memoryGroups,
+            int level, TupleDesc td) {
+        if (afields.length == 0 || afields.length != ops.length)
+            throw new IllegalArgumentException(
+                    "need one or more aggregate fields, each with an operator");
+        if (memoryGroups < 0)
+            throw new IllegalArgumentException("memory budget must not be negative");
+        this.gbfields = gbfields.clone();
+        this.afields = afields.clone();
+        this.ops = ops.clone();
+        this.memoryGroups = memoryGroups;
+        this.level = level;
+        this.td = td;
+        this.intKeys = gbfields.length == 1 && td.getFieldType(0) == Type.INT_TYPE;
+        clear();
+    }
+
+    private static TupleDesc resultDesc(int[] gbfields, int[] afields, Op[] ops,
+            TupleDesc childtd) {
+        int n = gbfields.length + afields.length;
+        Type[] types = new Type[n];
+        String[] names = new String[n];
+        for (int i = 0; i < gbfields.length; i++) {
+            types[i] = childtd.getFieldType(gbfields[i]);
+            names[i] = childtd.getFieldName(gbfields[i]);
+        }
+        for (int i = 0; i < afields.length; i++) {
+            if (childtd.getFieldType(afields[i]) == Type.STRING_TYPE && ops[i] != Op.COUNT)
+                throw new IllegalArgumentException("only COUNT is supported over strings");
+            types[gbfields.length + i] = Type.INT_TYPE;
+            names[gbfields.length + i] = ops[i] + "(" + childtd.getFieldName(afields[i]) + ")";
+        }
+        return new TupleDesc(types, names);
+    }
+
+    /** Drops every group and deletes the spill files. */
+    public void clear() {
+        if (partitions != null)
+            for (ArrayList<SpillFile> files : partitions)
+                for (SpillFile f : files)
+                    f.delete();
+        partitions = null;
+        spills = null;
+        seeds = null;
+        size = 0;
+        if (intKeys) {
+            keys = new int[INITIAL_CAPACITY];
+            values = new long[INITIAL_CAPACITY * ops.length];
+            counts = new long[INITIAL_CAPACITY];
+        } else {
+            groups = new HashMap<List<Field>, long[]>();
+        }
+    }
+
+    /** @return the number of groups held in memory */
+    public int numGroups() {
+        return size;
+    }
+
+    /** @return the number of partitions spilled to disk */
+    public int numSpilled() {
+        int n = 0;
+        if (partitions != null)
+            for (ArrayList<SpillFile> files : partitions)
+                if (!files.isEmpty())
+                    n++;
+        return n;
+    }
+
+    /** @return the number of groups held in memory before new groups are spilled */
+    int budget() {
+        return memoryGroups > 0 ? memoryGroups : SpillFile.defaultMemoryTuples(td);
+    }
+
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /** Adds the aggregate fields of a tuple to a group's values, from index off. */
+    private void update(long[] acc, int off, Tuple tup, boolean first) {
+        for (int j = 0; j < ops.length; j++) {
+            if (ops[j] == Op.COUNT)
+                continue;
+            int v = ((IntField) tup.getField(afields[j])).getValue();
+            if (first) {
+                acc[off + j] = v;
+                continue;
+            }
+            switch (ops[j]) {
+            case MIN:
+                acc[off + j] = Math.min(acc[off + j], v);
+                break;
+            case MAX:
+                acc[off + j] = Math.max(acc[off + j], v);
+                break;
+            default:
+                acc[off + j] += v;
+                break;
+            }
+        }
+    }
+
+    /** @return the result of an aggregate, given its value and group count */
+    private int result(int j, long value, long count) {
+        switch (ops[j]) {
+        case COUNT:
+            return (int) count;
+        case AVG:
+            return (int) (value / count);
+        default:
+            return (int) value;
+        }
+    }
+
+    /**
+     * Merge a new tuple into the aggregate, grouping as indicated in the
+     * constructor
+     *
+     * @param tup
+     *            the Tuple containing the aggregate fields and group-by fields
+     */
+    public void mergeTupleIntoGroup(Tuple tup) {
+        if (intKeys) {
+            int key = ((IntField) tup.getField(gbfields[0])).getValue();
+            int mask = keys.length - 1;
+            int slot = mix(key) & mask;
+            while (counts[slot] != 0) {
+                if (keys[slot] == key) {
+                    counts[slot]++;
+                    update(values, slot * ops.length, tup, false);
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            if (full() || taken(partition(key))) {
+                spill(tup, key);
+                return;
+            }
+            keys[slot] = key;
+            counts[slot] = 1;
+            update(values, slot * ops.length, tup, true);
+            if (++size * 2 > keys.length)
+                grow();
+        } else {
+            List<Field> key = groupKey(tup);
+            long[] acc = groups.get(key);
+            if (acc != null) {
+                acc[ops.length]++;
+                update(acc, 0, tup, false);
+            } else if (full() || taken(partition(key.hashCode()))) {
+                spill(tup, key.hashCode());
+            } else {
+                acc = new long[ops.length + 1];
+                acc[ops.length] = 1;
+                update(acc, 0, tup, true);
+                groups.put(key, acc);
+                size++;
+            }
+        }
+    }
+
+    private List<Field> groupKey(Tuple tup) {
+        Field[] key = new Field[gbfields.length];
+        for (int i = 0; i < key.length; i++)
+            key[i] = tup.getField(gbfields[i]);
+        return Arrays.asList(key);
+    }
+
+    /** @return true if a new group would be spilled rather than kept */
+    private boolean full() {
+        return gbfields.length > 0 && level < MAX_LEVEL && size >= budget();
+    }
+
+    /**
+     * @return the partition of a group when splitting at this level; each
+     *         level mixes the hash with a different seed, so that a
+     *         partition is split differently from its parent
+     */
+    private int partition(int hash) {
+        return (mix(hash ^ ((level + 1) * 0x9e3779b9)) >>> 1) % FANOUT;
+    }
+
+    /**
+     * @return true if a partition may hold groups that are not in memory,
+     *         so new groups of the partition must go there too
+     */
+    private boolean taken(int p) {
+        return partitions != null
+                && (!partitions.get(p).isEmpty() || (seeds != null && seeds[p] != null));
+    }
+
+    /** Doubles the open-addressing table. */
+    private void grow() {
+        int[] oldKeys = keys;
+        long[] oldValues = values;
+        long[] oldCounts = counts;
+        int k = ops.length;
+        keys = new int[oldKeys.length * 2];
+        values = new long[keys.length * k];
+        counts = new long[keys.length];
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldCounts[i] == 0)
+                continue;
+            int slot = mix(oldKeys[i]) & mask;
+            while (counts[slot] != 0)
+                slot = (slot + 1) & mask;
+            keys[slot] = oldKeys[i];
+            counts[slot] = oldCounts[i];
+            System.arraycopy(oldValues, i * k, values, slot * k, k);
+        }
+    }
+
+    /** Writes a tuple of a group not in memory to its partition. */
+    private void spill(Tuple tup, int hash) {
+        int p = partition(hash);
+        try {
+            if (partitions == null) {
+                partitions = new ArrayList<ArrayList<SpillFile>>();
+                for (int i = 0; i < FANOUT; i++)
+                    partitions.add(new ArrayList<SpillFile>());
+                spills = new SpillFile[FANOUT];
+            }
+            if (spills[p] == null) {
+                Type[] types = new Type[gbfields.length + afields.length];
+                for (int i = 0; i < gbfields.length; i++)
+                    types[i] = tup.getTupleDesc().getFieldType(gbfields[i]);
+                for (int i = 0; i < afields.length; i++)
+                    types[gbfields.length + i] = tup.getTupleDesc().getFieldType(afields[i]);
+                spills[p] = new SpillFile(new TupleDesc(types));
+                partitions.get(p).add(spills[p]);
+            }
+            Tuple t = new Tuple(spills[p].getTupleDesc());
+            for (int i = 0; i < gbfields.length; i++)
+                t.setField(i, tup.getField(gbfields[i]));
+            for (int i = 0; i < afields.length; i++)
+                t.setField(gbfields.length + i, tup.getField(afields[i]));
+            spills[p].add(t);
+        } catch (IOException e) {
+            throw new RuntimeException("could not spill aggregate groups: " + e.getMessage());
+        }
+    }
+
+    /** Combines the partial values of a group into those at off. */
+    private void combine(long[] acc, int off, long[] other, int otherOff) {
+        for (int j = 0; j < ops.length; j++) {
+            switch (ops[j]) {
+            case MIN:
+                acc[off + j] = Math.min(acc[off + j], other[otherOff + j]);
+                break;
+            case MAX:
+                acc[off + j] = Math.max(acc[off + j], other[otherOff + j]);
+                break;
+            case COUNT:
+                break;
+            default:
+                acc[off + j] += other[otherOff + j];
+                break;
+            }
+        }
+    }
+
+    /**
+     * Adds the partial values of a group, combining them with those of the
+     * group if it is in memory, and keeping it in memory otherwise.
+     *
+     * @param intKey the group value, if kept in the open-addressing table
+     * @param key the group values, if not
+     */
+    private void addGroup(int intKey, List<Field> key, long[] vals, int off, long count) {
+        int k = ops.length;
+        if (intKeys) {
+            int mask = keys.length - 1;
+            int slot = mix(intKey) & mask;
+            while (counts[slot] != 0 && keys[slot] != intKey)
+                slot = (slot + 1) & mask;
+            if (counts[slot] != 0) {
+                counts[slot] += count;
+                combine(values, slot * k, vals, off);
+            } else {
+                keys[slot] = intKey;
+                counts[slot] = count;
+                System.arraycopy(vals, off, values, slot * k, k);
+                if (++size * 2 > keys.length)
+                    grow();
+            }
+        } else {
+            long[] acc = groups.get(key);
+            if (acc != null) {
+                acc[k] += count;
+                combine(acc, 0, vals, off);
+            } else {
+                acc = new long[k + 1];
+                System.arraycopy(vals, off, acc, 0, k);
+                acc[k] = count;
+                groups.put(key, acc);
+                size++;
+            }
+        }
+    }
+
+    /** Adds the groups another aggregator holds in memory to this one's. */
+    private void addGroups(HashAggregator other) {
+        int k = ops.length;
+        if (intKeys) {
+            for (int i = 0; i < other.keys.length; i++)
+                if (other.counts[i] != 0)
+                    addGroup(other.keys[i], null, other.values, i * k, other.counts[i]);
+        } else {
+            for (Map.Entry<List<Field>, long[]> e : other.groups.entrySet())
+                addGroup(0, e.getKey(), e.getValue(), 0, e.getValue()[k]);
+        }
+    }
+
+    /**
+     * Adds the groups of another aggregator, over the same fields and
+     * operators, into this one, and takes over its spill files; the other
+     * aggregator is left empty. Groups in memory are merged in memory even
+     * past the budget, so aggregators filled in parallel should share the
+     * budget between them.
+     * <p>
+     * A group may be in memory in one aggregator and spilled by another.
+     * Groups in memory whose partition has spilled tuples are therefore
+     * moved into the partition's seed, and aggregated with its tuples.
+     */
+    public void merge(HashAggregator other) {
+        if (other.intKeys != intKeys || other.ops.length != ops.length
+                || other.gbfields.length != gbfields.length || other.level != level)
+            throw new IllegalArgumentException("aggregators do not match");
+        addGroups(other);
+        if (other.partitions != null) {
+            if (partitions == null) {
+                partitions = other.partitions;
+                spills = new SpillFile[FANOUT];
+            } else {
+                for (int p = 0; p < FANOUT; p++)
+                    partitions.get(p).addAll(other.partitions.get(p));
+            }
+            if (other.seeds != null)
+                for (int p = 0; p < FANOUT; p++)
+                    if (other.seeds[p] != null)
+                        seed(p).addGroups(other.seeds[p]);
+            other.partitions = null;
+        }
+        other.clear();
+        if (partitions != null)
+            moveToSeeds();
+    }
+
+    /** @return the seed of a partition, creating it if need be */
+    private HashAggregator seed(int p) {
+        if (seeds == null)
+            seeds = new HashAggregator[FANOUT];
+        if (seeds[p] == null)
+            seeds[p] = partitionAggregator();
+        return seeds[p];
+    }
+
+    /** Moves the groups in memory whose partition is taken into its seed. */
+    private void moveToSeeds() {
+        int k = ops.length;
+        if (intKeys) {
+            int[] oldKeys = keys;
+            long[] oldValues = values;
+            long[] oldCounts = counts;
+            keys = new int[oldKeys.length];
+            values = new long[oldValues.length];
+            counts = new long[oldCounts.length];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldCounts[i] == 0)
+                    continue;
+                int p = partition(oldKeys[i]);
+                if (taken(p))
+                    seed(p).addGroup(oldKeys[i], null, oldValues, i * k, oldCounts[i]);
+                else
+                    addGroup(oldKeys[i], null, oldValues, i * k, oldCounts[i]);
+            }
+        } else {
+            Iterator<Map.Entry<List<Field>, long[]>> it = groups.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<List<Field>, long[]> e = it.next();
+                int p = partition(e.getKey().hashCode());
+                if (taken(p)) {
+                    seed(p).addGroup(0, e.getKey(), e.getValue(), 0, e.getValue()[k]);
+                    it.remove();
+                    size--;
+                }
+            }
+        }
+    }
+
+    /** @return an aggregator for the tuples of a partition */
+    private HashAggregator partitionAggregator() {
+        int[] g = new int[gbfields.length];
+        int[] a = new int[afields.length];
+        for (int i = 0; i < g.length; i++)
+            g[i] = i;
+        for (int i = 0; i < a.length; i++)
+            a[i] = g.length + i;
+        return new HashAggregator(g, a, ops, memoryGroups, level + 1, td);
+    }
+
+    /**
+     * Create a DbIterator over group aggregate results. Groups are produced
+     * as they are read, not copied; groups merged while the iterator is
+     * open may or may not be seen.
+     *
+     * @return a DbIterator whose tuples are the group values followed by
+     *         the aggregate values, or just the aggregate values if no
+     *         grouping. The aggregate values are determined by the types of
+     *         aggregate specified in the constructor.
+     */
+    public DbIterator iterator() {
+        return new GroupIterator();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * Streams the groups in memory, then those of each partition. A
+     * partition is aggregated when the iterator reaches it, and dropped when
+     * it moves on to the next.
+     */
+    private class GroupIterator implements DbIterator {
+
+        private static final long serialVersionUID = 1L;
+        private transient boolean open;
+        private transient int slot;
+        private transient Iterator<Map.Entry<List<Field>, long[]>> entries;
+        private transient int part;
+        private transient HashAggregator sub;
+        private transient DbIterator subIt;
+        private transient Tuple next;
+
+        public void open() {
+            open = true;
+            slot = 0;
+            entries = intKeys ? null : groups.entrySet().iterator();
+            part = 0;
+            closeSub();
+            next = null;
+        }
+
+        private void closeSub() {
+            if (subIt != null)
+                subIt.close();
+            if (sub != null)
+                sub.clear();
+            subIt = null;
+            sub = null;
+        }
+
+        private Tuple fetch() throws DbException, TransactionAbortedException {
+            int k = ops.length;
+            if (intKeys) {
+                while (slot < keys.length) {
+                    int i = slot++;
+                    if (counts[i] != 0) {
+                        Tuple t = new Tuple(td);
+                        t.setField(0, new IntField(keys[i]));
+                        for (int j = 0; j < k; j++)
+                            t.setField(1 + j, new IntField(result(j, values[i * k + j], counts[i])));
+                        return t;
+                    }
+                }
+            } else if (entries.hasNext()) {
+                Map.Entry<List<Field>, long[]> e = entries.next();
+                Tuple t = new Tuple(td);
+                int f = 0;
+                for (Field key : e.getKey())
+                    t.setField(f++, key);
+                long[] acc = e.getValue();
+                for (int j = 0; j < k; j++)
+                    t.setField(f + j, new IntField(result(j, acc[j], acc[k])));
+                return t;
+            }
+            while (true) {
+                if (subIt != null && subIt.hasNext())
+                    return subIt.next();
+                closeSub();
+                if (partitions == null || part >= FANOUT)
+                    return null;
+                int p = part++;
+                ArrayList<SpillFile> files = partitions.get(p);
+                if (!taken(p))
+                    continue;
+                sub = partitionAggregator();
+                if (seeds != null && seeds[p] != null)
+                    sub.addGroups(seeds[p]);
+                for (SpillFile f : files) {
+                    DbIterator in = f.iterator();
+                    in.open();
+                    while (in.hasNext())
+                        sub.mergeTupleIntoGroup(in.next());
+                    in.close();
+                }
+                subIt = sub.iterator();
+                subIt.open();
+            }
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (!open)
+                throw new IllegalStateException("iterator not yet open");
+            if (next == null)
+                next = fetch();
+            return next != null;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Tuple t = next;
+            next = null;
+            return t;
+        }
+
+        public void rewind() {
+            close();
+            open();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void close() {
+            closeSub();
+            open = false;
+            entries = null;
+            next = null;
+        }
+    }
+}
@@ -1,23 +1,47 @@
 package simpledb;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * This is a hybrid hash join. It builds a hash table on the left child and
+ * probes it with the right child, so when the build side fits in its memory
+ * budget each child is read exactly once. When the build side outgrows the
+ * budget, its tuples are hash partitioned: partition 0 stays in memory and
+ * the others are spilled to {@link SpillFile}s. Probe tuples of partition 0
+ * are joined as they are read and the rest are spilled alongside, and each
+ * pair of spilled partitions is then joined the same way, repartitioning
+ * with a different hash function if it still does not fit. Partitions that
+ * do not fit after {@link #MAX_LEVEL} rounds, which happens when many
+ * tuples share one key, are joined a memory budget at a time, rescanning
+ * their probe partition for each chunk.
+ * <p>
+ * The memory budget is half the buffer pool, counted in build tuples at
+ * their on-disk size, unless given to the constructor.
  */
 public class HashEquiJoin extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** The number of partitions the build side is split into on overflow. */
+    public static final int FANOUT = 16;
+    /** The number of times a partition is split before falling back to chunks. */
+    public static final int MAX_LEVEL = 3;
+
     private JoinPredicate pred;
     private DbIterator child1, child2;
     private TupleDesc comboTD;
+    /** The budget given to the constructor, or 0 to derive it from the buffer pool. */
+    private final int memoryTuples;
     transient private Tuple t1 = null;
     transient private Tuple t2 = null;
 
     /**
      * Constructor. Accepts to children to join and the predicate to join them
      * on
-     * 
+     *
      * @param p
      *            The predicate to use to join the children
      * @param child1
@@ -26,9 +50,30 @@ public class HashEquiJoin extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public HashEquiJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, 0);
+    }
+
+    /**
+     * Constructor for a join with a fixed memory budget.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     * @param memoryTuples
+     *            the number of build tuples held in memory at once, or 0 to
+     *            use half the buffer pool
+     */
+    public HashEquiJoin(JoinPredicate p, DbIterator child1, DbIterator child2,
+            int memoryTuples) {
+        if (memoryTuples < 0)
+            throw new IllegalArgumentException("memory budget must not be negative");
         this.pred = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.memoryTuples = memoryTuples;
         comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
@@ -39,7 +84,7 @@ public class HashEquiJoin extends Operator {
     public TupleDesc getTupleDesc() {
         return comboTD;
     }
-    
+
     public String getJoinField1Name()
     {
 	return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
@@ -49,49 +94,237 @@ public class HashEquiJoin extends Operator {
     {
 	return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
     }
-    
-    HashMap<Object, ArrayList<Tuple>> map = new HashMap<Object, ArrayList<Tuple>>();
-    public final static int MAP_SIZE = 20000;
 
-    private boolean loadMap() throws DbException, TransactionAbortedException {
-        int cnt = 0;
-        map.clear();
-        while (child1.hasNext()) {
-            t1 = child1.next();
-            ArrayList<Tuple> list = map.get(t1.getField(pred.getField1()));
-            if (list == null) {
-                list = new ArrayList<Tuple>();
-                map.put(t1.getField(pred.getField1()), list);
+    /**
+     * @return the number of build tuples held in memory at once; half the
+     *         buffer pool unless set by the constructor
+     */
+    public int getMemoryTuples() {
+        if (memoryTuples > 0)
+            return memoryTuples;
+        return SpillFile.defaultMemoryTuples(child1.getTupleDesc());
+    }
+
+    /**
+     * A build input and a probe input to be joined: the children, or a pair
+     * of spilled partitions.
+     */
+    private class Stage {
+        final DbIterator build, probe;
+        final int level;
+        /** The files build and probe read, deleted when the stage is done. */
+        final SpillFile buildFile, probeFile;
+        /** The partitions spilled by this stage, or null if not partitioned. */
+        SpillFile[] buildSpill, probeSpill;
+        /** The partition held in memory, or -1 once all of them spilled. */
+        int memPartition;
+        /** Whether build is read a budget at a time, rescanning probe for each. */
+        boolean chunked;
+
+        Stage(DbIterator build, DbIterator probe, int level, SpillFile buildFile,
+                SpillFile probeFile) {
+            this.build = build;
+            this.probe = probe;
+            this.level = level;
+            this.buildFile = buildFile;
+            this.probeFile = probeFile;
+        }
+
+        void delete() {
+            if (buildFile != null) {
+                build.close();
+                probe.close();
+                buildFile.delete();
+                probeFile.delete();
+            }
+            if (buildSpill != null) {
+                for (int i = 0; i < FANOUT; i++) {
+                    if (buildSpill[i] != null)
+                        buildSpill[i].delete();
+                    if (probeSpill[i] != null)
+                        probeSpill[i].delete();
+                }
             }
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
-                return true;
         }
-        return cnt > 0;
+    }
+
+    HashMap<Field, ArrayList<Tuple>> map = new HashMap<Field, ArrayList<Tuple>>();
+    /** The number of tuples in map. */
+    transient private int mapTuples;
+    transient private int budget;
+    transient private Stage stage;
+    /** Spilled partition pairs still to be joined. */
+    transient private LinkedList<Stage> pending;
+    /** The number of partitions spilled since open, for tests. */
+    transient int spilledPartitions;
+
+    /**
+     * @return the partition of a join key when splitting at a level; each
+     *         level mixes the hash with a different seed so that a partition
+     *         is split differently from its parent
+     */
+    private static int partition(Field key, int level) {
+        int h = key.hashCode() ^ (level * 0x9e3779b9);
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return (h >>> 1) % FANOUT;
+    }
 
+    private void put(Tuple t) {
+        Field key = t.getField(pred.getField1());
+        ArrayList<Tuple> list = map.get(key);
+        if (list == null) {
+            list = new ArrayList<Tuple>();
+            map.put(key, list);
+        }
+        list.add(t);
+        mapTuples++;
     }
 
+    private void spill(SpillFile[] files, int p, Tuple t, TupleDesc td) throws DbException {
+        try {
+            if (files[p] == null) {
+                files[p] = new SpillFile(td);
+                if (files == stage.buildSpill)
+                    spilledPartitions++;
+            }
+            files[p].add(t);
+        } catch (IOException e) {
+            throw new DbException("could not spill join partition: " + e.getMessage());
+        }
+    }
+
+    /** Moves the tuples in map that do not belong in memory to their partitions. */
+    private void spillMap(Stage s) throws DbException {
+        TupleDesc td = s.build.getTupleDesc();
+        Iterator<Map.Entry<Field, ArrayList<Tuple>>> it = map.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Field, ArrayList<Tuple>> e = it.next();
+            int p = partition(e.getKey(), s.level);
+            if (p == s.memPartition)
+                continue;
+            for (Tuple t : e.getValue())
+                spill(s.buildSpill, p, t, td);
+            mapTuples -= e.getValue().size();
+            it.remove();
+        }
+    }
+
+    /**
+     * Reads the build side of a stage into map, partitioning and spilling if
+     * it does not fit, or up to the budget if the stage is chunked.
+     */
+    private void load(Stage s) throws DbException, TransactionAbortedException {
+        TupleDesc td = s.build.getTupleDesc();
+        while (s.build.hasNext()) {
+            if (s.chunked && mapTuples >= budget)
+                return;
+            Tuple t = s.build.next();
+            if (s.buildSpill != null) {
+                int p = partition(t.getField(pred.getField1()), s.level);
+                if (p != s.memPartition) {
+                    spill(s.buildSpill, p, t, td);
+                    continue;
+                }
+            }
+            put(t);
+            if (mapTuples > budget && !s.chunked) {
+                if (s.buildSpill == null && s.level < MAX_LEVEL) {
+                    s.buildSpill = new SpillFile[FANOUT];
+                    s.probeSpill = new SpillFile[FANOUT];
+                    s.memPartition = 0;
+                    spillMap(s);
+                } else if (s.buildSpill != null) {
+                    // the in-memory partition outgrew the budget as well
+                    s.memPartition = -1;
+                    spillMap(s);
+                } else {
+                    s.chunked = true;
+                }
+            }
+        }
+    }
+
+    private void start(Stage s) throws DbException, TransactionAbortedException {
+        stage = s;
+        map.clear();
+        mapTuples = 0;
+        if (s.buildFile != null) {
+            s.build.open();
+            s.probe.open();
+        }
+        load(s);
+    }
+
+    /**
+     * Queues the partitions a stage spilled, deletes the files it read, and
+     * starts the next stage.
+     */
+    private void finish(Stage s) throws DbException, TransactionAbortedException {
+        if (s.buildSpill != null) {
+            for (int i = 0; i < FANOUT; i++) {
+                if (s.buildSpill[i] != null && s.probeSpill[i] != null) {
+                    pending.addFirst(new Stage(s.buildSpill[i].iterator(),
+                            s.probeSpill[i].iterator(), s.level + 1, s.buildSpill[i],
+                            s.probeSpill[i]));
+                    s.buildSpill[i] = null;
+                    s.probeSpill[i] = null;
+                }
+            }
+        }
+        s.delete();
+        stage = null;
+        map.clear();
+        mapTuples = 0;
+        if (!pending.isEmpty())
+            start(pending.removeFirst());
+    }
+
+    private void reset() {
+        if (stage != null)
+            stage.delete();
+        if (pending != null)
+            for (Stage s : pending)
+                s.delete();
+        stage = null;
+        pending = null;
+        map.clear();
+        mapTuples = 0;
+        t1 = null;
+        t2 = null;
+        listIt = null;
+    }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
+        super.open();
         child1.open();
         child2.open();
-        loadMap();
+        begin();
+    }
+
+    private void begin() throws DbException, TransactionAbortedException {
+        budget = getMemoryTuples();
+        pending = new LinkedList<Stage>();
+        spilledPartitions = 0;
+        start(new Stage(child1, child2, 0, null, null));
     }
 
     public void close() {
+        reset();
         super.close();
         child2.close();
         child1.close();
-        this.t1=null;
-        this.t2=null;
-        this.listIt=null;
-        this.map.clear();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
+        reset();
         child1.rewind();
         child2.rewind();
+        begin();
     }
 
     transient Iterator<Tuple> listIt = null;
@@ -110,7 +343,7 @@ public class HashEquiJoin extends Operator {
      * <p>
      * For example, if one tuple is {1,2,3} and the other tuple is {1,5,6},
      * joined on equality of the first column, then this returns {1,2,3,1,5,6}.
-     * 
+     *
      * @return The next matching tuple.
      * @see JoinPredicate#filter
      */
@@ -132,32 +365,42 @@ public class HashEquiJoin extends Operator {
 
 
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (listIt != null && listIt.hasNext()) {
-            return processList();
-        }
-
-        // loop around child2
-        while (child2.hasNext()) {
-            t2 = child2.next();
+        while (true) {
+            if (listIt != null && listIt.hasNext())
+                return processList();
+            listIt = null;
+            Stage s = stage;
+            if (s == null)
+                return null;
 
-            // if match, create a combined tuple and fill it with the values
-            // from both tuples
-            ArrayList<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null)
+            if (s.probe.hasNext()) {
+                t2 = s.probe.next();
+                Field key = t2.getField(pred.getField2());
+                if (s.probeSpill != null) {
+                    int p = partition(key, s.level);
+                    if (p != s.memPartition) {
+                        // no build tuple in the partition means no match
+                        if (s.buildSpill[p] != null)
+                            spill(s.probeSpill, p, t2, s.probe.getTupleDesc());
+                        continue;
+                    }
+                }
+                ArrayList<Tuple> l = map.get(key);
+                if (l != null)
+                    listIt = l.iterator();
                 continue;
-            listIt = l.iterator();
-
-            return processList();
-
-        }
+            }
 
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
-            return fetchNext();
+            // the probe side is done: load the next chunk or the next stage
+            if (s.chunked && s.build.hasNext()) {
+                map.clear();
+                mapTuples = 0;
+                load(s);
+                s.probe.rewind();
+            } else {
+                finish(s);
+            }
         }
-
-        return null;
     }
 
     @Override
@@ -170,6 +413,6 @@ public class HashEquiJoin extends Operator {
         this.child1 = children[0];
         this.child2 = children[1];
     }
-    
+
 
 }
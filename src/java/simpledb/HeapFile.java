@@ -1,6 +1,8 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
 /**
@@ -9,6 +11,17 @@ import java.util.*;
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
+ * <p>
+ * Page I/O goes through one FileChannel that stays open for the lifetime of
+ * the HeapFile. Reads and writes are positional, so concurrent page I/O
+ * needs no seeking or locking and costs a single system call. Scans read
+ * ahead of themselves through a {@link ReadAhead}, and scans of tables
+ * larger than a quarter of the buffer pool read through a
+ * {@link BufferRing} so that they do not evict the pool's working set.
+ * <p>
+ * The page count and the free slots of each page are kept in a
+ * {@link FreeSpaceMap}, so inserts go straight to a page with room and
+ * numPages() does not ask the file system.
  * 
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
@@ -17,6 +30,19 @@ public class HeapFile implements DbFile {
 
 	private File file;
 	private TupleDesc tupleDesc;
+	private transient FileChannel channel;
+	private transient FreeSpaceMap freeSpace;
+
+	/**
+	 * A direct buffer per writing thread that pages are encoded into, so
+	 * flushes neither allocate nor copy through a temporary buffer in the
+	 * channel.
+	 */
+	private static final ThreadLocal<ByteBuffer> pageBuffer = new ThreadLocal<ByteBuffer>() {
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocateDirect(BufferPool.PAGE_SIZE);
+		}
+	};
 
 	/**
 	 * Constructs a heap file backed by the specified file.
@@ -66,29 +92,110 @@ public class HeapFile implements DbFile {
 		return this.tupleDesc;
 	}
 
+	/**
+	 * Returns the channel used for page I/O, opening it on first use. The
+	 * file is opened read-only if it cannot be opened for writing.
+	 */
+	synchronized FileChannel getChannel() throws IOException {
+		if (this.channel == null || !this.channel.isOpen()) {
+			RandomAccessFile raFile;
+			try {
+				raFile = new RandomAccessFile(this.file, "rw");
+			} catch (FileNotFoundException e) {
+				raFile = new RandomAccessFile(this.file, "r");
+			}
+			this.channel = raFile.getChannel();
+		}
+		return this.channel;
+	}
+
+	/** @return the number of tuple slots on each page of this file */
+	private int slotsPerPage() {
+		return (BufferPool.PAGE_SIZE * 8) / (this.tupleDesc.getSize() * 8 + 1);
+	}
+
+	/**
+	 * Returns the free space map of this file. It is loaded on first use,
+	 * or rebuilt from the page headers if no up-to-date copy was saved.
+	 */
+	synchronized FreeSpaceMap getFreeSpaceMap() throws IOException {
+		if (this.freeSpace == null) {
+			this.freeSpace = FreeSpaceMap.load(this.file);
+			if (this.freeSpace == null)
+				this.freeSpace = new FreeSpaceMap(readFreeSlots());
+		}
+		return this.freeSpace;
+	}
+
+	/**
+	 * Counts the free slots of every page from the page headers on disk.
+	 */
+	private int[] readFreeSlots() throws IOException {
+		int[] free = new int[(int) (this.file.length() / BufferPool.PAGE_SIZE)];
+		if (free.length == 0)
+			return free;
+		int slots = slotsPerPage();
+		ByteBuffer header = ByteBuffer.allocate((slots + 7) / 8);
+		FileChannel ch = getChannel();
+		for (int i = 0; i < free.length; i++) {
+			header.clear();
+			long offset = (long) i * BufferPool.PAGE_SIZE;
+			while (header.hasRemaining()) {
+				if (ch.read(header, offset + header.position()) < 0)
+					break;
+			}
+			int used = 0;
+			for (int j = 0; j < header.capacity(); j++)
+				used += Integer.bitCount(header.get(j) & 0xff);
+			free[i] = slots - used;
+		}
+		return free;
+	}
+
+	/**
+	 * Saves the free space map next to the file, if it changed. Called by
+	 * the buffer pool after it flushes all pages.
+	 */
+	public synchronized void saveFreeSpaceMap() throws IOException {
+		if (this.freeSpace != null)
+			this.freeSpace.save(this.file);
+	}
+
+	/**
+	 * Saves the free space map and closes the channel backing this
+	 * HeapFile. The channel is reopened if the file is accessed again.
+	 */
+	public synchronized void close() throws IOException {
+		saveFreeSpaceMap();
+		if (this.channel != null) {
+			this.channel.close();
+			this.channel = null;
+		}
+	}
+
 	// see DbFile.java for javadocs
 	public Page readPage(PageId pid) {
 		// some code goes here
 		if (pid.getTableId() == this.getId()) {
 			try {
-				RandomAccessFile raFile = new RandomAccessFile(this.file, "r");
-				// skip header
-				int contentPointer = pid.pageNumber() * BufferPool.PAGE_SIZE;
+				long contentPointer = (long) pid.pageNumber() * BufferPool.PAGE_SIZE;
 				byte[] content = new byte[BufferPool.PAGE_SIZE];
-				raFile.seek(contentPointer);
-				raFile.read(content, 0, BufferPool.PAGE_SIZE);
-				raFile.close();
+				ByteBuffer buf = ByteBuffer.wrap(content);
+				FileChannel ch = getChannel();
+				// past the end of the file the page reads as empty
+				while (buf.hasRemaining()) {
+					if (ch.read(buf, contentPointer + buf.position()) < 0)
+						break;
+				}
 				return new HeapPage((HeapPageId) pid, content);
-			} catch (FileNotFoundException e) {
-				System.out.println(e);
 			} catch (IOException e) {
-				System.out.println(e);
+				throw new IllegalArgumentException("could not read page "
+						+ pid.pageNumber() + ": " + e.getMessage());
 			}
 		} else {
 			throw new IllegalArgumentException(
 					"PageID does not reference any Table via Catalog#getDbFile");
 		}
-		throw new IllegalArgumentException();
 	}
 
 	// see DbFile.java for javadocs
@@ -96,24 +203,38 @@ public class HeapFile implements DbFile {
 		// some code goes here
 		// not necessary for proj1
 		if (page.getId().getTableId() == this.getId()) {
-			try {
-				byte[] content = new byte[BufferPool.PAGE_SIZE];
-				RandomAccessFile raFile = new RandomAccessFile(this.file, "rw");
-				int pageOffset = page.getId().pageNumber()
-						* BufferPool.PAGE_SIZE;
-				raFile.seek(pageOffset);
-				raFile.write(content, 0, BufferPool.PAGE_SIZE);
-				raFile.close();
-			} catch (FileNotFoundException e) {
-				System.out.println(e);
-			} catch (IOException e) {
-				System.out.println(e);
+			long pageOffset = (long) page.getId().pageNumber()
+					* BufferPool.PAGE_SIZE;
+			HeapPage hp = page instanceof HeapPage ? (HeapPage) page : null;
+			FileChannel ch = getChannel();
+			ByteBuffer buf;
+			if (hp != null) {
+				buf = pageBuffer.get();
+				if (buf.capacity() != BufferPool.PAGE_SIZE) {
+					buf = ByteBuffer.allocateDirect(BufferPool.PAGE_SIZE);
+					pageBuffer.set(buf);
+				}
+				buf.clear();
+				hp.writePageData(buf);
+				buf.flip();
+				// a page already in the file only needs its header and the
+				// slots up to the last one that changed
+				if (pageOffset + BufferPool.PAGE_SIZE <= ch.size())
+					buf.limit(hp.getDirtyLength());
+			} else {
+				buf = ByteBuffer.wrap(page.getPageData());
+			}
+			while (buf.hasRemaining())
+				ch.write(buf, pageOffset + buf.position());
+			if (hp != null) {
+				hp.clearDirtySlots();
+				getFreeSpaceMap().update(page.getId().pageNumber(),
+						hp.getNumEmptySlots(), slotsPerPage());
 			}
 		} else {
 			throw new IllegalArgumentException(
 					"PageID does not reference any Table via Catalog#getDbFile");
 		}
-		// throw new IllegalArgumentException();
 	}
 
 	/**
@@ -121,7 +242,12 @@ public class HeapFile implements DbFile {
 	 */
 	public int numPages() {
 		// some code goes here
-		return (int) Math.floor(this.file.length() / BufferPool.PAGE_SIZE);
+		try {
+			return getFreeSpaceMap().numPages();
+		} catch (IOException e) {
+			throw new IllegalStateException("could not read free space of "
+					+ this.file + ": " + e.getMessage());
+		}
 	}
 
 	// see DbFile.java for javadocs
@@ -136,41 +262,45 @@ public class HeapFile implements DbFile {
 			throw new DbException("TupleDesc is mismatched!");
 		} else {
 			HeapPage page;
-			boolean insertFinished = false;
-			for (int i = 0; i < this.numPages(); i++) {
+			BufferPool bp = Database.getBufferPool();
+			FreeSpaceMap fsm = getFreeSpaceMap();
+			// the map's counts are hints; a page it offers may be full
+			for (int i = fsm.findPage(); i >= 0; i = fsm.findPage()) {
 				HeapPageId pid = new HeapPageId(this.getId(), i);
-				page = (HeapPage) (Database.getBufferPool().getPage(tid, pid,
+				page = (HeapPage) (bp.getPage(tid, pid,
 						Permissions.READ_WRITE));
 				try {
-					page.insertTuple(t);
-					pages.add(page);
-					insertFinished = true;
-					page.markDirty(true, tid);
-					break;
-				} catch (DbException e) {
-					// System.out.println(e);
+					if (page.getNumEmptySlots() > 0) {
+						page.insertTuple(t);
+						pages.add(page);
+						page.markDirty(true, tid);
+						return pages;
+					}
+				} finally {
+					fsm.update(i, page.getNumEmptySlots(), slotsPerPage());
+					bp.unpinPage(pid);
 				}
 			}
-			if (insertFinished) {
-				return pages;
-			} else {
-				// need Id to create a new page
-				HeapPageId tempId = new HeapPageId(this.getId(),
-						this.numPages());
+			// need Id to create a new page
+			HeapPageId tempId;
+			synchronized (this) {
+				tempId = new HeapPageId(this.getId(), this.numPages());
 				HeapPage tempPage = new HeapPage(tempId,
 						HeapPage.createEmptyPageData());
 				this.writePage(tempPage);
-				HeapPage newPage = (HeapPage) Database.getBufferPool().getPage(
-						tid, tempId, Permissions.READ_WRITE);
-				try {
-					newPage.insertTuple(t);
-					pages.add(newPage);
-					newPage.markDirty(true, tid);
-				} catch (DbException e) {
-					throw e;
-				}
-				return pages;
 			}
+			HeapPage newPage = (HeapPage) bp.getPage(
+					tid, tempId, Permissions.READ_WRITE);
+			try {
+				newPage.insertTuple(t);
+				pages.add(newPage);
+				newPage.markDirty(true, tid);
+			} finally {
+				fsm.update(tempId.pageNumber(), newPage.getNumEmptySlots(),
+						slotsPerPage());
+				bp.unpinPage(tempId);
+			}
+			return pages;
 		}
 	}
 
@@ -181,13 +311,22 @@ public class HeapFile implements DbFile {
 		// return null;
 		// not necessary for proj1
 		PageId pid = t.getRecordId().getPageId();
-		HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid,
+		BufferPool bp = Database.getBufferPool();
+		HeapPage page = (HeapPage) bp.getPage(tid, pid,
 				Permissions.READ_WRITE);
 		try {
 			page.deleteTuple(t);
+			page.markDirty(true, tid);
+			try {
+				getFreeSpaceMap().update(pid.pageNumber(),
+						page.getNumEmptySlots(), slotsPerPage());
+			} catch (IOException e) {
+				throw new DbException("could not update free space: "
+						+ e.getMessage());
+			}
 			return page;
-		} catch (DbException e) {
-			throw e;
+		} finally {
+			bp.unpinPage(pid);
 		}
 	}
 
@@ -198,89 +337,192 @@ public class HeapFile implements DbFile {
 
 	}
 
-	private class HeapFileIterator implements DbFileIterator {
+	/**
+	 * Returns an iterator over the tuples of a range of pages, so that
+	 * several threads can scan one file by each taking different pages.
+	 * 
+	 * @param tid
+	 *            the transaction doing the scan
+	 * @param firstPage
+	 *            the first page to read
+	 * @param endPage
+	 *            the page after the last one to read; pages past the end
+	 *            of the file are ignored
+	 */
+	public DbFileIterator iterator(TransactionId tid, int firstPage, int endPage) {
+		return iterator(tid, firstPage, endPage, null);
+	}
+
+	/**
+	 * Returns an iterator over the tuples of the file that satisfy a
+	 * predicate. Rows are tested on the page bytes, before a Tuple is made
+	 * for them.
+	 * 
+	 * @param tid
+	 *            the transaction doing the scan
+	 * @param filter
+	 *            the predicate rows must satisfy, or null for all rows
+	 */
+	public DbFileIterator iterator(TransactionId tid, CompiledPredicate filter) {
+		return new HeapFileIterator(tid, 0, -1, filter);
+	}
+
+	/**
+	 * Returns an iterator over the tuples of a range of pages that satisfy
+	 * a predicate.
+	 * 
+	 * @see #iterator(TransactionId, int, int)
+	 * @see #iterator(TransactionId, CompiledPredicate)
+	 */
+	public DbFileIterator iterator(TransactionId tid, int firstPage, int endPage,
+			CompiledPredicate filter) {
+		if (firstPage < 0 || endPage < firstPage)
+			throw new IllegalArgumentException("bad page range " + firstPage
+					+ ".." + endPage);
+		return new HeapFileIterator(tid, firstPage, endPage, filter);
+	}
+
+	/**
+	 * Streams the tuples of the file page by page. The page being read stays
+	 * pinned in the buffer pool and its slots are walked with a
+	 * HeapPage.Cursor, so each page is fetched once and no tuples are
+	 * decoded before they are asked for.
+	 */
+	class HeapFileIterator implements DbFileIterator {
 		/**
 		 * add serialVerionUID
 		 */
 		private static final long serialVersionUID = 1L;
 		private TransactionId tid;
-		private int pageNum;
-		private Iterator<Tuple> pageIterator;
+		private final int firstPage;
+		/** The page after the last one to read, or -1 to read to the end. */
+		private final int endPage;
+		/** The predicate next() returns rows for, or null for all rows. */
+		private final CompiledPredicate filter;
 		private boolean read;
+		/** The pinned page being read, or null. */
+		private HeapPage page;
+		private int pageNum;
+		private final HeapPage.Cursor cursor = new HeapPage.Cursor();
+		/** Whether the cursor is on a row next() has not returned yet. */
+		private boolean ready;
+		private ReadAhead readAhead;
+		private BufferRing ring;
 
 		public HeapFileIterator(TransactionId tid) {
+			this(tid, 0, -1, null);
+		}
+
+		HeapFileIterator(TransactionId tid, int firstPage, int endPage,
+				CompiledPredicate filter) {
 			this.tid = tid;
+			this.firstPage = firstPage;
+			this.endPage = endPage;
+			this.filter = filter;
+		}
+
+		/** @return the page after the last one to read */
+		private int endPage() {
+			return this.endPage < 0 ? numPages() : Math.min(this.endPage, numPages());
 		}
 
 		public void open() throws DbException, TransactionAbortedException {
 			this.read = true;
-			this.pageNum = 0;
-			this.pageIterator = getTupleIteratorFromPage(0);
+			this.page = null;
+			this.pageNum = this.firstPage - 1;
+			this.ready = false;
+			if (endPage() - this.firstPage > Database.getBufferPool().getNumPages() / 4)
+				this.ring = new BufferRing();
+			this.readAhead = new ReadAhead(getId(), this.ring);
+		}
 
+		/**
+		 * Unpins the current page and moves the cursor to the next one.
+		 * 
+		 * @return false if there are no more pages
+		 */
+		private boolean nextPage() throws DbException,
+				TransactionAbortedException {
+			releasePage();
+			int numPages = endPage();
+			if (this.pageNum + 1 >= numPages)
+				return false;
+			this.pageNum++;
+			this.page = (HeapPage) this.readAhead.getPage(this.tid,
+					this.pageNum, numPages);
+			this.cursor.reset(this.page);
+			return true;
 		}
 
-		private Iterator<Tuple> getTupleIteratorFromPage(int pageNum)
-				throws DbException, TransactionAbortedException {
-			ArrayList<Tuple> tuples = new ArrayList<Tuple>();
-			// page retrieved from BufferPool
-			BufferPool bp = Database.getBufferPool();
-			PageId pageId = new HeapPageId(getId(), pageNum);
-			Page page = bp.getPage(this.tid, pageId, Permissions.READ_ONLY);
-			Iterator<Tuple> heapIterator = ((HeapPage) page).iterator();
-			while (heapIterator.hasNext())
-				tuples.add(heapIterator.next());
-			return tuples.iterator();
+		private void releasePage() {
+			if (this.page != null) {
+				Database.getBufferPool().unpinPage(this.page.getId());
+				this.page = null;
+				this.cursor.reset(null);
+			}
 		}
 
 		public boolean hasNext() throws DbException,
 				TransactionAbortedException {
-			if (this.read == false || this.pageIterator == null
-					|| this.pageNum >= numPages())
+			if (!this.read)
 				return false;
-			if (this.pageIterator.hasNext())
-				return true;
-			else if (this.pageNum < numPages() - 1) {
-				Iterator<Tuple> nextTuples = getTupleIteratorFromPage(this.pageNum + 1);
-				return nextTuples.hasNext();
+			while (!this.ready) {
+				if (this.page != null && this.cursor.next())
+					this.ready = this.filter == null || this.filter.matches(this.cursor);
+				else if (!nextPage())
+					return false;
 			}
-			return false;
+			return true;
 		}
 
 		public Tuple next() throws DbException, TransactionAbortedException,
 				NoSuchElementException {
-			if (!this.read)
-				throw new NoSuchElementException(
-						"No more tuples exist on page number " + this.pageNum);
-			if (this.pageIterator == null)
-				throw new NoSuchElementException("The Page is null");
-			if (this.pageIterator.hasNext())
-				return this.pageIterator.next();
-			if (this.pageNum < numPages() - 1) {
-				this.pageIterator = getTupleIteratorFromPage(this.pageNum + 1);
-				if (this.pageIterator.hasNext()) {
-					this.pageNum++;
-					return this.pageIterator.next();
-				}
+			if (!hasNext())
 				throw new NoSuchElementException(
-						"No more tuples exist on page number " + this.pageNum);
+						"No more tuples exist after page number " + this.pageNum);
+			this.ready = false;
+			return this.cursor.getTuple();
+		}
+
+		/**
+		 * Appends rows to a batch, reading their fields straight from the
+		 * pages, until the batch is full or the file ends. The filter is
+		 * not applied; batches are filtered by a BatchFilter.
+		 * 
+		 * @return false if no rows were left to add
+		 */
+		boolean fill(TupleBatch batch) throws DbException,
+				TransactionAbortedException {
+			if (!this.read)
+				return false;
+			int before = batch.numRows();
+			if (this.ready && !batch.isFull()) {
+				this.cursor.addTo(batch);
+				this.ready = false;
+			}
+			while (!batch.isFull()) {
+				if ((this.page == null || !this.cursor.fill(batch))
+						&& !nextPage())
+					break;
 			}
-			throw new NoSuchElementException(
-					"No more tuples exist on page number " + this.pageNum);
+			return batch.numRows() > before;
 		}
 
 		@Override
 		public void rewind() throws DbException, TransactionAbortedException {
-			// TODO Auto-generated method stub
 			this.close();
 			this.open();
-
 		}
 
 		@Override
 		public void close() {
-			// TODO Auto-generated method stub
-			pageIterator = null;
-
+			releasePage();
+			this.read = false;
+			this.ready = false;
+			if (ring != null) {
+				Database.getBufferPool().releaseRing(ring);
+				ring = null;
+			}
 		}
 
 	}
@@ -2,10 +2,23 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * Tuples are decoded lazily. The page keeps the bytes it was read from
+ * and decodes a slot only when it is asked for, field by field at known
+ * offsets. Scans that look at a few columns of each row can use a
+ * {@link Cursor}, which reads fields straight from the page bytes and
+ * allocates nothing per row. Only tuples inserted into the page are held
+ * as Tuple objects.
+ * <p>
+ * Because the bytes a page was read from never change, they double as its
+ * before image until the page is first modified, and reading a page copies
+ * nothing. The page also records which slots changed since it was last
+ * written, so that writers need only cover those slots.
  *
  * @see HeapFile
  * @see BufferPool
@@ -16,13 +29,29 @@ public class HeapPage implements Page {
     HeapPageId pid;
     TupleDesc td;
     byte header[];
+    /** Tuples inserted since the page was read; null for other slots. */
     Tuple tuples[];
     int numSlots;
+    /** The page as it was read; never written to. */
+    final ByteBuffer data;
+    /** Index of the first tuple slot in data. */
+    final int slotBase;
+    /** Offset of each field within a tuple. */
+    final int[] fieldOffsets;
+    /** The size of a tuple, in bytes. */
+    final int tupleSize;
     boolean isDirty;
     TransactionId transId;
-    
-    byte[] oldData;
-	public long lastUsed;
+
+    /**
+     * The page as of the last call to setBeforeImage, or null if the page
+     * has not been modified since; it is captured on the first change.
+     */
+    private ByteBuffer beforeImage;
+    /** Whether the page differs from data. */
+    private boolean changed;
+    /** Slots changed since clearDirtySlots; null if there are none. */
+    private BitSet dirtySlots;
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
@@ -41,28 +70,42 @@ public class HeapPage implements Page {
      * @see BufferPool#PAGE_SIZE
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage from a buffer holding the page, in the format
+     * described in {@link #HeapPage(HeapPageId, byte[])}, starting at the
+     * buffer's position. The buffer's position is not changed. This lets
+     * callers decode pages straight out of a larger buffer, such as a
+     * memory-mapped file, without copying them into an array first.
+     * <p>
+     * The page keeps reading from the buffer (or array) for as long as it
+     * lives, so its contents must not change in the meantime.
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        ByteBuffer buf = data.duplicate();
         this.isDirty = false;
 
         // allocate and read the header slots of this page
         header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-
-        try{
-            // allocate and read the actual records of this page
-            tuples = new Tuple[numSlots];
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+        if (buf.remaining() < BufferPool.PAGE_SIZE)
+            throw new IOException("page is shorter than " + BufferPool.PAGE_SIZE + " bytes");
+        buf.get(header);
+        this.data = data.duplicate();
+        this.slotBase = buf.position();
+
+        this.fieldOffsets = new int[td.numFields()];
+        int offset = 0;
+        for (int j = 0; j < fieldOffsets.length; j++) {
+            fieldOffsets[j] = offset;
+            offset += td.getFieldType(j).getLen();
         }
-        dis.close();
-        setBeforeImage();
-        this.lastUsed = System.currentTimeMillis();
+        this.tupleSize = offset;
+        tuples = new Tuple[numSlots];
     }
 
     /** Retrieve the number of tuples on this page.
@@ -89,7 +132,9 @@ public class HeapPage implements Page {
         -- used by recovery */
     public HeapPage getBeforeImage(){
         try {
-            return new HeapPage(pid,oldData);
+            if (beforeImage != null)
+                return new HeapPage(pid, beforeImage);
+            return changed ? new HeapPage(pid, getPageData()) : new HeapPage(pid, data);
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -98,8 +143,55 @@ public class HeapPage implements Page {
         return null;
     }
     
+    /**
+     * Makes the current contents of the page its before image. The contents
+     * are only copied when the page is next modified.
+     */
     public void setBeforeImage() {
-        oldData = getPageData().clone();
+        beforeImage = null;
+    }
+
+    /**
+     * Called before slot i is modified: captures the before image if it is
+     * still pending and records the slot as dirty.
+     */
+    private void changeSlot(int i) {
+        // a direct buffer may be a mapping of the file, which flushes change
+        if (beforeImage == null)
+            beforeImage = changed || data.isDirect() ? ByteBuffer.wrap(getPageData()) : data;
+        changed = true;
+        if (dirtySlots == null)
+            dirtySlots = new BitSet(numSlots);
+        dirtySlots.set(i);
+    }
+
+    /**
+     * Returns the slots that were inserted into or deleted from since the
+     * page was read or {@link #clearDirtySlots} was last called. Only these
+     * slots, and the header, differ from the page as last written.
+     *
+     * @return a copy of the set of dirty slot numbers
+     */
+    public BitSet getDirtySlots() {
+        return dirtySlots == null ? new BitSet() : (BitSet) dirtySlots.clone();
+    }
+
+    /**
+     * Forgets which slots are dirty; called once the page has been written.
+     */
+    public void clearDirtySlots() {
+        dirtySlots = null;
+    }
+
+    /**
+     * Returns how many leading bytes of the page data cover the header and
+     * every dirty slot, or the page size if no slot is dirty. Writing that
+     * prefix over the page as last written brings it up to date.
+     */
+    int getDirtyLength() {
+        if (dirtySlots == null || dirtySlots.isEmpty())
+            return BufferPool.PAGE_SIZE;
+        return header.length + dirtySlots.length() * tupleSize;
     }
 
     /**
@@ -112,37 +204,118 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Returns the tuple in a used slot, decoding it from the page bytes
+     * unless it was inserted into this page.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
-        }
+    private Tuple getTuple(int slotId) throws NoSuchElementException {
+        if (tuples[slotId] != null)
+            return tuples[slotId];
 
         // read fields in the tuple
         Tuple t = new Tuple(td);
         RecordId rid = new RecordId(pid, slotId);
         t.setRecordId(rid);
+        for (int j=0; j<td.numFields(); j++)
+            t.setField(j, getField(slotId, j));
+        return t;
+    }
+
+    /** @return the index in data of a field of a slot */
+    private int fieldIndex(int slotId, int field) {
+        return slotBase + slotId * tupleSize + fieldOffsets[field];
+    }
+
+    /**
+     * Decodes one field of a used slot.
+     */
+    private Field getField(int slotId, int field) throws NoSuchElementException {
+        if (tuples[slotId] != null)
+            return tuples[slotId].getField(field);
         try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
+            return td.getFieldType(field).parse(data, fieldIndex(slotId, field));
         } catch (java.text.ParseException e) {
             e.printStackTrace();
             throw new NoSuchElementException("parsing error!");
         }
+    }
 
-        return t;
+    /**
+     * Reads an integer field of a used slot without creating a Field.
+     */
+    private int getInt(int slotId, int field) {
+        if (td.getFieldType(field) != Type.INT_TYPE)
+            throw new IllegalArgumentException("field " + field + " is not an integer");
+        if (tuples[slotId] != null)
+            return ((IntField) tuples[slotId].getField(field)).getValue();
+        return data.getInt(fieldIndex(slotId, field));
+    }
+
+    /**
+     * Stores the fields of a used slot in row of the given columns of a
+     * {@link TupleBatch}, reading INT_TYPE fields straight from the page.
+     */
+    void copySlot(int slotId, int[][] ints, String[][] strings, int row) {
+        if (tuples[slotId] != null) {
+            for (int j = 0; j < ints.length; j++) {
+                Field f = tuples[slotId].getField(j);
+                if (ints[j] != null)
+                    ints[j][row] = ((IntField) f).getValue();
+                else
+                    strings[j][row] = ((StringField) f).getValue();
+            }
+            return;
+        }
+        int base = slotBase + slotId * tupleSize;
+        for (int j = 0; j < ints.length; j++) {
+            if (ints[j] != null)
+                ints[j][row] = data.getInt(base + fieldOffsets[j]);
+            else
+                strings[j][row] = ((StringField) getField(slotId, j)).getValue();
+        }
+    }
+
+    /**
+     * Copies used slots, starting at slot from, into consecutive rows of
+     * the given columns of a {@link TupleBatch}, until limit rows were
+     * copied or the page ends. Slots read from disk are copied column by
+     * column, with the header examined a byte at a time.
+     *
+     * @param slots receives the slot number of each row copied
+     * @return the number of rows copied; slots[result - 1] is the last slot
+     */
+    int copySlots(int from, int[][] ints, String[][] strings, int row, int limit,
+            int[] slots) {
+        // walk the set bits of the header a byte at a time
+        int n = 0;
+        for (int i = from >> 3; i < header.length && n < limit; i++) {
+            int bits = header[i] & 0xff;
+            if (i == from >> 3)
+                bits &= 0xff << (from & 7);
+            while (bits != 0 && n < limit) {
+                slots[n++] = (i << 3) + Integer.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+            }
+        }
+        boolean inserted = false;
+        for (int i = 0; i < n; i++)
+            inserted |= tuples[slots[i]] != null;
+        if (inserted) {
+            for (int i = 0; i < n; i++)
+                copySlot(slots[i], ints, strings, row + i);
+            return n;
+        }
+        for (int j = 0; j < ints.length; j++) {
+            int[] col = ints[j];
+            if (col != null) {
+                int off = slotBase + fieldOffsets[j];
+                for (int i = 0; i < n; i++)
+                    col[row + i] = data.getInt(off + slots[i] * tupleSize);
+            } else {
+                for (int i = 0; i < n; i++)
+                    strings[j][row + i] = ((StringField) getField(slots[i], j)).getValue();
+            }
+        }
+        return n;
     }
 
     /**
@@ -154,67 +327,63 @@ public class HeapPage implements Page {
      * have it produce an identical HeapPage object.
      *
      * @see #HeapPage
+     * @see #writePageData
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.PAGE_SIZE;
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
+        byte[] page = new byte[BufferPool.PAGE_SIZE];
+        writePageData(ByteBuffer.wrap(page));
+        return page;
+    }
 
-            // empty slot
+    /**
+     * Writes the contents of this page into a buffer, in the format read by
+     * the HeapPage constructor, starting at the buffer's position and
+     * advancing it by {@link BufferPool#PAGE_SIZE} bytes. Every byte of the
+     * page is written, so the buffer may be reused from page to page and
+     * may be a direct buffer handed straight to a channel; nothing is
+     * allocated per page.
+     *
+     * @param dst the buffer to write to
+     * @throws java.nio.BufferOverflowException if dst has less than a page
+     *   remaining
+     */
+    public void writePageData(ByteBuffer dst) {
+        if (dst.remaining() < BufferPool.PAGE_SIZE)
+            throw new java.nio.BufferOverflowException();
+        int base = dst.position();
+        int slotsEnd = header.length + numSlots * tupleSize;
+
+        // the header, then the slots as they were read
+        dst.put(header);
+        ByteBuffer src = data.duplicate();
+        src.limit(slotBase + numSlots * tupleSize);
+        src.position(slotBase);
+        dst.put(src);
+
+        // empty slots are zero; inserted tuples are written out
+        for (int i=0; i<numSlots; i++) {
+            int start = base + header.length + i * tupleSize;
             if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+                zero(dst, start, tupleSize);
+            } else if (tuples[i] != null) {
+                dst.position(start);
+                for (int j=0; j<td.numFields(); j++)
+                    tuples[i].getField(j).serialize(dst);
             }
         }
 
-        // padding
-        int zerolen = BufferPool.PAGE_SIZE - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        // and so is the padding after the last slot
+        zero(dst, base + slotsEnd, BufferPool.PAGE_SIZE - slotsEnd);
+        dst.position(base + BufferPool.PAGE_SIZE);
+    }
 
-        return baos.toByteArray();
+    private static void zero(ByteBuffer buf, int index, int len) {
+        int end = index + len;
+        for (; index + 8 <= end; index += 8)
+            buf.putLong(index, 0L);
+        for (; index < end; index++)
+            buf.put(index, (byte) 0);
     }
 
     /**
@@ -245,14 +414,15 @@ public class HeapPage implements Page {
    	 		throw new DbException("this tuple is not on this page");
    	 	}
    	 	int i = t.getRecordId().tupleno();// the slot number
+   	 	if (i < 0 || i >= numSlots) {
+   	 		throw new DbException("tuple is out of range");
+   	 	}
    	 	if (!isSlotUsed(i)){
    	 		throw new DbException("slot is already empty");
    	 	}
-   	 	else if (i > this.tuples.length) {
-   	 		throw new DbException("tuple is out of range");
-   	 	}
      
-   	 	if (this.tuples[i].getRecordId().equals(t.getRecordId())){
+   	 	if (this.pid.equals(t.getRecordId().getPageId())){
+   	 		this.changeSlot(i);
    	 		this.tuples[i] = null;
    	 		this.markSlotUsed(i, false);
    	 	}
@@ -280,6 +450,7 @@ public class HeapPage implements Page {
     	else{
     		for (int i = 0; i < this.tuples.length; i ++) {
     			if (!isSlotUsed(i)) {
+    				changeSlot(i);
     				tuples[i] = t;
                     this.markSlotUsed(i, true);
                     t.setRecordId(new RecordId(this.pid, i));
@@ -323,37 +494,18 @@ public class HeapPage implements Page {
      */
     public int getNumEmptySlots() {
         // some code goes here
-        int emptySlots = 0;
-        for(int i = 0; i < header.length; i++){
-            byte headerByte = header[i];
-            for(int j = 0; j < 8; j++){
-                if((headerByte%2) == 0){
-                    emptySlots += 1;
-                }
-                headerByte = (byte) (headerByte >> 1);
-            }
-        }
-        return emptySlots;
+        // the bits past the last slot are always clear
+        int usedSlots = 0;
+        for(int i = 0; i < header.length; i++)
+            usedSlots += Integer.bitCount(header[i] & 0xff);
+        return numSlots - usedSlots;
     }
 
     /**
      * Returns true if associated slot on this page is filled.
      */
     public boolean isSlotUsed(int i) {
-        boolean isUsed;
-        int indexByte = (int) Math.floor(i/8.0);
-        int indexBit = i%8;
-        byte headerByte = (byte) header[indexByte];
-        for(int j = 0; j < indexBit; j++){
-
-            headerByte = (byte) (headerByte >>1);
-        }
-        if(headerByte%2 != 0){
-            isUsed = true;
-        }else{
-            isUsed = false;
-        }
-        return isUsed;    
+        return ((header[i >> 3] >> (i & 7)) & 1) != 0;
     }
 
     /**
@@ -387,50 +539,119 @@ public class HeapPage implements Page {
      */
     public Iterator<Tuple> iterator() {
         // some code goes here
-        List<Tuple> usedSlot = new ArrayList<Tuple>();
-        for(int i = 0; i < tuples.length; i++){
-
-            if(isSlotUsed(i)){
-                usedSlot.add(tuples[i]);
-            }
-        }
-        return new IteratorHelper<Tuple>(usedSlot); 
+        return new IteratorHelper();
     }
-    
-    private class IteratorHelper<T> implements Iterator<Tuple>{
-        private List<Tuple> usedSlot;
-        Iterator<Tuple> i;
-        //constructor
-        private IteratorHelper(List<Tuple> usedSlot){
-            this.setUsedSlot(usedSlot);
-            i = usedSlot.iterator();
-        }
+
+    /** Decodes each used slot as it is reached. */
+    private class IteratorHelper implements Iterator<Tuple>{
+        private final Cursor cursor = new Cursor(HeapPage.this);
+        private boolean ready = false;
+
         @Override
         public boolean hasNext() {
-            // TODO Auto-generated method stub
-            return i.hasNext();
+            if (!ready)
+                ready = cursor.next();
+            return ready;
         }
         @Override
         public Tuple next() {
-            // TODO Auto-generated method stub
-            return i.next();
+            if (!hasNext())
+                throw new NoSuchElementException();
+            ready = false;
+            return cursor.getTuple();
         }
         @Override
         public void remove() {
             // TODO Auto-generated method stub
             throw new UnsupportedOperationException();  
         }
+    }
+
+    /**
+     * A reusable, read-only position over the used slots of a page. Fields
+     * are read from the page bytes on request; {@link #getInt} allocates
+     * nothing, so a scan that only looks at a few integer columns of each
+     * row creates no garbage for rows it skips. One cursor can be moved
+     * from page to page with {@link #reset}.
+     * <p>
+     * Values read through a cursor are only valid while the page is pinned
+     * in the buffer pool.
+     */
+    public static class Cursor {
+        private HeapPage page;
+        private int slot;
+
+        /** Creates a cursor that is not positioned on any page. */
+        public Cursor() {
+            this.page = null;
+            this.slot = -1;
+        }
+
+        /** Creates a cursor before the first used slot of a page. */
+        public Cursor(HeapPage page) {
+            reset(page);
+        }
+
+        /** Moves the cursor before the first used slot of a page. */
+        public void reset(HeapPage page) {
+            this.page = page;
+            this.slot = -1;
+        }
+
         /**
-         * @return the usedSlot
+         * Advances to the next used slot.
+         *
+         * @return false if there are no more used slots
          */
-        public List<Tuple> getUsedSlot() {
-            return usedSlot;
+        public boolean next() {
+            if (page == null)
+                return false;
+            while (++slot < page.numSlots) {
+                if (page.isSlotUsed(slot))
+                    return true;
+            }
+            return false;
+        }
+
+        /** @return the slot the cursor is on */
+        public int getSlot() {
+            return slot;
+        }
+
+        /** @return the value of an INT_TYPE field of the current row */
+        public int getInt(int field) {
+            return page.getInt(slot, field);
         }
+
         /**
-         * @param usedSlot the usedSlot to set
+         * Appends the rows after the current one to a batch, reading their
+         * fields straight from the page, until the batch is full or the
+         * page ends. The cursor is left on the last row appended.
+         *
+         * @return false if the page ended
          */
-        public void setUsedSlot(List<Tuple> usedSlot) {
-            this.usedSlot = usedSlot;
+        boolean fill(TupleBatch batch) {
+            if (page == null)
+                return false;
+            if (batch.isFull())
+                return true;
+            slot = batch.fill(page, slot + 1);
+            return slot < page.numSlots;
+        }
+
+        /** Appends the current row to a batch. */
+        void addTo(TupleBatch batch) {
+            batch.addRow(page, slot);
+        }
+
+        /** @return a field of the current row */
+        public Field getField(int field) {
+            return page.getField(slot, field);
+        }
+
+        /** @return the current row as a Tuple, with its RecordId set */
+        public Tuple getTuple() {
+            return page.getTuple(slot);
         }
     }
 }
@@ -44,8 +44,8 @@ public class HeapPageId implements PageId {
     public int hashCode() {
         // some code goes here
         //throw new UnsupportedOperationException("implement this");
-    	// dont know if this is a good way to do it?
-    	return tableId<<16 + pgNo;
+    	// parenthesized: + binds tighter than <<
+    	return (tableId << 16) + pgNo;
     }
 
     /**
@@ -4,17 +4,39 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * It is a block nested loops join that produces its output as it goes: it
+ * reads a block of tuples from the outer (left) child, scans the inner
+ * (right) child once for the whole block, and returns each matching pair
+ * as soon as it is found. Only one block of the outer relation is held in
+ * memory, and the inner relation is scanned once per block rather than
+ * once per outer tuple. A block size of 1 gives the plain tuple-at-a-time
+ * nested loops join.
  */
 public class Join extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** The number of outer tuples buffered per pass over the inner child. */
+    public static final int DEFAULT_BLOCK_SIZE = 1024;
     
     private JoinPredicate p;
     private DbIterator child1;
     private DbIterator child2;
     private boolean jointStatus;
-    private ArrayList<Tuple> jointTuples = new ArrayList<Tuple>();
-    private Iterator<Tuple> jointIter;
+    private final int blockSize;
+    /** The merged TupleDesc of the children, computed once. */
+    private TupleDesc td;
+
+    /** The current block of outer tuples. */
+    private transient Tuple[] block;
+    private transient int blockLen;
+    /** The next outer tuple of the block to compare with inner. */
+    private transient int blockPos;
+    /** The current inner tuple, or null before the first. */
+    private transient Tuple inner;
+    /** Whether child2 was read since it was opened or rewound. */
+    private transient boolean innerStarted;
     
     /**
      * Constructor. Accepts to children to join and the predicate to join them
@@ -28,11 +50,31 @@ public class Join extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public Join(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Constructor for a join that buffers a given number of outer tuples.
+     * 
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     * @param blockSize
+     *            the number of outer tuples compared with each pass over the
+     *            inner relation
+     */
+    public Join(JoinPredicate p, DbIterator child1, DbIterator child2, int blockSize) {
         // some code goes here
+        if (blockSize <= 0)
+            throw new IllegalArgumentException("block size must be positive");
     	this.p = p;
     	this.child1 = child1;
     	this.child2 = child2;
     	this.jointStatus = false;
+    	this.blockSize = blockSize;
     }
 
     public JoinPredicate getJoinPredicate() {
@@ -40,6 +82,11 @@ public class Join extends Operator {
         return p;
     }
 
+    /** @return the number of outer tuples buffered per pass over the inner child */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
     /**
      * @return
      *       the field name of join field1. Should be quantified by
@@ -66,7 +113,9 @@ public class Join extends Operator {
      */
     public TupleDesc getTupleDesc() {
         // some code goes here
-        return TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        if (td == null)
+            td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        return td;
     }
 
     
@@ -81,44 +130,16 @@ public class Join extends Operator {
     		child1.open();
     		child2.open();
     		jointStatus = true;
-    		Tuple temp1;
-    		Tuple temp2;
-    		while (this.child1.hasNext()){
-    			temp1 = this.child1.next();
-    			while (this.child2.hasNext()){
-    				temp2 = this.child2.next();
-    				if (p.filter(temp1, temp2)){
-    					TupleDesc tdTemp1 = temp1.getTupleDesc();
-    					TupleDesc tdTemp2 = temp2.getTupleDesc();
-    					TupleDesc tdMerge = TupleDesc.merge(tdTemp1, tdTemp2);
-    					Field[] fMerge = new Field[temp1.getEntireField().length+temp2.getEntireField().length];
-    					//System.out.println(temp1.getEntireField().length + temp2.getEntireField().length);
-    					int i = 0;
-    					for(; i < temp1.getEntireField().length; i++){
-    						//System.out.println(temp2.getField().length);
-    						//System.out.println(temp1.getField(0));
-    						fMerge[i] = temp1.getField(i);
-    						//System.out.println(fMerge[i]);
-
-    						
-    					}
-    					for(int j = 0; j <  temp2.getEntireField().length; j++){
-    						//System.out.println(j);
-    						//System.out.println(fMerge[j+temp1.getEntireField().length ]+"before");
-    						fMerge[j+temp1.getEntireField().length ] = temp2.getField(j);
-    						//System.out.println(fMerge[j+temp1.getEntireField().length ]+"after");
-    						
-    						
-    					}
-    						
-    					Tuple merge = new Tuple(tdMerge, fMerge);
-    					jointTuples.add(merge);
-    				}
-    			}
-    			this.child2.rewind();
-    		}
+    		block = new Tuple[blockSize];
+    		resetBlock();
     	}
-    	jointIter = jointTuples.iterator();
+    }
+
+    private void resetBlock() {
+    	blockLen = 0;
+    	blockPos = 0;
+    	inner = null;
+    	innerStarted = false;
     }
 
     public void close() {
@@ -128,8 +149,8 @@ public class Join extends Operator {
     		child1.close();
     		child2.close();
     		jointStatus = false;
-    		jointTuples = new ArrayList<Tuple>();
-    		jointIter = null;
+    		block = null;
+    		inner = null;
     	}
     	else{
     		System.out.print("Joint is already closed");
@@ -141,13 +162,42 @@ public class Join extends Operator {
     	if (jointStatus){
     		child1.rewind();
     		child2.rewind();
-    		this.jointIter = jointTuples.iterator();
+    		Arrays.fill(block, null);
+    		resetBlock();
     	}
     	else{
     		throw new DbException("Joint is closed");
     	}
     }
 
+    /**
+     * Reads the next block of outer tuples, and rewinds the inner child if
+     * it was read for the previous block.
+     * 
+     * @return false if the outer child is exhausted
+     */
+    private boolean nextBlock() throws DbException, TransactionAbortedException {
+    	blockLen = 0;
+    	while (blockLen < blockSize && child1.hasNext())
+    		block[blockLen++] = child1.next();
+    	Arrays.fill(block, blockLen, blockSize, null);
+    	if (blockLen == 0)
+    		return false;
+    	if (innerStarted)
+    		child2.rewind();
+    	innerStarted = false;
+    	return true;
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+    	Field[] f1 = t1.getEntireField();
+    	Field[] f2 = t2.getEntireField();
+    	Field[] fMerge = new Field[f1.length + f2.length];
+    	System.arraycopy(f1, 0, fMerge, 0, f1.length);
+    	System.arraycopy(f2, 0, fMerge, f1.length, f2.length);
+    	return new Tuple(getTupleDesc(), fMerge);
+    }
+
     /**
      * Returns the next tuple generated by the join, or null if there are no
      * more tuples. Logically, this is the next tuple in r1 cross r2 that
@@ -168,18 +218,26 @@ public class Join extends Operator {
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
-    	//Tuple temp;
-    	if (jointStatus){
-    		if (jointIter.hasNext()){
-    			return this.jointIter.next();
+    	if (!jointStatus)
+    		throw new DbException("Joint is closed");
+    	while (true) {
+    		// compare the current inner tuple with the rest of the block
+    		if (inner != null) {
+    			while (blockPos < blockLen) {
+    				Tuple outer = block[blockPos++];
+    				if (p.filter(outer, inner))
+    					return merge(outer, inner);
+    			}
+    			inner = null;
     		}
-    		else {
+    		if (blockLen > 0 && child2.hasNext()) {
+    			inner = child2.next();
+    			innerStarted = true;
+    			blockPos = 0;
+    		} else if (!nextBlock()) {
     			return null;
     		}
     	}
-    	else{
-    		throw new DbException("Joint is closed");
-    	}
     }
 
     @Override
@@ -194,6 +252,7 @@ public class Join extends Operator {
         // some code goes here
     	this.child1 = children[0];
     	this.child2 = children[1];
+    	this.td = null;
     }
 
 }
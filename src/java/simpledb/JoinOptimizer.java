@@ -68,12 +68,49 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        boolean asc = SortMergeJoin.isAscending(lj.p);
+        if (isMergeJoin(lj, SortMergeJoin.isSorted(plan1, t1id, asc),
+                SortMergeJoin.isSorted(plan2, t2id, asc)))
+            j = new SortMergeJoin(p, plan1, plan2);
+        else
+            j = new Join(p,plan1,plan2);
 
         return j;
 
     }
 
+    /**
+     * The fraction of the cross product estimated to satisfy a join on a
+     * predicate other than equality.
+     */
+    static final double RANGE_SELECTIVITY = 0.3;
+
+    /**
+     * @return true if a join is on &lt;, &lt;=, &gt; or &gt;= between two
+     *         tables, which {@link #instantiateJoin} runs as a sort-merge join
+     */
+    static boolean isRangeJoin(LogicalJoinNode j) {
+        return !(j instanceof LogicalSubplanJoinNode) && j.p != Predicate.Op.EQUALS
+                && SortMergeJoin.supports(j.p);
+    }
+
+    /**
+     * @return true if a join is run as a sort-merge join: a range join, or
+     *         an equality join whose inputs both arrive sorted on their join
+     *         fields, so that merging them costs no sort
+     */
+    static boolean isMergeJoin(LogicalJoinNode j, boolean sorted1, boolean sorted2) {
+        if (isRangeJoin(j))
+            return true;
+        return !(j instanceof LogicalSubplanJoinNode) && j.p == Predicate.Op.EQUALS
+                && sorted1 && sorted2;
+    }
+
+    /** @return the CPU cost of sorting card tuples */
+    private static double sortCost(int card) {
+        return card <= 1 ? card : card * (Math.log(card) / Math.log(2));
+    }
+
     /**
      * Estimate the cost of a join.
      * 
@@ -97,15 +134,47 @@ public class JoinOptimizer {
      * @param cost2
      *            Estimated cost of one full scan of the table on the right-hand
      *            side of the query
+     * Range joins are run as sort-merge joins: both inputs are scanned once
+     * and sorted, and each output tuple is produced once. Other joins are
+     * nested loops joins, which scan the right input once per left tuple.
+     * Both inputs are taken to be unsorted.
+     * 
      * @return An estimate of the cost of this query, in terms of cost1 and
      *         cost2
+     * @see #estimateJoinCost(LogicalJoinNode, int, int, double, double, boolean, boolean)
      */
     public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
             double cost1, double cost2) {
+        return estimateJoinCost(j, card1, card2, cost1, cost2, false, false);
+    }
+
+    /**
+     * Estimate the cost of a join, knowing which inputs arrive sorted on
+     * their join fields in the order a sort-merge join needs. Such an input
+     * is not sorted again, and an equality join whose inputs are both
+     * sorted is run as a sort-merge join rather than with nested loops.
+     *
+     * @param sorted1
+     *            whether the left-hand side arrives sorted
+     * @param sorted2
+     *            whether the right-hand side arrives sorted
+     * @see #isMergeJoin
+     */
+    public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2, boolean sorted1, boolean sorted2) {
         if (j instanceof LogicalSubplanJoinNode) {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement proper support for these for Project 3.
             return card1 + cost1 + cost2;
+        } else if (isMergeJoin(j, sorted1, sorted2)) {
+            double cost = cost1 + cost2 + card1 + card2;
+            if (!sorted1)
+                cost += sortCost(card1);
+            if (!sorted2)
+                cost += sortCost(card2);
+            if (isRangeJoin(j))
+                cost += RANGE_SELECTIVITY * card1 * card2;
+            return cost;
         } else {
             // some code goes here.
             // HINT: You may need to use the variable "j" if you implemented
@@ -163,7 +232,7 @@ public class JoinOptimizer {
         		return card1;
         	}
         } else {
-        	return (int)(card1*card2*0.3);
+        	return (int)(card1*card2*RANGE_SELECTIVITY);
         }
     }
 
@@ -215,7 +284,8 @@ public class JoinOptimizer {
      *            Indicates whether your code should explain its query plan or
      *            simply execute it
      * @return A Vector<LogicalJoinNode> that stores joins in the left-deep
-     *         order in which they should be executed.
+     *         order in which they should be executed; empty if there are no
+     *         joins.
      * @throws ParsingException
      *             when stats or filter selectivities is missing a table in the
      *             join, or or when another internal error occurs
@@ -225,6 +295,11 @@ public class JoinOptimizer {
             HashMap<String, Double> filterSelectivities, boolean explain)
             throws ParsingException {
 
+        // a single-table query has nothing to order; the plan cache below
+        // has no entry for the empty set and would return null
+        if (joins.isEmpty())
+            return joins;
+
         // See the project writeup for some hints as to how this function
         // should work.
         // some code goes here
@@ -377,10 +452,14 @@ public class JoinOptimizer {
         }
 
         // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost,
+                isSorted(prevBest, j.t1Alias, j.f1PureName, j.p),
+                isSorted(prevBest, j.t2Alias, j.f2PureName, j.p));
 
         LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
+        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost,
+                isSorted(prevBest, j2.t1Alias, j2.f1PureName, j2.p),
+                isSorted(prevBest, j2.t2Alias, j2.f2PureName, j2.p));
         if (cost2 < cost1) {
             boolean tmp;
             j = j2;
@@ -402,6 +481,35 @@ public class JoinOptimizer {
         return cc;
     }
 
+    /**
+     * Return true if a table, as joined by the plan, arrives at a join on
+     * op sorted on a field in the order a sort-merge join for op needs. A
+     * base table is never sorted; the output of a plan is sorted if its
+     * last join is a sort-merge join on that field, in that order.
+     *
+     * @param plan
+     *            the left-deep plan that joins the table, if any
+     * @param alias
+     *            the alias of the table; null for a subquery
+     * @param field
+     *            the pure name of the field
+     */
+    private boolean isSorted(Vector<LogicalJoinNode> plan, String alias, String field,
+            Predicate.Op op) {
+        if (alias == null || plan.isEmpty() || !doesJoin(plan, alias))
+            return false;
+        Vector<LogicalJoinNode> prefix = new Vector<LogicalJoinNode>(
+                plan.subList(0, plan.size() - 1));
+        LogicalJoinNode last = plan.lastElement();
+        if (SortMergeJoin.isAscending(last.p) != SortMergeJoin.isAscending(op)
+                || !isMergeJoin(last, isSorted(prefix, last.t1Alias, last.f1PureName, last.p),
+                        isSorted(prefix, last.t2Alias, last.f2PureName, last.p)))
+            return false;
+        return (alias.equals(last.t1Alias) && field.equals(last.f1PureName))
+                || (last.p == Predicate.Op.EQUALS && alias.equals(last.t2Alias)
+                        && field.equals(last.f2PureName));
+    }
+
     /**
      * Return true if the specified table is in the list of joins, false
      * otherwise
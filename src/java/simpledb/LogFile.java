@@ -4,6 +4,7 @@ package simpledb;
 import java.io.*;
 import java.util.*;
 import java.lang.reflect.*;
+import java.nio.ByteBuffer;
 
 /**
 LogFile implements the recovery subsystem of SimpleDb.  This class is
@@ -90,6 +91,7 @@ public class LogFile {
     long currentOffset = -1;
     int pageSize;
     int totalRecords = 0; // for PatchTest
+    byte[] pageBuffer; // heap pages are encoded here by writePageData
 
     HashMap<Long,Long> tidToFirstLogRecord = new HashMap<Long,Long>();
 
@@ -240,9 +242,18 @@ public class LogFile {
         for (int i = 0; i < pageInfo.length; i++) {
             raf.writeInt(pageInfo[i]);
         }
-        byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
+        if (p instanceof HeapPage) {
+            // encode into a buffer kept for the purpose; callers hold the lock
+            if (pageBuffer == null || pageBuffer.length != BufferPool.PAGE_SIZE)
+                pageBuffer = new byte[BufferPool.PAGE_SIZE];
+            ((HeapPage) p).writePageData(ByteBuffer.wrap(pageBuffer));
+            raf.writeInt(pageBuffer.length);
+            raf.write(pageBuffer);
+        } else {
+            byte[] pageData = p.getPageData();
+            raf.writeInt(pageData.length);
+            raf.write(pageData);
+        }
         //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
     }
 
@@ -265,7 +276,15 @@ public class LogFile {
             }
             pid = (PageId)idConsts[0].newInstance(idArgs);
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
+            // pages may have several constructors; use Page(PageId, byte[])
+            Constructor<?> pageConst = null;
+            for (Constructor<?> c : pageClass.getDeclaredConstructors()) {
+                Class<?>[] params = c.getParameterTypes();
+                if (params.length == 2 && params[1] == byte[].class)
+                    pageConst = c;
+            }
+            if (pageConst == null)
+                throw new IOException("no (PageId, byte[]) constructor in " + pageClassName);
             int pageSize = raf.readInt();
 
             byte[] pageData = new byte[pageSize];
@@ -275,7 +294,7 @@ public class LogFile {
             pageArgs[0] = pid;
             pageArgs[1] = pageData;
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+            newPage = (Page)pageConst.newInstance(pageArgs);
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
         } catch (ClassNotFoundException e){
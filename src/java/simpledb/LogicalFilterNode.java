@@ -1,10 +1,15 @@
 package simpledb;
 
+import java.util.Vector;
+
 /** A LogicalFilterNode represents the parameters of a filter in the WHERE clause of a query. 
     <p>
     Filter is of the form t.f p c
     <p>
     Where t is a table, f is a field in t, p is a predicate, and c is a constant
+    <p>
+    A compound filter instead combines other filters on the same table t with
+    AND, OR or NOT, and has only its kind and terms set.
 */
 public class LogicalFilterNode {
     /** The alias of a table (or the name if no alias) over which the filter ranges */
@@ -20,6 +25,12 @@ public class LogicalFilterNode {
     public String fieldPureName;
     
     public String fieldQuantifiedName;
+
+    /** How the terms of the filter combine, or COMPARE if it is of the form t.f p c */
+    public CompoundPredicate.Kind kind = CompoundPredicate.Kind.COMPARE;
+
+    /** The filters a compound filter combines, all over tableAlias */
+    public Vector<LogicalFilterNode> terms = new Vector<LogicalFilterNode>();
     
     public LogicalFilterNode(String table, String field, Predicate.Op pred, String constant) {
         tableAlias = table;
@@ -32,4 +43,10 @@ public class LogicalFilterNode {
             fieldPureName=field;
         this.fieldQuantifiedName = tableAlias+"."+fieldPureName;
     }
-}
\ No newline at end of file
+
+    public LogicalFilterNode(String table, CompoundPredicate.Kind kind, Vector<LogicalFilterNode> terms) {
+        tableAlias = table;
+        this.kind = kind;
+        this.terms = terms;
+    }
+}
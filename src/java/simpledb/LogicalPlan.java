@@ -5,6 +5,9 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.NoSuchElementException;
 
 /**
@@ -12,9 +15,9 @@ import java.util.NoSuchElementException;
  * the parser and is ready to be processed by the optimizer.
  * <p>
  * A LogicalPlan consits of a collection of table scan nodes, join
- * nodes, filter nodes, a select list, and a group by field.
- * LogicalPlans can only represent queries with one aggregation field
- * and one group by field.
+ * nodes, filter nodes, a select list, and group by fields.
+ * All of the aggregates in a query are computed by one {@link Aggregate},
+ * grouped by every group by field.
  * <p>
  * LogicalPlans can be converted to physical (optimized) plans using
  * the {@link #physicalPlan} method, which uses the
@@ -29,12 +32,14 @@ public class LogicalPlan {
     private HashMap<String,Integer> tableMap;
 
     private Vector<LogicalSelectListNode> selectList;
-    private String groupByField = null;
+    private Vector<String> groupByFields = new Vector<String>();
     private boolean hasAgg = false;
-    private String aggOp;
-    private String aggField;
-    private boolean oByAsc, hasOrderBy = false;
-    private String oByField;
+    private Vector<String> aggOps = new Vector<String>();
+    private Vector<String> aggFields = new Vector<String>();
+    private Vector<String> oByFields = new Vector<String>();
+    private Vector<Boolean> oByAsc = new Vector<Boolean>();
+    private int limit = 0;
+    private int threads = 1;
     private String query;
 //    private Query owner;
 
@@ -98,11 +103,47 @@ public class LogicalPlan {
     public void addFilter(String field, Predicate.Op p, String
         constantValue) throws ParsingException{ 
 
+        addFilter(comparison(field, p, constantValue));
+    }
+
+    /** Add a filter, made by {@link #comparison} or {@link #compoundFilter}, to the
+     *  logical plan
+     */
+    public void addFilter(LogicalFilterNode lf) {
+        filters.addElement(lf);
+    }
+
+    /** Make a filter comparing a field with a constant, which may be added to the
+     *  plan or combined with others in a compound filter.
+     *  @see #addFilter(String, Predicate.Op, String)
+     */
+    public LogicalFilterNode comparison(String field, Predicate.Op p, String
+        constantValue) throws ParsingException{ 
+
         field = disambiguateName(field); 
         String table = field.split("[.]")[0];
         
-        LogicalFilterNode lf = new LogicalFilterNode(table, field.split("[.]")[1], p, constantValue);
-        filters.addElement(lf);
+        return new LogicalFilterNode(table, field.split("[.]")[1], p, constantValue);
+    }
+
+    /** Make a filter combining other filters on one table with AND, OR or NOT
+     *  @param kind how the filters combine
+     *  @param terms the filters, of which a NOT takes exactly one
+     *  @throws ParsingException if the filters are on different tables, or a NOT is
+     *  not given one filter
+     */
+    public LogicalFilterNode compoundFilter(CompoundPredicate.Kind kind,
+        Vector<LogicalFilterNode> terms) throws ParsingException {
+        if (kind == CompoundPredicate.Kind.COMPARE || terms.isEmpty()
+            || (kind == CompoundPredicate.Kind.NOT && terms.size() != 1))
+            throw new ParsingException("Bad " + kind + " of " + terms.size() + " conditions");
+        String table = terms.get(0).tableAlias;
+        for (LogicalFilterNode lf : terms) {
+            if (!lf.tableAlias.equals(table))
+                throw new ParsingException(kind + " of conditions on different tables ("
+                    + table + ", " + lf.tableAlias + ") is currently unsupported");
+        }
+        return new LogicalFilterNode(table, kind, terms);
     }
 
     /** Add a join between two fields of two different tables.  
@@ -186,34 +227,73 @@ public class LogicalPlan {
     }
     
     /** Add an aggregate over the field with the specified grouping to
-        the query.  SimpleDb only supports a single aggregate
-        expression and GROUP BY field.
+        the query.  All aggregates are computed together, grouped by every
+        field added with this method or {@link #addGroupBy}.
         @param op the aggregation operator
-        @param afield the field to aggregate over
-        @param gfield the field to group by
+        @param afield the field to aggregate over, or "*" for COUNT(*)
+        @param gfield the field to group by, or null
      * @throws ParsingException 
     */
     public void addAggregate(String op, String afield, String gfield) throws ParsingException {
         afield=disambiguateName(afield);
+        if (afield.equals("*"))
+            afield="null.*";
+        aggOps.addElement(op);
+        aggFields.addElement(afield);
         if (gfield!=null)
-            gfield=disambiguateName(gfield);
-        aggOp = op;
-        aggField = afield;
-        groupByField = gfield;
+            addGroupBy(gfield);
         hasAgg = true;
     }
 
-    /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
-        a single ORDER BY field.
+    /** Add a GROUP BY field to the query.  Adding a field twice has no effect.
+        @param gfield the field to group by
+     * @throws ParsingException 
+    */
+    public void addGroupBy(String gfield) throws ParsingException {
+        gfield=disambiguateName(gfield);
+        if (!groupByFields.contains(gfield))
+            groupByFields.addElement(gfield);
+    }
+
+    /** Add an ORDER BY expression in the specified order on the specified field.  Fields are
+        ordered on in the order they are added, so later fields break ties in earlier ones.
         @param field the field to order by
         @param asc true if should be ordered in ascending order, false for descending order
      * @throws ParsingException 
     */
     public void addOrderBy(String field, boolean asc) throws ParsingException {
         field=disambiguateName(field);
-        oByField = field;
-        oByAsc = asc;
-        hasOrderBy = true;
+        oByFields.addElement(field);
+        oByAsc.addElement(asc);
+    }
+
+    /** Return only the first rows of the ORDER BY.  The sort then keeps just those rows
+        in memory as it reads its input.
+        @param limit the number of rows to return, or 0 for all of them
+     * @throws ParsingException if the limit is negative
+    */
+    public void setLimit(int limit) throws ParsingException {
+        if (limit < 0)
+            throw new ParsingException("Negative LIMIT " + limit);
+        this.limit = limit;
+    }
+
+    /** Set the number of threads the physical plan splits its work across.  Large
+        scans are read by {@link ParallelScan}s, hash joins and grouped aggregates
+        are split into partitions by {@link Exchange}s, and the partitions are
+        joined or aggregated on threads of their own.
+        @param threads the number of threads, by default one; with one thread the
+        whole plan runs on the caller's thread
+    */
+    public void setParallelism(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("need at least one thread");
+        this.threads = threads;
+    }
+
+    /** @return the number of threads the physical plan splits its work across */
+    public int getParallelism() {
+        return threads;
     }
 
     /** Given a name of a field, try to figure out what table it belongs to by looking
@@ -271,6 +351,127 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /** @return a scan that runs plan on several threads, if plan is filters over a
+        scan of a heap file of more than one morsel and there are threads to spare,
+        or null
+    */
+    private ParallelScan parallelScan(DbIterator plan) {
+        if (threads < 2)
+            return null;
+        ArrayList<CompoundPredicate> conds = new ArrayList<CompoundPredicate>();
+        while (plan instanceof Filter) {
+            conds.add(0, ((Filter) plan).getCondition());
+            plan = ((Filter) plan).getChildren()[0];
+        }
+        if (!(plan instanceof SeqScan))
+            return null;
+        SeqScan scan = (SeqScan) plan;
+        DbFile f = Database.getCatalog().getDbFile(scan.getTableId());
+        if (!(f instanceof HeapFile) || ((HeapFile) f).numPages() <= ParallelScan.MORSEL_PAGES)
+            return null;
+        ParallelScan.Pipeline pipeline = ParallelScan.SCAN_ONLY;
+        if (!conds.isEmpty())
+            pipeline = ParallelScan.filter(CompoundPredicate.and(
+                    conds.toArray(new CompoundPredicate[0])));
+        return new ParallelScan(scan.getTransactionId(), scan.getTableId(), scan.getAlias(),
+                threads, pipeline);
+    }
+
+    /** @return the producers that read plan on several threads for an exchange: the
+        workers of a parallel scan of it, or of the {@link Gather} it is, or else
+        the plan alone
+    */
+    private DbIterator[] producers(DbIterator plan) {
+        ParallelScan ps = parallelScan(plan);
+        if (ps != null)
+            return ps.pipelines(threads);
+        if (plan instanceof Gather)
+            return ((Gather) plan).getChildren();
+        return new DbIterator[] { plan };
+    }
+
+    /** Split an equality join whose input is read on several threads into
+        partitions: both children are repartitioned on their join fields, and each
+        thread hash joins one pair of partitions with its share of the memory budget.
+        @return the partitions gathered, or j if both children are serial
+    */
+    private DbIterator parallelJoin(JoinPredicate p, DbIterator j, DbIterator plan1,
+            DbIterator plan2) {
+        DbIterator[] in1 = producers(plan1);
+        DbIterator[] in2 = producers(plan2);
+        if (in1.length == 1 && in2.length == 1)
+            return j;
+        Exchange left = Exchange.repartition(in1, p.getField1(), threads);
+        Exchange right = Exchange.repartition(in2, p.getField2(), threads);
+        int budget = Math.max(1, new HashEquiJoin(p, plan1, plan2).getMemoryTuples() / threads);
+        DbIterator[] partitions = new DbIterator[threads];
+        for (int i = 0; i < threads; i++)
+            partitions[i] = new HashEquiJoin(p, left.getConsumer(i), right.getConsumer(i),
+                    budget);
+        return new Gather(partitions);
+    }
+
+    /** Aggregate plan, across threads if it is read by several.  Grouped aggregates are
+        repartitioned on their first group field, so that each thread owns whole
+        groups; an aggregate without groups over a scan merges the partials of its
+        workers instead.
+    */
+    private DbIterator aggregate(DbIterator plan, int[] afields, int[] gfields,
+            Aggregator.Op[] aops) {
+        if (gfields.length > 0) {
+            DbIterator[] in = producers(plan);
+            if (in.length > 1) {
+                Exchange ex = Exchange.repartition(in, gfields[0], threads);
+                TupleDesc td = new Aggregate(plan, afields, gfields, aops, 0).getTupleDesc();
+                int budget = Math.max(1, SpillFile.defaultMemoryTuples(td) / threads);
+                DbIterator[] partitions = new DbIterator[threads];
+                for (int i = 0; i < threads; i++)
+                    partitions[i] = new Aggregate(ex.getConsumer(i), afields, gfields, aops,
+                            budget);
+                return new Gather(partitions);
+            }
+        }
+        if (plan instanceof SeqScan) {
+            Aggregate agg = new Aggregate(plan, afields, gfields, aops, 0);
+            agg.setParallelism(threads);
+            return agg;
+        }
+        ParallelScan ps = parallelScan(plan);
+        return new Aggregate(ps != null ? ps : plan, afields, gfields, aops, 0);
+    }
+
+    /** @return the condition a filter describes, over tuples described by td
+        @throws ParsingException if a field is not in td
+    */
+    private CompoundPredicate filterCondition(LogicalFilterNode lf, TupleDesc td) throws ParsingException {
+        if (lf.kind != CompoundPredicate.Kind.COMPARE) {
+            CompoundPredicate[] terms = new CompoundPredicate[lf.terms.size()];
+            for (int i = 0; i < terms.length; i++)
+                terms[i] = filterCondition(lf.terms.get(i), td);
+            switch (lf.kind) {
+            case AND: return CompoundPredicate.and(terms);
+            case OR: return CompoundPredicate.or(terms);
+            default: return CompoundPredicate.not(terms[0]);
+            }
+        }
+
+        Field f;
+        Type ftyp;
+        int field;
+        try {//td.fieldNameToIndex(disambiguateName(lf.fieldPureName))
+            field = td.fieldNameToIndex(lf.fieldQuantifiedName);
+            ftyp = td.getFieldType(field);
+        } catch (java.util.NoSuchElementException e) {
+            throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
+        }
+        if (ftyp == Type.INT_TYPE)
+            f = new IntField(new Integer(lf.c).intValue());
+        else
+            f = new StringField(lf.c, Type.STRING_LEN);
+
+        return new CompoundPredicate(new Predicate(field, lf.p, f));
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link DbIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned DbIterator will run as a part of
@@ -306,6 +507,10 @@ public class LogicalPlan {
 
         }
 
+        // the conditions on each table, and the selectivity of each
+        HashMap<String,ArrayList<CompoundPredicate>> tableConds = new HashMap<String,ArrayList<CompoundPredicate>>();
+        final IdentityHashMap<CompoundPredicate,Double> condSelectivities = new IdentityHashMap<CompoundPredicate,Double>();
+
         Iterator<LogicalFilterNode> filterIt = filters.iterator();        
         while (filterIt.hasNext()) {
             LogicalFilterNode lf = filterIt.next();
@@ -314,35 +519,33 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown table in WHERE clause " + lf.tableAlias);
             }
 
-            Field f;
-            Type ftyp;
-            TupleDesc td = subplanMap.get(lf.tableAlias).getTupleDesc();
-            
-            try {//td.fieldNameToIndex(disambiguateName(lf.fieldPureName))
-                ftyp = td.getFieldType(td.fieldNameToIndex(lf.fieldQuantifiedName));
-            } catch (java.util.NoSuchElementException e) {
-                throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
-            }
-            if (ftyp == Type.INT_TYPE)
-                f = new IntField(new Integer(lf.c).intValue());
-            else
-                f = new StringField(lf.c, Type.STRING_LEN);
-
-            Predicate p = null;
-            try {
-                p = new Predicate(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p,f);
-            } catch (NoSuchElementException e) {
-                throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
-            }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            CompoundPredicate p = filterCondition(lf, subplan.getTupleDesc());
+            if (!tableConds.containsKey(lf.tableAlias))
+                tableConds.put(lf.tableAlias, new ArrayList<CompoundPredicate>());
+            tableConds.get(lf.tableAlias).add(p);
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
-            double sel= s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
+            double sel= s.estimateSelectivity(p);
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
+            condSelectivities.put(p, sel);
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
+
+        // one Filter per table tests all its conditions, the most selective first,
+        // so that most tuples are rejected by the first test; it reorders them as
+        // it learns how selective they really are
+        for (Map.Entry<String,ArrayList<CompoundPredicate>> e : tableConds.entrySet()) {
+            ArrayList<CompoundPredicate> ps = e.getValue();
+            Collections.sort(ps, new Comparator<CompoundPredicate>() {
+                public int compare(CompoundPredicate a, CompoundPredicate b) {
+                    return condSelectivities.get(a).compareTo(condSelectivities.get(b));
+                }
+            });
+            subplanMap.put(e.getKey(), new Filter(CompoundPredicate.and(
+                ps.toArray(new CompoundPredicate[0])), subplanMap.get(e.getKey())));
+        }
         
         JoinOptimizer jo = new JoinOptimizer(this,joins);
 
@@ -383,6 +586,8 @@ public class LogicalPlan {
             
             DbIterator j;
             j = jo.instantiateJoin(lj,plan1,plan2);
+            if (j instanceof Join && lj.p == Predicate.Op.EQUALS)
+                j = parallelJoin(((Join) j).getJoinPredicate(), j, plan1, plan2);
             subplanMap.put(t1name, j);
 
             if (!isSubqueryJoin) {
@@ -414,28 +619,27 @@ public class LogicalPlan {
         for (int i = 0; i < selectList.size(); i++) {
             LogicalSelectListNode si = selectList.elementAt(i);
             if (si.aggOp != null) {
-                outFields.add(groupByField!=null?1:0);
-                TupleDesc td = node.getTupleDesc();
-//                int  id;
-                try {
-//                    id = 
-                    td.fieldNameToIndex(si.fname);
-                } catch (NoSuchElementException e) {
-                    throw new ParsingException("Unknown field " +  si.fname + " in SELECT list");
-                }
+                int k = 0;
+                while (k < aggOps.size() && !(aggOps.elementAt(k).equalsIgnoreCase(si.aggOp)
+                        && aggFields.elementAt(k).equals(si.fname)))
+                    k++;
+                if (k == aggOps.size())
+                    throw new ParsingException("Aggregate " + si.aggOp + "(" + si.fname + ") in SELECT list was never added");
+                outFields.add(groupByFields.size() + k);
                 outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
 
             } else if (hasAgg) {
-                    if (groupByField == null) {
+                    int k = groupByFields.indexOf(si.fname);
+                    if (k < 0) {
                         throw new ParsingException("Field " + si.fname + " does not appear in GROUP BY list");
                     }
-                    outFields.add(0);
+                    outFields.add(k);
                     TupleDesc td = node.getTupleDesc();
                     int  id;
                     try {
-                        id = td.fieldNameToIndex(groupByField);
+                        id = td.fieldNameToIndex(si.fname);
                     } catch (NoSuchElementException e) {
-                        throw new ParsingException("Unknown field " +  groupByField + " in GROUP BY statement");
+                        throw new ParsingException("Unknown field " +  si.fname + " in GROUP BY statement");
                     }
                     outTypes.add(td.getFieldType(id));
             } else if (si.fname.equals("null.*")) {
@@ -460,22 +664,50 @@ public class LogicalPlan {
 
         if (hasAgg) {
             TupleDesc td = node.getTupleDesc();
-            Aggregate aggNode;
+            int[] afields = new int[aggFields.size()];
+            Aggregator.Op[] aops = new Aggregator.Op[aggOps.size()];
+            int[] gfields = new int[groupByFields.size()];
+            DbIterator aggNode;
             try {
-                aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(aggField),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
+                for (int k = 0; k < afields.length; k++) {
+                    aops[k] = getAggOp(aggOps.elementAt(k));
+                    if (!aggFields.elementAt(k).equals("null.*"))
+                        afields[k] = td.fieldNameToIndex(aggFields.elementAt(k));
+                    else if (aops[k] == Aggregator.Op.COUNT)
+                        afields[k] = 0;  // any field will do for COUNT(*)
+                    else
+                        throw new ParsingException(aops[k] + "(*) is not supported");
+                }
+                for (int k = 0; k < gfields.length; k++)
+                    gfields[k] = td.fieldNameToIndex(groupByFields.elementAt(k));
+                aggNode = aggregate(node, afields, gfields, aops);
             } catch (NoSuchElementException e) {
                 throw new simpledb.ParsingException(e);
             } catch (IllegalArgumentException e) {
                 throw new simpledb.ParsingException(e);
             }
             node = aggNode;
+        } else {
+            ParallelScan ps = parallelScan(node);
+            if (ps != null)
+                node = ps;
         }
 
-        if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+        if (!oByFields.isEmpty()) {
+            int[] fields = new int[oByFields.size()];
+            boolean[] asc = new boolean[oByFields.size()];
+            for (int k = 0; k < fields.length; k++) {
+                try {
+                    fields[k] = node.getTupleDesc().fieldNameToIndex(oByFields.elementAt(k));
+                } catch (NoSuchElementException e) {
+                    throw new ParsingException("Unknown field " + oByFields.elementAt(k)
+                            + " in ORDER BY");
+                }
+                asc[k] = oByAsc.elementAt(k);
+            }
+            node = new OrderBy(fields, asc, node, limit, 0);
+        } else if (limit > 0) {
+            throw new ParsingException("LIMIT without ORDER BY is not supported");
         }
 
         return new Project(outFields, outTypes, node);
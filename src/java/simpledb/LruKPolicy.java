@@ -0,0 +1,137 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * LRU-K replacement. Each resident page remembers the logical times of its
+ * last K accesses, and the victim is the page whose K-th most recent access
+ * lies furthest in the past. Pages referenced fewer than K times have an
+ * infinite backward distance and go first, least recently used first, so a
+ * single scan cannot push out pages that are referenced repeatedly.
+ * <p>
+ * Pages are kept ordered by backward K-distance, so accesses and victim
+ * selection cost O(log n) in the number of resident pages.
+ */
+public class LruKPolicy implements EvictionPolicy {
+
+    /** Creates an LRU-2 policy for each buffer pool stripe. */
+    public static final EvictionPolicy.Factory FACTORY = new EvictionPolicy.Factory() {
+        public EvictionPolicy newPolicy(int numPages) {
+            return new LruKPolicy();
+        }
+    };
+
+    /** Default history depth; LRU-2 captures most of the benefit. */
+    public static final int DEFAULT_K = 2;
+
+    private final int k;
+    private long clock;
+    private HashMap<PageId, History> histories;
+    private TreeSet<History> order;
+
+    /** Access history of one resident page. */
+    private class History {
+        final PageId pid;
+        final long[] times;
+        int count;
+
+        History(PageId pid) {
+            this.pid = pid;
+            this.times = new long[k];
+            this.count = 0;
+        }
+
+        void touch(long now) {
+            times[count % k] = now;
+            count++;
+        }
+
+        long last() {
+            return times[(count - 1) % k];
+        }
+
+        /** @return the time of the K-th most recent access, or -1 if unknown */
+        long kth() {
+            if (count < k)
+                return -1;
+            return times[count % k];
+        }
+    }
+
+    /**
+     * Creates an LRU-K policy with {@link #DEFAULT_K}.
+     */
+    public LruKPolicy() {
+        this(DEFAULT_K);
+    }
+
+    /**
+     * Creates an LRU-K policy.
+     *
+     * @param k how many past accesses to remember per page; 1 is plain LRU
+     */
+    public LruKPolicy(int k) {
+        if (k < 1)
+            throw new IllegalArgumentException("k must be at least 1");
+        this.k = k;
+        this.clock = 0;
+        this.histories = new HashMap<PageId, History>();
+        this.order = new TreeSet<History>(new Comparator<History>() {
+            public int compare(History h1, History h2) {
+                long d1 = h1.kth();
+                long d2 = h2.kth();
+                if (d1 != d2)
+                    return d1 < d2 ? -1 : 1;
+                long l1 = h1.last();
+                long l2 = h2.last();
+                if (l1 != l2)
+                    return l1 < l2 ? -1 : 1;
+                return 0;
+            }
+        });
+    }
+
+    public void pageLoaded(PageId pid) {
+        History h = histories.get(pid);
+        if (h == null) {
+            h = new History(pid);
+            h.touch(++clock);
+            histories.put(pid, h);
+            order.add(h);
+        } else {
+            pageAccessed(pid);
+        }
+    }
+
+    public void pageAccessed(PageId pid) {
+        History h = histories.get(pid);
+        if (h == null)
+            return;
+        order.remove(h);
+        h.touch(++clock);
+        order.add(h);
+    }
+
+    public void pageRemoved(PageId pid) {
+        History h = histories.remove(pid);
+        if (h != null)
+            order.remove(h);
+    }
+
+    public PageId chooseVictim(Candidates candidates) {
+        Iterator<History> it = order.iterator();
+        while (it.hasNext()) {
+            History h = it.next();
+            if (candidates.isEvictable(h.pid)) {
+                it.remove();
+                histories.remove(h.pid);
+                return h.pid;
+            }
+        }
+        return null;
+    }
+
+    public String toString() {
+        return "LRU-" + k;
+    }
+}
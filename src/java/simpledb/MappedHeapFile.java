@@ -0,0 +1,110 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * MappedHeapFile is a HeapFile whose pages are read from a memory mapping of
+ * the file instead of being copied out of the kernel with read(). Each page
+ * is decoded straight from a slice of the mapping, so a cold scan does no
+ * extra copy and the OS page cache does the caching. It suits read-mostly
+ * tables; writes still go through the file channel, which the mapping sees
+ * because both share the page cache.
+ * <p>
+ * The file is mapped in segments of at most {@link #SEGMENT_SIZE} bytes, so
+ * tables larger than 2GB can be mapped. When a page past the mapped region
+ * is requested, e.g. after insertTuple appended a page, the tail of the
+ * file is mapped again.
+ * <p>
+ * A table is stored this way if its catalog entry carries the
+ * <code>mmap</code> option.
+ *
+ * @see Catalog#loadSchema
+ */
+public class MappedHeapFile extends HeapFile {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Bytes per mapped segment; a multiple of the page size. */
+    static final long SEGMENT_SIZE = 1L << 30;
+
+    private transient ArrayList<MappedByteBuffer> segments;
+    private transient long mappedSize;
+
+    /**
+     * Constructs a memory-mapped heap file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     */
+    public MappedHeapFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    /**
+     * Returns the segment holding the bytes just before end, mapping more of
+     * the file if needed.
+     *
+     * @return the segment, or null if the file is shorter than end
+     */
+    private synchronized MappedByteBuffer segmentFor(long end) throws IOException {
+        if (segments == null || end > mappedSize)
+            remap();
+        if (end > mappedSize)
+            return null;
+        return segments.get((int) ((end - 1) / SEGMENT_SIZE));
+    }
+
+    private void remap() throws IOException {
+        FileChannel ch = getChannel();
+        long size = ch.size();
+        size -= size % BufferPool.PAGE_SIZE;
+        if (segments == null) {
+            segments = new ArrayList<MappedByteBuffer>();
+            mappedSize = 0;
+        }
+        // full segments stay valid; only a partial last one is mapped again
+        int full = (int) (mappedSize / SEGMENT_SIZE);
+        while (segments.size() > full)
+            segments.remove(segments.size() - 1);
+        for (long start = full * SEGMENT_SIZE; start < size; start += SEGMENT_SIZE) {
+            segments.add(ch.map(FileChannel.MapMode.READ_ONLY, start,
+                    Math.min(SEGMENT_SIZE, size - start)));
+        }
+        mappedSize = size;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        if (pid.getTableId() != this.getId())
+            throw new IllegalArgumentException(
+                    "PageID does not reference any Table via Catalog#getDbFile");
+        try {
+            long offset = (long) pid.pageNumber() * BufferPool.PAGE_SIZE;
+            MappedByteBuffer segment = segmentFor(offset + BufferPool.PAGE_SIZE);
+            if (segment == null) {
+                // past the end of the file; let HeapFile hand out an empty page
+                return super.readPage(pid);
+            }
+            ByteBuffer page = segment.duplicate();
+            page.position((int) (offset % SEGMENT_SIZE));
+            return new HeapPage((HeapPageId) pid, page);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("could not read page "
+                    + pid.pageNumber() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Drops the mapping and closes the channel backing this file.
+     */
+    public synchronized void close() throws IOException {
+        segments = null;
+        mappedSize = 0;
+        super.close();
+    }
+}
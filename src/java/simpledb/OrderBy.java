@@ -3,22 +3,33 @@ package simpledb;
 import java.util.*;
 
 /**
- * OrderBy is an operator that implements a relational ORDER BY.
+ * OrderBy is an operator that implements a relational ORDER BY, on one or
+ * more fields, each ascending or descending.
+ * <p>
+ * The child is sorted with an {@link ExternalSort}, so input larger than
+ * the memory budget is sorted in runs on disk and merged. With a limit,
+ * only the first tuples in order are wanted: if they fit in the budget
+ * they are kept in a bounded heap while the child is read, and nothing is
+ * written to disk.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
     private DbIterator child;
     private TupleDesc td;
-    private ArrayList<Tuple> childTups = new ArrayList<Tuple>();
-    private int orderByField;
+    private TupleComparator cmp;
     private String orderByFieldName;
-    private Iterator<Tuple> it;
-    private boolean asc;
+    /** The number of tuples to return, or 0 for all of them. */
+    private final int limit;
+    /** The budget given to the constructor, or 0 to derive it from the buffer pool. */
+    private final int memoryTuples;
+    private transient ExternalSort sort;
+    private transient DbIterator it;
+    private transient int returned;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
-     * 
+     *
      * @param orderbyField
      *            the field to which the sort is applied.
      * @param asc
@@ -27,62 +38,181 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, DbIterator child) {
+        this(orderbyField, asc, child, 0, 0);
+    }
+
+    /**
+     * Creates a new OrderBy node that returns only the first tuples in
+     * order.
+     *
+     * @param orderbyField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     * @param limit
+     *            the number of tuples to return, or 0 for all of them.
+     */
+    public OrderBy(int orderbyField, boolean asc, DbIterator child, int limit) {
+        this(orderbyField, asc, child, limit, 0);
+    }
+
+    /**
+     * Creates a new OrderBy node with a fixed memory budget.
+     *
+     * @param orderbyField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     * @param limit
+     *            the number of tuples to return, or 0 for all of them.
+     * @param memoryTuples
+     *            the number of tuples held in memory before a sorted run is
+     *            written to disk, or 0 to use half the buffer pool.
+     */
+    public OrderBy(int orderbyField, boolean asc, DbIterator child, int limit,
+            int memoryTuples) {
+        this(new int[] { orderbyField }, new boolean[] { asc }, child, limit, memoryTuples);
+    }
+
+    /**
+     * Creates a new OrderBy node on several fields.
+     *
+     * @param orderbyFields
+     *            the fields to which the sort is applied, most significant
+     *            first.
+     * @param asc
+     *            for each field, true if the sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     * @param limit
+     *            the number of tuples to return, or 0 for all of them.
+     * @param memoryTuples
+     *            the number of tuples held in memory before a sorted run is
+     *            written to disk, or 0 to use half the buffer pool.
+     */
+    public OrderBy(int[] orderbyFields, boolean[] asc, DbIterator child, int limit,
+            int memoryTuples) {
+        if (limit < 0)
+            throw new IllegalArgumentException("limit must not be negative");
+        if (memoryTuples < 0)
+            throw new IllegalArgumentException("memory budget must not be negative");
         this.child = child;
         td = child.getTupleDesc();
-        this.orderByField = orderbyField;
-        this.orderByFieldName = td.getFieldName(orderbyField);
-        this.asc = asc;
+        this.cmp = new TupleComparator(orderbyFields, asc);
+        this.orderByFieldName = td.getFieldName(orderbyFields[0]);
+        this.limit = limit;
+        this.memoryTuples = memoryTuples;
     }
-    
+
+    /** @return true if the first field is sorted in ascending order */
     public boolean isASC()
     {
-	return this.asc;
+	return cmp.isAscending(0);
     }
-    
+
+    /** @return the first field sorted on */
     public int getOrderByField()
     {
-        return this.orderByField;
+        return cmp.getField(0);
     }
-    
+
+    /** @return the order of the output, on all of its fields */
+    public TupleComparator getComparator() {
+        return cmp;
+    }
+
     public String getOrderFieldName()
     {
 	return this.orderByFieldName;
     }
-    
+
+    /** @return the number of tuples returned, or 0 if all of them are */
+    public int getLimit() {
+        return limit;
+    }
+
     public TupleDesc getTupleDesc() {
         return td;
     }
 
+    /**
+     * Reads the child into a heap holding the first limit tuples in order.
+     * The heap is ordered in reverse, so its head is the tuple to drop when
+     * a smaller one arrives. Once the heap is full most tuples are rejected
+     * by comparing with the head alone, on normalized keys if there are any.
+     */
+    private DbIterator topN() throws DbException,
+            TransactionAbortedException {
+        PriorityQueue<Tuple> heap = new PriorityQueue<Tuple>(limit,
+                Collections.reverseOrder(cmp));
+        boolean keyed = cmp.hasNormalizedKey(td);
+        long headKey = 0;
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (heap.size() < limit) {
+                heap.add(t);
+            } else if (keyed ? cmp.normalizedKey(t) < headKey
+                    : cmp.compare(t, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(t);
+            } else {
+                continue;
+            }
+            if (keyed && heap.size() == limit)
+                headKey = cmp.normalizedKey(heap.peek());
+        }
+        ArrayList<Tuple> top = new ArrayList<Tuple>(heap);
+        cmp.sort(top);
+        return new TupleIterator(td, top);
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add((Tuple) child.next());
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        int budget = memoryTuples > 0 ? memoryTuples : SpillFile.defaultMemoryTuples(td);
+        if (limit > 0 && limit <= budget) {
+            it = topN();
+        } else {
+            sort = new ExternalSort(td, cmp, budget);
+            sort.addAll(child);
+            it = sort.sorted();
+        }
+        it.open();
+        returned = 0;
         super.open();
     }
 
     public void close() {
         super.close();
+        if (it != null)
+            it.close();
+        if (sort != null)
+            sort.delete();
         it = null;
+        sort = null;
+        child.close();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        it = childTups.iterator();
+        it.rewind();
+        returned = 0;
     }
 
     /**
      * Operator.fetchNext implementation. Returns tuples from the child operator
      * in order
-     * 
+     *
      * @return The next tuple in the ordering, or null if there are no more
      *         tuples
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-        if (it != null && it.hasNext()) {
+        if (it != null && it.hasNext() && (limit == 0 || returned < limit)) {
+            returned++;
             return it.next();
         } else
             return null;
@@ -99,25 +229,3 @@ public class OrderBy extends Operator {
     }
 
 }
-
-class TupleComparator implements Comparator<Tuple> {
-    int field;
-    boolean asc;
-
-    public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
-    }
-
-    public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
-    }
-    
-}
@@ -0,0 +1,270 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ParallelScan reads a {@link HeapFile} on several worker threads, each
+ * running its own copy of the pipeline above the scan, such as a
+ * {@link Filter} and a {@link Project}, and gathers their output through a
+ * {@link Gather}.
+ * <p>
+ * Work is handed out in morsels: a worker claims the next
+ * {@link #MORSEL_PAGES} pages of the file, runs them through its pipeline,
+ * and comes back for more, so a worker that is slowed down simply claims
+ * fewer morsels. Pages are read through the buffer pool, which is safe to
+ * share between threads.
+ * <p>
+ * Tuples come back in no particular order, like those of a {@link SeqScan}.
+ */
+public class ParallelScan extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The number of pages a worker claims at a time. */
+    public static final int MORSEL_PAGES = 16;
+
+    /**
+     * Builds the operators a worker runs over its scan. A pipeline is
+     * built once per worker, so it must return new operators each time.
+     */
+    public interface Pipeline extends Serializable {
+        /**
+         * @param scan
+         *            the tuples of the morsels the worker claims
+         * @return the operators to run over them
+         */
+        DbIterator build(DbIterator scan);
+    }
+
+    /** The pipeline that runs the scan alone. */
+    public static final Pipeline SCAN_ONLY = new Pipeline() {
+        private static final long serialVersionUID = 1L;
+
+        public DbIterator build(DbIterator scan) {
+            return scan;
+        }
+    };
+
+    /**
+     * @param cond
+     *            the condition to apply
+     * @return the pipeline that filters the scan by the condition
+     */
+    public static Pipeline filter(final CompoundPredicate cond) {
+        return new Pipeline() {
+            private static final long serialVersionUID = 1L;
+
+            public DbIterator build(DbIterator scan) {
+                return new Filter(cond, scan);
+            }
+        };
+    }
+
+    private final TransactionId tid;
+    private final int tableid;
+    private final String alias;
+    private final int threads;
+    private final Pipeline pipeline;
+    /** The pipeline over a serial scan, describing what each worker runs. */
+    private DbIterator template;
+    private final Gather gather;
+
+    /**
+     * Creates a parallel scan that returns the tuples of the table.
+     *
+     * @see #ParallelScan(TransactionId, int, String, int, Pipeline)
+     */
+    public ParallelScan(TransactionId tid, int tableid, String tableAlias, int threads) {
+        this(tid, tableid, tableAlias, threads, SCAN_ONLY);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan, which must be a HeapFile.
+     * @param tableAlias
+     *            the alias of this table, which prefixes its field names as
+     *            in {@link SeqScan}.
+     * @param threads
+     *            the number of worker threads.
+     * @param pipeline
+     *            the operators each worker runs over its morsels.
+     * @throws IllegalArgumentException
+     *             if the table is not a HeapFile, or threads is not positive
+     */
+    public ParallelScan(TransactionId tid, int tableid, String tableAlias, int threads,
+            Pipeline pipeline) {
+        if (!(Database.getCatalog().getDbFile(tableid) instanceof HeapFile))
+            throw new IllegalArgumentException("can only scan a HeapFile in parallel");
+        if (threads < 1)
+            throw new IllegalArgumentException("need at least one thread");
+        this.tid = tid;
+        this.tableid = tableid;
+        this.alias = tableAlias;
+        this.threads = threads;
+        this.pipeline = pipeline;
+        this.template = pipeline.build(new SeqScan(tid, tableid, tableAlias));
+        this.gather = new Gather(pipelines(threads));
+    }
+
+    /** @return the id of the table this operator scans */
+    public int getTableId() {
+        return tableid;
+    }
+
+    /** @return the alias of the table this operator scans */
+    public String getAlias() {
+        return alias;
+    }
+
+    /** @return the number of worker threads */
+    public int getParallelism() {
+        return threads;
+    }
+
+    /** @return a short description, for query plans */
+    public String getName() {
+        return "parallel(" + threads + ")";
+    }
+
+    /**
+     * Builds copies of the pipeline over scans that share out the morsels
+     * of the table, so that running all of them at once, each opened once,
+     * reads the table once. This is what the workers of this operator run;
+     * an {@link Exchange} other than its gather can run them instead.
+     *
+     * @param n
+     *            the number of copies
+     */
+    public DbIterator[] pipelines(int n) {
+        Morsels morsels = new Morsels();
+        DbIterator[] pipelines = new DbIterator[n];
+        for (int i = 0; i < n; i++)
+            pipelines[i] = pipeline.build(new MorselScan(tid, tableid, alias, morsels));
+        return pipelines;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return template.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        gather.open();
+        super.open();
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        return gather.hasNext() ? gather.next() : null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        gather.rewind();
+    }
+
+    public void close() {
+        super.close();
+        gather.close();
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { template };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.template = children[0];
+    }
+
+    /**
+     * The next page to claim, shared by the scans of a set of pipelines.
+     * Each time the set is run the first scan to open starts the table
+     * over, and the rest join in.
+     */
+    private static class Morsels implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+        private int run;
+        private final AtomicInteger nextPage = new AtomicInteger();
+
+        /**
+         * @param last
+         *            the run the scan last took part in, or 0
+         * @return the run the scan takes part in now
+         */
+        synchronized int join(int last) {
+            if (last == run) {
+                run++;
+                nextPage.set(0);
+            }
+            return run;
+        }
+
+        /** @return the first page of the next morsel */
+        int claim() {
+            return nextPage.getAndAdd(MORSEL_PAGES);
+        }
+    }
+
+    /**
+     * The scan under one worker's pipeline: it claims morsels until the
+     * file is read. It is a SeqScan to the operators above it, and to
+     * query plans.
+     */
+    private static class MorselScan extends SeqScan {
+
+        private static final long serialVersionUID = 1L;
+        private final Morsels morsels;
+        private int run;
+        private transient DbFileIterator morsel;
+
+        MorselScan(TransactionId tid, int tableid, String alias, Morsels morsels) {
+            super(tid, tableid, alias);
+            this.morsels = morsels;
+        }
+
+        public void open() {
+            run = morsels.join(run);
+            morsel = null;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            while (morsel == null || !morsel.hasNext()) {
+                if (morsel != null)
+                    morsel.close();
+                morsel = null;
+                HeapFile file = (HeapFile) Database.getCatalog().getDbFile(getTableId());
+                int first = morsels.claim();
+                if (first >= file.numPages())
+                    return false;
+                morsel = file.iterator(getTransactionId(), first, first + MORSEL_PAGES,
+                        getFilter());
+                morsel.open();
+            }
+            return true;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException,
+                NoSuchElementException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return morsel.next();
+        }
+
+        /** Morsels are claimed once; the pipelines are run again instead. */
+        public void rewind() throws DbException {
+            throw new DbException("a morsel scan cannot be rewound");
+        }
+
+        public void close() {
+            if (morsel != null)
+                morsel.close();
+            morsel = null;
+        }
+    }
+}
@@ -11,6 +11,8 @@ import jline.SimpleCompletor;
 
 public class Parser {
     static boolean explain = false;
+    /** The number of threads query plans split their work across. */
+    static int threads = 1;
 
     public static Predicate.Op getOp(String s) throws simpledb.ParsingException {
         if (s.equals("="))
@@ -47,9 +49,10 @@ public class Parser {
                 processExpression(tid, newWx, lp);
 
             }
-        } else if (wx.getOperator().equals("OR")) {
-            throw new simpledb.ParsingException(
-                    "OR expressions currently unsupported.");
+        } else if (wx.getOperator().equals("OR")
+                || wx.getOperator().equals("NOT")
+                || wx.getOperator().equals("NOT LIKE")) {
+            lp.addFilter(processFilterExpression(wx, lp));
         } else {
             // this is a binary expression comparing two constants
             @SuppressWarnings("unchecked")
@@ -113,23 +116,64 @@ public class Parser {
                 }
 
             } else { // select node
-                String column;
-                String compValue;
-                ZConstant op1 = (ZConstant) ops.elementAt(0);
-                ZConstant op2 = (ZConstant) ops.elementAt(1);
-                if (op1.getType() == ZConstant.COLUMNNAME) {
-                    column = op1.getValue();
-                    compValue = new String(op2.getValue());
-                } else {
-                    column = op2.getValue();
-                    compValue = new String(op1.getValue());
-                }
+                lp.addFilter(processFilterExpression(wx, lp));
+            }
+        }
 
-                lp.addFilter(column, op, compValue);
+    }
 
-            }
+    /**
+     * Converts a condition on one table into a filter. Conditions under an
+     * OR or a NOT are converted here, and may only combine comparisons of
+     * fields with constants.
+     */
+    LogicalFilterNode processFilterExpression(ZExp x, LogicalPlan lp)
+            throws simpledb.ParsingException {
+        if (!(x instanceof ZExpression)) {
+            throw new simpledb.ParsingException(
+                    "Nested queries are currently unsupported.");
+        }
+        ZExpression wx = (ZExpression) x;
+        String operator = wx.getOperator();
+        if (operator.equals("AND") || operator.equals("OR")
+                || operator.equals("NOT")) {
+            Vector<LogicalFilterNode> terms = new Vector<LogicalFilterNode>();
+            for (int i = 0; i < wx.nbOperands(); i++)
+                terms.add(processFilterExpression(wx.getOperand(i), lp));
+            return lp.compoundFilter(CompoundPredicate.Kind.valueOf(operator),
+                    terms);
         }
 
+        @SuppressWarnings("unchecked")
+        Vector<ZExp> ops = wx.getOperands();
+        if (ops.size() != 2 || !(ops.elementAt(0) instanceof ZConstant)
+                || !(ops.elementAt(1) instanceof ZConstant)) {
+            throw new simpledb.ParsingException(
+                    "Only comparisons of fields with constants are supported under OR and NOT.");
+        }
+        String column;
+        String compValue;
+        ZConstant op1 = (ZConstant) ops.elementAt(0);
+        ZConstant op2 = (ZConstant) ops.elementAt(1);
+        if (op1.getType() == ZConstant.COLUMNNAME
+                && op2.getType() == ZConstant.COLUMNNAME) {
+            throw new simpledb.ParsingException(
+                    "Joins are unsupported under OR and NOT.");
+        }
+        if (op1.getType() == ZConstant.COLUMNNAME) {
+            column = op1.getValue();
+            compValue = new String(op2.getValue());
+        } else {
+            column = op2.getValue();
+            compValue = new String(op1.getValue());
+        }
+
+        if (operator.equals("NOT LIKE")) {
+            Vector<LogicalFilterNode> like = new Vector<LogicalFilterNode>();
+            like.add(lp.comparison(column, Predicate.Op.LIKE, compValue));
+            return lp.compoundFilter(CompoundPredicate.Kind.NOT, like);
+        }
+        return lp.comparison(column, getOp(operator), compValue);
     }
 
     public LogicalPlan parseQueryLogicalPlan(TransactionId tid, ZQuery q)
@@ -138,6 +182,7 @@ public class Parser {
         Vector<ZFromItem> from = q.getFrom();
         LogicalPlan lp = new LogicalPlan();
         lp.setQuery(q.toString());
+        lp.setParallelism(threads);
         // walk through tables in the FROM clause
         for (int i = 0; i < from.size(); i++) {
             ZFromItem fromIt = from.elementAt(i);
@@ -182,23 +227,19 @@ public class Parser {
 
         // now look for group by fields
         ZGroupBy gby = q.getGroupBy();
-        String groupByField = null;
+        Vector<String> groupByFields = new Vector<String>();
         if (gby != null) {
             @SuppressWarnings("unchecked")
             Vector<ZExp> gbs = gby.getGroupBy();
-            if (gbs.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "At most one grouping field expression supported.");
-            }
-            if (gbs.size() == 1) {
-                ZExp gbe = gbs.elementAt(0);
+            for (ZExp gbe : gbs) {
                 if (!(gbe instanceof ZConstant)) {
                     throw new simpledb.ParsingException(
                             "Complex grouping expressions (" + gbe
                                     + ") not supported.");
                 }
-                groupByField = ((ZConstant) gbe).getValue();
+                String groupByField = ((ZConstant) gbe).getValue();
                 System.out.println("GROUP BY FIELD : " + groupByField);
+                groupByFields.addElement(groupByField);
             }
 
         }
@@ -207,8 +248,8 @@ public class Parser {
         // validity
         @SuppressWarnings("unchecked")
         Vector<ZSelectItem> selectList = q.getSelect();
-        String aggField = null;
-        String aggFun = null;
+        Vector<String> aggFields = new Vector<String>();
+        Vector<String> aggFuns = new Vector<String>();
 
         for (int i = 0; i < selectList.size(); i++) {
             ZSelectItem si = selectList.elementAt(i);
@@ -218,20 +259,18 @@ public class Parser {
                         "Expressions in SELECT list are not supported.");
             }
             if (si.getAggregate() != null) {
-                if (aggField != null) {
-                    throw new simpledb.ParsingException(
-                            "Aggregates over multiple fields not supported.");
-                }
-                aggField = ((ZConstant) ((ZExpression) si.getExpression())
+                String aggField = ((ZConstant) ((ZExpression) si.getExpression())
                         .getOperand(0)).getValue();
-                aggFun = si.getAggregate();
+                String aggFun = si.getAggregate();
                 System.out.println("Aggregate field is " + aggField
                         + ", agg fun is : " + aggFun);
                 lp.addProjectField(aggField, aggFun);
+                aggFields.addElement(aggField);
+                aggFuns.addElement(aggFun);
             } else {
-                if (groupByField != null
-                        && !(groupByField.equals(si.getTable() + "."
-                                + si.getColumn()) || groupByField.equals(si
+                if (!groupByFields.isEmpty()
+                        && !(groupByFields.contains(si.getTable() + "."
+                                + si.getColumn()) || groupByFields.contains(si
                                 .getColumn()))) {
                     throw new simpledb.ParsingException("Non-aggregate field "
                             + si.getColumn()
@@ -241,30 +280,30 @@ public class Parser {
             }
         }
 
-        if (groupByField != null && aggFun == null) {
+        if (!groupByFields.isEmpty() && aggFuns.isEmpty()) {
             throw new simpledb.ParsingException("GROUP BY without aggregation.");
         }
 
-        if (aggFun != null) {
-            lp.addAggregate(aggFun, aggField, groupByField);
+        for (String groupByField : groupByFields) {
+            lp.addGroupBy(groupByField);
+        }
+        for (int i = 0; i < aggFuns.size(); i++) {
+            lp.addAggregate(aggFuns.elementAt(i), aggFields.elementAt(i), null);
         }
         // sort the data
 
         if (q.getOrderBy() != null) {
             @SuppressWarnings("unchecked")
             Vector<ZOrderBy> obys = q.getOrderBy();
-            if (obys.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "Multi-attribute ORDER BY is not supported.");
-            }
-            ZOrderBy oby = obys.elementAt(0);
-            if (!(oby.getExpression() instanceof ZConstant)) {
-                throw new simpledb.ParsingException(
-                        "Complex ORDER BY's are not supported");
-            }
-            ZConstant f = (ZConstant) oby.getExpression();
+            for (ZOrderBy oby : obys) {
+                if (!(oby.getExpression() instanceof ZConstant)) {
+                    throw new simpledb.ParsingException(
+                            "Complex ORDER BY's are not supported");
+                }
+                ZConstant f = (ZConstant) oby.getExpression();
 
-            lp.addOrderBy(f.getValue(), oby.getAscOrder());
+                lp.addOrderBy(f.getValue(), oby.getAscOrder());
+            }
 
         }
         return lp;
@@ -586,7 +625,7 @@ public class Parser {
 
     public static void main(String argv[]) throws IOException {
 
-        if (argv.length < 1 || argv.length > 4) {
+        if (argv.length < 1 || argv.length > 6) {
             System.out.println("Invalid number of arguments.\n" + usage);
             System.exit(0);
         }
@@ -596,7 +635,7 @@ public class Parser {
         p.start(argv);
     }
 
-    static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
+    static final String usage = "Usage: parser catalogFile [-explain] [-threads n] [-f queryFile]";
 
     protected void shutdown() {
         System.out.println("Bye");
@@ -616,6 +655,17 @@ public class Parser {
                 if (argv[i].equals("-explain")) {
                     explain = true;
                     System.out.println("Explain mode enabled.");
+                } else if (argv[i].equals("-threads")) {
+                    try {
+                        threads = Integer.parseInt(argv[++i]);
+                        if (threads < 1)
+                            throw new NumberFormatException();
+                    } catch (RuntimeException e) {
+                        System.out.println("Expected a positive number of threads after -threads\n"
+                                + usage);
+                        System.exit(0);
+                    }
+                    System.out.println("Query plans use " + threads + " threads.");
                 } else if (argv[i].equals("-f")) {
                     interactive = false;
                     if (i++ == argv.length) {
@@ -105,14 +105,19 @@ public class Query implements Serializable {
         }
         System.out.println("");
 
-        this.start();
-        int cnt = 0;
-        while (this.hasNext()) {
-            Tuple tup = this.next();
-            System.out.println(tup);
-            cnt++;
+        // the plan holds pinned pages while it is open, so it is closed
+        // even if the query fails
+        try {
+            this.start();
+            int cnt = 0;
+            while (this.hasNext()) {
+                Tuple tup = this.next();
+                System.out.println(tup);
+                cnt++;
+            }
+            System.out.println("\n " + cnt + " rows.");
+        } finally {
+            this.close();
         }
-        System.out.println("\n " + cnt + " rows.");
-        this.close();
     }
 }
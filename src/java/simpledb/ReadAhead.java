@@ -0,0 +1,114 @@
+package simpledb;
+
+/**
+ * Sequential read-ahead for scans over a heap file. Each page fetched
+ * through {@link #getPage} is followed by prefetches of the next few pages
+ * of the table, so their reads overlap with the work done on the current
+ * page.
+ * <p>
+ * The number of pages kept in flight, the window, adapts to how fast the
+ * scan consumes pages. A fetch that has to wait for its page means the
+ * reads are not far enough ahead, and the window doubles. When a whole
+ * window's worth of pages arrives without waiting, the window shrinks by
+ * one, so a slow consumer does not hold more of the buffer pool than it
+ * needs. The window never exceeds a quarter of the buffer pool, so
+ * read-ahead cannot push out everything else.
+ * <p>
+ * A scan that reads through a {@link BufferRing} fetches and prefetches
+ * into the ring, and keeps its window within half the ring so prefetched
+ * pages are not recycled before the scan gets to them.
+ */
+public class ReadAhead {
+
+    /** Largest window, in pages. */
+    public static final int MAX_WINDOW = 32;
+
+    /**
+     * A fetch that takes longer than this waited for a read; resident pages
+     * are handed out in well under this time.
+     */
+    static final long STALL_NANOS = 20000;
+
+    private final int tableId;
+    private final BufferRing ring;
+    private final int maxWindow;
+    private int window;
+    /** Fetches in a row that did not wait. */
+    private int unstalled;
+    /** Highest page number prefetched so far, or -1. */
+    private int prefetched;
+
+    /**
+     * Creates read-ahead state for one scan of a table, sized against the
+     * current buffer pool.
+     *
+     * @param tableId the table being scanned
+     * @param ring the ring the scan reads through, or null
+     */
+    public ReadAhead(int tableId, BufferRing ring) {
+        this(tableId, ring, Math.min(MAX_WINDOW, ring == null
+                ? Database.getBufferPool().getNumPages() / 4
+                : Database.getBufferPool().getRingFrames(ring) / 2));
+    }
+
+    /**
+     * Creates read-ahead state for one scan of a table.
+     *
+     * @param tableId the table being scanned
+     * @param ring the ring the scan reads through, or null
+     * @param maxWindow the largest window; 0 disables read-ahead
+     */
+    public ReadAhead(int tableId, BufferRing ring, int maxWindow) {
+        this.tableId = tableId;
+        this.ring = ring;
+        this.maxWindow = Math.max(0, maxWindow);
+        this.window = Math.min(1, this.maxWindow);
+        this.unstalled = 0;
+        this.prefetched = -1;
+    }
+
+    /** @return the number of pages currently read ahead of the scan */
+    public int getWindow() {
+        return window;
+    }
+
+    /**
+     * Fetches a page of the table from the buffer pool, pinned as by
+     * {@link BufferPool#getPage}, and prefetches the pages that follow it.
+     *
+     * @param tid the transaction doing the scan
+     * @param pageNo the page to fetch
+     * @param numPages the number of pages in the table; nothing at or
+     *   beyond it is prefetched
+     */
+    public Page getPage(TransactionId tid, int pageNo, int numPages)
+            throws DbException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        long start = System.nanoTime();
+        Page page = bp.getPage(tid, new HeapPageId(tableId, pageNo), Permissions.READ_ONLY, ring);
+        fetched(System.nanoTime() - start);
+
+        int last = Math.min(pageNo + window, numPages - 1);
+        for (int p = Math.max(prefetched + 1, pageNo + 1); p <= last; p++)
+            bp.prefetchPage(new HeapPageId(tableId, p), ring);
+        prefetched = Math.max(prefetched, last);
+        return page;
+    }
+
+    /**
+     * Adapts the window to one fetch.
+     *
+     * @param waitNanos how long the fetch took
+     */
+    void fetched(long waitNanos) {
+        if (maxWindow == 0)
+            return;
+        if (waitNanos > STALL_NANOS) {
+            window = Math.min(maxWindow, window * 2);
+            unstalled = 0;
+        } else if (++unstalled >= window) {
+            window = Math.max(1, window - 1);
+            unstalled = 0;
+        }
+    }
+}
@@ -15,6 +15,8 @@ public class SeqScan implements DbIterator {
     private int tableid;
     private String tableAlias;
     private TransactionId tid;
+    /** The predicate pushed into the scan, or null. */
+    private CompiledPredicate filter;
     DbFileIterator fileIt;
     
     /**
@@ -59,6 +61,37 @@ public class SeqScan implements DbIterator {
         return this.tableAlias;
     }
 
+    /** @return the id of the table this operator scans */
+    public int getTableId() {
+        return this.tableid;
+    }
+
+    /** @return the transaction this scan is running as a part of */
+    public TransactionId getTransactionId() {
+        return this.tid;
+    }
+
+    /**
+     * Asks the scan to return only the tuples that satisfy a predicate,
+     * replacing any given before. A scan of a HeapFile tests rows on the
+     * page bytes, so rows that fail are never made into Tuples; other files
+     * are not filtered, and the caller must test their tuples itself.
+     *
+     * @param filter the predicate, or null to return every tuple
+     * @return true if the scan will apply the predicate
+     */
+    public boolean pushFilter(CompiledPredicate filter) {
+        if (!(Database.getCatalog().getDbFile(tableid) instanceof HeapFile))
+            return false;
+        this.filter = filter;
+        return true;
+    }
+
+    /** @return the predicate pushed into the scan, or null */
+    public CompiledPredicate getFilter() {
+        return this.filter;
+    }
+
     /**
      * Reset the tableid, and tableAlias of this operator.
      * @param tableid
@@ -83,7 +116,11 @@ public class SeqScan implements DbIterator {
         
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
-    	fileIt = Database.getCatalog().getDbFile(tableid).iterator(tid);
+    	DbFile file = Database.getCatalog().getDbFile(tableid);
+    	if (filter != null)
+    		fileIt = ((HeapFile) file).iterator(tid, filter);
+    	else
+    		fileIt = file.iterator(tid);
     	fileIt.open();
     }
 
@@ -158,6 +195,8 @@ public class SeqScan implements DbIterator {
 
     public void close() {
         // some code goes here
+    	if (fileIt != null)
+    		fileIt.close();
     	fileIt = null;
     }
 
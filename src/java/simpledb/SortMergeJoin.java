@@ -0,0 +1,322 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * SortMergeJoin joins two inputs sorted on their join fields, for
+ * equality and for the ordering predicates &lt;, &lt;=, &gt; and &gt;=.
+ * <p>
+ * An input already sorted on its join field in the order the join needs,
+ * an {@link OrderBy} or another sort-merge join, is used as it is; any
+ * other input is sorted with an {@link ExternalSort}. Equality joins sort both inputs ascending. Range
+ * joins sort both inputs so that the right tuples matching a left tuple are
+ * a prefix of the right input that only grows from one left tuple to the
+ * next: ascending for &gt; and &gt;=, descending for &lt; and &lt;=.
+ * <p>
+ * The join keeps a window of the right tuples matching the current left
+ * tuple: the group with the same key for equality, or the matching prefix
+ * for a range join. The window is held in memory up to the memory budget
+ * and spilled past it, so each right tuple is read once.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private JoinPredicate pred;
+    private DbIterator child1, child2;
+    /** The merged TupleDesc of the children, computed once. */
+    private TupleDesc td;
+    /** The budget given to the constructor, or 0 to derive it from the buffer pool. */
+    private final int memoryTuples;
+
+    private transient ExternalSort sort1, sort2;
+    /** The children in join order: either the children or their sorts. */
+    private transient DbIterator left, right;
+    private transient int budget;
+    /** The current left tuple. */
+    private transient Tuple outer;
+    /** The first right tuple not yet in the window, or null at the end. */
+    private transient Tuple peek;
+    /** The window tuples held in memory, followed by those in windowSpill. */
+    private transient ArrayList<Tuple> window;
+    private transient SpillFile windowSpill;
+    /** The position of the next window tuple to join with outer. */
+    private transient int windowPos;
+    private transient DbIterator windowSpillIt;
+
+    /**
+     * Constructor. Accepts to children to join and the predicate to join them
+     * on
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     * @throws IllegalArgumentException if the predicate is not supported
+     * @see #supports(Predicate.Op)
+     */
+    public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, 0);
+    }
+
+    /**
+     * Constructor for a join with a fixed memory budget.
+     *
+     * @param memoryTuples
+     *            the number of tuples each sort, and the window, hold in
+     *            memory before spilling, or 0 to use half the buffer pool
+     */
+    public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2,
+            int memoryTuples) {
+        if (!supports(p.getOperator()))
+            throw new IllegalArgumentException("sort-merge join does not support "
+                    + p.getOperator());
+        if (memoryTuples < 0)
+            throw new IllegalArgumentException("memory budget must not be negative");
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.memoryTuples = memoryTuples;
+    }
+
+    /**
+     * @return true if a predicate can be evaluated by a sort-merge join:
+     *         equality and the ordering predicates
+     */
+    public static boolean supports(Predicate.Op op) {
+        return op == Predicate.Op.EQUALS || op == Predicate.Op.LESS_THAN
+                || op == Predicate.Op.LESS_THAN_OR_EQ || op == Predicate.Op.GREATER_THAN
+                || op == Predicate.Op.GREATER_THAN_OR_EQ;
+    }
+
+    /**
+     * @return true if the join sorts its inputs ascending, false if it sorts
+     *         them descending
+     */
+    public boolean isAscending() {
+        return isAscending(pred.getOperator());
+    }
+
+    /**
+     * @return true if a join on op sorts its inputs ascending, false if it
+     *         sorts them descending
+     */
+    static boolean isAscending(Predicate.Op op) {
+        return op != Predicate.Op.LESS_THAN && op != Predicate.Op.LESS_THAN_OR_EQ;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(pred.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        if (td == null)
+            td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        return td;
+    }
+
+    /**
+     * @return true if child is already sorted on field in the given order:
+     *         it is an OrderBy on the field, or a sort-merge join, whose
+     *         output is in the order of its left join field and, for
+     *         equality, of its right one too
+     */
+    static boolean isSorted(DbIterator child, int field, boolean asc) {
+        if (child instanceof OrderBy) {
+            OrderBy o = (OrderBy) child;
+            return o.getOrderByField() == field && o.isASC() == asc;
+        }
+        if (child instanceof SortMergeJoin) {
+            SortMergeJoin j = (SortMergeJoin) child;
+            if (j.isAscending() != asc)
+                return false;
+            return field == j.pred.getField1()
+                    || (j.pred.getOperator() == Predicate.Op.EQUALS && field
+                            == j.child1.getTupleDesc().numFields() + j.pred.getField2());
+        }
+        return false;
+    }
+
+    /** @return child if there is no sort, or the sorted child, open */
+    private DbIterator sorted(DbIterator child, ExternalSort sort)
+            throws DbException, TransactionAbortedException {
+        if (sort == null)
+            return child;
+        sort.addAll(child);
+        DbIterator it = sort.sorted();
+        it.open();
+        return it;
+    }
+
+    private ExternalSort sortFor(DbIterator child, int field) {
+        if (isSorted(child, field, isAscending()))
+            return null;
+        return new ExternalSort(child.getTupleDesc(), new TupleComparator(field,
+                isAscending()), budget);
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        child1.open();
+        child2.open();
+        budget = memoryTuples > 0 ? memoryTuples
+                : SpillFile.defaultMemoryTuples(child1.getTupleDesc());
+        sort1 = sortFor(child1, pred.getField1());
+        sort2 = sortFor(child2, pred.getField2());
+        left = sorted(child1, sort1);
+        right = sorted(child2, sort2);
+        start();
+    }
+
+    private void start() throws DbException, TransactionAbortedException {
+        window = new ArrayList<Tuple>();
+        outer = null;
+        windowPos = 0;
+        peek = right.hasNext() ? right.next() : null;
+    }
+
+    private void clearWindow() {
+        window.clear();
+        if (windowSpill != null) {
+            windowSpillIt.close();
+            windowSpill.delete();
+        }
+        windowSpill = null;
+        windowSpillIt = null;
+    }
+
+    private void addToWindow(Tuple t) throws DbException {
+        if (window.size() < budget) {
+            window.add(t);
+            return;
+        }
+        try {
+            if (windowSpill == null) {
+                windowSpill = new SpillFile(right.getTupleDesc());
+                windowSpillIt = windowSpill.iterator();
+            }
+            windowSpill.add(t);
+        } catch (IOException e) {
+            throw new DbException("could not spill join window: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Moves on to the next left tuple and updates the window to hold the
+     * right tuples it matches.
+     *
+     * @return false if the left input is exhausted
+     */
+    private boolean advance() throws DbException, TransactionAbortedException {
+        if (!left.hasNext())
+            return false;
+        outer = left.next();
+        if (pred.getOperator() == Predicate.Op.EQUALS) {
+            Field key = outer.getField(pred.getField1());
+            if (!window.isEmpty() && !window.get(0).getField(pred.getField2()).equals(key))
+                clearWindow();
+            while (peek != null
+                    && peek.getField(pred.getField2()).compare(Predicate.Op.LESS_THAN, key))
+                peek = right.hasNext() ? right.next() : null;
+        }
+        while (peek != null && pred.filter(outer, peek)) {
+            addToWindow(peek);
+            peek = right.hasNext() ? right.next() : null;
+        }
+        windowPos = 0;
+        if (windowSpillIt != null)
+            windowSpillIt.rewind();
+        return true;
+    }
+
+    /** @return the next window tuple to join with outer, or null */
+    private Tuple nextInWindow() throws DbException, TransactionAbortedException {
+        if (windowPos < window.size())
+            return window.get(windowPos++);
+        if (windowSpillIt != null && windowSpillIt.hasNext())
+            return windowSpillIt.next();
+        return null;
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        Field[] f1 = t1.getEntireField();
+        Field[] f2 = t2.getEntireField();
+        Field[] fMerge = new Field[f1.length + f2.length];
+        System.arraycopy(f1, 0, fMerge, 0, f1.length);
+        System.arraycopy(f2, 0, fMerge, f1.length, f2.length);
+        return new Tuple(getTupleDesc(), fMerge);
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. The output is ordered on the left join field, in the
+     * order the join sorts in.
+     *
+     * @return The next matching tuple.
+     * @see JoinPredicate#filter
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (outer != null) {
+                Tuple inner = nextInWindow();
+                if (inner != null)
+                    return merge(outer, inner);
+            }
+            if (!advance())
+                return null;
+        }
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        clearWindow();
+        left.rewind();
+        right.rewind();
+        start();
+    }
+
+    public void close() {
+        if (window != null)
+            clearWindow();
+        if (sort1 != null) {
+            left.close();
+            sort1.delete();
+        }
+        if (sort2 != null) {
+            right.close();
+            sort2.delete();
+        }
+        sort1 = null;
+        sort2 = null;
+        left = null;
+        right = null;
+        outer = null;
+        peek = null;
+        super.close();
+        child1.close();
+        child2.close();
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child1, child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        child1 = children[0];
+        child2 = children[1];
+        td = null;
+    }
+}
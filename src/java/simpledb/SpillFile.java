@@ -0,0 +1,170 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.*;
+
+/**
+ * SpillFile is a temporary file of tuples, for operators whose working set
+ * does not fit in memory. Tuples are appended one after another in the
+ * fixed-width format of heap page slots and read back, in the order they
+ * were written, through {@link #iterator()}.
+ * <p>
+ * Spill files bypass the buffer pool and the catalog: they are private to
+ * the operator that writes them, read sequentially, and deleted when the
+ * operator is done with them. Those still live when the JVM exits are
+ * deleted by a shutdown hook.
+ */
+public class SpillFile {
+
+    /** The files not deleted yet, for the shutdown hook. */
+    private static final Set<File> live = new HashSet<File>();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            public void run() {
+                synchronized (live) {
+                    for (File f : live)
+                        f.delete();
+                }
+            }
+        });
+    }
+
+    private final TupleDesc td;
+    private final File file;
+    private DataOutputStream out;
+    private int numTuples;
+
+    /**
+     * Returns the number of tuples an operator may hold in memory before it
+     * spills, unless told otherwise: half the buffer pool, counted in tuples
+     * of the given schema at their on-disk size.
+     */
+    public static int defaultMemoryTuples(TupleDesc td) {
+        long bytes = (long) Database.getBufferPool().getNumPages() * BufferPool.PAGE_SIZE / 2;
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(1, bytes / td.getSize()));
+    }
+
+    /**
+     * Creates an empty spill file in the temporary directory.
+     *
+     * @param td the schema of the tuples that will be written
+     */
+    public SpillFile(TupleDesc td) throws IOException {
+        this.td = td;
+        this.file = File.createTempFile("simpledb", ".spill");
+        synchronized (live) {
+            live.add(file);
+        }
+        this.out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file), 1 << 16));
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of tuples written */
+    public int size() {
+        return numTuples;
+    }
+
+    /** Appends a tuple to the file. */
+    public void add(Tuple t) throws IOException {
+        if (out == null)
+            throw new IOException("spill file " + file + " is deleted");
+        for (int i = 0; i < td.numFields(); i++)
+            t.getField(i).serialize(out);
+        numTuples++;
+    }
+
+    /**
+     * Returns an iterator over the tuples written so far. Opening the
+     * iterator flushes what was written.
+     */
+    public DbIterator iterator() {
+        return new SpillIterator();
+    }
+
+    /**
+     * Deletes the file. Operators call this as they close, so it does not
+     * fail: the tuples are being discarded, and an error flushing them out
+     * changes nothing.
+     */
+    public void delete() {
+        try {
+            if (out != null)
+                out.close();
+        } catch (IOException e) {
+            // the file is deleted anyway
+        }
+        out = null;
+        file.delete();
+        synchronized (live) {
+            live.remove(file);
+        }
+    }
+
+    private class SpillIterator implements DbIterator {
+
+        private static final long serialVersionUID = 1L;
+        private transient DataInputStream in;
+        private int read;
+        private int count;
+
+        public void open() throws DbException {
+            try {
+                if (out == null)
+                    throw new DbException("spill file " + file + " is deleted");
+                out.flush();
+                in = new DataInputStream(new BufferedInputStream(
+                        new FileInputStream(file), 1 << 16));
+            } catch (IOException e) {
+                throw new DbException("could not read spill file: " + e.getMessage());
+            }
+            read = 0;
+            count = numTuples;
+        }
+
+        public boolean hasNext() {
+            if (in == null)
+                throw new IllegalStateException("iterator not yet open");
+            return read < count;
+        }
+
+        public Tuple next() throws DbException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Tuple t = new Tuple(td);
+            try {
+                for (int i = 0; i < td.numFields(); i++)
+                    t.setField(i, td.getFieldType(i).parse(in));
+            } catch (ParseException e) {
+                throw new DbException("could not read spill file: " + e.getMessage());
+            }
+            read++;
+            return t;
+        }
+
+        public void rewind() throws DbException {
+            close();
+            open();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void close() {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // nothing was buffered for writing, so nothing is lost
+                }
+            }
+            in = null;
+        }
+    }
+}
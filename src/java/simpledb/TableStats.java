@@ -271,6 +271,36 @@ public class TableStats {
             return histValues.get(td.getFieldName(field)).estimateSelectivity(op, ((IntField)constant).getValue());
     }
 
+    /**
+     * Estimate the selectivity of a condition on the table, taking its terms
+     * to be independent.
+     * 
+     * @param cond
+     *            The condition, whose fields are those of the table's tuples
+     * @return The estimated selectivity (fraction of tuples that satisfy) the
+     *         condition
+     */
+    public double estimateSelectivity(CompoundPredicate cond) {
+        CompoundPredicate[] terms = cond.getTerms();
+        double sel = 1.0;
+        switch (cond.getKind()) {
+        case COMPARE:
+            Predicate p = cond.getPredicate();
+            return estimateSelectivity(p.getField(), p.getOp(), p.getOperand());
+        case NOT:
+            return 1.0 - estimateSelectivity(terms[0]);
+        case AND:
+            for (CompoundPredicate term : terms)
+                sel *= estimateSelectivity(term);
+            return sel;
+        default:
+            // one minus the chance that no term holds
+            for (CompoundPredicate term : terms)
+                sel *= 1.0 - estimateSelectivity(term);
+            return 1.0 - sel;
+        }
+    }
+
     /**
      * return the total number of tuples in this table
      * */
@@ -0,0 +1,266 @@
+package simpledb;
+
+/**
+ * TupleBatch holds a block of rows column by column, for operators that
+ * work a batch at a time (see {@link BatchIterator}). INT_TYPE columns are
+ * stored as int arrays and STRING_TYPE columns as String arrays, so an
+ * operator can loop over a column without creating a Tuple or a Field per
+ * row.
+ * <p>
+ * Which of the stored rows belong to the batch is given by a selection
+ * vector: the first {@link #size()} entries of {@link #getSelection()} are
+ * the indexes of the selected rows, in order. A filter drops rows by
+ * compacting the selection rather than moving column data.
+ * <p>
+ * Rows read from a page remember the page and slot they came from, so the
+ * Tuples rebuilt from them carry a RecordId and can be deleted; rows made
+ * by an operator, such as an aggregate, have none.
+ * <p>
+ * A batch belongs to the operator that fills it and is reused for each
+ * batch that operator returns; its contents are only valid until the next
+ * call to {@link BatchIterator#nextBatch}.
+ */
+public class TupleBatch {
+
+    /** The number of rows a batch holds unless told otherwise. */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final TupleDesc td;
+    private final int capacity;
+    /** Column data; ints[i] is null unless column i is an INT_TYPE. */
+    private int[][] ints;
+    /** Column data; strings[i] is null unless column i is a STRING_TYPE. */
+    private String[][] strings;
+    /** The number of rows stored in the columns. */
+    private int numRows;
+    private int[] sel;
+    private int size;
+    /** Scratch space for the slot numbers of rows read from a page. */
+    private int[] slots;
+    /** The page each row was read from, or null; see {@link #getRecordId}. */
+    private PageId[] pages;
+    /** The slot each row was read from, where pages[row] is not null. */
+    private int[] tuplenos;
+
+    /**
+     * Creates an empty batch of {@link #DEFAULT_CAPACITY} rows.
+     *
+     * @param td the schema of the rows
+     */
+    public TupleBatch(TupleDesc td) {
+        this(td, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates an empty batch.
+     *
+     * @param td the schema of the rows
+     * @param capacity the number of rows the batch can hold
+     */
+    public TupleBatch(TupleDesc td, int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("batch capacity must be positive");
+        this.td = td;
+        this.capacity = capacity;
+        this.ints = new int[td.numFields()][];
+        this.strings = new String[td.numFields()][];
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                ints[i] = new int[capacity];
+            else
+                strings[i] = new String[capacity];
+        }
+        this.sel = new int[capacity];
+        this.pages = new PageId[capacity];
+        this.tuplenos = new int[capacity];
+    }
+
+    /** @return the schema of the rows in this batch */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of rows this batch can hold */
+    public int capacity() {
+        return capacity;
+    }
+
+    /** @return the number of selected rows */
+    public int size() {
+        return size;
+    }
+
+    /** @return the number of rows stored, selected or not */
+    public int numRows() {
+        return numRows;
+    }
+
+    /** @return true if no more rows can be added */
+    public boolean isFull() {
+        return numRows == capacity;
+    }
+
+    /**
+     * Returns the selection vector. Its first {@link #size()} entries are
+     * the indexes of the selected rows, in increasing order; callers may
+     * compact it in place, keeping that order, and then call
+     * {@link #setSize}.
+     */
+    public int[] getSelection() {
+        return sel;
+    }
+
+    /**
+     * Sets the number of selected rows, after the selection vector was
+     * compacted.
+     */
+    public void setSize(int size) {
+        if (size < 0 || size > numRows)
+            throw new IllegalArgumentException("selection size " + size
+                    + " out of range for " + numRows + " rows");
+        this.size = size;
+    }
+
+    /**
+     * Returns the values of an INT_TYPE column, indexed by row.
+     *
+     * @throws IllegalArgumentException if the column is not an INT_TYPE
+     */
+    public int[] getInts(int field) {
+        if (ints[field] == null)
+            throw new IllegalArgumentException("field " + field + " is not an integer");
+        return ints[field];
+    }
+
+    /**
+     * Returns the values of a STRING_TYPE column, indexed by row.
+     *
+     * @throws IllegalArgumentException if the column is not a STRING_TYPE
+     */
+    public String[] getStrings(int field) {
+        if (strings[field] == null)
+            throw new IllegalArgumentException("field " + field + " is not a string");
+        return strings[field];
+    }
+
+    /**
+     * @param row the index of a stored row, as found in the selection
+     * @return the value of a field of the row
+     */
+    public Field getField(int row, int field) {
+        if (ints[field] != null)
+            return new IntField(ints[field][row]);
+        return new StringField(strings[field][row], Type.STRING_LEN);
+    }
+
+    /**
+     * @param row the index of a stored row, as found in the selection
+     * @return where the row is stored on disk, or null if it was not read
+     *         from a page
+     */
+    public RecordId getRecordId(int row) {
+        return pages[row] == null ? null : new RecordId(pages[row], tuplenos[row]);
+    }
+
+    /**
+     * @param row the index of a stored row, as found in the selection
+     * @return the row as a Tuple, with its RecordId if it has one
+     */
+    public Tuple getTuple(int row) {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < td.numFields(); i++)
+            t.setField(i, getField(row, i));
+        t.setRecordId(getRecordId(row));
+        return t;
+    }
+
+    /** Removes all rows. */
+    public void clear() {
+        numRows = 0;
+        size = 0;
+    }
+
+    /**
+     * Appends a row and selects it, keeping its RecordId.
+     *
+     * @throws IllegalStateException if the batch is full
+     */
+    public void addTuple(Tuple t) {
+        int row = addRow();
+        for (int i = 0; i < td.numFields(); i++) {
+            Field f = t.getField(i);
+            if (ints[i] != null)
+                ints[i][row] = ((IntField) f).getValue();
+            else
+                strings[i][row] = ((StringField) f).getValue();
+        }
+        RecordId rid = t.getRecordId();
+        if (rid != null) {
+            pages[row] = rid.getPageId();
+            tuplenos[row] = rid.tupleno();
+        }
+    }
+
+    /**
+     * Appends the used slots of a page, starting at slot from, until the
+     * batch is full or the page ends, and selects them.
+     *
+     * @return the slot after the last one appended, or the page's number
+     *         of slots if it ended
+     */
+    int fill(HeapPage page, int from) {
+        if (slots == null)
+            slots = new int[capacity];
+        int n = page.copySlots(from, ints, strings, numRows, capacity - numRows, slots);
+        PageId pid = page.getId();
+        for (int i = 0; i < n; i++) {
+            pages[numRows] = pid;
+            tuplenos[numRows] = slots[i];
+            sel[size++] = numRows++;
+        }
+        return isFull() && n > 0 ? slots[n - 1] : page.numSlots;
+    }
+
+    /** Appends a used slot of a page and selects it. */
+    void addRow(HeapPage page, int slot) {
+        int row = addRow();
+        page.copySlot(slot, ints, strings, row);
+        pages[row] = page.getId();
+        tuplenos[row] = slot;
+    }
+
+    /**
+     * Appends a row and selects it, leaving its values to be set through
+     * the column arrays.
+     *
+     * @return the index of the new row
+     * @throws IllegalStateException if the batch is full
+     */
+    public int addRow() {
+        if (numRows == capacity)
+            throw new IllegalStateException("batch is full");
+        sel[size++] = numRows;
+        pages[numRows] = null;
+        return numRows++;
+    }
+
+    /**
+     * Makes this batch a view of some columns of another batch, without
+     * copying them. The view shares the other batch's selection and stays
+     * valid until that batch is next changed.
+     *
+     * @param src a batch with the same capacity as this one
+     * @param fields the columns of src that make up the columns of this batch
+     */
+    void project(TupleBatch src, int[] fields) {
+        for (int i = 0; i < fields.length; i++) {
+            ints[i] = src.ints[fields[i]];
+            strings[i] = src.strings[fields[i]];
+        }
+        sel = src.sel;
+        pages = src.pages;
+        tuplenos = src.tuplenos;
+        numRows = src.numRows;
+        size = src.size;
+    }
+}
@@ -0,0 +1,159 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * TupleComparator orders tuples on one or more fields, each ascending or
+ * descending. Later fields break ties in earlier ones.
+ * <p>
+ * When the fields are one or two INT_TYPE columns, the order of a tuple is
+ * captured by a single long, its normalized key (see
+ * {@link #normalizedKey}), and {@link #sort} sorts on those keys instead of
+ * comparing fields.
+ */
+public class TupleComparator implements Comparator<Tuple>, Serializable {
+
+    private static final long serialVersionUID = 1L;
+    private final int[] fields;
+    private final boolean[] asc;
+
+    /**
+     * Creates a comparator on a single field.
+     *
+     * @param field the index of the field to compare
+     * @param asc true for ascending order
+     */
+    public TupleComparator(int field, boolean asc) {
+        this(new int[] { field }, new boolean[] { asc });
+    }
+
+    /**
+     * Creates a comparator on several fields.
+     *
+     * @param fields the indexes of the fields to compare, most significant
+     *            first
+     * @param asc for each field, true for ascending order
+     */
+    public TupleComparator(int[] fields, boolean[] asc) {
+        if (fields.length == 0 || fields.length != asc.length)
+            throw new IllegalArgumentException(
+                    "need one or more fields, each with an order");
+        this.fields = fields.clone();
+        this.asc = asc.clone();
+    }
+
+    /** @return the number of fields compared */
+    public int numFields() {
+        return fields.length;
+    }
+
+    /** @return the index of the i-th field compared */
+    public int getField(int i) {
+        return fields[i];
+    }
+
+    /** @return true if the i-th field is compared in ascending order */
+    public boolean isAscending(int i) {
+        return asc[i];
+    }
+
+    public int compare(Tuple o1, Tuple o2) {
+        for (int i = 0; i < fields.length; i++) {
+            Field t1 = o1.getField(fields[i]);
+            Field t2 = o2.getField(fields[i]);
+            int c;
+            if (t1 instanceof IntField) {
+                int v1 = ((IntField) t1).getValue();
+                int v2 = ((IntField) t2).getValue();
+                c = v1 < v2 ? -1 : (v1 == v2 ? 0 : 1);
+            } else {
+                c = ((StringField) t1).getValue().compareTo(((StringField) t2).getValue());
+            }
+            if (c != 0)
+                return asc[i] ? c : -c;
+        }
+        return 0;
+    }
+
+    /**
+     * @return true if tuples of the given schema have normalized keys: the
+     *         comparator is on one or two INT_TYPE fields
+     */
+    public boolean hasNormalizedKey(TupleDesc td) {
+        if (fields.length > 2)
+            return false;
+        for (int f : fields)
+            if (td.getFieldType(f) != Type.INT_TYPE)
+                return false;
+        return true;
+    }
+
+    /**
+     * Returns a long that orders tuples as this comparator does, by signed
+     * comparison. Each field is mapped to an unsigned 32-bit value that
+     * keeps its order, inverted for descending fields, and the values are
+     * packed most significant first.
+     *
+     * @throws ClassCastException if the tuple's schema has no normalized key
+     */
+    public long normalizedKey(Tuple t) {
+        long key = 0;
+        for (int i = 0; i < fields.length; i++) {
+            long u = (((IntField) t.getField(fields[i])).getValue() ^ 0x80000000) & 0xffffffffL;
+            if (!asc[i])
+                u ^= 0xffffffffL;
+            key = (key << 32) | u;
+        }
+        // two fields fill all 64 bits, compared unsigned
+        return fields.length == 2 ? key ^ Long.MIN_VALUE : key;
+    }
+
+    /** A tuple and its normalized key, ordered by key and then position. */
+    private static class Keyed implements Comparable<Keyed> {
+        final long key;
+        final int pos;
+        final Tuple t;
+
+        Keyed(long key, int pos, Tuple t) {
+            this.key = key;
+            this.pos = pos;
+            this.t = t;
+        }
+
+        public int compareTo(Keyed o) {
+            if (key != o.key)
+                return key < o.key ? -1 : 1;
+            return pos - o.pos;
+        }
+    }
+
+    /**
+     * Sorts a list in this order, stably. With a single INT_TYPE field,
+     * each tuple's key and position are packed into a long and the longs
+     * are sorted as primitives; with two, tuples are sorted on their keys.
+     */
+    public void sort(List<Tuple> tuples) {
+        int n = tuples.size();
+        if (n < 2 || !hasNormalizedKey(tuples.get(0).getTupleDesc())) {
+            Collections.sort(tuples, this);
+            return;
+        }
+        Tuple[] in = tuples.toArray(new Tuple[n]);
+        if (fields.length == 1) {
+            long[] packed = new long[n];
+            for (int i = 0; i < n; i++)
+                packed[i] = ((normalizedKey(in[i]) << 32) | i) ^ Long.MIN_VALUE;
+            Arrays.sort(packed);
+            for (int i = 0; i < n; i++)
+                tuples.set(i, in[(int) (packed[i] & 0xffffffffL)]);
+        } else {
+            Keyed[] keyed = new Keyed[n];
+            for (int i = 0; i < n; i++)
+                keyed[i] = new Keyed(normalizedKey(in[i]), i, in[i]);
+            Arrays.sort(keyed);
+            for (int i = 0; i < n; i++)
+                tuples.set(i, keyed[i].t);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package simpledb;
+
+/**
+ * TupleToBatchIterator lets any DbIterator feed batch-at-a-time operators:
+ * it collects the tuples of its child into {@link TupleBatch}es.
+ */
+public class TupleToBatchIterator implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+    private DbIterator child;
+    private final int capacity;
+    private transient TupleBatch batch;
+
+    /**
+     * @param child the operator to read tuples from
+     */
+    public TupleToBatchIterator(DbIterator child) {
+        this(child, TupleBatch.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param child the operator to read tuples from
+     * @param capacity the number of rows in each batch
+     */
+    public TupleToBatchIterator(DbIterator child, int capacity) {
+        this.child = child;
+        this.capacity = capacity;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        if (batch == null)
+            batch = new TupleBatch(getTupleDesc(), capacity);
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (batch == null)
+            throw new IllegalStateException("iterator not yet open");
+        batch.clear();
+        while (!batch.isFull() && child.hasNext())
+            batch.addTuple(child.next());
+        return batch.numRows() > 0 ? batch : null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public void close() {
+        child.close();
+    }
+}
@@ -0,0 +1,118 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * 2Q replacement (Johnson and Shasha). Pages seen for the first time enter
+ * a FIFO queue, A1in. When they are evicted from A1in their ids are
+ * remembered in a ghost queue, A1out, and a page that is loaded again while
+ * still remembered there is promoted to the main LRU queue, Am. Pages that
+ * are touched only once, like the pages of a large scan, therefore never
+ * displace the pages in Am. All operations take constant time.
+ */
+public class TwoQueuePolicy implements EvictionPolicy {
+
+    /** Creates a 2Q policy for each buffer pool stripe. */
+    public static final EvictionPolicy.Factory FACTORY = new EvictionPolicy.Factory() {
+        public EvictionPolicy newPolicy(int numPages) {
+            return new TwoQueuePolicy(numPages);
+        }
+    };
+
+    private final int kIn;
+    private final int kOut;
+    private LinkedHashMap<PageId, Boolean> a1in;
+    private LinkedHashMap<PageId, Boolean> a1out;
+    private LinkedHashMap<PageId, Boolean> am;
+
+    /**
+     * Creates a 2Q policy with the queue sizes recommended by the 2Q paper:
+     * A1in holds a quarter of the pool and A1out remembers half as many
+     * ids as the pool has pages.
+     *
+     * @param numPages the number of pages in the buffer pool
+     */
+    public TwoQueuePolicy(int numPages) {
+        this(numPages, Math.max(1, numPages / 4), Math.max(1, numPages / 2));
+    }
+
+    /**
+     * Creates a 2Q policy with explicit queue sizes.
+     *
+     * @param numPages the number of pages in the buffer pool
+     * @param kIn the target number of resident pages in A1in
+     * @param kOut the number of page ids remembered in A1out
+     */
+    public TwoQueuePolicy(int numPages, int kIn, int kOut) {
+        this.kIn = kIn;
+        this.kOut = kOut;
+        this.a1in = new LinkedHashMap<PageId, Boolean>();
+        this.a1out = new LinkedHashMap<PageId, Boolean>();
+        this.am = new LinkedHashMap<PageId, Boolean>(Math.max(numPages, 16), 0.75f, true);
+    }
+
+    public void pageLoaded(PageId pid) {
+        if (am.containsKey(pid) || a1in.containsKey(pid)) {
+            pageAccessed(pid);
+        } else if (a1out.remove(pid) != null) {
+            am.put(pid, Boolean.TRUE);
+        } else {
+            a1in.put(pid, Boolean.TRUE);
+        }
+    }
+
+    public void pageAccessed(PageId pid) {
+        // hits in A1in are deliberately ignored: correlated references
+        // right after a page is loaded say nothing about its reuse
+        am.get(pid);
+    }
+
+    public void pageRemoved(PageId pid) {
+        if (a1in.remove(pid) == null)
+            am.remove(pid);
+    }
+
+    public PageId chooseVictim(Candidates candidates) {
+        PageId victim;
+        if (a1in.size() > kIn || am.isEmpty()) {
+            victim = evictFrom(a1in, candidates);
+            if (victim != null) {
+                remember(victim);
+                return victim;
+            }
+            return evictFrom(am, candidates);
+        }
+        victim = evictFrom(am, candidates);
+        if (victim != null)
+            return victim;
+        victim = evictFrom(a1in, candidates);
+        if (victim != null)
+            remember(victim);
+        return victim;
+    }
+
+    private PageId evictFrom(LinkedHashMap<PageId, Boolean> queue, Candidates candidates) {
+        Iterator<PageId> it = queue.keySet().iterator();
+        while (it.hasNext()) {
+            PageId pid = it.next();
+            if (candidates.isEvictable(pid)) {
+                it.remove();
+                return pid;
+            }
+        }
+        return null;
+    }
+
+    private void remember(PageId pid) {
+        a1out.put(pid, Boolean.TRUE);
+        if (a1out.size() > kOut) {
+            Iterator<PageId> it = a1out.keySet().iterator();
+            it.next();
+            it.remove();
+        }
+    }
+
+    public String toString() {
+        return "2Q";
+    }
+}
@@ -0,0 +1,141 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * WorkerPool runs the parts of a query that execute in parallel. Threads
+ * are created as tasks need them and retire after a minute idle, so tasks
+ * that wait on each other, like producers and consumers, never starve for
+ * a thread; callers bound their own parallelism.
+ */
+public class WorkerPool {
+
+    /**
+     * One thread per processor, a sensible number for a caller that opts in
+     * to parallel plans; plans are serial unless told otherwise.
+     */
+    public static final int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors();
+
+    private static ThreadPoolExecutor executor;
+
+    /** @return the executor, creating it on first use */
+    static synchronized ExecutorService get() {
+        if (executor == null) {
+            executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+                    60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+                    new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "simpledb-worker");
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+        }
+        return executor;
+    }
+
+    /** Starts a task on a worker thread. */
+    public static <T> Future<T> submit(Callable<T> task) {
+        return get().submit(task);
+    }
+
+    /**
+     * Waits for a task started by {@link #submit}, rethrowing what it threw.
+     *
+     * @throws DbException if the task threw anything but a
+     *             TransactionAbortedException, or the wait was interrupted
+     */
+    public static <T> T await(Future<T> f) throws DbException,
+            TransactionAbortedException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DbException("interrupted waiting for a worker");
+        } catch (ExecutionException e) {
+            rethrow(e.getCause());
+            return null;
+        }
+    }
+
+    /**
+     * Rethrows what a task threw on the thread waiting for it.
+     *
+     * @throws DbException wrapping anything but a TransactionAbortedException
+     *             or an Error
+     */
+    static void rethrow(Throwable cause) throws DbException,
+            TransactionAbortedException {
+        if (cause instanceof DbException)
+            throw (DbException) cause;
+        if (cause instanceof TransactionAbortedException)
+            throw (TransactionAbortedException) cause;
+        if (cause instanceof Error)
+            throw (Error) cause;
+        DbException dbe = new DbException("worker failed: " + cause);
+        dbe.initCause(cause);
+        throw dbe;
+    }
+
+    /**
+     * Runs tasks in parallel and returns their results in order, once all
+     * of them are done. If one fails, the tasks not yet started are
+     * skipped, and those running are waited for before the failure is
+     * rethrown. They are not interrupted, since an interrupt would close
+     * the file channel a page is being read from; tasks that should stop
+     * early must check a flag of their own.
+     *
+     * @throws DbException if a task threw anything but a
+     *             TransactionAbortedException, or the wait was interrupted
+     */
+    public static <T> List<T> runAll(List<? extends Callable<T>> tasks)
+            throws DbException, TransactionAbortedException {
+        final AtomicBoolean failed = new AtomicBoolean();
+        ArrayList<Future<T>> futures = new ArrayList<Future<T>>();
+        for (final Callable<T> task : tasks) {
+            futures.add(submit(new Callable<T>() {
+                public T call() throws Exception {
+                    if (failed.get())
+                        return null;
+                    boolean done = false;
+                    try {
+                        T result = task.call();
+                        done = true;
+                        return result;
+                    } finally {
+                        if (!done)
+                            failed.set(true);
+                    }
+                }
+            }));
+        }
+        ArrayList<T> results = new ArrayList<T>();
+        Throwable failure = null;
+        boolean interrupted = false;
+        for (Future<T> f : futures) {
+            while (true) {
+                try {
+                    results.add(f.get());
+                } catch (InterruptedException e) {
+                    // keep waiting, so that no task outlives the call
+                    interrupted = true;
+                    continue;
+                } catch (ExecutionException e) {
+                    if (failure == null)
+                        failure = e.getCause();
+                }
+                break;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+            if (failure == null)
+                throw new DbException("interrupted waiting for a worker");
+        }
+        if (failure != null)
+            rethrow(failure);
+        return results;
+    }
+}
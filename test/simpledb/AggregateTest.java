@@ -3,12 +3,16 @@ package simpledb;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+
+import java.util.*;
+
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Before;
 import org.junit.Test;
 
 import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
 
 public class AggregateTest extends SimpleDbTestBase {
 
@@ -176,6 +180,130 @@ public class AggregateTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(min, op);
   }
 
+  /**
+   * @return for each (c0, c1) group of the rows, the list c0, c1, sum(c2),
+   *   count, max(c2), min(c0)
+   */
+  private static HashMap<List<Integer>, ArrayList<Integer>> groupRows(
+      ArrayList<ArrayList<Integer>> rows) {
+    HashMap<List<Integer>, ArrayList<Integer>> groups =
+        new HashMap<List<Integer>, ArrayList<Integer>>();
+    for (ArrayList<Integer> row : rows) {
+      List<Integer> key = row.subList(0, 2);
+      ArrayList<Integer> g = groups.get(key);
+      if (g == null) {
+        g = new ArrayList<Integer>(key);
+        g.addAll(Arrays.asList(0, 0, row.get(2), row.get(0)));
+        groups.put(key, g);
+      }
+      g.set(2, g.get(2) + row.get(2));
+      g.set(3, g.get(3) + 1);
+      g.set(4, Math.max(g.get(4), row.get(2)));
+      g.set(5, Math.min(g.get(5), row.get(0)));
+    }
+    return groups;
+  }
+
+  /**
+   * Several aggregates grouped on two fields are computed in one pass,
+   * whether the groups fit in memory or not
+   */
+  @Test public void multipleAggregates() throws Exception {
+    ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+    HeapFile table = SystemTestUtil.createRandomHeapFile(3, 2000, 20, null, rows, "c");
+    HashMap<List<Integer>, ArrayList<Integer>> expected = groupRows(rows);
+    TransactionId tid = new TransactionId();
+
+    for (int budget : new int[] { 0, 5 }) {
+      Aggregate op = new Aggregate(new SeqScan(tid, table.getId(), "t"),
+          new int[] { 2, 2, 2, 0 }, new int[] { 0, 1 },
+          new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.COUNT,
+              Aggregator.Op.MAX, Aggregator.Op.MIN }, budget);
+      assertEquals(6, op.getTupleDesc().numFields());
+      assertEquals("t.c1", op.getTupleDesc().getFieldName(1));
+      assertEquals("sum(t.c2)", op.getTupleDesc().getFieldName(2));
+      op.open();
+      for (int pass = 0; pass < 2; pass++) {
+        int count = 0;
+        while (op.hasNext()) {
+          ArrayList<Integer> row = SystemTestUtil.tupleToList(op.next());
+          assertEquals(expected.get(row.subList(0, 2)), row);
+          count++;
+        }
+        assertEquals(expected.size(), count);
+        op.rewind();
+      }
+      op.close();
+    }
+  }
+
+  /** @return the rows of an open iterator, sorted */
+  private static ArrayList<String> sortedRows(DbIterator it) throws Exception {
+    ArrayList<String> rows = new ArrayList<String>();
+    while (it.hasNext())
+      rows.add(SystemTestUtil.tupleToList(it.next()).toString());
+    Collections.sort(rows);
+    return rows;
+  }
+
+  /**
+   * Aggregating a table on several threads, including averages and groups
+   * that spill, gives the same result as one thread
+   */
+  @Test public void parallel() throws Exception {
+    HeapFile table = SystemTestUtil.createRandomHeapFile(3, 30000, 1000, null, null, "c");
+    assertTrue(table.numPages() > 4 * Aggregate.RANGE_PAGES);
+    TransactionId tid = new TransactionId();
+    int[] afields = { 2, 2, 2, 2, 1 };
+    Aggregator.Op[] ops = { Aggregator.Op.AVG, Aggregator.Op.SUM, Aggregator.Op.MIN,
+        Aggregator.Op.MAX, Aggregator.Op.COUNT };
+
+    for (int[] gfields : new int[][] { {}, { 0 }, { 0, 1 } }) {
+      Aggregate serial = new Aggregate(new SeqScan(tid, table.getId(), "t"),
+          afields, gfields, ops, 0);
+      serial.open();
+      ArrayList<String> expected = sortedRows(serial);
+      serial.close();
+      for (int budget : new int[] { 0, 40 }) {
+        Aggregate op = new Aggregate(new SeqScan(tid, table.getId(), "t"),
+            afields, gfields, ops, budget);
+        op.setParallelism(4);
+        op.open();
+        assertEquals(expected, sortedRows(op));
+        op.rewind();
+        assertEquals(expected.size(), sortedRows(op).size());
+        op.close();
+      }
+    }
+  }
+
+  /**
+   * SQL with several aggregates and GROUP BY fields returns the select
+   * list in order, including COUNT(*)
+   */
+  @Test public void multipleAggregatesQuery() throws Exception {
+    ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+    HeapFile table = SystemTestUtil.createRandomHeapFile(3, 500, 5, null, rows, "c");
+    Database.getCatalog().addTable(table, "grouped");
+    TableStats.setTableStats("grouped", new TableStats(table.getId(), 1));
+    HashMap<List<Integer>, ArrayList<Integer>> expected = groupRows(rows);
+    TransactionId tid = new TransactionId();
+
+    LogicalPlan lp = new Parser().generateLogicalPlan(tid, "SELECT g.c1, COUNT(*), "
+        + "SUM(g.c2), g.c0, MAX(c2) FROM grouped g GROUP BY g.c0, g.c1;");
+    DbIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    plan.open();
+    int count = 0;
+    while (plan.hasNext()) {
+      ArrayList<Integer> row = SystemTestUtil.tupleToList(plan.next());
+      ArrayList<Integer> g = expected.get(Arrays.asList(row.get(3), row.get(0)));
+      assertEquals(Arrays.asList(g.get(1), g.get(3), g.get(2), g.get(0), g.get(4)), row);
+      count++;
+    }
+    assertEquals(expected.size(), count);
+    plan.close();
+  }
+
   /**
    * JUnit suite target
    */
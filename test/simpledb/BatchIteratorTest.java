@@ -0,0 +1,186 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BatchIteratorTest extends SimpleDbTestBase {
+    private static final int ROWS = 3000;
+
+    private HeapFile hf;
+    private ArrayList<ArrayList<Integer>> tuples;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(3, ROWS, 100, null, tuples);
+        tid = new TransactionId();
+    }
+
+    /** @return the rows of an iterator, sorted */
+    private static List<ArrayList<Integer>> rows(DbIterator it) throws Exception {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        it.open();
+        while (it.hasNext())
+            rows.add(SystemTestUtil.tupleToList(it.next()));
+        it.close();
+        Collections.sort(rows, new Comparator<ArrayList<Integer>>() {
+            public int compare(ArrayList<Integer> a, ArrayList<Integer> b) {
+                for (int i = 0; i < a.size(); i++) {
+                    int c = a.get(i).compareTo(b.get(i));
+                    if (c != 0)
+                        return c;
+                }
+                return 0;
+            }
+        });
+        return rows;
+    }
+
+    /**
+     * A batch scan returns every row of the table, in batches no larger
+     * than asked for.
+     */
+    @Test public void scan() throws Exception {
+        BatchSeqScan scan = new BatchSeqScan(tid, hf.getId(), "t", 100);
+        scan.open();
+        int count = 0;
+        TupleBatch batch;
+        while ((batch = scan.nextBatch()) != null) {
+            assertTrue(batch.size() <= 100);
+            int[] col = batch.getInts(1);
+            for (int i = 0; i < batch.size(); i++)
+                assertEquals((int) tuples.get(count++).get(1), col[batch.getSelection()[i]]);
+        }
+        assertEquals(ROWS, count);
+
+        scan.rewind();
+        assertEquals(100, scan.nextBatch().size());
+        scan.close();
+        assertEquals(rows(new SeqScan(tid, hf.getId(), "t")),
+                rows(new BatchToTupleIterator(new BatchSeqScan(tid, hf.getId(), "t"))));
+    }
+
+    /**
+     * Filter and project give the same rows as their tuple counterparts.
+     */
+    @Test public void filterProject() throws Exception {
+        ArrayList<Integer> fields = new ArrayList<Integer>(Arrays.asList(2, 0));
+        Type[] types = new Type[] { Type.INT_TYPE, Type.INT_TYPE };
+        for (Predicate.Op op : Predicate.Op.values()) {
+            Predicate p = new Predicate(1, op, new IntField(50));
+            DbIterator expected = new Project(fields, types,
+                    new Filter(p, new SeqScan(tid, hf.getId(), "t")));
+            DbIterator actual = new BatchToTupleIterator(new BatchProject(fields,
+                    new BatchFilter(p, new BatchSeqScan(tid, hf.getId(), "t"))));
+            assertEquals(expected.getTupleDesc(), actual.getTupleDesc());
+            assertEquals(rows(expected), rows(actual));
+        }
+    }
+
+    /**
+     * Conditions with AND, OR and NOT give the same rows as Filter, also
+     * once their terms have been reordered.
+     */
+    @Test public void compoundFilter() throws Exception {
+        CompoundPredicate cond = CompoundPredicate.or(
+                CompoundPredicate.and(
+                        new CompoundPredicate(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(40))),
+                        CompoundPredicate.not(new CompoundPredicate(
+                                new Predicate(1, Predicate.Op.EQUALS, new IntField(3))))),
+                new CompoundPredicate(new Predicate(2, Predicate.Op.GREATER_THAN, new IntField(90))));
+        DbIterator expected = new Filter(cond, new SeqScan(tid, hf.getId(), "t"));
+        BatchIterator filter = new BatchFilter(cond, new BatchSeqScan(tid, hf.getId(), "t"));
+        List<ArrayList<Integer>> rows = rows(expected);
+        assertFalse(rows.isEmpty());
+        for (int run = 0; run < 3; run++)
+            assertEquals(rows, rows(new BatchToTupleIterator(filter)));
+    }
+
+    /**
+     * Aggregates give the same results as Aggregate, with and without
+     * grouping.
+     */
+    @Test public void aggregate() throws Exception {
+        Predicate p = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(30));
+        for (Aggregator.Op op : Aggregator.Op.values()) {
+            for (int gfield : new int[] { Aggregator.NO_GROUPING, 2 }) {
+                DbIterator expected = new Aggregate(
+                        new Filter(p, new SeqScan(tid, hf.getId(), "t")), 1, gfield, op);
+                BatchAggregate agg = new BatchAggregate(
+                        new BatchFilter(p, new BatchSeqScan(tid, hf.getId(), "t")), 1, gfield, op);
+                assertEquals(rows(expected), rows(new BatchToTupleIterator(agg)));
+            }
+        }
+    }
+
+    /**
+     * Tuple-at-a-time operators feed batch operators through the adapter.
+     */
+    @Test public void adapter() throws Exception {
+        Predicate p = new Predicate(2, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(10));
+        DbIterator expected = new Filter(p, new SeqScan(tid, hf.getId(), "t"));
+        DbIterator actual = new BatchToTupleIterator(new BatchFilter(p,
+                new TupleToBatchIterator(new SeqScan(tid, hf.getId(), "t"), 7)));
+        assertEquals(rows(expected), rows(actual));
+    }
+
+    /**
+     * Rows from a batch scan keep their RecordIds through a filter and the
+     * adapter, so Delete can remove them.
+     */
+    @Test public void delete() throws Exception {
+        Predicate p = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(50));
+        int matching = rows(new Filter(p, new SeqScan(tid, hf.getId(), "t"))).size();
+        Delete delete = new Delete(tid, new BatchToTupleIterator(new BatchFilter(p,
+                new BatchSeqScan(tid, hf.getId(), "t", 100))));
+        delete.open();
+        assertEquals(matching, ((IntField) delete.next().getField(0)).getValue());
+        delete.close();
+        assertEquals(ROWS - matching, rows(new SeqScan(tid, hf.getId(), "t")).size());
+        assertEquals(0, rows(new Filter(p, new SeqScan(tid, hf.getId(), "t"))).size());
+    }
+
+    /**
+     * String columns are filtered and counted.
+     */
+    @Test public void strings() throws Exception {
+        Type[] types = new Type[] { Type.STRING_TYPE, Type.INT_TYPE };
+        String[] names = new String[] { "s", "i" };
+        TupleDesc td = new TupleDesc(types, names);
+        ArrayList<Tuple> list = new ArrayList<Tuple>();
+        for (int i = 0; i < 50; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new StringField("s" + (i % 7), Type.STRING_LEN));
+            t.setField(1, new IntField(i));
+            list.add(t);
+        }
+        Predicate p = new Predicate(0, Predicate.Op.LIKE, new StringField("3", Type.STRING_LEN));
+        BatchAggregate agg = new BatchAggregate(new BatchFilter(p,
+                new TupleToBatchIterator(new TupleIterator(td, list), 8)), 0, 0,
+                Aggregator.Op.COUNT);
+        agg.open();
+        TupleBatch batch = agg.nextBatch();
+        assertEquals(1, batch.size());
+        assertEquals("s3", batch.getStrings(0)[0]);
+        assertEquals(7, batch.getInts(1)[0]);
+        assertNull(agg.nextBatch());
+        agg.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BatchIteratorTest.class);
+    }
+}
@@ -0,0 +1,170 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferRingTest extends SimpleDbTestBase {
+    private static final int POOL_PAGES = 16;
+    private static final int HOT_PAGES = 16;
+    /** The frames a ring may take from the pool. */
+    private static final int RING_PAGES = POOL_PAGES / BufferPool.RING_FRACTION;
+
+    private HeapFile hot;
+    private HeapFile big;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hot = SystemTestUtil.createRandomHeapFile(2, 504 * HOT_PAGES, null, null);
+        big = SystemTestUtil.createRandomHeapFile(2, 504 * 300, null, null);
+        bp = Database.resetBufferPool(POOL_PAGES);
+    }
+
+    private void touchHotPages() throws Exception {
+        for (int i = 0; i < HOT_PAGES; i++) {
+            HeapPageId pid = new HeapPageId(hot.getId(), i);
+            bp.getPage(null, pid, Permissions.READ_ONLY);
+            bp.unpinPage(pid);
+        }
+    }
+
+    /**
+     * A scan of a table much larger than the full pool leaves the working
+     * set of the pool in place, but for the frames its ring takes.
+     */
+    @Test public void scanKeepsWorkingSet() throws Exception {
+        touchHotPages();
+        SeqScan scan = new SeqScan(new TransactionId(), big.getId(), "");
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        scan.close();
+        assertEquals(504 * 300, count);
+
+        bp.resetStats();
+        touchHotPages();
+        assertEquals(HOT_PAGES - RING_PAGES, bp.getHitCount());
+        assertEquals(RING_PAGES, bp.getMissCount());
+    }
+
+    /**
+     * A ring evicts shared pages only to grow to its size; once it is full,
+     * each new page recycles its oldest frame.
+     */
+    @Test public void ringRecycles() throws Exception {
+        touchHotPages();
+        bp.resetStats();
+        BufferRing ring = new BufferRing(RING_PAGES);
+        for (int i = 0; i < 10; i++) {
+            HeapPageId pid = new HeapPageId(big.getId(), i);
+            bp.getPage(null, pid, Permissions.READ_ONLY, ring);
+            bp.unpinPage(pid);
+        }
+        // RING_PAGES shared pages, then a ring frame for each other page
+        assertEquals(10, bp.getEvictionCount());
+
+        // the newest pages are still in the ring
+        bp.resetStats();
+        HeapPageId last = new HeapPageId(big.getId(), 9);
+        bp.getPage(null, last, Permissions.READ_ONLY, ring);
+        bp.unpinPage(last);
+        assertEquals(1, bp.getHitCount());
+        bp.releaseRing(ring);
+
+        bp.resetStats();
+        touchHotPages();
+        assertEquals(RING_PAGES, bp.getMissCount());
+    }
+
+    /**
+     * A ring larger than its share of the pool takes no more frames than
+     * that share, so the pool never holds more pages than its capacity.
+     */
+    @Test public void ringTakesShareOfPool() throws Exception {
+        touchHotPages();
+        BufferRing ring = new BufferRing(BufferRing.DEFAULT_SIZE);
+        for (int i = 0; i < 10; i++) {
+            HeapPageId pid = new HeapPageId(big.getId(), i);
+            bp.getPage(null, pid, Permissions.READ_ONLY, ring);
+            bp.unpinPage(pid);
+        }
+        assertEquals(RING_PAGES, ring.getPages().size());
+        bp.releaseRing(ring);
+
+        bp.resetStats();
+        touchHotPages();
+        assertEquals(RING_PAGES, bp.getMissCount());
+    }
+
+    /**
+     * While the pool has free frames, scans fill them and the pages stay
+     * cached after the scan.
+     */
+    @Test public void freeFramesUsedFirst() throws Exception {
+        BufferRing ring = new BufferRing(4);
+        for (int i = 0; i < POOL_PAGES; i++) {
+            HeapPageId pid = new HeapPageId(big.getId(), i);
+            bp.getPage(null, pid, Permissions.READ_ONLY, ring);
+            bp.unpinPage(pid);
+        }
+        bp.releaseRing(ring);
+        bp.resetStats();
+        for (int i = 0; i < POOL_PAGES; i++) {
+            HeapPageId pid = new HeapPageId(big.getId(), i);
+            bp.getPage(null, pid, Permissions.READ_ONLY);
+            bp.unpinPage(pid);
+        }
+        assertEquals(POOL_PAGES, bp.getHitCount());
+    }
+
+    /**
+     * A ring page requested without the hint moves into the shared pool and
+     * stays resident after the ring is released.
+     */
+    @Test public void ringPageShared() throws Exception {
+        touchHotPages();
+        BufferRing ring = new BufferRing(4);
+        HeapPageId pid = new HeapPageId(big.getId(), 0);
+        Page p = bp.getPage(null, pid, Permissions.READ_ONLY, ring);
+        bp.unpinPage(pid);
+        assertSame(p, bp.getPage(null, pid, Permissions.READ_ONLY));
+        bp.unpinPage(pid);
+        bp.releaseRing(ring);
+        assertSame(p, bp.getPage(null, pid, Permissions.READ_ONLY));
+        bp.unpinPage(pid);
+    }
+
+    /**
+     * When all frames of the ring are pinned, pages are read into the pool.
+     * Each page read takes a frame from the shared pool.
+     */
+    @Test public void pinnedRingFallsBack() throws Exception {
+        touchHotPages();
+        bp.resetStats();
+        BufferRing ring = new BufferRing(2);
+        for (int i = 0; i < 3; i++)
+            bp.getPage(null, new HeapPageId(big.getId(), i), Permissions.READ_ONLY, ring);
+        assertEquals(3, bp.getMissCount());
+        assertEquals(3, bp.getEvictionCount());
+        for (int i = 0; i < 3; i++)
+            bp.unpinPage(new HeapPageId(big.getId(), i));
+        bp.releaseRing(ring);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferRingTest.class);
+    }
+}
@@ -0,0 +1,238 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class CompoundPredicateTest extends SimpleDbTestBase {
+
+  private static CompoundPredicate compare(int field, Predicate.Op op, int value) {
+    return new CompoundPredicate(new Predicate(field, op, new IntField(value)));
+  }
+
+  /**
+   * A predicate on a field that counts how often it is tested.
+   */
+  private static class Counting extends CompiledPredicate {
+    private static final long serialVersionUID = 1L;
+    private final int field, below;
+    private final double cost;
+    int tests;
+
+    /** Passes tuples whose field is below a value. */
+    Counting(int field, int below, double cost) {
+      this.field = field;
+      this.below = below;
+      this.cost = cost;
+    }
+
+    public boolean matches(Tuple t) {
+      tests++;
+      return ((IntField) t.getField(field)).getValue() < below;
+    }
+
+    public boolean matches(HeapPage.Cursor c) {
+      tests++;
+      return c.getInt(field) < below;
+    }
+
+    protected double cost() {
+      return cost;
+    }
+  }
+
+  /**
+   * Unit test for CompoundPredicate.filter() and compile() on nested AND,
+   * OR and NOT: both agree with the condition written out in Java, also
+   * after the compiled terms have been reordered.
+   */
+  @Test public void filterAndCompile() {
+    CompoundPredicate cond = CompoundPredicate.or(
+        CompoundPredicate.and(compare(0, Predicate.Op.LESS_THAN, 0),
+            CompoundPredicate.not(compare(1, Predicate.Op.EQUALS, 3))),
+        compare(2, Predicate.Op.GREATER_THAN_OR_EQ, 7),
+        CompoundPredicate.not(CompoundPredicate.or(
+            compare(0, Predicate.Op.LESS_THAN, 8),
+            compare(1, Predicate.Op.NOT_EQUALS, 9))));
+    assertEquals(5, cond.getPredicates().size());
+    CompiledPredicate compiled = cond.compile();
+
+    Random r = new Random(7);
+    for (int i = 0; i < 20000; i++) {
+      int a = r.nextInt(20) - 10, b = r.nextInt(10), c = r.nextInt(10);
+      Tuple t = Utility.getTuple(new int[] { a, b, c }, 3);
+      boolean expected = (a < 0 && b != 3) || c >= 7 || !(a < 8 || b != 9);
+      assertEquals(expected, cond.filter(t));
+      assertEquals(expected, compiled.matches(t));
+    }
+  }
+
+  /**
+   * Mapping the fields of a condition keeps its shape and moves each
+   * comparison to the new index of its field.
+   */
+  @Test public void mapFields() {
+    CompoundPredicate cond = CompoundPredicate.or(compare(0, Predicate.Op.LESS_THAN, 3),
+        CompoundPredicate.not(compare(2, Predicate.Op.EQUALS, 5)));
+    CompoundPredicate mapped = cond.mapFields(new int[] { 1, -1, 0 });
+    assertEquals(CompoundPredicate.Kind.OR, mapped.getKind());
+    assertEquals(1, mapped.getPredicates().get(0).getField());
+    assertEquals(0, mapped.getPredicates().get(1).getField());
+    Random r = new Random(5);
+    for (int i = 0; i < 1000; i++) {
+      int a = r.nextInt(10), c = r.nextInt(10);
+      assertEquals(cond.filter(Utility.getTuple(new int[] { a, 0, c }, 3)),
+          mapped.filter(Utility.getTuple(new int[] { c, a }, 2)));
+    }
+  }
+
+  /**
+   * The terms of an AND move so that the one that rejects tuples is tested
+   * first, and those of an OR so that the one that accepts them is.
+   */
+  @Test public void reorderBySelectivity() {
+    Tuple t = Utility.getHeapTuple(5, 1);
+    int rows = 20 * CompiledPredicate.Junction.REORDER_INTERVAL;
+
+    Counting pass = new Counting(0, 10, 1), fail = new Counting(0, 0, 1);
+    CompiledPredicate and = CompiledPredicate.and(new CompiledPredicate[] { pass, fail });
+    for (int i = 0; i < rows; i++)
+      assertFalse(and.matches(t));
+    assertEquals(rows, fail.tests);
+    assertTrue(pass.tests <= 2 * CompiledPredicate.Junction.REORDER_INTERVAL);
+
+    pass = new Counting(0, 10, 1);
+    fail = new Counting(0, 0, 1);
+    CompiledPredicate or = CompiledPredicate.or(new CompiledPredicate[] { fail, pass });
+    for (int i = 0; i < rows; i++)
+      assertTrue(or.matches(t));
+    assertEquals(rows, pass.tests);
+    assertTrue(fail.tests <= 2 * CompiledPredicate.Junction.REORDER_INTERVAL);
+  }
+
+  /**
+   * A cheap term goes first unless a costly one rejects far more tuples.
+   */
+  @Test public void reorderByCost() {
+    int rows = 20 * CompiledPredicate.Junction.REORDER_INTERVAL;
+    Random r = new Random(3);
+    Tuple[] tuples = new Tuple[rows];
+    for (int i = 0; i < rows; i++)
+      tuples[i] = Utility.getTuple(new int[] { r.nextInt(100), r.nextInt(100) }, 2);
+
+    // both reject about half the tuples, but the first costs 50 times more
+    Counting costly = new Counting(0, 50, 50), cheap = new Counting(1, 50, 1);
+    CompiledPredicate and = CompiledPredicate.and(new CompiledPredicate[] { costly, cheap });
+    for (Tuple t : tuples)
+      and.matches(t);
+    assertTrue(cheap.tests >= rows - CompiledPredicate.Junction.REORDER_INTERVAL);
+    assertTrue(costly.tests < rows * 3 / 4);
+
+    // the costly term rejects all but 1 in 100 tuples and the cheap one
+    // almost none, so the costly term is worth testing first
+    costly = new Counting(0, 1, 50);
+    cheap = new Counting(1, 99, 1);
+    and = CompiledPredicate.and(new CompiledPredicate[] { cheap, costly });
+    for (Tuple t : tuples)
+      and.matches(t);
+    assertTrue(costly.tests >= rows - CompiledPredicate.Junction.REORDER_INTERVAL);
+    assertTrue(cheap.tests < rows / 4);
+  }
+
+  /** @return the rows of a query, as strings, sorted */
+  private static List<String> run(String sql, int threads) throws Exception {
+    TransactionId tid = new TransactionId();
+    LogicalPlan lp = new Parser().generateLogicalPlan(tid, sql);
+    lp.setParallelism(threads);
+    DbIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    OperatorCardinality.updateOperatorCardinality((Operator) plan,
+        lp.getTableAliasToIdMapping(), TableStats.getStatsMap());
+    new QueryPlanVisualizer().getQueryPlanTree(plan);
+    ArrayList<String> rows = new ArrayList<String>();
+    plan.open();
+    while (plan.hasNext())
+      rows.add(plan.next().toString());
+    plan.close();
+    Database.getBufferPool().transactionComplete(tid);
+    Collections.sort(rows);
+    return rows;
+  }
+
+  /**
+   * Queries with OR, NOT and NOT LIKE in their WHERE clause return the rows
+   * that satisfy it, run serially and across threads.
+   */
+  @Test public void parseCompoundQueries() throws Exception {
+    TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE },
+        new String[] { "a", "b" });
+    File f = File.createTempFile("compound", ".dat");
+    f.deleteOnExit();
+    HeapFile hf = new HeapFile(f, td);
+    Database.getCatalog().addTable(hf, "cp");
+    TransactionId tid = new TransactionId();
+    ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    for (int i = 0; i < 2000; i++) {
+      Tuple t = new Tuple(td, new Field[] { new IntField(i % 41),
+          new StringField("s" + (i % 13), Type.STRING_LEN) });
+      tuples.add(t);
+      Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+    }
+    Database.getBufferPool().transactionComplete(tid);
+    assertTrue(hf.numPages() > ParallelScan.MORSEL_PAGES);
+    TableStats.setTableStats("cp", new TableStats(hf.getId(), 1));
+
+    String[] queries = {
+        "SELECT * FROM cp c WHERE c.a < 3 OR c.a > 37;",
+        "SELECT * FROM cp c WHERE NOT c.a < 20 AND c.b = 's4';",
+        "SELECT * FROM cp c WHERE c.a = 5 OR (c.a < 10 AND c.b NOT LIKE 's1');",
+        "SELECT * FROM cp c WHERE NOT (c.b = 's2' OR c.b = 's3') AND c.a >= 30;" };
+    for (int q = 0; q < queries.length; q++) {
+      ArrayList<String> expected = new ArrayList<String>();
+      for (Tuple t : tuples) {
+        int a = ((IntField) t.getField(0)).getValue();
+        String b = ((StringField) t.getField(1)).getValue();
+        boolean pass;
+        switch (q) {
+        case 0: pass = a < 3 || a > 37; break;
+        case 1: pass = !(a < 20) && b.equals("s4"); break;
+        case 2: pass = a == 5 || (a < 10 && !b.contains("s1")); break;
+        default: pass = !(b.equals("s2") || b.equals("s3")) && a >= 30;
+        }
+        if (pass)
+          expected.add(t.toString());
+      }
+      Collections.sort(expected);
+      assertFalse(expected.isEmpty());
+      assertEquals(queries[q], expected, run(queries[q], 1));
+      assertEquals(queries[q], expected, run(queries[q], 4));
+    }
+  }
+
+  /**
+   * OR may not combine conditions on different tables.
+   */
+  @Test(expected = ParsingException.class)
+  public void orAcrossTables() throws Exception {
+    Database.getCatalog().addTable(SystemTestUtil.createRandomHeapFile(2, 10, 10,
+        null, new ArrayList<ArrayList<Integer>>(), "x"), "x");
+    Database.getCatalog().addTable(SystemTestUtil.createRandomHeapFile(2, 10, 10,
+        null, new ArrayList<ArrayList<Integer>>(), "y"), "y");
+    new Parser().generateLogicalPlan(new TransactionId(),
+        "SELECT * FROM x, y WHERE x.x0 = y.y0 AND (x.x1 = 1 OR y.y1 = 2);");
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(CompoundPredicateTest.class);
+  }
+}
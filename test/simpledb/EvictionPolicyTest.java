@@ -0,0 +1,124 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.HashSet;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class EvictionPolicyTest extends SimpleDbTestBase {
+
+    private static final EvictionPolicy.Candidates ANY = new EvictionPolicy.Candidates() {
+        public boolean isEvictable(PageId pid) {
+            return true;
+        }
+    };
+
+    private static PageId pid(int pgNo) {
+        return new HeapPageId(1, pgNo);
+    }
+
+    /**
+     * CLOCK gives recently referenced pages a second chance.
+     */
+    @Test public void clockSecondChance() {
+        EvictionPolicy p = new ClockPolicy(3);
+        p.pageLoaded(pid(0));
+        p.pageLoaded(pid(1));
+        p.pageLoaded(pid(2));
+        // first sweep clears all bits, so page 0 goes first
+        assertEquals(pid(0), p.chooseVictim(ANY));
+        p.pageLoaded(pid(3));
+        p.pageAccessed(pid(1));
+        assertEquals(pid(2), p.chooseVictim(ANY));
+    }
+
+    /**
+     * LRU-2 evicts pages seen only once before pages seen twice.
+     */
+    @Test public void lruKPrefersSingleReference() {
+        EvictionPolicy p = new LruKPolicy(2);
+        p.pageLoaded(pid(0));
+        p.pageAccessed(pid(0));
+        p.pageLoaded(pid(1));
+        p.pageLoaded(pid(2));
+        assertEquals(pid(1), p.chooseVictim(ANY));
+        assertEquals(pid(2), p.chooseVictim(ANY));
+        assertEquals(pid(0), p.chooseVictim(ANY));
+        assertNull(p.chooseVictim(ANY));
+    }
+
+    /**
+     * A page reloaded while remembered in A1out is protected from a scan.
+     */
+    @Test public void twoQueueScanResistance() {
+        EvictionPolicy p = new TwoQueuePolicy(4, 1, 4);
+        p.pageLoaded(pid(0));
+        p.pageLoaded(pid(1));
+        assertEquals(pid(0), p.chooseVictim(ANY));
+        // page 0 is back: it is promoted to Am
+        p.pageLoaded(pid(0));
+        for (int i = 10; i < 20; i++) {
+            p.pageLoaded(pid(i));
+            PageId victim = p.chooseVictim(ANY);
+            assertTrue(!victim.equals(pid(0)));
+        }
+    }
+
+    /**
+     * Policies never return a page the buffer pool vetoes.
+     */
+    @Test public void candidatesAreRespected() {
+        EvictionPolicy[] policies = new EvictionPolicy[] {
+                new ClockPolicy(4), new LruKPolicy(2), new TwoQueuePolicy(4) };
+        for (EvictionPolicy p : policies) {
+            for (int i = 0; i < 4; i++)
+                p.pageLoaded(pid(i));
+            EvictionPolicy.Candidates onlyThree = new EvictionPolicy.Candidates() {
+                public boolean isEvictable(PageId pid) {
+                    return pid.pageNumber() == 3;
+                }
+            };
+            assertEquals(p.toString(), pid(3), p.chooseVictim(onlyThree));
+            assertNull(p.toString(), p.chooseVictim(onlyThree));
+        }
+    }
+
+    /**
+     * BufferPool counts hits, misses and evictions with every policy.
+     */
+    @Test public void bufferPoolStats() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 4, null, null);
+        EvictionPolicy.Factory[] policies = new EvictionPolicy.Factory[] {
+                ClockPolicy.FACTORY, LruKPolicy.FACTORY, TwoQueuePolicy.FACTORY };
+        for (EvictionPolicy.Factory policy : policies) {
+            BufferPool bp = Database.resetBufferPool(2, policy);
+            HashSet<Page> seen = new HashSet<Page>();
+            for (int i = 0; i < f.numPages(); i++) {
+                HeapPageId pid = new HeapPageId(f.getId(), i);
+                seen.add(bp.getPage(null, pid, Permissions.READ_ONLY));
+                bp.unpinPage(pid);
+            }
+            bp.getPage(null, new HeapPageId(f.getId(), f.numPages() - 1), Permissions.READ_ONLY);
+            assertEquals(4, seen.size());
+            assertEquals(1, bp.getHitCount());
+            assertEquals(4, bp.getMissCount());
+            assertEquals(2, bp.getEvictionCount());
+            bp.resetStats();
+            assertEquals(0, bp.getMissCount());
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(EvictionPolicyTest.class);
+    }
+}
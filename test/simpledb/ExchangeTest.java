@@ -0,0 +1,237 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ExchangeTest extends SimpleDbTestBase {
+    private static final int ROWS = 8000;
+
+    private HeapFile hf;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createRandomHeapFile(3, ROWS, 200, null,
+                new ArrayList<ArrayList<Integer>>(), "c");
+        tid = new TransactionId();
+    }
+
+    /** @return the rows of an iterator, sorted */
+    private static List<List<Integer>> rows(DbIterator it) throws Exception {
+        ArrayList<List<Integer>> rows = new ArrayList<List<Integer>>();
+        it.open();
+        while (it.hasNext())
+            rows.add(SystemTestUtil.tupleToList(it.next()));
+        it.close();
+        return sorted(rows);
+    }
+
+    private static List<List<Integer>> sorted(List<List<Integer>> rows) {
+        Collections.sort(rows, new Comparator<List<Integer>>() {
+            public int compare(List<Integer> a, List<Integer> b) {
+                for (int i = 0; i < a.size(); i++) {
+                    int c = a.get(i).compareTo(b.get(i));
+                    if (c != 0)
+                        return c;
+                }
+                return 0;
+            }
+        });
+        return rows;
+    }
+
+    /** @return the rows each consumer of an exchange returns, read at the same time */
+    private static List<List<List<Integer>>> consume(Exchange ex) throws Exception {
+        ArrayList<Callable<List<List<Integer>>>> readers =
+                new ArrayList<Callable<List<List<Integer>>>>();
+        for (int i = 0; i < ex.numConsumers(); i++) {
+            final DbIterator c = ex.getConsumer(i);
+            readers.add(new Callable<List<List<Integer>>>() {
+                public List<List<Integer>> call() throws Exception {
+                    return rows(c);
+                }
+            });
+        }
+        return WorkerPool.runAll(readers);
+    }
+
+    private DbIterator[] scans(int n) {
+        return new ParallelScan(tid, hf.getId(), "t", n).pipelines(n);
+    }
+
+    /**
+     * Repartitioning sends each tuple to one consumer, and all tuples with
+     * the same value of the field to the same one.
+     */
+    @Test public void repartition() throws Exception {
+        Exchange ex = Exchange.repartition(scans(3), 1, 4);
+        for (int run = 0; run < 2; run++) {
+            ArrayList<List<Integer>> all = new ArrayList<List<Integer>>();
+            HashMap<Integer, Integer> owner = new HashMap<Integer, Integer>();
+            List<List<List<Integer>>> parts = consume(ex);
+            for (int i = 0; i < parts.size(); i++) {
+                assertFalse(parts.get(i).isEmpty());
+                for (List<Integer> row : parts.get(i)) {
+                    Integer o = owner.put(row.get(1), i);
+                    assertTrue(o == null || o == i);
+                    all.add(row);
+                }
+            }
+            assertEquals(rows(new SeqScan(tid, hf.getId(), "t")), sorted(all));
+        }
+    }
+
+    /**
+     * Broadcasting sends every tuple to every consumer.
+     */
+    @Test public void broadcast() throws Exception {
+        List<List<Integer>> expected = rows(new SeqScan(tid, hf.getId(), "t"));
+        for (List<List<Integer>> part : consume(Exchange.broadcast(scans(2), 3)))
+            assertEquals(expected, part);
+    }
+
+    /**
+     * A consumer closed without being read does not hold up the others.
+     */
+    @Test public void closeOneConsumer() throws Exception {
+        Exchange ex = new Exchange(scans(2), Exchange.Mode.REPARTITION, 0, 2, 1);
+        ex.getConsumer(1).close();
+        List<List<Integer>> part = rows(ex.getConsumer(0));
+        assertFalse(part.isEmpty());
+        assertTrue(part.size() < ROWS);
+        try {
+            ex.getConsumer(0).open();
+            ex.getConsumer(0).rewind();
+            fail("rewound one consumer of several");
+        } catch (DbException e) {
+            // expected
+        } finally {
+            ex.getConsumer(0).close();
+            ex.getConsumer(1).close();
+        }
+    }
+
+    /** @return a producer that fails on its first tuple */
+    private DbIterator failing() {
+        return new Operator() {
+            private static final long serialVersionUID = 1L;
+
+            protected Tuple fetchNext() throws DbException {
+                throw new DbException("failed");
+            }
+
+            public TupleDesc getTupleDesc() {
+                return hf.getTupleDesc();
+            }
+
+            public DbIterator[] getChildren() {
+                return new DbIterator[0];
+            }
+
+            public void setChildren(DbIterator[] children) {
+            }
+
+            public void rewind() {
+            }
+        };
+    }
+
+    /**
+     * A producer that fails aborts the run: every consumer reports its
+     * failure, including one whose tuples came only from the other
+     * producers.
+     */
+    @Test public void producerFailureAbortsRun() throws Exception {
+        DbIterator[] producers = { scans(1)[0], failing() };
+        Exchange ex = new Exchange(producers, Exchange.Mode.REPARTITION, 0, 2, 1);
+        try {
+            consume(ex);
+            fail("producer failure not reported");
+        } catch (DbException e) {
+            assertEquals("failed", e.getMessage());
+        }
+    }
+
+    /**
+     * An exchange aborted from outside fails its consumers when they are
+     * next read, and its producers stop even though a consumer is unread.
+     */
+    @Test public void abort() throws Exception {
+        Exchange ex = new Exchange(scans(2), Exchange.Mode.REPARTITION, 0, 2, 1);
+        DbIterator c = ex.getConsumer(0);
+        c.open();
+        try {
+            ex.abort();
+            while (c.hasNext())
+                c.next();
+            fail("aborted exchange read to the end");
+        } catch (DbException e) {
+            assertEquals("exchange aborted", e.getMessage());
+        } finally {
+            c.close();
+            ex.getConsumer(1).close();
+        }
+    }
+
+    /** @return a plan for a query, split across threads, with its cardinalities */
+    private DbIterator plan(String sql, int threads) throws Exception {
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid, sql);
+        lp.setParallelism(threads);
+        DbIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        OperatorCardinality.updateOperatorCardinality((Operator) plan,
+                lp.getTableAliasToIdMapping(), TableStats.getStatsMap());
+        return plan;
+    }
+
+    /**
+     * Split across threads, the planner reads large scans in parallel and
+     * runs equality joins and grouped aggregates in partitions, with the
+     * same results as the serial plan. Plans are serial unless asked.
+     */
+    @Test public void parallelPlans() throws Exception {
+        assertEquals(1, new LogicalPlan().getParallelism());
+        HeapFile small = SystemTestUtil.createRandomHeapFile(2, 300, 200, null,
+                new ArrayList<ArrayList<Integer>>(), "d");
+        Database.getCatalog().addTable(hf, "big");
+        Database.getCatalog().addTable(small, "small");
+        TableStats.setTableStats("big", new TableStats(hf.getId(), 1));
+        TableStats.setTableStats("small", new TableStats(small.getId(), 1));
+        String[] queries = {
+                "SELECT * FROM big b WHERE b.c0 < 100 AND b.c2 > 20;",
+                "SELECT b.c0, s.d1 FROM big b, small s WHERE b.c1 = s.d0 AND b.c2 < 50;",
+                "SELECT b.c1, COUNT(*), SUM(b.c2) FROM big b WHERE b.c0 > 30 GROUP BY b.c1;",
+                "SELECT s.d1, MAX(b.c0) FROM big b, small s WHERE b.c1 = s.d0 GROUP BY s.d1;",
+                "SELECT SUM(b.c2) FROM big b WHERE b.c0 < 150;" };
+        Class<?>[] roots = { ParallelScan.class, Gather.class, Gather.class, Gather.class,
+                Aggregate.class };
+        for (int q = 0; q < queries.length; q++) {
+            DbIterator parallel = plan(queries[q], 4);
+            DbIterator below = ((Operator) parallel).getChildren()[0];
+            assertEquals(queries[q], roots[q], below.getClass());
+            new QueryPlanVisualizer().getQueryPlanTree(parallel);
+
+            DbIterator serial = plan(queries[q], 1);
+            assertFalse(((Operator) serial).getChildren()[0] instanceof Gather);
+            List<List<Integer>> expected = rows(serial);
+            assertFalse(expected.isEmpty());
+            assertEquals(queries[q], expected, rows(parallel));
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ExchangeTest.class);
+    }
+}
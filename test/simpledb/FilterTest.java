@@ -3,6 +3,10 @@ package simpledb;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.util.*;
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Before;
@@ -120,6 +124,84 @@ public class FilterTest extends SimpleDbTestBase {
     op.close();
   }
 
+  /**
+   * Unit test for Filter.getNext() with several predicates, all of which
+   *   a tuple must pass
+   */
+  @Test public void filterConjunction() throws Exception {
+    Predicate[] preds = new Predicate[] {
+        new Predicate(0, Predicate.Op.GREATER_THAN, TestUtil.getField(-3)),
+        new Predicate(1, Predicate.Op.LESS_THAN, TestUtil.getField(3)),
+        new Predicate(2, Predicate.Op.NOT_EQUALS, TestUtil.getField(0)) };
+    Filter op = new Filter(preds, scan);
+    assertEquals(preds[0], op.getPredicate());
+    assertEquals(3, op.getPredicates().length);
+    op.open();
+    for (int i : new int[] { -2, -1, 1, 2 }) {
+      assertTrue(op.hasNext());
+      assertTrue(TestUtil.compareTuples(Utility.getHeapTuple(i, testWidth), op.next()));
+    }
+    assertTrue(TestUtil.checkExhausted(op));
+    op.close();
+  }
+
+  /**
+   * Over a SeqScan of a HeapFile the predicates are pushed into the scan,
+   *   which tests them on the page bytes; the tuples returned are the same
+   *   as filtering them one by one.
+   */
+  @Test public void filterPushedIntoScan() throws Exception {
+    TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE },
+        new String[] { "a", "b" });
+    File f = File.createTempFile("filter", ".dat");
+    f.deleteOnExit();
+    HeapFile hf = new HeapFile(f, td);
+    Database.getCatalog().addTable(hf, "filtered");
+    TransactionId tid = new TransactionId();
+    ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    for (int i = 0; i < 1000; i++) {
+      Tuple t = new Tuple(td, new Field[] { new IntField(i % 37 - 18),
+          new StringField("s" + (i % 23), Type.STRING_LEN) });
+      tuples.add(t);
+      Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+    }
+    Database.getBufferPool().transactionComplete(tid);
+
+    Predicate[][] conds = new Predicate[][] {
+        { new Predicate(0, Predicate.Op.LESS_THAN_OR_EQ, new IntField(-3)) },
+        { new Predicate(1, Predicate.Op.LIKE, new StringField("s1", Type.STRING_LEN)),
+          new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(0)) },
+        { new Predicate(0, Predicate.Op.NOT_EQUALS, new IntField(5)),
+          new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ,
+              new StringField("s2", Type.STRING_LEN)),
+          new Predicate(0, Predicate.Op.EQUALS, new IntField(7)) } };
+    tid = new TransactionId();
+    for (Predicate[] preds : conds) {
+      SeqScan ss = new SeqScan(tid, hf.getId(), "t");
+      Filter pushed = new Filter(preds, ss);
+      pushed.open();
+      assertNotNull(ss.getFilter());
+      ArrayList<String> actual = new ArrayList<String>();
+      while (pushed.hasNext())
+        actual.add(pushed.next().toString());
+      pushed.close();
+      assertNull(ss.getFilter());
+
+      Filter plain = new Filter(preds, new TupleIterator(td, tuples));
+      plain.open();
+      ArrayList<String> expected = new ArrayList<String>();
+      while (plain.hasNext())
+        expected.add(plain.next().toString());
+      plain.close();
+
+      assertTrue(expected.size() > 0);
+      Collections.sort(actual);
+      Collections.sort(expected);
+      assertEquals(expected, actual);
+    }
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,119 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class FreeSpaceMapTest extends SimpleDbTestBase {
+    private HeapFile hf;
+    private TransactionId tid;
+
+    /**
+     * Creates a three page table whose last page has 494 free slots.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * 2 + 10, null, null);
+        FreeSpaceMap.mapFile(hf.getFile()).deleteOnExit();
+        tid = new TransactionId();
+    }
+
+    /**
+     * Without a saved map, page count and free slots come from the headers.
+     */
+    @Test public void rebuild() throws Exception {
+        FreeSpaceMap fsm = hf.getFreeSpaceMap();
+        assertEquals(3, fsm.numPages());
+        assertEquals(3, hf.numPages());
+        assertEquals(0, fsm.getFreeSlots(0));
+        assertEquals(0, fsm.getFreeSlots(1));
+        assertEquals(494, fsm.getFreeSlots(2));
+        assertEquals(2, fsm.findPage());
+    }
+
+    /**
+     * Inserts go to the first page with room, which may be an early page
+     * after a delete, and only append when every page is full.
+     */
+    @Test public void insertFindsFreePage() throws Exception {
+        Tuple t = Utility.getHeapTuple(1, 2);
+        hf.insertTuple(tid, t);
+        assertEquals(2, t.getRecordId().getPageId().pageNumber());
+
+        // free a slot on page 0
+        HeapPage first = (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(hf.getId(), 0), Permissions.READ_WRITE);
+        Tuple victim = first.iterator().next();
+        Database.getBufferPool().unpinPage(first.getId());
+        hf.deleteTuple(tid, victim);
+        assertEquals(1, hf.getFreeSpaceMap().getFreeSlots(0));
+
+        t = Utility.getHeapTuple(2, 2);
+        hf.insertTuple(tid, t);
+        assertEquals(0, t.getRecordId().getPageId().pageNumber());
+
+        for (int i = 0; i < 493; i++)
+            hf.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        assertEquals(3, hf.numPages());
+        assertEquals(-1, hf.getFreeSpaceMap().findPage());
+        t = Utility.getHeapTuple(3, 2);
+        hf.insertTuple(tid, t);
+        assertEquals(3, t.getRecordId().getPageId().pageNumber());
+        assertEquals(4, hf.numPages());
+        assertEquals(503, hf.getFreeSpaceMap().getFreeSlots(3));
+    }
+
+    /**
+     * A stale count is corrected when the page is visited.
+     */
+    @Test public void staleHint() throws Exception {
+        hf.getFreeSpaceMap().update(0, 5, 504);
+        Tuple t = Utility.getHeapTuple(1, 2);
+        hf.insertTuple(tid, t);
+        assertEquals(2, t.getRecordId().getPageId().pageNumber());
+        assertEquals(0, hf.getFreeSpaceMap().getFreeSlots(0));
+    }
+
+    /**
+     * The map is saved by flushAllPages and used by the next HeapFile on
+     * the same file, unless the file has changed since.
+     */
+    @Test public void persistence() throws Exception {
+        hf.insertTuple(tid, Utility.getHeapTuple(1, 2));
+        Database.getBufferPool().flushAllPages();
+        File mapFile = FreeSpaceMap.mapFile(hf.getFile());
+        assertTrue(mapFile.exists());
+
+        FreeSpaceMap saved = FreeSpaceMap.load(hf.getFile());
+        assertNotNull(saved);
+        assertEquals(3, saved.numPages());
+        assertEquals(493, saved.getFreeSlots(2));
+        HeapFile reopened = new HeapFile(hf.getFile(), hf.getTupleDesc());
+        assertEquals(3, reopened.numPages());
+
+        // growing the file behind the map's back invalidates it
+        RandomAccessFile raf = new RandomAccessFile(hf.getFile(), "rw");
+        raf.setLength(raf.length() + BufferPool.PAGE_SIZE);
+        raf.close();
+        assertNull(FreeSpaceMap.load(hf.getFile()));
+        reopened = new HeapFile(hf.getFile(), hf.getTupleDesc());
+        assertEquals(4, reopened.numPages());
+        assertEquals(504, reopened.getFreeSpaceMap().getFreeSlots(3));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
@@ -0,0 +1,149 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HashEquiJoinTest extends SimpleDbTestBase {
+    private static final int ROWS = 2000;
+
+    private HeapFile left;
+    private HeapFile right;
+    private TransactionId tid;
+    private JoinPredicate pred;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        left = SystemTestUtil.createRandomHeapFile(2, ROWS, 500, null, null);
+        right = SystemTestUtil.createRandomHeapFile(3, ROWS, 500, null, null);
+        tid = new TransactionId();
+        pred = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+    }
+
+    /** @return the rows of an open iterator, sorted */
+    private static List<ArrayList<Integer>> rows(DbIterator it) throws Exception {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        while (it.hasNext())
+            rows.add(SystemTestUtil.tupleToList(it.next()));
+        Collections.sort(rows, new Comparator<ArrayList<Integer>>() {
+            public int compare(ArrayList<Integer> a, ArrayList<Integer> b) {
+                for (int i = 0; i < a.size(); i++) {
+                    int c = a.get(i).compareTo(b.get(i));
+                    if (c != 0)
+                        return c;
+                }
+                return 0;
+            }
+        });
+        return rows;
+    }
+
+    private List<ArrayList<Integer>> expected(DbIterator build, DbIterator probe)
+            throws Exception {
+        Join join = new Join(pred, build, probe);
+        join.open();
+        List<ArrayList<Integer>> rows = rows(join);
+        join.close();
+        return rows;
+    }
+
+    /**
+     * With the default budget both tables fit and nothing is spilled.
+     */
+    @Test public void inMemory() throws Exception {
+        HashEquiJoin join = new HashEquiJoin(pred, new SeqScan(tid, left.getId(), "l"),
+                new SeqScan(tid, right.getId(), "r"));
+        assertTrue(join.getMemoryTuples() >= ROWS);
+        join.open();
+        List<ArrayList<Integer>> actual = rows(join);
+        assertEquals(0, join.spilledPartitions);
+        join.close();
+        assertFalse(actual.isEmpty());
+        assertEquals(expected(new SeqScan(tid, left.getId(), "l"),
+                new SeqScan(tid, right.getId(), "r")), actual);
+    }
+
+    /**
+     * A budget smaller than the build side partitions both sides and gives
+     * the same result, also after a rewind.
+     */
+    @Test public void spills() throws Exception {
+        List<ArrayList<Integer>> expected = expected(new SeqScan(tid, left.getId(), "l"),
+                new SeqScan(tid, right.getId(), "r"));
+        for (int budget : new int[] { 1, 50, 300 }) {
+            HashEquiJoin join = new HashEquiJoin(pred, new SeqScan(tid, left.getId(), "l"),
+                    new SeqScan(tid, right.getId(), "r"), budget);
+            join.open();
+            assertEquals(expected, rows(join));
+            assertTrue(join.spilledPartitions > 0);
+            join.rewind();
+            assertEquals(expected, rows(join));
+            join.close();
+        }
+    }
+
+    /**
+     * A key too frequent to fit in memory is joined in chunks once
+     * repartitioning stops helping.
+     */
+    @Test public void skew() throws Exception {
+        HashMap<Integer, Integer> spec = new HashMap<Integer, Integer>();
+        spec.put(0, 7);
+        HeapFile skewed = SystemTestUtil.createRandomHeapFile(2, 300, spec, null);
+        spec.clear();
+        spec.put(1, 7);
+        HeapFile probe = SystemTestUtil.createRandomHeapFile(3, 20, spec, null);
+
+        HashEquiJoin join = new HashEquiJoin(pred, new SeqScan(tid, skewed.getId(), "l"),
+                new SeqScan(tid, probe.getId(), "r"), 40);
+        join.open();
+        List<ArrayList<Integer>> actual = rows(join);
+        join.close();
+        assertEquals(300 * 20, actual.size());
+        assertEquals(expected(new SeqScan(tid, skewed.getId(), "l"),
+                new SeqScan(tid, probe.getId(), "r")), actual);
+    }
+
+    /**
+     * Spill files give back what was written, strings included.
+     */
+    @Test public void spillFile() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        SpillFile file = new SpillFile(td);
+        for (int i = 0; i < 1000; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField("s" + i, Type.STRING_LEN));
+            file.add(t);
+        }
+        assertEquals(1000, file.size());
+        DbIterator it = file.iterator();
+        it.open();
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < 1000; i++) {
+                Tuple t = it.next();
+                assertEquals(new IntField(i), t.getField(0));
+                assertEquals(new StringField("s" + i, Type.STRING_LEN), t.getField(1));
+            }
+            assertFalse(it.hasNext());
+            it.rewind();
+        }
+        it.close();
+        file.delete();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashEquiJoinTest.class);
+    }
+}
@@ -121,6 +121,45 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    /**
+     * The iterator fetches every page exactly once, skips pages without
+     * tuples, and leaves no page pinned once it is done.
+     */
+    @Test
+    public void testIteratorStreamsPages() throws Exception {
+        HeapFile threePageFile = SystemTestUtil.createRandomHeapFile(2, 504 * 3,
+                null, null);
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        // empty the middle page
+        HeapPage middle = (HeapPage) bp.getPage(tid,
+                new HeapPageId(threePageFile.getId(), 1), Permissions.READ_WRITE);
+        Iterator<Tuple> tuples = middle.iterator();
+        while (tuples.hasNext())
+            middle.deleteTuple(tuples.next());
+        bp.unpinPage(middle.getId());
+        bp.resetStats();
+
+        DbFileIterator it = threePageFile.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            assertFalse(middle.getId().equals(it.next().getRecordId().getPageId()));
+            count += 1;
+        }
+        assertFalse(it.hasNext());
+        it.close();
+        assertEquals(504 * 2, count);
+        assertEquals(3, bp.getHitCount() + bp.getMissCount());
+
+        // nothing is pinned, so every page can be evicted
+        bp = Database.resetBufferPool(1);
+        it.open();
+        assertTrue(it.hasNext());
+        it.close();
+        bp.getPage(tid, new HeapPageId(threePageFile.getId(), 2), Permissions.READ_ONLY);
+    }
+
     /**
      * JUnit suite target
      */
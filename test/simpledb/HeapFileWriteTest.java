@@ -5,6 +5,8 @@ import org.junit.Before;
 import org.junit.Test;
 
 import static org.junit.Assert.*;
+
+import java.util.Arrays;
 import junit.framework.JUnit4TestAdapter;
 
 public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
@@ -43,6 +45,29 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Writing a page already in the file covers its dirty slots, and the
+     * page reads back the same.
+     */
+    @Test public void writeDirtySlots() throws Exception {
+        for (int i = 0; i < 504 + 10; ++i)
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        Database.getBufferPool().flushAllPages();
+
+        HeapPageId pid = new HeapPageId(empty.getId(), 0);
+        HeapPage page = (HeapPage) empty.readPage(pid);
+        Tuple victim = page.iterator().next();
+        page.deleteTuple(victim);
+        page.insertTuple(Utility.getHeapTuple(-1, 2));
+        assertEquals(1, page.getDirtySlots().cardinality());
+        empty.writePage(page);
+        assertTrue(page.getDirtySlots().isEmpty());
+
+        HeapPage reread = (HeapPage) empty.readPage(pid);
+        assertTrue(Arrays.equals(page.getPageData(), reread.getPageData()));
+        assertEquals(-1, ((IntField) reread.iterator().next().getField(0)).getValue());
+    }
+
     /**
      * JUnit suite target
      */
@@ -6,6 +6,7 @@ import simpledb.systemtest.SystemTestUtil;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 import org.junit.Before;
@@ -99,6 +100,75 @@ public class HeapPageReadTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.Cursor
+     */
+    @Test public void testCursor() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        HeapPage.Cursor cursor = new HeapPage.Cursor(page);
+
+        int row = 0;
+        while (cursor.next()) {
+            assertEquals(row, cursor.getSlot());
+            assertEquals(EXAMPLE_VALUES[row][0], cursor.getInt(0));
+            assertEquals(EXAMPLE_VALUES[row][1], cursor.getInt(1));
+            assertEquals(new IntField(EXAMPLE_VALUES[row][1]), cursor.getField(1));
+            Tuple tup = cursor.getTuple();
+            assertEquals(new RecordId(pid, row), tup.getRecordId());
+            assertEquals(new IntField(EXAMPLE_VALUES[row][0]), tup.getField(0));
+            row++;
+        }
+        assertEquals(EXAMPLE_VALUES.length, row);
+        assertFalse(cursor.next());
+
+        // a cursor can be reused for another page
+        cursor.reset(page);
+        assertTrue(cursor.next());
+        assertEquals(EXAMPLE_VALUES[0][0], cursor.getInt(0));
+    }
+
+    /**
+     * Pages decoded from the middle of a larger buffer read the same.
+     */
+    @Test public void testBufferOffset() throws Exception {
+        ByteBuffer buf = ByteBuffer.allocate(EXAMPLE_DATA.length + 100);
+        buf.position(100);
+        buf.put(EXAMPLE_DATA);
+        buf.position(100);
+        HeapPage page = new HeapPage(pid, buf);
+        assertEquals(100, buf.position());
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+        HeapPage.Cursor cursor = new HeapPage.Cursor(page);
+        assertTrue(cursor.next());
+        assertEquals(EXAMPLE_VALUES[0][1], cursor.getInt(1));
+    }
+
+    /**
+     * Encoding into a reused direct buffer writes every byte of the page,
+     * whatever the buffer held before.
+     */
+    @Test public void testWritePageData() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        page.deleteTuple(page.iterator().next());
+        page.insertTuple(Utility.getHeapTuple(new int[] { 7, 8 }));
+        byte[] expected = page.getPageData();
+
+        ByteBuffer buf = ByteBuffer.allocateDirect(expected.length + 10);
+        while (buf.hasRemaining())
+            buf.put((byte) 0x5a);
+        buf.position(10);
+        page.writePageData(buf);
+        assertEquals(buf.capacity(), buf.position());
+
+        byte[] actual = new byte[expected.length];
+        buf.position(10);
+        buf.get(actual);
+        assertTrue(Arrays.equals(expected, actual));
+        buf.position(10);
+        HeapPage decoded = new HeapPage(pid, buf);
+        assertTrue(Arrays.equals(expected, decoded.getPageData()));
+    }
+
     /**
      * Unit test for HeapPage.getNumEmptySlots()
      */
@@ -1,9 +1,12 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 
@@ -126,6 +129,52 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * The before image is the page as read until setBeforeImage is called,
+     * and does not follow later changes.
+     */
+    @Test public void beforeImage() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        assertTrue(Arrays.equals(HeapPageReadTest.EXAMPLE_DATA,
+                page.getBeforeImage().getPageData()));
+
+        page.deleteTuple(page.iterator().next());
+        assertTrue(Arrays.equals(HeapPageReadTest.EXAMPLE_DATA,
+                page.getBeforeImage().getPageData()));
+
+        page.setBeforeImage();
+        byte[] committed = page.getPageData();
+        assertTrue(Arrays.equals(committed, page.getBeforeImage().getPageData()));
+        page.insertTuple(Utility.getHeapTuple(1, 2));
+        page.insertTuple(Utility.getHeapTuple(2, 2));
+        assertTrue(Arrays.equals(committed, page.getBeforeImage().getPageData()));
+        assertFalse(Arrays.equals(committed, page.getPageData()));
+    }
+
+    /**
+     * Inserts and deletes mark their slots dirty until clearDirtySlots.
+     */
+    @Test public void dirtySlots() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        assertTrue(page.getDirtySlots().isEmpty());
+
+        page.deleteTuple(page.iterator().next());
+        Tuple t = Utility.getHeapTuple(1, 2);
+        page.insertTuple(t);
+        page.insertTuple(Utility.getHeapTuple(2, 2));
+        BitSet expected = new BitSet();
+        expected.set(0);
+        expected.set(20);
+        assertEquals(0, t.getRecordId().tupleno());
+        assertEquals(expected, page.getDirtySlots());
+
+        page.clearDirtySlots();
+        assertTrue(page.getDirtySlots().isEmpty());
+        page.deleteTuple(t);
+        expected.clear(20);
+        assertEquals(expected, page.getDirtySlots());
+    }
+
     /**
      * JUnit suite target
      */
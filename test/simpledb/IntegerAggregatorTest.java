@@ -1,8 +1,11 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
+import java.util.HashMap;
 import java.util.NoSuchElementException;
+import java.util.Random;
 
 import junit.framework.JUnit4TestAdapter;
 
@@ -178,6 +181,59 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Groups that do not fit in the memory budget are spilled and aggregated
+   * later, with the same results as groups kept in memory, including after
+   * a rewind. Every group is returned exactly once.
+   */
+  @Test public void spill() throws Exception {
+    Random r = new Random(7);
+    int[][] rows = new int[5000][];
+    for (int i = 0; i < rows.length; i++)
+      rows[i] = new int[] { r.nextInt(), r.nextInt(1000) - 500 };
+    for (int i = 0; i < rows.length; i++)
+      rows[i][0] = rows[r.nextInt(700)][0];
+
+    for (Aggregator.Op op : Aggregator.Op.values()) {
+      HashMap<Integer, long[]> groups = new HashMap<Integer, long[]>();
+      for (int[] row : rows) {
+        long[] acc = groups.get(row[0]);
+        if (acc == null)
+          groups.put(row[0], acc = new long[] { row[1], row[1], 0, 0 });
+        acc[0] = Math.min(acc[0], row[1]);
+        acc[1] = Math.max(acc[1], row[1]);
+        acc[2] += row[1];
+        acc[3]++;
+      }
+      for (int budget : new int[] { 1, 10, 0 }) {
+        IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, op, budget);
+        for (int[] row : rows)
+          agg.mergeTupleIntoGroup(Utility.getHeapTuple(row));
+        if (budget > 0)
+          assertTrue(agg.numSpilled() > 0);
+        DbIterator it = agg.iterator();
+        it.open();
+        for (int pass = 0; pass < 2; pass++) {
+          HashMap<Integer, long[]> seen = new HashMap<Integer, long[]>(groups);
+          while (it.hasNext()) {
+            Tuple t = it.next();
+            long[] acc = seen.remove(((IntField) t.getField(0)).getValue());
+            long expected = op == Aggregator.Op.MIN ? acc[0]
+                : op == Aggregator.Op.MAX ? acc[1]
+                : op == Aggregator.Op.SUM ? acc[2]
+                : op == Aggregator.Op.AVG ? acc[2] / acc[3] : acc[3];
+            assertEquals(op + " budget " + budget, expected,
+                ((IntField) t.getField(1)).getValue());
+          }
+          assertTrue(seen.isEmpty());
+          it.rewind();
+        }
+        it.close();
+        agg.clear();
+      }
+    }
+  }
+
   /**
    * JUnit suite target
    */
@@ -466,4 +466,17 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
 		// Make sure that "a" is the outermost table in the join
 		Assert.assertTrue(result.get(result.size() - 1).t2Alias.equals("a") || result.get(result.size() - 1).t1Alias.equals("a"));
 	}
+
+	/**
+	 * A query without joins has nothing to order; orderJoins returns an
+	 * empty order rather than null.
+	 */
+	@Test public void orderNoJoinsTest() throws ParsingException {
+		JoinOptimizer j = new JoinOptimizer(new LogicalPlan(), new Vector<LogicalJoinNode>());
+		HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+		stats.put(tableName1, stats1);
+		Vector<LogicalJoinNode> result = j.orderJoins(stats, new HashMap<String, Double>(), false);
+		Assert.assertNotNull(result);
+		Assert.assertTrue(result.isEmpty());
+	}
 }
@@ -105,6 +105,45 @@ public class JoinTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(eqJoin, op);
   }
 
+  /**
+   * Block sizes that do and do not divide the outer relation give the same
+   * result.
+   */
+  @Test public void blockSizes() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+    for (int blockSize = 1; blockSize <= 5; blockSize++) {
+      Join op = new Join(pred, scan1, scan2, blockSize);
+      op.open();
+      int count = 0;
+      while (op.hasNext()) {
+        op.next();
+        count++;
+      }
+      assertEquals(11, count);
+      op.rewind();
+      gtJoin.open();
+      TestUtil.matchAllTuples(gtJoin, op);
+      gtJoin.close();
+      op.close();
+    }
+  }
+
+  /**
+   * Matches are returned before the outer relation has been read; this
+   * one would not fit in memory.
+   */
+  @Test(timeout=10000) public void streams() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    Join op = new Join(pred, new TestUtil.MockScan(0, Integer.MAX_VALUE, width1), scan2, 16);
+    op.open();
+    for (int i = 1; i <= 5; i++) {
+      Tuple t = op.next();
+      assertEquals(new IntField(i), t.getField(0));
+      assertEquals(new IntField(i), t.getField(width1));
+    }
+    op.close();
+  }
+
   /**
    * JUnit suite target
    */
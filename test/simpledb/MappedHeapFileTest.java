@@ -0,0 +1,93 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Arrays;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class MappedHeapFileTest extends SimpleDbTestBase {
+
+    /**
+     * Pages read through the mapping match pages read with read().
+     */
+    @Test public void readPage() throws Exception {
+        HeapFile plain = SystemTestUtil.createRandomHeapFile(3, 2000, null, null);
+        MappedHeapFile mapped = new MappedHeapFile(plain.getFile(), plain.getTupleDesc());
+        assertEquals(plain.numPages(), mapped.numPages());
+        for (int i = 0; i < plain.numPages(); i++) {
+            HeapPageId pid = new HeapPageId(plain.getId(), i);
+            HeapPage expected = (HeapPage) plain.readPage(pid);
+            HeapPage actual = (HeapPage) mapped.readPage(pid);
+            assertEquals(pid, actual.getId());
+            assertTrue(Arrays.equals(expected.getPageData(), actual.getPageData()));
+        }
+        mapped.close();
+    }
+
+    /**
+     * Pages appended by insertTuple are mapped on demand.
+     */
+    @Test public void readAfterGrowth() throws Exception {
+        File f = File.createTempFile("mapped", ".dat");
+        f.deleteOnExit();
+        MappedHeapFile hf = new MappedHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        TransactionId tid = new TransactionId();
+
+        // fill the first page and spill onto a second one
+        for (int i = 0; i < 505; i++)
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(i, 2));
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        assertEquals(2, hf.numPages());
+
+        HeapPage first = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0));
+        HeapPage second = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 1));
+        assertEquals(0, first.getNumEmptySlots());
+        assertEquals(503, second.getNumEmptySlots());
+
+        // a page past the end of the file reads as empty
+        HeapPage past = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 2));
+        assertEquals(504, past.getNumEmptySlots());
+        hf.close();
+    }
+
+    /**
+     * The mmap option in a catalog file selects MappedHeapFile.
+     */
+    @Test public void loadSchema() throws Exception {
+        File catalog = File.createTempFile("catalog", ".txt");
+        catalog.deleteOnExit();
+        String plainName = "plain" + SystemTestUtil.getUUID().replace("-", "");
+        String mappedName = "mapped" + SystemTestUtil.getUUID().replace("-", "");
+        FileWriter w = new FileWriter(catalog);
+        w.write(plainName + " (a int, b int)\n");
+        w.write(mappedName + " (a int pk, b string) mmap\n");
+        w.close();
+
+        Database.getCatalog().loadSchema(catalog.getAbsolutePath());
+        Catalog c = Database.getCatalog();
+        DbFile plain = c.getDbFile(c.getTableId(plainName));
+        DbFile mapped = c.getDbFile(c.getTableId(mappedName));
+        assertFalse(plain instanceof MappedHeapFile);
+        assertTrue(mapped instanceof MappedHeapFile);
+        assertEquals("a", c.getPrimaryKey(mapped.getId()));
+        assertEquals(new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE },
+                new String[] { "a", "b" }), mapped.getTupleDesc());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MappedHeapFileTest.class);
+    }
+}
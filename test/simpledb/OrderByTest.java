@@ -0,0 +1,176 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class OrderByTest extends SimpleDbTestBase {
+    private static final int ROWS = 1000;
+
+    private HeapFile hf;
+    private ArrayList<ArrayList<Integer>> tuples;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(2, ROWS, 200, null, tuples);
+        tid = new TransactionId();
+    }
+
+    /** @return the values of a field, sorted */
+    private List<Integer> expected(int field, boolean asc) {
+        ArrayList<Integer> values = new ArrayList<Integer>();
+        for (ArrayList<Integer> t : tuples)
+            values.add(t.get(field));
+        Collections.sort(values);
+        if (!asc)
+            Collections.reverse(values);
+        return values;
+    }
+
+    /** @return the values of a field in the order the iterator returns them */
+    private static List<Integer> values(DbIterator it, int field) throws Exception {
+        ArrayList<Integer> values = new ArrayList<Integer>();
+        while (it.hasNext())
+            values.add(((IntField) it.next().getField(field)).getValue());
+        return values;
+    }
+
+    /**
+     * Input larger than the memory budget is sorted the same as input that
+     * fits, and can be read again after a rewind.
+     */
+    @Test public void external() throws Exception {
+        for (boolean asc : new boolean[] { true, false }) {
+            for (int budget : new int[] { 0, 1, 64 }) {
+                OrderBy op = new OrderBy(1, asc, new SeqScan(tid, hf.getId(), "t"), 0, budget);
+                op.open();
+                assertEquals(expected(1, asc), values(op, 1));
+                op.rewind();
+                assertEquals(expected(1, asc), values(op, 1));
+                op.close();
+            }
+        }
+    }
+
+    /**
+     * A limit returns the first tuples in order, whether they are kept in a
+     * heap or taken from a full sort.
+     */
+    @Test public void limit() throws Exception {
+        for (int budget : new int[] { 0, 10 }) {
+            OrderBy op = new OrderBy(0, false, new SeqScan(tid, hf.getId(), "t"), 25, budget);
+            assertEquals(25, op.getLimit());
+            op.open();
+            assertEquals(expected(0, false).subList(0, 25), values(op, 0));
+            op.rewind();
+            assertEquals(25, values(op, 0).size());
+            op.close();
+        }
+
+        OrderBy op = new OrderBy(0, true, new SeqScan(tid, hf.getId(), "t"), ROWS * 2);
+        op.open();
+        assertEquals(expected(0, true), values(op, 0));
+        op.close();
+    }
+
+    /**
+     * Later fields break ties in earlier ones, each in its own order.
+     */
+    @Test public void comparator() {
+        TupleComparator cmp = new TupleComparator(new int[] { 0, 1 },
+                new boolean[] { true, false });
+        Tuple a = Utility.getHeapTuple(new int[] { 1, 5 });
+        Tuple b = Utility.getHeapTuple(new int[] { 1, 7 });
+        Tuple c = Utility.getHeapTuple(new int[] { 2, 0 });
+        assertTrue(cmp.compare(a, b) > 0);
+        assertTrue(cmp.compare(b, c) < 0);
+        assertTrue(cmp.compare(c, a) > 0);
+        assertEquals(0, cmp.compare(a, Utility.getHeapTuple(new int[] { 1, 5 })));
+        assertEquals(2, cmp.numFields());
+        assertFalse(cmp.isAscending(1));
+    }
+
+    /**
+     * Sorting on normalized keys gives the order of compare, including the
+     * extreme values, and keeps equal tuples in their input order.
+     */
+    @Test public void normalizedKeys() {
+        Random r = new Random(3);
+        ArrayList<Tuple> list = new ArrayList<Tuple>();
+        int[] extremes = { Integer.MIN_VALUE, -1, 0, 1, Integer.MAX_VALUE };
+        for (int i = 0; i < 2000; i++) {
+            int a = i < 25 ? extremes[i % 5] : r.nextInt(7) - 3;
+            int b = i < 25 ? extremes[i / 5] : r.nextInt();
+            list.add(Utility.getHeapTuple(new int[] { a, b, i }));
+        }
+        TupleComparator[] cmps = {
+                new TupleComparator(0, true),
+                new TupleComparator(1, false),
+                new TupleComparator(new int[] { 0, 1 }, new boolean[] { false, true }),
+                new TupleComparator(new int[] { 1, 0 }, new boolean[] { true, true }) };
+        for (TupleComparator cmp : cmps) {
+            assertTrue(cmp.hasNormalizedKey(list.get(0).getTupleDesc()));
+            ArrayList<Tuple> expected = new ArrayList<Tuple>(list);
+            Collections.sort(expected, cmp);
+            ArrayList<Tuple> actual = new ArrayList<Tuple>(list);
+            cmp.sort(actual);
+            assertEquals(expected, actual);
+            for (int i = 1; i < list.size(); i++) {
+                long k1 = cmp.normalizedKey(list.get(i - 1));
+                long k2 = cmp.normalizedKey(list.get(i));
+                assertEquals(k1 < k2 ? -1 : (k1 == k2 ? 0 : 1),
+                        Integer.signum(cmp.compare(list.get(i - 1), list.get(i))));
+            }
+        }
+        assertFalse(new TupleComparator(new int[] { 0, 1, 2 }, new boolean[] { true, true, true })
+                .hasNormalizedKey(list.get(0).getTupleDesc()));
+    }
+
+    /**
+     * ORDER BY on two fields with mixed orders and a limit, from SQL, and
+     * explained with both keys.
+     */
+    @Test public void multiColumnQuery() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, ROWS, 20, null, tuples, "c");
+        Database.getCatalog().addTable(table, "sorted");
+        TableStats.setTableStats("sorted", new TableStats(table.getId(), 1));
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+                "SELECT * FROM sorted s ORDER BY s.c0 DESC, s.c1;");
+        lp.setLimit(50);
+        DbIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        String explained = new QueryPlanVisualizer().getQueryPlanTree(plan);
+        assertTrue(explained, explained.contains("(s.c0 desc,s.c1 asc)"));
+
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>(tuples);
+        Collections.sort(expected, new Comparator<ArrayList<Integer>>() {
+            public int compare(ArrayList<Integer> a, ArrayList<Integer> b) {
+                int c = b.get(0).compareTo(a.get(0));
+                return c != 0 ? c : a.get(1).compareTo(b.get(1));
+            }
+        });
+        plan.open();
+        for (int i = 0; i < 50; i++) {
+            Tuple t = plan.next();
+            assertEquals(expected.get(i), SystemTestUtil.tupleToList(t));
+        }
+        assertFalse(plan.hasNext());
+        plan.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OrderByTest.class);
+    }
+}
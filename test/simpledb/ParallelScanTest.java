@@ -0,0 +1,143 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ParallelScanTest extends SimpleDbTestBase {
+    private static final int ROWS = 5000;
+
+    private HeapFile hf;
+    private ArrayList<ArrayList<Integer>> tuples;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(3, ROWS, 100, null, tuples, "c");
+        tid = new TransactionId();
+    }
+
+    /** Keeps the first two fields of tuples whose first field is below 50. */
+    private static class FilterProject implements ParallelScan.Pipeline {
+        private static final long serialVersionUID = 1L;
+
+        public DbIterator build(DbIterator scan) {
+            ArrayList<Integer> fields = new ArrayList<Integer>();
+            fields.add(1);
+            fields.add(0);
+            return new Project(fields, new Type[] { Type.INT_TYPE, Type.INT_TYPE },
+                    new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(50)),
+                            scan));
+        }
+    }
+
+    /**
+     * Every tuple of the table is returned once, whatever the number of
+     * workers, and again after a rewind.
+     */
+    @Test public void scan() throws Exception {
+        for (int threads : new int[] { 1, 2, 4, 16 }) {
+            ParallelScan scan = new ParallelScan(tid, hf.getId(), "t", threads);
+            assertEquals("t.c0", scan.getTupleDesc().getFieldName(0));
+            SystemTestUtil.matchTuples(scan, tuples);
+            scan.open();
+            scan.rewind();
+            int n = 0;
+            while (scan.hasNext()) {
+                scan.next();
+                n++;
+            }
+            scan.close();
+            assertEquals(ROWS, n);
+        }
+    }
+
+    /**
+     * Each worker runs the pipeline over its morsels.
+     */
+    @Test public void pipeline() throws Exception {
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples)
+            if (t.get(0) < 50)
+                expected.add(new ArrayList<Integer>(Arrays.asList(t.get(1), t.get(0))));
+        ParallelScan scan = new ParallelScan(tid, hf.getId(), "t", 4, new FilterProject());
+        assertEquals(2, scan.getTupleDesc().numFields());
+        assertEquals("t.c1", scan.getTupleDesc().getFieldName(0));
+        assertTrue(scan.getChildren()[0] instanceof Project);
+        SystemTestUtil.matchTuples(scan, expected);
+    }
+
+    /**
+     * An empty table gives no tuples.
+     */
+    @Test public void empty() throws Exception {
+        HeapFile empty = SystemTestUtil.createRandomHeapFile(3, 0, null, null);
+        ParallelScan scan = new ParallelScan(tid, empty.getId(), "e", 4);
+        scan.open();
+        assertFalse(scan.hasNext());
+        scan.close();
+    }
+
+    /**
+     * Closing a Gather before its producers are done stops them, even
+     * when they are waiting for room in the queue.
+     */
+    @Test public void closeEarly() throws Exception {
+        DbIterator[] producers = new DbIterator[3];
+        for (int i = 0; i < producers.length; i++)
+            producers[i] = new SeqScan(tid, hf.getId(), "t");
+        Gather gather = new Gather(producers, 1);
+        gather.open();
+        for (int i = 0; i < 10; i++)
+            assertNotNull(gather.next());
+        gather.close();
+
+        gather.open();
+        int n = 0;
+        while (gather.hasNext()) {
+            gather.next();
+            n++;
+        }
+        gather.close();
+        assertEquals(3 * ROWS, n);
+    }
+
+    /**
+     * A producer that fails makes the consumer fail.
+     */
+    @Test(expected = DbException.class) public void failure() throws Exception {
+        DbIterator broken = new TupleIterator(Utility.getTupleDesc(1),
+                new ArrayList<Tuple>()) {
+            private static final long serialVersionUID = 1L;
+
+            public void open() {
+                throw new IllegalStateException("broken");
+            }
+        };
+        Gather gather = new Gather(new DbIterator[] { new SeqScan(tid, hf.getId(), "t"),
+                broken });
+        gather.open();
+        try {
+            while (gather.hasNext())
+                gather.next();
+        } finally {
+            gather.close();
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ParallelScanTest.class);
+    }
+}
@@ -1,10 +1,13 @@
 package simpledb;
 
+import java.util.*;
+
 import org.junit.Test;
 
 import simpledb.systemtest.SimpleDbTestBase;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertEquals;
 import junit.framework.JUnit4TestAdapter;
 
 public class PredicateTest extends SimpleDbTestBase{
@@ -55,6 +58,59 @@ public class PredicateTest extends SimpleDbTestBase{
     }
   }
 
+  /**
+   * Unit test for CompiledPredicate: a compiled predicate accepts the same
+   * tuples as Predicate.filter(), for every operator on ints and strings.
+   */
+  @Test public void compile() {
+    int[] ints = new int[] { Integer.MIN_VALUE, -1, 0, 1, Integer.MAX_VALUE };
+    String[] strings = new String[] { "", "a", "ab", "b" };
+    TupleDesc intTd = Utility.getTupleDesc(1);
+    TupleDesc stringTd = new TupleDesc(new Type[] { Type.STRING_TYPE });
+
+    for (Predicate.Op op : Predicate.Op.values()) {
+      for (int v : ints) {
+        Predicate p = new Predicate(0, op, new IntField(v));
+        CompiledPredicate c = CompiledPredicate.compile(p);
+        for (int x : ints) {
+          Tuple t = new Tuple(intTd, new Field[] { new IntField(x) });
+          assertEquals(p + " on " + x, p.filter(t), c.matches(t));
+        }
+      }
+      for (String v : strings) {
+        Predicate p = new Predicate(0, op, new StringField(v, Type.STRING_LEN));
+        CompiledPredicate c = CompiledPredicate.compile(p);
+        for (String x : strings) {
+          Tuple t = new Tuple(stringTd,
+              new Field[] { new StringField(x, Type.STRING_LEN) });
+          assertEquals(p + " on " + x, p.filter(t), c.matches(t));
+        }
+      }
+    }
+  }
+
+  /**
+   * Unit test for CompiledPredicate on conjunctions of predicates.
+   */
+  @Test public void compileConjunction() {
+    Predicate[] ps = new Predicate[] {
+        new Predicate(0, Predicate.Op.GREATER_THAN, TestUtil.getField(-3)),
+        new Predicate(1, Predicate.Op.LESS_THAN, TestUtil.getField(3)),
+        new Predicate(2, Predicate.Op.NOT_EQUALS, TestUtil.getField(0)),
+        new Predicate(0, Predicate.Op.NOT_EQUALS, TestUtil.getField(2)) };
+    for (int n = 1; n <= ps.length; n++) {
+      List<Predicate> terms = Arrays.asList(ps).subList(0, n);
+      CompiledPredicate c = CompiledPredicate.compile(terms);
+      for (int i = -5; i < 5; i++) {
+        Tuple t = Utility.getHeapTuple(i, 3);
+        boolean all = true;
+        for (Predicate p : terms)
+          all &= p.filter(t);
+        assertEquals(all, c.matches(t));
+      }
+    }
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,77 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ReadAheadTest extends SimpleDbTestBase {
+
+    /**
+     * Stalls double the window up to its limit, and fetches that do not
+     * wait shrink it again.
+     */
+    @Test public void windowAdapts() {
+        ReadAhead ra = new ReadAhead(0, null, 8);
+        assertEquals(1, ra.getWindow());
+        ra.fetched(ReadAhead.STALL_NANOS + 1);
+        assertEquals(2, ra.getWindow());
+        ra.fetched(ReadAhead.STALL_NANOS + 1);
+        ra.fetched(ReadAhead.STALL_NANOS + 1);
+        ra.fetched(ReadAhead.STALL_NANOS + 1);
+        assertEquals(8, ra.getWindow());
+
+        // a full window without waiting gives up one page
+        for (int i = 0; i < 7; i++)
+            ra.fetched(0);
+        assertEquals(8, ra.getWindow());
+        ra.fetched(0);
+        assertEquals(7, ra.getWindow());
+
+        for (int i = 0; i < 100; i++)
+            ra.fetched(0);
+        assertEquals(1, ra.getWindow());
+    }
+
+    /**
+     * A zero limit turns read-ahead off.
+     */
+    @Test public void disabled() {
+        ReadAhead ra = new ReadAhead(0, null, 0);
+        ra.fetched(ReadAhead.STALL_NANOS + 1);
+        assertEquals(0, ra.getWindow());
+    }
+
+    /**
+     * Pages after the fetched one are prefetched, but none past the end of
+     * the table.
+     */
+    @Test public void prefetchesFollowingPages() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 6, null, null);
+        BufferPool bp = Database.resetBufferPool(64);
+        ReadAhead ra = new ReadAhead(f.getId(), null, 16);
+        for (int i = 0; i < 4; i++)
+            ra.fetched(ReadAhead.STALL_NANOS + 1);
+        assertEquals(16, ra.getWindow());
+
+        ra.getPage(null, 0, f.numPages());
+        // each later page is either resident or still being read; getPage
+        // waits for the background read rather than issuing its own
+        for (int i = 1; i < f.numPages(); i++)
+            bp.getPage(null, new HeapPageId(f.getId(), i), Permissions.READ_ONLY);
+        assertEquals(6, f.numPages());
+        assertEquals(5, bp.getPrefetchCount());
+        assertEquals(1, bp.getMissCount());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
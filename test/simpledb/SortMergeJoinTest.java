@@ -0,0 +1,216 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+    private static final int ROWS = 300;
+
+    private HeapFile left;
+    private HeapFile right;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        left = SystemTestUtil.createRandomHeapFile(2, ROWS, 100, null, null);
+        right = SystemTestUtil.createRandomHeapFile(3, ROWS, 100, null, null);
+        tid = new TransactionId();
+    }
+
+    /** @return the rows of an open iterator, sorted */
+    private static List<ArrayList<Integer>> rows(DbIterator it) throws Exception {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        while (it.hasNext())
+            rows.add(SystemTestUtil.tupleToList(it.next()));
+        Collections.sort(rows, new Comparator<ArrayList<Integer>>() {
+            public int compare(ArrayList<Integer> a, ArrayList<Integer> b) {
+                for (int i = 0; i < a.size(); i++) {
+                    int c = a.get(i).compareTo(b.get(i));
+                    if (c != 0)
+                        return c;
+                }
+                return 0;
+            }
+        });
+        return rows;
+    }
+
+    private List<ArrayList<Integer>> nestedLoops(JoinPredicate p) throws Exception {
+        Join join = new Join(p, new SeqScan(tid, left.getId(), "l"),
+                new SeqScan(tid, right.getId(), "r"));
+        join.open();
+        List<ArrayList<Integer>> rows = rows(join);
+        join.close();
+        return rows;
+    }
+
+    /**
+     * Every supported predicate gives the same result as a nested loops
+     * join, whether the sorts and the window fit in memory or not, and
+     * again after a rewind.
+     */
+    @Test public void predicates() throws Exception {
+        for (Predicate.Op op : Predicate.Op.values()) {
+            if (!SortMergeJoin.supports(op))
+                continue;
+            JoinPredicate p = new JoinPredicate(0, op, 1);
+            List<ArrayList<Integer>> expected = nestedLoops(p);
+            for (int budget : new int[] { 0, 7 }) {
+                SortMergeJoin join = new SortMergeJoin(p, new SeqScan(tid, left.getId(), "l"),
+                        new SeqScan(tid, right.getId(), "r"), budget);
+                join.open();
+                assertEquals(op + " budget " + budget, expected, rows(join));
+                join.rewind();
+                assertEquals(op + " budget " + budget, expected, rows(join));
+                join.close();
+            }
+        }
+    }
+
+    /**
+     * The output is ordered on the left join field, and an input already
+     * sorted by an OrderBy is not sorted again.
+     */
+    @Test public void ordered() throws Exception {
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.LESS_THAN_OR_EQ, 1);
+        DbIterator sortedLeft = new OrderBy(0, false, new SeqScan(tid, left.getId(), "l"));
+        SortMergeJoin join = new SortMergeJoin(p, sortedLeft,
+                new SeqScan(tid, right.getId(), "r"));
+        assertFalse(join.isAscending());
+        join.open();
+        int count = 0;
+        int last = Integer.MAX_VALUE;
+        while (join.hasNext()) {
+            int key = ((IntField) join.next().getField(0)).getValue();
+            assertTrue(key <= last);
+            last = key;
+            count++;
+        }
+        join.close();
+        assertEquals(nestedLoops(p).size(), count);
+    }
+
+    /**
+     * Duplicate keys on both sides produce every pair, also when a group
+     * of equal keys spills.
+     */
+    @Test public void duplicates() throws Exception {
+        HashMap<Integer, Integer> spec = new HashMap<Integer, Integer>();
+        spec.put(0, 3);
+        left = SystemTestUtil.createRandomHeapFile(2, 40, spec, null);
+        spec.clear();
+        spec.put(1, 3);
+        right = SystemTestUtil.createRandomHeapFile(3, 50, spec, null);
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+        SortMergeJoin join = new SortMergeJoin(p, new SeqScan(tid, left.getId(), "l"),
+                new SeqScan(tid, right.getId(), "r"), 5);
+        join.open();
+        List<ArrayList<Integer>> actual = rows(join);
+        join.close();
+        assertEquals(40 * 50, actual.size());
+        assertEquals(nestedLoops(p), actual);
+    }
+
+    /**
+     * A sort with more runs than it merges at once merges in passes.
+     */
+    @Test public void externalSort() throws Exception {
+        TupleDesc td = Utility.getTupleDesc(1);
+        ExternalSort sort = new ExternalSort(td, new TupleComparator(0, true), 3);
+        Random r = new Random(1);
+        for (int i = 0; i < ExternalSort.MAX_FANIN * 6; i++)
+            sort.add(Utility.getHeapTuple(r.nextInt(1000), 1));
+        assertEquals(ExternalSort.MAX_FANIN * 2, sort.numRuns());
+        DbIterator it = sort.sorted();
+        it.open();
+        int count = 0;
+        int last = Integer.MIN_VALUE;
+        while (it.hasNext()) {
+            int v = ((IntField) it.next().getField(0)).getValue();
+            assertTrue(v >= last);
+            last = v;
+            count++;
+        }
+        assertEquals(ExternalSort.MAX_FANIN * 6, count);
+        it.close();
+        sort.delete();
+    }
+
+    /**
+     * The optimizer costs range joins as sort-merge joins, which grow with
+     * the output rather than with a rescan of the inner table per tuple.
+     */
+    @Test public void cost() throws Exception {
+        JoinOptimizer jo = new JoinOptimizer(null, new Vector<LogicalJoinNode>());
+        LogicalJoinNode range = new LogicalJoinNode("a", "b", "x", "y", Predicate.Op.LESS_THAN);
+        LogicalJoinNode eq = new LogicalJoinNode("a", "b", "x", "y", Predicate.Op.EQUALS);
+        assertTrue(JoinOptimizer.isRangeJoin(range));
+        assertFalse(JoinOptimizer.isRangeJoin(eq));
+        double rangeCost = jo.estimateJoinCost(range, 10000, 10000, 500, 500);
+        assertTrue(rangeCost > 1000);
+        assertTrue(rangeCost < jo.estimateJoinCost(eq, 10000, 10000, 500, 500));
+    }
+
+    /**
+     * Inputs that arrive sorted are not charged a sort, and an equality join
+     * whose inputs both arrive sorted is costed as a merge join.
+     */
+    @Test public void presortedCost() throws Exception {
+        JoinOptimizer jo = new JoinOptimizer(null, new Vector<LogicalJoinNode>());
+        LogicalJoinNode range = new LogicalJoinNode("a", "b", "x", "y", Predicate.Op.LESS_THAN);
+        LogicalJoinNode eq = new LogicalJoinNode("a", "b", "x", "y", Predicate.Op.EQUALS);
+        double unsorted = jo.estimateJoinCost(range, 10000, 10000, 500, 500);
+        assertTrue(jo.estimateJoinCost(range, 10000, 10000, 500, 500, true, false) < unsorted);
+        assertTrue(jo.estimateJoinCost(range, 10000, 10000, 500, 500, true, true)
+                < jo.estimateJoinCost(range, 10000, 10000, 500, 500, true, false));
+
+        double nestedLoops = jo.estimateJoinCost(eq, 10000, 10000, 500, 500);
+        assertEquals(nestedLoops, jo.estimateJoinCost(eq, 10000, 10000, 500, 500, true, false), 0);
+        assertTrue(jo.estimateJoinCost(eq, 10000, 10000, 500, 500, true, true) < nestedLoops);
+    }
+
+    /**
+     * The planner joins on equality with a sort-merge join only when both
+     * inputs arrive sorted on their join fields, and the result is that of
+     * a nested loops join.
+     */
+    @Test public void presortedEquality() throws Exception {
+        left = SystemTestUtil.createRandomHeapFile(2, ROWS, 100, null, null, "c");
+        right = SystemTestUtil.createRandomHeapFile(3, ROWS, 100, null, null, "c");
+        LogicalJoinNode lj = new LogicalJoinNode("l", "r", "c0", "c1", Predicate.Op.EQUALS);
+
+        DbIterator j = JoinOptimizer.instantiateJoin(lj, new SeqScan(tid, left.getId(), "l"),
+                new OrderBy(1, true, new SeqScan(tid, right.getId(), "r")));
+        assertTrue(j instanceof Join);
+
+        j = JoinOptimizer.instantiateJoin(lj,
+                new OrderBy(0, true, new SeqScan(tid, left.getId(), "l")),
+                new OrderBy(1, true, new SeqScan(tid, right.getId(), "r")));
+        assertTrue(j instanceof SortMergeJoin);
+        j.open();
+        List<ArrayList<Integer>> actual = rows(j);
+        j.close();
+        assertEquals(nestedLoops(new JoinPredicate(0, Predicate.Op.EQUALS, 1)), actual);
+
+        // the output of a merge join is sorted on both join fields
+        assertTrue(SortMergeJoin.isSorted(j, 0, true));
+        assertTrue(SortMergeJoin.isSorted(j, 3, true));
+        assertFalse(SortMergeJoin.isSorted(j, 1, true));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SortMergeJoinTest.class);
+    }
+}
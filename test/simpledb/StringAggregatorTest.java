@@ -7,6 +7,7 @@ import org.junit.Test;
 
 import simpledb.systemtest.SimpleDbTestBase;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
 public class StringAggregatorTest extends SimpleDbTestBase {
@@ -105,6 +106,37 @@ public class StringAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Counts grouped by strings are the same whether the groups fit in
+   * memory or are spilled
+   */
+  @Test public void spillStringGroups() throws Exception {
+    HashMap<String, Integer> expected = new HashMap<String, Integer>();
+    StringAggregator agg = new StringAggregator(1, Type.STRING_TYPE, 0, Aggregator.Op.COUNT, 3);
+    TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+    Random r = new Random(5);
+    for (int i = 0; i < 2000; i++) {
+      String key = "g" + r.nextInt(200);
+      Tuple t = new Tuple(td);
+      t.setField(0, new IntField(i));
+      t.setField(1, new StringField(key, Type.STRING_LEN));
+      agg.mergeTupleIntoGroup(t);
+      Integer n = expected.get(key);
+      expected.put(key, n == null ? 1 : n + 1);
+    }
+    assertTrue(agg.numSpilled() > 0);
+    DbIterator it = agg.iterator();
+    it.open();
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      assertEquals(expected.remove(((StringField) t.getField(0)).getValue()),
+          (Integer) ((IntField) t.getField(1)).getValue());
+    }
+    assertTrue(expected.isEmpty());
+    it.close();
+    agg.clear();
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,60 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class WorkerPoolTest extends SimpleDbTestBase {
+
+    /**
+     * When a task fails, runAll waits for the others that have started to
+     * finish, without interrupting them, before rethrowing the failure.
+     */
+    @Test public void failureWaitsForOthers() throws Exception {
+        final AtomicBoolean finished = new AtomicBoolean();
+        final AtomicBoolean interrupted = new AtomicBoolean();
+        final CountDownLatch started = new CountDownLatch(1);
+        ArrayList<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+        tasks.add(new Callable<Integer>() {
+            public Integer call() throws Exception {
+                started.await();
+                throw new DbException("failed");
+            }
+        });
+        tasks.add(new Callable<Integer>() {
+            public Integer call() {
+                started.countDown();
+                long end = System.currentTimeMillis() + 200;
+                while (System.currentTimeMillis() < end)
+                    if (Thread.currentThread().isInterrupted())
+                        interrupted.set(true);
+                finished.set(true);
+                return 1;
+            }
+        });
+        try {
+            WorkerPool.runAll(tasks);
+            fail("expected the failure to be rethrown");
+        } catch (DbException e) {
+            assertEquals("failed", e.getMessage());
+        }
+        assertTrue(finished.get());
+        assertFalse(interrupted.get());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(WorkerPoolTest.class);
+    }
+}
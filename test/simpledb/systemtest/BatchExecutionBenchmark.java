@@ -0,0 +1,72 @@
+package simpledb.systemtest;
+
+import java.io.File;
+
+import simpledb.*;
+
+/**
+ * Compares tuple-at-a-time and batch-at-a-time execution of a
+ * scan-filter-aggregate query over a two-column table held in the buffer
+ * pool:
+ * <pre>
+ *   SELECT SUM(t.1) FROM t WHERE t.0 &lt; 0
+ * </pre>
+ * which selects about half the rows.
+ * <p>
+ * Not run as part of the test suite. Usage:
+ * <pre>
+ *   java simpledb.systemtest.BatchExecutionBenchmark [pages] [rounds]
+ * </pre>
+ */
+public class BatchExecutionBenchmark {
+
+    private static final int COLUMNS = 2;
+
+    private static void report(String name, long rows, long nanos, int result) {
+        System.out.printf("%-24s %8.1f M rows/s   (result %d)%n", name,
+                rows * 1e3 / nanos, result);
+    }
+
+    private static int tuples(TransactionId tid, int tableId, Predicate p) throws Exception {
+        Aggregate agg = new Aggregate(new Filter(p, new SeqScan(tid, tableId, "t")), 1,
+                Aggregator.NO_GROUPING, Aggregator.Op.SUM);
+        agg.open();
+        int result = ((IntField) agg.next().getField(0)).getValue();
+        agg.close();
+        return result;
+    }
+
+    private static int batches(TransactionId tid, int tableId, Predicate p) throws Exception {
+        BatchAggregate agg = new BatchAggregate(new BatchFilter(p,
+                new BatchSeqScan(tid, tableId, "t")), 1, Aggregator.NO_GROUPING,
+                Aggregator.Op.SUM);
+        agg.open();
+        int result = agg.nextBatch().getInts(0)[0];
+        agg.close();
+        return result;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int numPages = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        Database.resetBufferPool(numPages + 64);
+        File f = HeapFileReadBenchmark.createTable(numPages);
+        HeapFile hf = Utility.openHeapFile(COLUMNS, f);
+        long rows = (long) numPages
+                * ((BufferPool.PAGE_SIZE * 8) / (COLUMNS * Type.INT_TYPE.getLen() * 8 + 1));
+        TransactionId tid = new TransactionId();
+        Predicate p = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(0));
+
+        System.out.println(numPages + " pages, " + rows + " rows");
+        for (int round = 1; round <= rounds; round++) {
+            System.out.println("Round " + round);
+            long start = System.nanoTime();
+            int result = tuples(tid, hf.getId(), p);
+            report("tuple at a time", rows, System.nanoTime() - start, result);
+            start = System.nanoTime();
+            result = batches(tid, hf.getId(), p);
+            report("batch at a time", rows, System.nanoTime() - start, result);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Hammers a striped buffer pool that is smaller than the table from several
+ * threads at once. Checks that a pinned page is never evicted or replaced by
+ * a second copy, that the counters add up, that concurrent misses and
+ * prefetches of one page share a single read, and that concurrent scans,
+ * which read ahead, see every tuple exactly once.
+ */
+public class BufferPoolConcurrencyTest extends SimpleDbTestBase {
+    private static final int THREADS = 8;
+    private static final int GETS_PER_THREAD = 2000;
+    private static final int BUFFER_PAGES = 128;
+    private static final int TUPLES_PER_PAGE = 504;
+    private static final int TABLE_PAGES = 300;
+
+    /** Runs the same task on THREADS threads and rethrows the first failure. */
+    private static void runThreads(final Runnable task) throws Exception {
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        task.run();
+                    } catch (Throwable t) {
+                        errors.add(t);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads)
+            t.join();
+        if (!errors.isEmpty()) {
+            Throwable t = errors.get(0);
+            if (t instanceof Error)
+                throw (Error) t;
+            throw new Exception(t);
+        }
+    }
+
+    @Test public void testRandomGetPage() throws Exception {
+        final HeapFile f = SystemTestUtil.createRandomHeapFile(2,
+                TUPLES_PER_PAGE * TABLE_PAGES, null, null);
+        final BufferPool bp = Database.resetBufferPool(BUFFER_PAGES);
+
+        runThreads(new Runnable() {
+            public void run() {
+                Random r = new Random();
+                try {
+                    for (int i = 0; i < GETS_PER_THREAD; i++) {
+                        HeapPageId pid = new HeapPageId(f.getId(), r.nextInt(TABLE_PAGES));
+                        Page p = bp.getPage(null, pid, Permissions.READ_ONLY);
+                        assertEquals(pid, p.getId());
+                        // while pinned, the page must stay the same resident copy
+                        Page again = bp.getPage(null, pid, Permissions.READ_ONLY);
+                        assertSame(p, again);
+                        // every page of the table is full
+                        assertEquals(0, ((HeapPage) p).getNumEmptySlots());
+                        bp.unpinPage(pid);
+                        bp.unpinPage(pid);
+                    }
+                } catch (DbException e) {
+                    throw new RuntimeException(e);
+                } catch (TransactionAbortedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+
+        assertEquals(2L * THREADS * GETS_PER_THREAD, bp.getHitCount() + bp.getMissCount());
+        long resident = bp.getMissCount() - bp.getEvictionCount();
+        assertTrue("resident pages " + resident, resident <= BUFFER_PAGES);
+    }
+
+    /** A heap file whose reads are slow and counted. */
+    private static class SlowHeapFile extends HeapFile {
+        private static final long serialVersionUID = 1L;
+        final AtomicInteger reads = new AtomicInteger();
+
+        SlowHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        public Page readPage(PageId pid) {
+            reads.incrementAndGet();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.readPage(pid);
+        }
+    }
+
+    @Test public void testSingleFlightLoad() throws Exception {
+        HeapFile plain = SystemTestUtil.createRandomHeapFile(2, TUPLES_PER_PAGE, null, null);
+        final SlowHeapFile f = new SlowHeapFile(plain.getFile(), plain.getTupleDesc());
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        final BufferPool bp = Database.resetBufferPool(BUFFER_PAGES);
+        final HeapPageId pid = new HeapPageId(f.getId(), 0);
+        final List<Page> seen = Collections.synchronizedList(new ArrayList<Page>());
+
+        // the read takes long enough that every thread misses while it runs
+        runThreads(new Runnable() {
+            public void run() {
+                try {
+                    seen.add(bp.getPage(null, pid, Permissions.READ_ONLY));
+                    bp.unpinPage(pid);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+
+        assertEquals(1, f.reads.get());
+        assertEquals(1, bp.getMissCount());
+        assertEquals(THREADS, seen.size());
+        for (Page p : seen)
+            assertSame(seen.get(0), p);
+    }
+
+    @Test public void testPrefetchSharesRead() throws Exception {
+        HeapFile plain = SystemTestUtil.createRandomHeapFile(2, TUPLES_PER_PAGE, null, null);
+        final SlowHeapFile f = new SlowHeapFile(plain.getFile(), plain.getTupleDesc());
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        final BufferPool bp = Database.resetBufferPool(BUFFER_PAGES);
+        final HeapPageId pid = new HeapPageId(f.getId(), 0);
+
+        // the demand read arrives while the prefetch is still reading
+        bp.prefetchPage(pid);
+        bp.prefetchPage(pid);
+        Page p = bp.getPage(null, pid, Permissions.READ_ONLY);
+        assertEquals(pid, p.getId());
+        assertEquals(1, f.reads.get());
+        assertEquals(1, bp.getPrefetchCount());
+        assertEquals(0, bp.getMissCount());
+        assertEquals(1, bp.getHitCount());
+        bp.unpinPage(pid);
+    }
+
+    @Test public void testConcurrentScans() throws Exception {
+        final int rows = TUPLES_PER_PAGE * TABLE_PAGES;
+        final HeapFile f = SystemTestUtil.createRandomHeapFile(2, rows, null, null);
+        Database.resetBufferPool(BUFFER_PAGES);
+
+        runThreads(new Runnable() {
+            public void run() {
+                try {
+                    SeqScan scan = new SeqScan(new TransactionId(), f.getId(), "");
+                    scan.open();
+                    int count = 0;
+                    while (scan.hasNext()) {
+                        scan.next();
+                        count++;
+                    }
+                    scan.close();
+                    assertEquals(rows, count);
+                } catch (DbException e) {
+                    throw new RuntimeException(e);
+                } catch (TransactionAbortedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BufferPoolConcurrencyTest.class);
+    }
+}
@@ -0,0 +1,112 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.util.Arrays;
+
+import simpledb.*;
+
+/**
+ * Measures the cost of filtering a scan of a two-column table held in the
+ * buffer pool by a conjunction of two predicates:
+ * <pre>
+ *   SELECT * FROM t WHERE t.0 &lt; 0 AND t.1 &gt; 0
+ * </pre>
+ * three ways: testing each Predicate on every tuple the scan returns, as
+ * Filter used to; testing the {@link CompiledPredicate} on every tuple; and
+ * pushing it into the scan, where rows are tested on the page bytes and
+ * only those that pass are made into tuples. Speedups are relative to the
+ * first.
+ * <p>
+ * Not run as part of the test suite. Usage:
+ * <pre>
+ *   java simpledb.systemtest.FilterBenchmark [pages] [rounds]
+ * </pre>
+ */
+public class FilterBenchmark {
+
+    private static final int COLUMNS = 2;
+
+    private static final Predicate[] PREDICATES = {
+            new Predicate(0, Predicate.Op.LESS_THAN, new IntField(0)),
+            new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(0)) };
+
+    /** @return the number of tuples of the scan that pass every predicate */
+    private static int interpreted(DbIterator scan) throws Exception {
+        int n = 0;
+        scan.open();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            boolean pass = true;
+            for (int i = 0; pass && i < PREDICATES.length; i++)
+                pass = PREDICATES[i].filter(t);
+            if (pass)
+                n++;
+        }
+        scan.close();
+        return n;
+    }
+
+    /** @return the number of tuples of the scan that pass the compiled predicate */
+    private static int compiled(DbIterator scan) throws Exception {
+        CompiledPredicate p = CompiledPredicate.compile(Arrays.asList(PREDICATES));
+        int n = 0;
+        scan.open();
+        while (scan.hasNext())
+            if (p.matches(scan.next()))
+                n++;
+        scan.close();
+        return n;
+    }
+
+    /** @return the number of tuples the plan returns */
+    private static int count(DbIterator plan) throws Exception {
+        int n = 0;
+        plan.open();
+        while (plan.hasNext()) {
+            plan.next();
+            n++;
+        }
+        plan.close();
+        return n;
+    }
+
+    private static void report(String name, long rows, long nanos, long baseline, int result) {
+        System.out.printf("%-12s %8.1f M rows/s %6.2fx   (result %d)%n", name,
+                rows * 1e3 / nanos, (double) baseline / nanos, result);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int numPages = args.length > 0 ? Integer.parseInt(args[0]) : 4000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+        Database.resetBufferPool(numPages + 64);
+        File f = HeapFileReadBenchmark.createTable(numPages);
+        HeapFile hf = Utility.openHeapFile(COLUMNS, f);
+        Database.getCatalog().addTable(hf, "t");
+        long rows = (long) numPages
+                * ((BufferPool.PAGE_SIZE * 8) / (COLUMNS * Type.INT_TYPE.getLen() * 8 + 1));
+        TransactionId tid = new TransactionId();
+
+        // warm up the buffer pool and the JIT
+        interpreted(new SeqScan(tid, hf.getId(), "t"));
+        compiled(new SeqScan(tid, hf.getId(), "t"));
+        count(new Filter(PREDICATES, new SeqScan(tid, hf.getId(), "t")));
+
+        System.out.println(numPages + " pages, " + rows + " rows");
+        for (int round = 1; round <= rounds; round++) {
+            System.out.println("Round " + round);
+            long start = System.nanoTime();
+            int result = interpreted(new SeqScan(tid, hf.getId(), "t"));
+            long baseline = System.nanoTime() - start;
+            report("interpreted", rows, baseline, baseline, result);
+
+            start = System.nanoTime();
+            result = compiled(new SeqScan(tid, hf.getId(), "t"));
+            report("compiled", rows, System.nanoTime() - start, baseline, result);
+
+            start = System.nanoTime();
+            result = count(new Filter(PREDICATES, new SeqScan(tid, hf.getId(), "t")));
+            report("pushed", rows, System.nanoTime() - start, baseline, result);
+        }
+    }
+}
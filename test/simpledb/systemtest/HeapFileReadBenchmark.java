@@ -0,0 +1,107 @@
+package simpledb.systemtest;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Measures page-read throughput of a heap file. Compares the old access
+ * pattern, which opened a RandomAccessFile, seeked, read and closed it for
+ * every page, with positional reads on one long-lived FileChannel, and
+ * reports the end-to-end cost of HeapFile.readPage.
+ * <p>
+ * Not run as part of the test suite. Usage:
+ * <pre>
+ *   java simpledb.systemtest.HeapFileReadBenchmark [tableMB] [rounds]
+ * </pre>
+ * The table is generated in the temp directory. Pass a size larger than
+ * RAM (e.g. 4096) to include disk latency; smaller tables mostly measure
+ * system call overhead because they stay in the OS page cache.
+ */
+public class HeapFileReadBenchmark {
+
+    private static final int COLUMNS = 2;
+
+    /** Writes numPages full pages of random two-int tuples. */
+    static File createTable(int numPages) throws IOException {
+        File f = File.createTempFile("bench", ".dat");
+        f.deleteOnExit();
+        int tupleSize = COLUMNS * Type.INT_TYPE.getLen();
+        int slots = (BufferPool.PAGE_SIZE * 8) / (tupleSize * 8 + 1);
+        int headerSize = (slots + 7) / 8;
+        Random r = new Random(0);
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(f), 1 << 20));
+        for (int p = 0; p < numPages; p++) {
+            for (int i = 0; i < headerSize; i++) {
+                int used = Math.min(8, slots - i * 8);
+                out.writeByte((1 << used) - 1);
+            }
+            for (int i = 0; i < slots * COLUMNS; i++)
+                out.writeInt(r.nextInt());
+            for (int i = headerSize + slots * tupleSize; i < BufferPool.PAGE_SIZE; i++)
+                out.writeByte(0);
+        }
+        out.close();
+        return f;
+    }
+
+    private static void report(String name, int pages, long nanos) {
+        double secs = nanos / 1e9;
+        System.out.printf("%-32s %10.0f pages/s %8.1f MB/s%n", name,
+                pages / secs, pages * (double) BufferPool.PAGE_SIZE / (1 << 20) / secs);
+    }
+
+    static long readPerPageFile(File f, int pages) throws IOException {
+        byte[] content = new byte[BufferPool.PAGE_SIZE];
+        long start = System.nanoTime();
+        for (int i = 0; i < pages; i++) {
+            RandomAccessFile raFile = new RandomAccessFile(f, "r");
+            raFile.seek((long) i * BufferPool.PAGE_SIZE);
+            raFile.read(content, 0, BufferPool.PAGE_SIZE);
+            raFile.close();
+        }
+        return System.nanoTime() - start;
+    }
+
+    static long readSharedChannel(File f, int pages) throws IOException {
+        FileChannel ch = new RandomAccessFile(f, "r").getChannel();
+        ByteBuffer buf = ByteBuffer.allocate(BufferPool.PAGE_SIZE);
+        long start = System.nanoTime();
+        for (int i = 0; i < pages; i++) {
+            buf.clear();
+            ch.read(buf, (long) i * BufferPool.PAGE_SIZE);
+        }
+        long elapsed = System.nanoTime() - start;
+        ch.close();
+        return elapsed;
+    }
+
+    static long readHeapFile(HeapFile hf, int pages) {
+        long start = System.nanoTime();
+        for (int i = 0; i < pages; i++)
+            hf.readPage(new HeapPageId(hf.getId(), i));
+        return System.nanoTime() - start;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int tableMB = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        int pages = (int) ((long) tableMB * (1 << 20) / BufferPool.PAGE_SIZE);
+
+        System.out.println("Creating " + tableMB + " MB table (" + pages + " pages)");
+        File f = createTable(pages);
+        HeapFile hf = Utility.openHeapFile(COLUMNS, f);
+
+        for (int round = 1; round <= rounds; round++) {
+            System.out.println("Round " + round);
+            report("RandomAccessFile per page", pages, readPerPageFile(f, pages));
+            report("shared FileChannel", pages, readSharedChannel(f, pages));
+            report("HeapFile.readPage", pages, readHeapFile(hf, pages));
+        }
+        hf.close();
+    }
+}
@@ -0,0 +1,97 @@
+package simpledb.systemtest;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+
+import simpledb.*;
+
+/**
+ * Measures how much garbage decoding heap pages creates. Compares reading
+ * one column of every row through Tuple objects, as HeapPage.iterator and
+ * every operator above it do, with reading it through a reusable
+ * HeapPage.Cursor, and reports the cost of building the pages alone.
+ * <p>
+ * Allocation is measured with the HotSpot per-thread allocation counter.
+ * Not run as part of the test suite. Usage:
+ * <pre>
+ *   java simpledb.systemtest.HeapPageAllocationBenchmark [pages] [rounds]
+ * </pre>
+ */
+public class HeapPageAllocationBenchmark {
+
+    private static final int COLUMNS = 2;
+
+    private interface Workload {
+        /** @return a checksum, so the work cannot be optimized away */
+        long run(HeapPage page);
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static void measure(String name, int tableId, byte[][] pages, int rows, Workload w)
+            throws IOException {
+        long checksum = 0;
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < pages.length; i++)
+            checksum += w.run(new HeapPage(new HeapPageId(tableId, i), pages[i]));
+        long nanos = System.nanoTime() - start;
+        bytes = allocatedBytes() - bytes;
+        System.out.printf("%-28s %8.1f bytes/row %8.1f ns/row   (checksum %d)%n", name,
+                (double) bytes / rows, (double) nanos / rows, checksum);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int numPages = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        File f = HeapFileReadBenchmark.createTable(numPages);
+        HeapFile hf = Utility.openHeapFile(COLUMNS, f);
+        byte[][] pages = new byte[numPages][];
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+        for (int i = 0; i < numPages; i++) {
+            pages[i] = new byte[BufferPool.PAGE_SIZE];
+            in.readFully(pages[i]);
+        }
+        in.close();
+        // createTable fills every slot
+        int rows = numPages * ((BufferPool.PAGE_SIZE * 8) / (COLUMNS * Type.INT_TYPE.getLen() * 8 + 1));
+
+        Workload construct = new Workload() {
+            public long run(HeapPage page) {
+                return page.getNumEmptySlots();
+            }
+        };
+        Workload tuples = new Workload() {
+            public long run(HeapPage page) {
+                long sum = 0;
+                Iterator<Tuple> it = page.iterator();
+                while (it.hasNext())
+                    sum += ((IntField) it.next().getField(0)).getValue();
+                return sum;
+            }
+        };
+        final HeapPage.Cursor cursor = new HeapPage.Cursor();
+        Workload cursorScan = new Workload() {
+            public long run(HeapPage page) {
+                long sum = 0;
+                cursor.reset(page);
+                while (cursor.next())
+                    sum += cursor.getInt(0);
+                return sum;
+            }
+        };
+
+        System.out.println(numPages + " pages, " + rows + " rows");
+        for (int round = 1; round <= rounds; round++) {
+            System.out.println("Round " + round);
+            measure("page construction only", hf.getId(), pages, rows, construct);
+            measure("Tuple per row", hf.getId(), pages, rows, tuples);
+            measure("Cursor.getInt", hf.getId(), pages, rows, cursorScan);
+        }
+    }
+}
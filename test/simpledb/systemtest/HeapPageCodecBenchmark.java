@@ -0,0 +1,129 @@
+package simpledb.systemtest;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+import simpledb.*;
+
+/**
+ * Measures how fast heap pages are encoded and decoded. Encoding compares
+ * HeapPage.getPageData, which allocates an array per page, with
+ * HeapPage.writePageData into one reused heap or direct buffer, for pages
+ * as read from disk and for pages whose tuples were all inserted. Decoding
+ * builds pages from arrays and from a direct buffer, and also reads every
+ * field through a HeapPage.Cursor, since pages decode their slots lazily.
+ * <p>
+ * Not run as part of the test suite. Usage:
+ * <pre>
+ *   java simpledb.systemtest.HeapPageCodecBenchmark [pages] [rounds]
+ * </pre>
+ */
+public class HeapPageCodecBenchmark {
+
+    private static final int COLUMNS = 2;
+
+    private interface Workload {
+        /** @return a checksum, so the work cannot be optimized away */
+        long run(int i) throws IOException;
+    }
+
+    private static void measure(String name, int pages, Workload w) throws IOException {
+        long checksum = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < pages; i++)
+            checksum += w.run(i);
+        double secs = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%-32s %10.0f pages/s %8.1f MB/s   (checksum %d)%n", name,
+                pages / secs, pages * (double) BufferPool.PAGE_SIZE / (1 << 20) / secs,
+                checksum);
+    }
+
+    private static Workload encodeInto(final HeapPage[] pages, final ByteBuffer buf) {
+        return new Workload() {
+            public long run(int i) {
+                buf.clear();
+                pages[i].writePageData(buf);
+                return buf.get(i % BufferPool.PAGE_SIZE);
+            }
+        };
+    }
+
+    private static Workload encodeArray(final HeapPage[] pages) {
+        return new Workload() {
+            public long run(int i) {
+                return pages[i].getPageData()[i % BufferPool.PAGE_SIZE];
+            }
+        };
+    }
+
+    public static void main(String[] args) throws Exception {
+        int numPages = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        File f = HeapFileReadBenchmark.createTable(numPages);
+        final HeapFile hf = Utility.openHeapFile(COLUMNS, f);
+        final byte[][] data = new byte[numPages][];
+        final ByteBuffer direct = ByteBuffer.allocateDirect(numPages * BufferPool.PAGE_SIZE);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+        for (int i = 0; i < numPages; i++) {
+            data[i] = new byte[BufferPool.PAGE_SIZE];
+            in.readFully(data[i]);
+            direct.put(data[i]);
+        }
+        in.close();
+
+        // the same pages, once as read and once built by inserting every tuple
+        final HeapPage[] read = new HeapPage[numPages];
+        final HeapPage[] inserted = new HeapPage[numPages];
+        for (int i = 0; i < numPages; i++) {
+            HeapPageId pid = new HeapPageId(hf.getId(), i);
+            read[i] = new HeapPage(pid, data[i]);
+            inserted[i] = new HeapPage(pid, HeapPage.createEmptyPageData());
+            Iterator<Tuple> it = read[i].iterator();
+            while (it.hasNext())
+                inserted[i].insertTuple(it.next());
+        }
+
+        final ByteBuffer heapBuf = ByteBuffer.allocate(BufferPool.PAGE_SIZE);
+        final ByteBuffer directBuf = ByteBuffer.allocateDirect(BufferPool.PAGE_SIZE);
+        final HeapPage.Cursor cursor = new HeapPage.Cursor();
+
+        Workload decodeArray = new Workload() {
+            public long run(int i) throws IOException {
+                return new HeapPage(new HeapPageId(hf.getId(), i), data[i]).getNumEmptySlots();
+            }
+        };
+        Workload decodeDirect = new Workload() {
+            public long run(int i) throws IOException {
+                direct.position(i * BufferPool.PAGE_SIZE);
+                return new HeapPage(new HeapPageId(hf.getId(), i), direct).getNumEmptySlots();
+            }
+        };
+        Workload decodeAndRead = new Workload() {
+            public long run(int i) throws IOException {
+                direct.position(i * BufferPool.PAGE_SIZE);
+                cursor.reset(new HeapPage(new HeapPageId(hf.getId(), i), direct));
+                long sum = 0;
+                while (cursor.next())
+                    for (int j = 0; j < COLUMNS; j++)
+                        sum += cursor.getInt(j);
+                return sum;
+            }
+        };
+
+        System.out.println(numPages + " pages");
+        for (int round = 1; round <= rounds; round++) {
+            System.out.println("Round " + round);
+            measure("encode read, getPageData", numPages, encodeArray(read));
+            measure("encode read, heap buffer", numPages, encodeInto(read, heapBuf));
+            measure("encode read, direct buffer", numPages, encodeInto(read, directBuf));
+            measure("encode inserted, getPageData", numPages, encodeArray(inserted));
+            measure("encode inserted, heap buffer", numPages, encodeInto(inserted, heapBuf));
+            measure("encode inserted, direct buffer", numPages, encodeInto(inserted, directBuf));
+            measure("decode from array", numPages, decodeArray);
+            measure("decode from direct buffer", numPages, decodeDirect);
+            measure("decode, read every field", numPages, decodeAndRead);
+        }
+    }
+}
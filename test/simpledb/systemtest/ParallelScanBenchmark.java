@@ -0,0 +1,89 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import simpledb.*;
+
+/**
+ * Measures how a scan-filter-project pipeline scales with the number of
+ * worker threads of a {@link ParallelScan}, over a two-column table held in
+ * the buffer pool:
+ * <pre>
+ *   SELECT t.1 FROM t WHERE t.0 &lt; 0
+ * </pre>
+ * which selects about half the rows. The serial SeqScan pipeline is
+ * reported first as the baseline; speedups are relative to it.
+ * <p>
+ * Not run as part of the test suite. Usage:
+ * <pre>
+ *   java simpledb.systemtest.ParallelScanBenchmark [pages] [rounds]
+ * </pre>
+ */
+public class ParallelScanBenchmark {
+
+    private static final int COLUMNS = 2;
+    private static final int[] THREADS = { 1, 2, 4, 8, 16 };
+
+    /** Keeps the second field of the tuples whose first is negative. */
+    private static class Pipeline implements ParallelScan.Pipeline {
+        private static final long serialVersionUID = 1L;
+
+        public DbIterator build(DbIterator scan) {
+            ArrayList<Integer> fields = new ArrayList<Integer>();
+            fields.add(1);
+            return new Project(fields, new Type[] { Type.INT_TYPE }, new Filter(
+                    new Predicate(0, Predicate.Op.LESS_THAN, new IntField(0)), scan));
+        }
+    }
+
+    /** @return the number of tuples the plan returns */
+    private static int count(DbIterator plan) throws Exception {
+        int n = 0;
+        plan.open();
+        while (plan.hasNext()) {
+            plan.next();
+            n++;
+        }
+        plan.close();
+        return n;
+    }
+
+    private static void report(String name, long rows, long nanos, long baseline, int result) {
+        System.out.printf("%-16s %8.1f M rows/s %6.2fx   (result %d)%n", name,
+                rows * 1e3 / nanos, (double) baseline / nanos, result);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int numPages = args.length > 0 ? Integer.parseInt(args[0]) : 4000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+        Database.resetBufferPool(numPages + 64);
+        File f = HeapFileReadBenchmark.createTable(numPages);
+        HeapFile hf = Utility.openHeapFile(COLUMNS, f);
+        Database.getCatalog().addTable(hf, "t");
+        long rows = (long) numPages
+                * ((BufferPool.PAGE_SIZE * 8) / (COLUMNS * Type.INT_TYPE.getLen() * 8 + 1));
+        TransactionId tid = new TransactionId();
+        Pipeline pipeline = new Pipeline();
+
+        // warm up the buffer pool and the JIT
+        count(pipeline.build(new SeqScan(tid, hf.getId(), "t")));
+        count(new ParallelScan(tid, hf.getId(), "t", 2, pipeline));
+
+        System.out.println(numPages + " pages, " + rows + " rows, "
+                + Runtime.getRuntime().availableProcessors() + " processors");
+        for (int round = 1; round <= rounds; round++) {
+            System.out.println("Round " + round);
+            long start = System.nanoTime();
+            int result = count(pipeline.build(new SeqScan(tid, hf.getId(), "t")));
+            long baseline = System.nanoTime() - start;
+            report("SeqScan", rows, baseline, baseline, result);
+            for (int threads : THREADS) {
+                start = System.nanoTime();
+                result = count(new ParallelScan(tid, hf.getId(), "t", threads, pipeline));
+                report(threads + " threads", rows, System.nanoTime() - start, baseline, result);
+            }
+        }
+    }
+}